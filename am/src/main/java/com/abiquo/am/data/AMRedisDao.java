@@ -23,8 +23,11 @@ package com.abiquo.am.data;
 
 import static java.lang.System.getProperty;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
@@ -32,6 +35,9 @@ import org.apache.commons.lang.StringUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
 
 import com.abiquo.appliancemanager.transport.TemplateStateDto;
 import com.abiquo.appliancemanager.transport.TemplateStatusEnumType;
@@ -82,6 +88,8 @@ public class AMRedisDao
 
     private final static String ERROR = "error";
 
+    private final static String THROUGHPUT = "throughput";
+
     /** ########## ########## */
 
     private final Jedis redis;
@@ -91,7 +99,7 @@ public class AMRedisDao
         redis = REDIS_POOL.getResource();
     }
 
-    public static synchronized AMRedisDao getDao()
+    public static AMRedisDao getDao()
     {
         return new AMRedisDao();
     }
@@ -103,23 +111,51 @@ public class AMRedisDao
 
     /** ########## SET ########## */
 
+    /**
+     * Replace all the template states of the repository in a single transaction, so readers never
+     * see the repository partially loaded. The template keys are read watching the repository
+     * key, so a template added meanwhile aborts the transaction and it's retried.
+     */
     public void init(final String erId, final List<TemplateStateDto> states)
     {
-        for (String ovfKey : getOvfKeys(erId))
+        while (true)
         {
-            redis.srem(key(erId), ovfKey);
-            redis.del(ovfKey);
-        }
+            redis.watch(key(erId));
 
-        for (TemplateStateDto state : states)
-        {
-            if (state.getStatus() == TemplateStatusEnumType.ERROR)
+            final Set<String> ovfKeys = getOvfKeys(erId);
+
+            Transaction transaction = redis.multi();
+
+            transaction.del(key(erId));
+            if (!ovfKeys.isEmpty())
             {
-                setError(erId, state.getOvfId(), state.getErrorCause());
+                transaction.del(ovfKeys.toArray(new String[ovfKeys.size()]));
             }
-            else
+
+            for (TemplateStateDto state : states)
             {
-                setState(erId, state.getOvfId(), state.getStatus());
+                if (state.getStatus() == TemplateStatusEnumType.NOT_DOWNLOAD)
+                {
+                    continue;
+                }
+
+                final String ovfKey = key(erId, state.getOvfId());
+                final Map<String, String> fields = new HashMap<String, String>();
+                fields.put(STATE, state.getStatus().name());
+                if (state.getStatus() == TemplateStatusEnumType.ERROR
+                    && state.getErrorCause() != null)
+                {
+                    fields.put(ERROR, state.getErrorCause());
+                }
+
+                transaction.sadd(key(erId), ovfKey);
+                transaction.hmset(ovfKey, fields);
+            }
+
+            // aborted if a template has been added or removed meanwhile, read the keys again
+            if (transaction.exec() != null)
+            {
+                return;
             }
         }
     }
@@ -129,50 +165,88 @@ public class AMRedisDao
      */
     public boolean setDownloadProgress(final String erId, final String ovfId, final Integer progress)
     {
-        checkKeyIndex(erId, ovfId);
+        return setDownloadProgress(erId, ovfId, progress, null);
+    }
 
-        final String currentSt = redis.hget(key(erId, ovfId), PROGRESS);
-        final Integer current = StringUtils.isEmpty(currentSt) ? 0 : Integer.parseInt(currentSt);
-        if (current == 0)
-        {
-            redis.hset(key(erId, ovfId), STATE, TemplateStatusEnumType.DOWNLOADING.name());
-        }
+    /**
+     * Compare-and-set of the download progress (and throughput, in bytes per second, if not null).
+     * Only applies while the template is DOWNLOADING, so a late update of a download can not
+     * restore a template already cancelled, failed or completed.
+     * 
+     * @retrurn true if the progress is update (false if remain the same)
+     */
+    public boolean setDownloadProgress(final String erId, final String ovfId,
+        final Integer progress, final Long bytesPerSecond)
+    {
+        final String ovfKey = key(erId, ovfId);
 
-        if (current != progress)
+        while (true)
         {
-            redis.hset(key(erId, ovfId), PROGRESS, String.valueOf(progress));
+            redis.watch(ovfKey);
+
+            final List<String> fields = redis.hmget(ovfKey, STATE, PROGRESS);
+            final String state = fields.get(0);
+            final String currentSt = fields.get(1);
+            final int current = StringUtils.isEmpty(currentSt) ? 0 : Integer.parseInt(currentSt);
+
+            if (!TemplateStatusEnumType.DOWNLOADING.name().equals(state)
+                || current == progress && bytesPerSecond == null)
+            {
+                redis.unwatch();
+                return false;
+            }
+
+            Transaction transaction = redis.multi();
+            transaction.sadd(key(erId), ovfKey);
+            transaction.hset(ovfKey, PROGRESS, String.valueOf(progress));
+            if (bytesPerSecond != null)
+            {
+                transaction.hset(ovfKey, THROUGHPUT, String.valueOf(bytesPerSecond));
+            }
+
+            // aborted if the template state changed meanwhile, read it again
+            if (transaction.exec() != null)
+            {
+                return current != progress;
+            }
         }
-        return current != progress;
     }
 
     public void setState(final String erId, final String ovfId, final TemplateStatusEnumType state)
     {
-        checkKeyIndex(erId, ovfId);
+        Transaction transaction = redis.multi();
 
         if (state == TemplateStatusEnumType.NOT_DOWNLOAD)
         {
-            synchronized (this)
-            {
-                redis.srem(key(erId), key(erId, ovfId));
-                redis.del(key(erId, ovfId));
-            }
+            transaction.srem(key(erId), key(erId, ovfId));
+            transaction.del(key(erId, ovfId));
         }
         else
         {
-            redis.hset(key(erId, ovfId), STATE, state.name());
+            transaction.sadd(key(erId), key(erId, ovfId));
+            transaction.hset(key(erId, ovfId), STATE, state.name());
+            if (state == TemplateStatusEnumType.DOWNLOADING)
+            {
+                // a new download, forget the progress of a previous one
+                transaction.hdel(key(erId, ovfId), PROGRESS);
+                transaction.hdel(key(erId, ovfId), THROUGHPUT);
+            }
         }
+
+        transaction.exec();
     }
 
     /** setState ERROR */
     public void setError(final String erId, final String ovfId, final String error)
     {
-        checkKeyIndex(erId, ovfId);
-
-        synchronized (this)
-        {
-            redis.hset(key(erId, ovfId), STATE, TemplateStatusEnumType.ERROR.name());
-            redis.hset(key(erId, ovfId), ERROR, error);
-        }
+        final Map<String, String> fields = new HashMap<String, String>();
+        fields.put(STATE, TemplateStatusEnumType.ERROR.name());
+        fields.put(ERROR, error);
+
+        Transaction transaction = redis.multi();
+        transaction.sadd(key(erId), key(erId, ovfId));
+        transaction.hmset(key(erId, ovfId), fields);
+        transaction.exec();
     }
 
     /** ########## GET ########## */
@@ -190,21 +264,34 @@ public class AMRedisDao
         }
     }
 
+    /** Current download throughput, in bytes per second (0 if not downloading). */
+    public long getDownloadThroughput(final String erId, final String ovfId)
+    {
+        final String current = redis.hget(key(erId, ovfId), THROUGHPUT);
+        try
+        {
+            return Long.parseLong(current != null ? current : "0");
+        }
+        catch (Exception e)
+        {
+            return 0;
+        }
+    }
+
     /** return NOT_FOUND */
     public TemplateStatusEnumType getStatus(final String erId, final String ovfId)
     {
-        if (!redis.sismember(key(erId), key(erId, ovfId)))
+        Pipeline pipeline = redis.pipelined();
+        final Response<Boolean> indexed = pipeline.sismember(key(erId), key(erId, ovfId));
+        final Response<String> current = pipeline.hget(key(erId, ovfId), STATE);
+        pipeline.sync();
+
+        if (!indexed.get() || current.get() == null)
         {
             return TemplateStatusEnumType.NOT_DOWNLOAD;
         }
 
-        // if (current == null)
-        // {
-        // redis.srem(key(erId), key(erId, ovfId));
-        // return TemplateStatusEnumType.NOT_DOWNLOAD;
-        // }
-        final String current = redis.hget(key(erId, ovfId), STATE);
-        return TemplateStatusEnumType.valueOf(current);
+        return TemplateStatusEnumType.valueOf(current.get());
     }
 
     public String getError(final String erId, final String ovfId)
@@ -212,14 +299,26 @@ public class AMRedisDao
         return redis.hget(key(erId, ovfId), ERROR);
     }
 
+    /**
+     * Reads all the template states of the repository with a single pipelined round-trip.
+     */
     public List<TemplateStateDto> getAll(final String erId)
     {
-        final List<TemplateStateDto> statusLst = new LinkedList<TemplateStateDto>();
+        final List<String> ovfKeys = new ArrayList<String>(getOvfKeys(erId));
+        final List<Response<List<String>>> responses =
+            new ArrayList<Response<List<String>>>(ovfKeys.size());
 
-        for (String keyOvf : getOvfKeys(erId))
+        Pipeline pipeline = redis.pipelined();
+        for (String keyOvf : ovfKeys)
         {
-            final List<String> fields = redis.hmget(keyOvf, STATE, PROGRESS, ERROR);
-            statusLst.add(createOVFStatus(keyOvf, fields));
+            responses.add(pipeline.hmget(keyOvf, STATE, PROGRESS, ERROR, THROUGHPUT));
+        }
+        pipeline.sync();
+
+        final List<TemplateStateDto> statusLst = new LinkedList<TemplateStateDto>();
+        for (int i = 0; i < ovfKeys.size(); i++)
+        {
+            statusLst.add(createOVFStatus(ovfKeys.get(i), responses.get(i).get()));
         }
 
         return statusLst;
@@ -234,22 +333,20 @@ public class AMRedisDao
         final String st = fields.get(0);
         final String progress = fields.get(1);
         final String error = fields.get(2);
+        final String throughput = fields.get(3);
         status.setStatus(st != null ? TemplateStatusEnumType.valueOf(st)
             : TemplateStatusEnumType.NOT_DOWNLOAD);
         status.setDownloadingProgress(StringUtils.isEmpty(progress) ? null : Double
             .valueOf(progress));
         status.setErrorCause(StringUtils.isEmpty(error) ? null : error);
+        status.setDownloadingThroughput(StringUtils.isEmpty(throughput) ? null : Long
+            .valueOf(throughput));
 
         return status;
     }
 
     /** ########## ########## */
 
-    private void checkKeyIndex(final String erId, final String ovfId)
-    {
-        redis.sadd(key(erId), key(erId, ovfId));
-    }
-
     private Set<String> getOvfKeys(final String erId)
     {
         return redis.smembers(key(erId));
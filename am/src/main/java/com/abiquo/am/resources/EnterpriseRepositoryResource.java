@@ -27,12 +27,16 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 
 import org.apache.wink.common.annotations.Parent;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 
 import com.abiquo.am.services.ErepoFactory;
+import com.abiquo.am.services.download.DownloadScheduler;
+import com.abiquo.am.services.download.TemplateDownloader;
 import com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem;
 import com.abiquo.api.resource.AbstractResource;
 import com.abiquo.appliancemanager.config.AMConfiguration;
+import com.abiquo.appliancemanager.transport.DownloadQueueDto;
 import com.abiquo.appliancemanager.transport.EnterpriseRepositoryDto;
 
 @Parent(EnterpriseRepositoriesResource.class)
@@ -44,8 +48,13 @@ public class EnterpriseRepositoryResource extends AbstractResource
 
     public static final String ENTERPRISE_REPOSITORY_PARAM = "{" + ENTERPRISE_REPOSITORY + "}";
 
+    public static final String DOWNLOADS_PATH = "downloads";
+
     private static final String REPOSITORY_LOCATION = AMConfiguration.getRepositoryLocation();
 
+    @Autowired
+    private TemplateDownloader downloader;
+
     @POST
     public void refreshEnterpriseRepository(
         @PathParam(EnterpriseRepositoryResource.ENTERPRISE_REPOSITORY) final String erId)
@@ -69,4 +78,27 @@ public class EnterpriseRepositoryResource extends AbstractResource
 
         return repo;
     }
+
+    /**
+     * Current state of the template download queue.
+     */
+    @GET
+    @Path(DOWNLOADS_PATH)
+    public DownloadQueueDto getDownloadQueue(
+        @PathParam(EnterpriseRepositoryResource.ENTERPRISE_REPOSITORY) final String erId)
+    {
+        DownloadScheduler scheduler = downloader.getScheduler();
+
+        DownloadQueueDto queue = new DownloadQueueDto();
+        queue.setActive(scheduler.getActive());
+        queue.setQueued(scheduler.getQueued());
+        queue.setRepositoryActive(scheduler.getActive(erId));
+        queue.setRepositoryQueued(scheduler.getQueued(erId));
+        queue.setMaxActive(scheduler.getMaxActive());
+        queue.setMaxActivePerRepository(scheduler.getMaxActivePerRepository());
+        queue.setMeanWaitMs(scheduler.getMeanWait());
+        queue.setMaxWaitMs(scheduler.getMaxWait());
+
+        return queue;
+    }
 }
@@ -79,6 +79,9 @@ public class TemplatesResource
 
     public static final String QUERY_PRAM_STATE = "state";
 
+    /** A virtual machine deploy is waiting on the template. */
+    public static final String QUERY_PRAM_PRIORITY = "priority";
+
     @Autowired
     private AMNotifier notifier;
 
@@ -149,7 +152,7 @@ public class TemplatesResource
     @Consumes(MediaType.TEXT_PLAIN)
     public void downloadTemplate(
         @PathParam(EnterpriseRepositoryResource.ENTERPRISE_REPOSITORY) final String erId,
-        final String ovfId)
+        @QueryParam(QUERY_PRAM_PRIORITY) final boolean priority, final String ovfId)
     {
         LOG.debug("[deploy] {}", ovfId);
 
@@ -161,6 +164,13 @@ public class TemplatesResource
         switch (templateService.getTemplateStatusIncludeProgress(ovfId, erId).getStatus())
         {
             case DOWNLOADING:
+                if (priority && templateService.prioritizeDownload(erId, ovfId))
+                {
+                    // still queued, now with priority
+                    return;
+                }
+                throw new AMException(AMError.TEMPLATE_INSTALL_ALREADY);
+
             case DOWNLOAD:
                 throw new AMException(AMError.TEMPLATE_INSTALL_ALREADY);
 
@@ -179,7 +189,7 @@ public class TemplatesResource
 
         try
         {
-            templateService.startDownload(erId, ovfId);
+            templateService.startDownload(erId, ovfId, priority);
         }
         catch (AMException e)
         {
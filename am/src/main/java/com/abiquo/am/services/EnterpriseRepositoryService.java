@@ -36,7 +36,7 @@ import static com.abiquo.am.services.TemplateConventions.getTemplatePath;
 import static com.abiquo.am.services.TemplateConventions.isBundleOvfId;
 import static com.abiquo.am.services.TemplateConventions.isImportedBundleOvfId;
 import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.validateEnterpirseRepositoryPathFile;
-import static com.abiquo.am.services.filesystem.TemplateFileSystem.getEnvelope;
+import static com.abiquo.am.services.filesystem.TemplateFileSystem.getEnvelopeSummary;
 import static com.abiquo.am.services.filesystem.TemplateFileSystem.getFileByPath;
 import static com.abiquo.am.services.filesystem.TemplateFileSystem.writeOVFEnvelopeToTemplateFolder;
 
@@ -46,7 +46,6 @@ import java.io.IOException;
 import java.util.List;
 
 import org.dmtf.schemas.ovf.envelope._1.EnvelopeType;
-import org.dmtf.schemas.ovf.envelope._1.FileType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,15 +53,16 @@ import com.abiquo.am.data.AMRedisDao;
 import com.abiquo.am.exceptions.AMError;
 import com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem;
 import com.abiquo.am.services.filesystem.TemplateFileSystem;
-import com.abiquo.am.services.ovfformat.TemplateFromOVFEnvelope;
 import com.abiquo.am.services.ovfformat.TemplateToOVFEnvelope;
 import com.abiquo.appliancemanager.config.AMConfiguration;
 import com.abiquo.appliancemanager.exceptions.AMException;
 import com.abiquo.appliancemanager.transport.TemplateStateDto;
 import com.abiquo.appliancemanager.transport.TemplateStatusEnumType;
-import com.abiquo.ovfmanager.ovf.OVFReferenceUtils;
 import com.abiquo.ovfmanager.ovf.exceptions.IdNotFoundException;
 import com.abiquo.ovfmanager.ovf.exceptions.XMLException;
+import com.abiquo.ovfmanager.ovf.xml.EnvelopeSummary;
+import com.abiquo.ovfmanager.ovf.xml.EnvelopeSummary.Disk;
+import com.abiquo.ovfmanager.ovf.xml.EnvelopeSummary.FileReference;
 import com.abiquo.ovfmanager.ovf.xml.OVFSerializer;
 
 /**
@@ -192,20 +192,17 @@ public class EnterpriseRepositoryService
 
     public String getDiskFilePath(final String ovfid)
     {
+        // only the disk and references sections are required, do not bind the whole envelope
+        final EnvelopeSummary summary = getEnvelopeSummary(erepoPath, ovfid);
 
-        EnvelopeType envelope = null;
-
-        FileType file = null;
-
-        envelope = getEnvelope(erepoPath, ovfid);
-
-        final String diskFileId = TemplateFromOVFEnvelope.getDisk(envelope).getFileRef();
-
-        try
+        final List<Disk> disks = summary.getDisks();
+        if (disks.size() != 1)
         {
-            file = OVFReferenceUtils.getReferencedFile(envelope, diskFileId);
+            throw new AMException(AMError.TEMPLATE_INVALID, "multiple Disk not supported");
         }
-        catch (IdNotFoundException e)
+
+        final FileReference file = summary.getFile(disks.get(0).getFileRef());
+        if (file == null)
         {
             throw new AMException(AMError.TEMPLATE_INVALID, "Disk id not found on the envelope");
         }
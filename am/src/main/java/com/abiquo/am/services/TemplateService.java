@@ -68,7 +68,10 @@ public class TemplateService
 
     /** ######### POST ######### **/
 
-    public void startDownload(final String erId, final String ovfId)
+    /**
+     * @param priority, a virtual machine deploy is waiting on the template.
+     */
+    public void startDownload(final String erId, final String ovfId, final boolean priority)
     {
         // first create the folder in order to allow the creation of ERROR marks.
         ErepoFactory.getRepo(erId).createTemplateFolder(ovfId);
@@ -78,10 +81,22 @@ public class TemplateService
 
         ErepoFactory.getRepo(erId).createTemplateFolder(ovfId, envelope);
 
-        downloader.deployTemplate(erId, ovfId, envelope);
-
-        // sets the current state to start downloading
+        // sets the current state to start downloading before submitting it: the download can
+        // start (and fail or notify its progress) in the current thread. On a submit failure the
+        // caller sets the ERROR state.
         notifier.setTemplateStatus(erId, ovfId, TemplateStatusEnumType.DOWNLOADING);
+
+        downloader.deployTemplate(erId, ovfId, envelope, priority);
+    }
+
+    /**
+     * Gives priority to a queued download.
+     * 
+     * @return false if the download is not queued (already started or not requested).
+     */
+    public boolean prioritizeDownload(final String erId, final String ovfId)
+    {
+        return downloader.prioritizeTemplate(erId, ovfId);
     }
 
     public void upload(final TemplateDto diskinfo, final File diskFile, final String errorMsg)
@@ -154,6 +169,7 @@ public class TemplateService
             {
                 case DOWNLOADING:
                     state.setDownloadingProgress((double) dao.getDownloadProgress(erId, ovfId));
+                    state.setDownloadingThroughput(dao.getDownloadThroughput(erId, ovfId));
                     break;
 
                 case ERROR:
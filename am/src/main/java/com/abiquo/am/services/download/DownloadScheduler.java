@@ -0,0 +1,392 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.am.services.download;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.model.util.LatencyStats;
+
+/**
+ * Limits the number of concurrent template downloads, globally and for each enterprise
+ * repository. The pending downloads are started in arrival order, first the priority ones (a
+ * virtual machine deploy is waiting on them) and then the others round robin between the
+ * enterprise repositories, so one enterprise can not starve the others.
+ * <p>
+ * The counters and queues are concurrent structures; a lock is only held to select the next
+ * downloads, never while starting them.
+ */
+public class DownloadScheduler
+{
+    private final static Logger LOG = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    private final int maxActive;
+
+    private final int maxActivePerRepository;
+
+    /** Queued (and not started) downloads by enterprise repository and template. */
+    private final ConcurrentMap<String, Download> queued = new ConcurrentHashMap<String, Download>();
+
+    /** Pending priority downloads (also in their repository queue). */
+    private final Queue<Download> priorityQueue = new ConcurrentLinkedQueue<Download>();
+
+    /** Pending downloads of each enterprise repository. */
+    private final ConcurrentMap<String, Queue<Download>> repositoryQueues =
+        new ConcurrentHashMap<String, Queue<Download>>();
+
+    /** Enterprise repositories with pending downloads, in round robin order. */
+    private final LinkedList<String> rotation = new LinkedList<String>();
+
+    private final Lock dispatchLock = new ReentrantLock();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final ConcurrentMap<String, AtomicInteger> activeByRepository =
+        new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final LatencyStats waitStats = new LatencyStats();
+
+    public DownloadScheduler(final int maxActive, final int maxActivePerRepository)
+    {
+        this.maxActive = maxActive;
+        this.maxActivePerRepository = maxActivePerRepository;
+    }
+
+    /**
+     * Queue a new download, it is started as soon as there are free slots.
+     * 
+     * @param download, invoked to start the download. {@link #finished(String)} must be invoked
+     *            once the download ends.
+     * @return false if the template is already queued.
+     */
+    public boolean submit(final String erepoId, final String ovfId, final boolean priority,
+        final Runnable download)
+    {
+        final Download pending = new Download(erepoId, ovfId, download);
+
+        if (queued.putIfAbsent(key(erepoId, ovfId), pending) != null)
+        {
+            return false;
+        }
+
+        dispatchLock.lock();
+        try
+        {
+            getQueue(erepoId).add(pending);
+            if (priority)
+            {
+                priorityQueue.add(pending);
+            }
+            if (!rotation.contains(erepoId))
+            {
+                rotation.add(erepoId);
+            }
+        }
+        finally
+        {
+            dispatchLock.unlock();
+        }
+
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Moves a queued download to the priority queue.
+     * 
+     * @return false if the download is not queued (not requested or already started).
+     */
+    public boolean prioritize(final String erepoId, final String ovfId)
+    {
+        final Download pending = queued.get(key(erepoId, ovfId));
+        if (pending == null)
+        {
+            return false;
+        }
+
+        priorityQueue.add(pending);
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Removes a queued download.
+     * 
+     * @return false if the download is not queued (not requested or already started).
+     */
+    public boolean cancel(final String erepoId, final String ovfId)
+    {
+        final Download pending = queued.remove(key(erepoId, ovfId));
+        return pending != null && pending.claim();
+    }
+
+    /**
+     * A started download ends (successfully or not).
+     */
+    public void finished(final String erepoId)
+    {
+        active.decrementAndGet();
+        activeOf(erepoId).decrementAndGet();
+
+        dispatch();
+    }
+
+    /**
+     * Starts the pending downloads while there are free slots.
+     */
+    protected void dispatch()
+    {
+        List<Download> starting = new ArrayList<Download>();
+
+        dispatchLock.lock();
+        try
+        {
+            Download next;
+            while (active.get() < maxActive && (next = next()) != null)
+            {
+                active.incrementAndGet();
+                activeOf(next.erepoId).incrementAndGet();
+                starting.add(next);
+            }
+        }
+        finally
+        {
+            dispatchLock.unlock();
+        }
+
+        for (Download download : starting)
+        {
+            start(download);
+        }
+    }
+
+    private void start(final Download download)
+    {
+        queued.remove(key(download.erepoId, download.ovfId), download);
+        waitStats.record(System.currentTimeMillis() - download.queuedMs);
+
+        LOG.debug("Starting download of {} in enterprise repository {}", download.ovfId,
+            download.erepoId);
+
+        try
+        {
+            download.task.run();
+        }
+        catch (Exception e)
+        {
+            LOG.error("Can not start the download of {}: {}", download.ovfId, e.getMessage());
+            finished(download.erepoId);
+        }
+    }
+
+    /** The next download to start (claimed), or null if there isn't any startable. */
+    private Download next()
+    {
+        for (Iterator<Download> it = priorityQueue.iterator(); it.hasNext();)
+        {
+            Download download = it.next();
+            if (download.isClaimed())
+            {
+                it.remove();
+            }
+            else if (hasFreeSlot(download.erepoId) && download.claim())
+            {
+                it.remove();
+                return download;
+            }
+        }
+
+        final int repositories = rotation.size();
+        for (int i = 0; i < repositories; i++)
+        {
+            final String erepoId = rotation.removeFirst();
+            final Queue<Download> queue = getQueue(erepoId);
+
+            Download download = null;
+            if (hasFreeSlot(erepoId))
+            {
+                while ((download = queue.poll()) != null && !download.claim())
+                {
+                    // already started (priority) or cancelled
+                }
+            }
+
+            if (!queue.isEmpty())
+            {
+                // next turn for the other repositories
+                rotation.addLast(erepoId);
+            }
+
+            if (download != null)
+            {
+                return download;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean hasFreeSlot(final String erepoId)
+    {
+        return activeOf(erepoId).get() < maxActivePerRepository;
+    }
+
+    private Queue<Download> getQueue(final String erepoId)
+    {
+        Queue<Download> queue = repositoryQueues.get(erepoId);
+        if (queue == null)
+        {
+            queue = new ConcurrentLinkedQueue<Download>();
+            Queue<Download> previous = repositoryQueues.putIfAbsent(erepoId, queue);
+            if (previous != null)
+            {
+                queue = previous;
+            }
+        }
+        return queue;
+    }
+
+    private AtomicInteger activeOf(final String erepoId)
+    {
+        AtomicInteger count = activeByRepository.get(erepoId);
+        if (count == null)
+        {
+            count = new AtomicInteger();
+            AtomicInteger previous = activeByRepository.putIfAbsent(erepoId, count);
+            if (previous != null)
+            {
+                count = previous;
+            }
+        }
+        return count;
+    }
+
+    private static String key(final String erepoId, final String ovfId)
+    {
+        return erepoId + '/' + ovfId;
+    }
+
+    public boolean isQueued(final String erepoId, final String ovfId)
+    {
+        return queued.containsKey(key(erepoId, ovfId));
+    }
+
+    public int getActive()
+    {
+        return active.get();
+    }
+
+    public int getActive(final String erepoId)
+    {
+        return activeOf(erepoId).get();
+    }
+
+    public int getQueued()
+    {
+        return queued.size();
+    }
+
+    public int getQueued(final String erepoId)
+    {
+        int count = 0;
+        for (Download download : getQueue(erepoId))
+        {
+            if (!download.isClaimed())
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getMaxActive()
+    {
+        return maxActive;
+    }
+
+    public int getMaxActivePerRepository()
+    {
+        return maxActivePerRepository;
+    }
+
+    /** Mean time waiting in the queue of the started downloads (ms). */
+    public long getMeanWait()
+    {
+        return waitStats.getMean();
+    }
+
+    /** Max time waiting in the queue of the started downloads (ms). */
+    public long getMaxWait()
+    {
+        return waitStats.getMax();
+    }
+
+    /** Number of started downloads. */
+    public long getStarted()
+    {
+        return waitStats.getCount();
+    }
+
+    private static class Download
+    {
+        private final String erepoId;
+
+        private final String ovfId;
+
+        private final Runnable task;
+
+        private final long queuedMs = System.currentTimeMillis();
+
+        /** Started or cancelled. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        public Download(final String erepoId, final String ovfId, final Runnable task)
+        {
+            this.erepoId = erepoId;
+            this.ovfId = ovfId;
+            this.task = task;
+        }
+
+        public boolean claim()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+
+        public boolean isClaimed()
+        {
+            return claimed.get();
+        }
+    }
+}
@@ -21,14 +21,33 @@
 
 package com.abiquo.am.services.download;
 
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.getFileValidator;
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.markFile;
 import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.releaseFile;
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.suspendFile;
 import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.takeFile;
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.touchFile;
+import static com.abiquo.appliancemanager.config.AMConfiguration.DOWNLOAD_BUFFER_SIZE;
+import static com.abiquo.appliancemanager.config.AMConfiguration.DOWNLOAD_RETRIES;
+import static com.abiquo.appliancemanager.config.AMConfiguration.DOWNLOAD_RETRY_DELAY_MS;
+import static com.abiquo.appliancemanager.config.AMConfiguration.DOWNLOAD_SEGMENTS;
+import static com.abiquo.appliancemanager.config.AMConfiguration.DOWNLOAD_SEGMENT_THRESHOLD;
 import static com.abiquo.appliancemanager.exceptions.AMException.getErrorMessage;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ws.rs.core.HttpHeaders;
 
@@ -41,28 +60,60 @@ import com.abiquo.am.services.notify.AMNotifier;
 import com.abiquo.appliancemanager.config.AMConfiguration;
 import com.abiquo.appliancemanager.transport.TemplateStatusEnumType;
 import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
 import com.ning.http.client.HttpResponseBodyPart;
 import com.ning.http.client.HttpResponseHeaders;
 import com.ning.http.client.HttpResponseStatus;
 
 /**
- * A file on an OVF package being download. Used as session object on the HttpResponseHandler.
+ * A file on an OVF package being download. The content is written through a {@link FileChannel}
+ * (using a direct buffer for each segment).
+ * <p>
+ * A failed transfer is resumed (using the HTTP Range header) from the last written byte. Large
+ * files can be download with several parallel ranged requests (segments), if the server does not
+ * support ranges the file is download again with a single request.
+ * <p>
+ * The ranged requests send the source validator (ETag or Last-Modified) in the If-Range header,
+ * so a changed source is download again from the start. Only the downloads without segments are
+ * resumed by a later process (see {@link EnterpriseRepositoryFileSystem#takeFile(String)}), as a
+ * segmented download can have holes.
  */
-public class DownloadingFile implements AsyncHandler<Boolean>
+public class DownloadingFile
 {
     private final static Logger LOG = LoggerFactory.getLogger(DownloadingFile.class);
 
+    private final static int HTTP_PARTIAL_CONTENT = 206;
+
+    private final static int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /** Delays the resume of the failed segments. */
+    private final static ScheduledExecutorService RETRY_EXECUTOR = Executors
+        .newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                Thread thread = new Thread(r, "DownloadingFile-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
     /** Already read bytes. */
-    protected volatile long currentBytes;
+    protected final AtomicLong currentBytes = new AtomicLong();
 
-    /** All the expected bytes on the file. Based on the Content-Length header. */
-    protected long expectedBytes;
+    /**
+     * All the expected bytes on the file. Based on the Content-Length header (on the OVF file size
+     * for segmented downloads).
+     */
+    protected volatile long expectedBytes;
 
     /** Target path where the file will be download (on some enterprise repository). */
     protected final String destinationPath;
 
-    /** An open stream to the destinationPath. */
-    protected final BufferedOutputStream osDestFile;
+    /** An open channel to the destinationPath. */
+    protected final FileChannel destination;
 
     /** The package is being cancelled. */
     protected volatile boolean isCancell = false;
@@ -74,7 +125,9 @@ public class DownloadingFile implements AsyncHandler<Boolean>
 
     private final static Integer B_2_MB = 1048576;
 
-    private long lastNotifyMs = 0;
+    private volatile long lastNotifyMs = System.currentTimeMillis();
+
+    private long lastNotifyBytes;
 
     /** Source URL of the file being download. */
     public final String fileUrl;
@@ -85,121 +138,259 @@ public class DownloadingFile implements AsyncHandler<Boolean>
 
     private final AMNotifier notifier;
 
+    private AsyncHttpClient httpClient;
+
+    /** Segments of the file being download. */
+    private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+
+    /** Segments not yet download. */
+    private final AtomicInteger pendingSegments = new AtomicInteger();
+
+    /** ETag or Last-Modified of the source file, null until known. */
+    private volatile String validator;
+
+    /** Invoked once the download ends (successfully or not). */
+    private volatile Runnable onEnd;
+
+    private final AtomicBoolean ended = new AtomicBoolean();
+
     public DownloadingFile(final String fileUrl, final String destinationPath,
-        final String enterpriseid, final String ovfId, final AMNotifier notifier)
+        final String enterpriseid, final String ovfId, final AMNotifier notifier,
+        final long expectedBytes)
     {
         this.fileUrl = fileUrl;
         this.erepoId = enterpriseid;
         this.ovfId = ovfId;
         this.destinationPath = destinationPath;
-        this.osDestFile = takeFile(destinationPath);
+        this.destination = takeFile(destinationPath);
+        this.expectedBytes = expectedBytes;
 
         this.notifier = notifier;
-    }
 
-    @Override
-    public STATE onStatusReceived(final HttpResponseStatus status) throws Exception
-    {
-        LOG.debug("GET status {} received {}", status.getStatusCode(), fileUrl);
+        // Content of a previous download
+        long resumed = 0;
+        try
+        {
+            resumed = destination.size();
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Can not read the size of {}, downloading from the start", destinationPath);
+        }
+        currentBytes.set(resumed);
+        lastNotifyBytes = resumed;
 
-        if (status.getStatusCode() / 200 != 1)
+        if (resumed > 0)
         {
-            onError(getErrorMessage(status.getStatusCode(), fileUrl));
-            return STATE.ABORT;
+            validator = getFileValidator(destinationPath);
         }
-        else
+    }
+
+    /**
+     * @param onEnd, invoked once the download ends (download, cancelled or error).
+     */
+    public void setOnEnd(final Runnable onEnd)
+    {
+        this.onEnd = onEnd;
+    }
+
+    private void ended()
+    {
+        if (onEnd != null && ended.compareAndSet(false, true))
         {
-            return STATE.CONTINUE;
+            onEnd.run();
         }
     }
 
-    @Override
-    public STATE onHeadersReceived(final HttpResponseHeaders h) throws Exception
+    /**
+     * Starts the download. Segmented if the file is large enough (and is not being resumed). If
+     * the download can not be started the template is set in ERROR (and the download ends).
+     */
+    public void start(final AsyncHttpClient httpClient)
     {
+        this.httpClient = httpClient;
+
         try
         {
-            expectedBytes =
-                Long.parseLong(h.getHeaders().getFirstValue(HttpHeaders.CONTENT_LENGTH));
-            LOG.debug("File {} will download {} Mb", destinationPath, expectedBytes / B_2_MB);
+            for (long[] range : split(currentBytes.get(), expectedBytes, DOWNLOAD_SEGMENTS,
+                DOWNLOAD_SEGMENT_THRESHOLD))
+            {
+                segments.add(new Segment(range[0], range[1]));
+            }
+
+            if (segments.size() > 1)
+            {
+                LOG.debug("File {} will download in {} segments", destinationPath,
+                    segments.size());
+            }
+
+            markFile(destinationPath, segments.size() > 1, validator);
+            pendingSegments.set(segments.size());
+            for (Segment segment : segments)
+            {
+                segment.request();
+            }
         }
-        catch (Exception e)
+        catch (RuntimeException e)
         {
-            onError("Content-Length header not present");
+            LOG.error("Can not start the download of {}: {}", fileUrl, e.toString());
+            onError(String.format("Can not start the download of %s\n%s", fileUrl, e.toString()));
         }
-
-        return STATE.CONTINUE;
     }
 
-    @Override
-    public STATE onBodyPartReceived(final HttpResponseBodyPart bodyPart) throws Exception
+    /**
+     * The ranges (first and last byte, -1 until the end of the file) to download. Several segments
+     * only if the file is large enough and it is not being resumed.
+     */
+    static List<long[]> split(final long resumed, final long expectedBytes, final int segments,
+        final long threshold)
     {
-        if (isCancell)
+        List<long[]> ranges = new ArrayList<long[]>();
+
+        if (segments > 1 && resumed == 0 && expectedBytes >= threshold)
         {
-            LOG.warn("Download aborted {}", fileUrl);
-            return STATE.ABORT;
+            final long length = expectedBytes / segments;
+            for (int i = 0; i < segments; i++)
+            {
+                final long start = i * length;
+                // last segment until the end of the file
+                final long end = i == segments - 1 ? -1 : start + length - 1;
+                ranges.add(new long[] {start, end});
+            }
         }
-
-        try
+        else
         {
-            currentBytes += bodyPart.writeTo(osDestFile);
-            updateProgress();
-
-            return STATE.CONTINUE;
+            ranges.add(new long[] {resumed, -1});
         }
-        catch (IOException e)
+
+        return ranges;
+    }
+
+    /**
+     * The validator to send in the If-Range header: the ETag if it is strong (weak ETags can not be
+     * used), otherwise the Last-Modified date. Null if none.
+     */
+    static String validator(final String etag, final String lastModified)
+    {
+        if (etag != null && !etag.startsWith("W/"))
         {
-            e.printStackTrace();
-            onError(String.format("Can't flush content to %s\n%s", destinationPath, e.getMessage()));
-            return STATE.ABORT;
+            return etag;
         }
+
+        return lastModified;
+    }
+
+    /**
+     * A 416 response to the resume of a file with all the expected bytes: the previous download
+     * ended but its mark was not removed.
+     */
+    static boolean isAlreadyComplete(final int statusCode, final long position,
+        final long expectedBytes)
+    {
+        return statusCode == HTTP_RANGE_NOT_SATISFIABLE && expectedBytes > 0
+            && position == expectedBytes;
     }
 
     private void updateProgress()
     {
         final long now = System.currentTimeMillis();
 
-        if (now - lastNotifyMs > AMConfiguration.DOWNLOADING_PUBLISH_INTERVAL)
+        if (now - lastNotifyMs <= AMConfiguration.DOWNLOADING_PUBLISH_INTERVAL)
         {
-            final Integer progress = (int) (currentBytes * 100 / expectedBytes);
-            LOG.trace("{} {}", ovfId, progress);
+            return;
+        }
 
-            AMRedisDao dao = AMRedisDao.getDao();
-            try
-            {
-                dao.setDownloadProgress(erepoId, ovfId, progress);
-            }
-            finally
+        final long current = currentBytes.get();
+        final long throughput;
+        synchronized (this)
+        {
+            if (now - lastNotifyMs <= AMConfiguration.DOWNLOADING_PUBLISH_INTERVAL)
             {
-                AMRedisDao.returnDao(dao);
+                return;
             }
 
+            throughput = Math.max(0, (current - lastNotifyBytes) * 1000 / (now - lastNotifyMs));
             lastNotifyMs = now;
+            lastNotifyBytes = current;
+        }
+
+        final Integer progress =
+            expectedBytes > 0 ? (int) Math.min(100, current * 100 / expectedBytes) : 0;
+        LOG.trace("{} {} ({} bytes/s)", new Object[] {ovfId, progress, throughput});
+
+        // tell the other processes the download is running
+        touchFile(destinationPath);
+
+        AMRedisDao dao = AMRedisDao.getDao();
+        try
+        {
+            dao.setDownloadProgress(erepoId, ovfId, progress, throughput);
+        }
+        finally
+        {
+            AMRedisDao.returnDao(dao);
         }
     }
 
     /**
-     * Will be invoked once the response has been fully read or a ResponseComplete exception has
-     * been thrown.
+     * The server does not support ranges (or the source changed), discard the segments and
+     * download the whole file again with a single request.
      */
-    @Override
-    public Boolean onCompleted() throws Exception
+    private synchronized void restart(final String reason, final String newValidator)
     {
-        if (!isError && !isCancell)
+        if (done())
         {
-            onDownload();
+            return;
         }
 
-        return Boolean.TRUE;
+        LOG.debug("Downloading {} again without segments: {}", fileUrl, reason);
+
+        for (Segment segment : segments)
+        {
+            segment.discarded = true;
+        }
+
+        validator = newValidator;
+        markFile(destinationPath, false, validator);
+
+        Segment single = new Segment(0, -1);
+        segments.clear();
+        segments.add(single);
+        pendingSegments.set(1);
+        currentBytes.set(0);
+
+        single.request();
     }
 
-    @Override
-    public void onThrowable(final Throwable t)
+    /**
+     * The source validator of a response. The first one is kept on the file mark, so the download
+     * can be resumed. If it does not match the known one the source has changed.
+     * 
+     * @return false if the source changed.
+     */
+    private synchronized boolean checkValidator(final String responseValidator)
     {
-        // annoying AHC 1.0.0 bug ... internal NPE
-        String error = t.getLocalizedMessage();
-        error = error != null ? error : "Internal AHC error " + t.getClass().getCanonicalName();
-        onError(error);
-        t.printStackTrace();
+        if (responseValidator == null)
+        {
+            return true;
+        }
+
+        if (validator == null)
+        {
+            validator = responseValidator;
+            markFile(destinationPath, segments.size() > 1, validator);
+            return true;
+        }
+
+        return validator.equals(responseValidator);
+    }
+
+    private void onSegmentDownload()
+    {
+        if (pendingSegments.decrementAndGet() == 0)
+        {
+            onDownload();
+        }
     }
 
     /**
@@ -212,8 +403,12 @@ public class DownloadingFile implements AsyncHandler<Boolean>
 
         try
         {
-            osDestFile.flush();
-            osDestFile.close();
+            if (segments.size() == 1)
+            {
+                // remove any remaining content of a previous download
+                destination.truncate(segments.get(0).position);
+            }
+            destination.close();
         }
         catch (IOException e)
         {
@@ -223,12 +418,8 @@ public class DownloadingFile implements AsyncHandler<Boolean>
 
         releaseFile(destinationPath);
 
-        // AMRedisDao dao = AMRedisDao.getDao();
-        // dao.setDownloadProgress(erepoId, ovfId, 100);
-        // // dao.setState(ovfId, OVFStatusEnumType.DOWNLOAD);
-        // AMRedisDao.returnDao(dao);
-
         notifier.setTemplateStatus(erepoId, ovfId, TemplateStatusEnumType.DOWNLOAD);
+        ended();
     }
 
     /**
@@ -240,13 +431,11 @@ public class DownloadingFile implements AsyncHandler<Boolean>
 
         try
         {
-            osDestFile.flush();
-            osDestFile.close();
+            destination.close();
         }
         catch (IOException e)
         {
-            onError("Can not close file " + destinationPath);
-            return;
+            LOG.warn("Can not close file {}", destinationPath);
         }
 
         releaseFile(destinationPath);
@@ -261,24 +450,52 @@ public class DownloadingFile implements AsyncHandler<Boolean>
         }
         else
         {
-            AMRedisDao dao = AMRedisDao.getDao();
-            try
-            {
-                // dao.setDownloadProgress(erepoId, ovfId, 0);
-                dao.setState(erepoId, ovfId, TemplateStatusEnumType.NOT_DOWNLOAD);
-            }
-            finally
-            {
-                AMRedisDao.returnDao(dao);
-            }
+            setNotDownload();
         }
+
+        ended();
     }
 
-    private void onError(final String msg)
+    /**
+     * The download can not continue. The already download content (and the file mark) is kept, so
+     * it can be resumed.
+     */
+    private synchronized void onError(final String msg)
     {
+        if (isError || isCancell)
+        {
+            return;
+        }
+
         isError = true;
-        onCancel(false); // NO delete folder (to remain error cause ).
+
+        try
+        {
+            destination.close();
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Can not close file {}", destinationPath);
+        }
+
+        suspendFile(destinationPath);
+        setNotDownload();
+
         notifier.setTemplateStatusError(erepoId, ovfId, msg);
+        ended();
+    }
+
+    private void setNotDownload()
+    {
+        AMRedisDao dao = AMRedisDao.getDao();
+        try
+        {
+            dao.setState(erepoId, ovfId, TemplateStatusEnumType.NOT_DOWNLOAD);
+        }
+        finally
+        {
+            AMRedisDao.returnDao(dao);
+        }
     }
 
     public boolean done()
@@ -286,4 +503,335 @@ public class DownloadingFile implements AsyncHandler<Boolean>
         return isCancell || isDone || isError;
     }
 
+    /**
+     * A range of the file, download with its own request. Used as session object on the
+     * HttpResponseHandler.
+     */
+    private class Segment implements AsyncHandler<Boolean>
+    {
+        /** Last byte of the segment (inclusive), -1 until the end of the file. */
+        private final long end;
+
+        /** Next byte to write in the file. */
+        private volatile long position;
+
+        /** End of the content of the current response (exclusive), if known. */
+        private volatile long limit = -1;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(DOWNLOAD_BUFFER_SIZE);
+
+        private int retries = 0;
+
+        /** The current request uses the Range header. */
+        private volatile boolean ranged;
+
+        /** The current response is partial (206). */
+        private volatile boolean partial;
+
+        /** The current request ends (or must end). */
+        private volatile boolean aborted;
+
+        /** The segments has been replaced by a single request. */
+        private volatile boolean discarded = false;
+
+        public Segment(final long start, final long end)
+        {
+            this.position = start;
+            this.end = end;
+        }
+
+        public void request()
+        {
+            aborted = false;
+            limit = -1;
+            buffer.clear();
+
+            BoundRequestBuilder get = httpClient.prepareGet(fileUrl);
+
+            ranged = position > 0 || end >= 0;
+            partial = false;
+            if (ranged)
+            {
+                get.setHeader("Range", "bytes=" + position + "-" + (end >= 0 ? end : ""));
+
+                if (validator != null)
+                {
+                    // the whole file is sent if the source changed
+                    get.setHeader("If-Range", validator);
+                }
+            }
+
+            try
+            {
+                get.execute(this);
+            }
+            catch (IOException e)
+            {
+                failed(e.getMessage());
+            }
+        }
+
+        @Override
+        public STATE onStatusReceived(final HttpResponseStatus status) throws Exception
+        {
+            if (isAborted())
+            {
+                return STATE.ABORT;
+            }
+
+            LOG.debug("GET status {} received {}", status.getStatusCode(), fileUrl);
+
+            if (status.getStatusCode() == HTTP_RANGE_NOT_SATISFIABLE && segments.size() == 1)
+            {
+                aborted = true;
+                if (isAlreadyComplete(status.getStatusCode(), position, expectedBytes))
+                {
+                    LOG.debug("File {} was already download", destinationPath);
+                    onSegmentDownload();
+                }
+                else
+                {
+                    restart("range not satisfiable", null);
+                }
+                return STATE.ABORT;
+            }
+
+            if (status.getStatusCode() / 200 != 1)
+            {
+                aborted = true;
+                onError(getErrorMessage(status.getStatusCode(), fileUrl));
+                return STATE.ABORT;
+            }
+
+            if (ranged && status.getStatusCode() != HTTP_PARTIAL_CONTENT)
+            {
+                // Range header ignored, the whole file is being sent
+                if (segments.size() > 1)
+                {
+                    aborted = true;
+                    restart("ranges not supported", null);
+                    return STATE.ABORT;
+                }
+
+                LOG.debug("Range ignored by {} (or source changed), downloading from the start",
+                    fileUrl);
+                currentBytes.set(0);
+                position = 0;
+                validator = null;
+            }
+
+            partial = status.getStatusCode() == HTTP_PARTIAL_CONTENT;
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onHeadersReceived(final HttpResponseHeaders h) throws Exception
+        {
+            if (isAborted())
+            {
+                return STATE.ABORT;
+            }
+
+            final String responseValidator =
+                validator(h.getHeaders().getFirstValue(HttpHeaders.ETAG), h.getHeaders()
+                    .getFirstValue(HttpHeaders.LAST_MODIFIED));
+            if (!checkValidator(responseValidator) && partial)
+            {
+                // a range of a different source file
+                aborted = true;
+                restart("source changed", responseValidator);
+                return STATE.ABORT;
+            }
+
+            try
+            {
+                limit =
+                    position
+                        + Long.parseLong(h.getHeaders().getFirstValue(HttpHeaders.CONTENT_LENGTH));
+            }
+            catch (Exception e)
+            {
+                if (segments.size() == 1)
+                {
+                    aborted = true;
+                    onError("Content-Length header not present");
+                    return STATE.ABORT;
+                }
+            }
+
+            if (segments.size() == 1)
+            {
+                expectedBytes = limit;
+                LOG.debug("File {} will download {} Mb", destinationPath, expectedBytes / B_2_MB);
+            }
+
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onBodyPartReceived(final HttpResponseBodyPart bodyPart) throws Exception
+        {
+            if (isAborted())
+            {
+                if (isCancell)
+                {
+                    LOG.warn("Download aborted {}", fileUrl);
+                }
+                return STATE.ABORT;
+            }
+
+            try
+            {
+                ByteBuffer part = bodyPart.getBodyByteBuffer().duplicate();
+                final int length = part.remaining();
+
+                if (length > buffer.remaining())
+                {
+                    flush();
+                }
+
+                if (length > buffer.remaining())
+                {
+                    // bigger than the whole buffer
+                    write(part);
+                }
+                else
+                {
+                    buffer.put(part);
+                }
+
+                currentBytes.addAndGet(length);
+                updateProgress();
+
+                return STATE.CONTINUE;
+            }
+            catch (IOException e)
+            {
+                aborted = true;
+                onError(String.format("Can't flush content to %s\n%s", destinationPath,
+                    e.getMessage()));
+                return STATE.ABORT;
+            }
+        }
+
+        /**
+         * Will be invoked once the response has been fully read or a ResponseComplete exception has
+         * been thrown.
+         */
+        @Override
+        public Boolean onCompleted() throws Exception
+        {
+            if (isAborted())
+            {
+                return Boolean.TRUE;
+            }
+
+            try
+            {
+                flush();
+            }
+            catch (IOException e)
+            {
+                aborted = true;
+                onError(String.format("Can't flush content to %s\n%s", destinationPath,
+                    e.getMessage()));
+                return Boolean.TRUE;
+            }
+
+            if (limit > 0 && position < limit)
+            {
+                failed(String.format("Connection closed after %d of %d bytes", position, limit));
+            }
+            else
+            {
+                aborted = true;
+                onSegmentDownload();
+            }
+
+            return Boolean.TRUE;
+        }
+
+        @Override
+        public void onThrowable(final Throwable t)
+        {
+            // annoying AHC 1.0.0 bug ... internal NPE
+            String error = t.getLocalizedMessage();
+            error = error != null ? error : "Internal AHC error " + t.getClass().getCanonicalName();
+
+            if (isAborted())
+            {
+                return;
+            }
+
+            try
+            {
+                // keep the already received content
+                flush();
+            }
+            catch (IOException e)
+            {
+                aborted = true;
+                onError(String.format("Can't flush content to %s\n%s", destinationPath,
+                    e.getMessage()));
+                return;
+            }
+
+            failed(error);
+        }
+
+        /**
+         * Resume the segment from the current position (or set the error if the retries are
+         * exhausted).
+         */
+        private void failed(final String error)
+        {
+            aborted = true;
+
+            if (done() || discarded)
+            {
+                return;
+            }
+
+            if (retries++ >= DOWNLOAD_RETRIES)
+            {
+                onError(error);
+                return;
+            }
+
+            LOG.warn("Download of {} failed at byte {}, resuming in {} ms: {}", new Object[] {
+            fileUrl, position, DOWNLOAD_RETRY_DELAY_MS, error});
+
+            RETRY_EXECUTOR.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!done() && !discarded)
+                    {
+                        request();
+                    }
+                }
+            }, DOWNLOAD_RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private boolean isAborted()
+        {
+            return aborted || discarded || done();
+        }
+
+        private void flush() throws IOException
+        {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(final ByteBuffer content) throws IOException
+        {
+            while (content.hasRemaining() && !discarded)
+            {
+                position += destination.write(content, position);
+            }
+        }
+    }
 }
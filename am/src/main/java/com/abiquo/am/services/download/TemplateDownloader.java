@@ -43,6 +43,7 @@ import com.abiquo.am.services.TemplateConventions;
 import com.abiquo.am.services.notify.AMNotifier;
 import com.abiquo.am.services.ovfformat.TemplateToOVFEnvelope;
 import com.abiquo.appliancemanager.client.ExternalHttpConnection;
+import com.abiquo.appliancemanager.config.AMConfiguration;
 import com.abiquo.appliancemanager.exceptions.AMException;
 import com.abiquo.appliancemanager.exceptions.DownloadException;
 import com.abiquo.appliancemanager.transport.TemplateDto;
@@ -72,51 +73,110 @@ public class TemplateDownloader
     private final AsyncHttpClient httpClient =
         new AsyncHttpClient(ExternalHttpConnection.createHttpClientConf());
 
+    /** Started downloads, by enterprise repository and template. */
     private final Map<String, DownloadingFile> inprogress =
         new ConcurrentHashMap<String, DownloadingFile>();
 
+    private final DownloadScheduler scheduler = new DownloadScheduler(
+        AMConfiguration.DOWNLOAD_MAX_ACTIVE, AMConfiguration.DOWNLOAD_MAX_ACTIVE_REPOSITORY);
+
     /**
      * Make the provided template available on the enterprise repository. Creates a new directory
      * for the provided template definition into the repository (using the OVF file name), inspect
      * the OVF-Envelope to download all its File References into its package folder. Also change the
      * envelope to ensure use relative paths on the File ''href''. Sets the OVFState to DOWNLOADING
      * on the OVFIndex.
+     * <p>
+     * The download is queued until there are free download slots (see {@link DownloadScheduler}).
      * 
      * @param ovfid, URL where the OVF can be downloaded.
      * @param enterpirseId, the enterprise requesting its availability.
+     * @param priority, a virtual machine deploy is waiting on the template.
      * @throws RepositoryException, it the ovfPackageLocation can not be reached or its
      * @throws DownloadException, content is not a valid OVF envelope document or any error during
      *             the download of some file on the package.
      */
-    public synchronized void deployTemplate(final String enterpriseId, final String ovfId,
-        final EnvelopeType envelope)
+    public void deployTemplate(final String enterpriseId, final String ovfId,
+        final EnvelopeType envelope, final boolean priority)
     {
         LOG.debug("Deploy request [{}]", ovfId);
 
-        try
+        final String key = key(enterpriseId, ovfId);
+        if (inprogress.containsKey(key))
         {
-            final DownloadingFile DownloadingFile =
-                createFileTransfers(ovfId, envelope, enterpriseId);
-            httpClient.prepareGet(DownloadingFile.fileUrl).execute(DownloadingFile);
+            throw new AMException(AMError.TEMPLATE_INSTALL_ALREADY, ovfId);
+        }
 
-            inprogress.put(ovfId, DownloadingFile);
-            purgeInprogress();
+        final FileTransfer transfer;
+        try
+        {
+            transfer = createFileTransfers(ovfId, envelope, enterpriseId);
+        }
+        catch (AMException e)
+        {
+            throw e;
         }
         catch (Exception e)
         {
             throw new AMException(AMError.TEMPLATE_INSTALL, e);
         }
+
+        final boolean queued = scheduler.submit(enterpriseId, ovfId, priority, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                startDownload(key, transfer);
+            }
+        });
+
+        if (!queued)
+        {
+            throw new AMException(AMError.TEMPLATE_INSTALL_ALREADY, ovfId);
+        }
     }
 
-    private synchronized void purgeInprogress()
+    /**
+     * Gives priority to an already queued download.
+     * 
+     * @return false if the download is not queued (already started or not requested).
+     */
+    public boolean prioritizeTemplate(final String enterpriseId, final String ovfId)
     {
-        for (String ovfid : inprogress.keySet())
+        return scheduler.prioritize(enterpriseId, ovfId);
+    }
+
+    /** Invoked by the {@link DownloadScheduler} once there is a free download slot. */
+    private void startDownload(final String key, final FileTransfer transfer)
+    {
+        final DownloadingFile downloadingFile;
+        try
+        {
+            downloadingFile =
+                new DownloadingFile(transfer.fileUrl, transfer.destinationPath,
+                    transfer.enterpriseId, transfer.ovfId, notifier, transfer.expectedBytes);
+        }
+        catch (RuntimeException e)
         {
-            if (inprogress.get(ovfid).done())
+            // not only AMException, any failure must leave the template in ERROR
+            LOG.error("Can not start the download of {}: {}", transfer.ovfId, e.toString());
+            notifier.setTemplateStatusError(transfer.enterpriseId, transfer.ovfId, e.toString());
+            scheduler.finished(transfer.enterpriseId);
+            return;
+        }
+
+        downloadingFile.setOnEnd(new Runnable()
+        {
+            @Override
+            public void run()
             {
-                inprogress.remove(ovfid);
+                inprogress.remove(key);
+                scheduler.finished(transfer.enterpriseId);
             }
-        }
+        });
+
+        inprogress.put(key, downloadingFile);
+        downloadingFile.start(httpClient);
     }
 
     /**
@@ -125,7 +185,7 @@ public class TemplateDownloader
      * @throws InvalidSectionException
      * @throws SectionNotPresentException
      */
-    private DownloadingFile createFileTransfers(final String ovfId, final EnvelopeType envelope,
+    private FileTransfer createFileTransfers(final String ovfId, final EnvelopeType envelope,
         final String enterpriseId) throws SectionNotPresentException, InvalidSectionException
     {
         // TODO prior validation
@@ -164,7 +224,7 @@ public class TemplateDownloader
 
         final String fileURL = getFileUrl(fileType.getHref(), ovfId);
 
-        return new DownloadingFile(fileURL, destinationPath, enterpriseId, ovfId, notifier);
+        return new FileTransfer(fileURL, destinationPath, enterpriseId, ovfId, expectedBytes);
     }
 
     /**
@@ -173,7 +233,7 @@ public class TemplateDownloader
      * @return the OVFid of the just uploaded package
      * @throws IOException
      */
-    public synchronized String uploadTemplate(final TemplateDto diskInfo, final File diskFile)
+    public String uploadTemplate(final TemplateDto diskInfo, final File diskFile)
         throws IOException
     {
 
@@ -199,7 +259,7 @@ public class TemplateDownloader
      * @param ovfId, the OVF package identifier.
      * @throws RepositoryException if the package is not on DOWNLOADING state.
      */
-    public synchronized void cancelDeployTemplate(final String ovfId, final String enterpriseId)
+    public void cancelDeployTemplate(final String ovfId, final String enterpriseId)
     {
         EnterpriseRepositoryService enterpriseRepository = ErepoFactory.getRepo(enterpriseId);
 
@@ -209,11 +269,19 @@ public class TemplateDownloader
         if (status == TemplateStatusEnumType.DOWNLOADING)
         {
 
-            if (inprogress.containsKey(ovfId))
+            final DownloadingFile downloadingFile = inprogress.get(key(enterpriseId, ovfId));
+
+            if (scheduler.cancel(enterpriseId, ovfId))
+            {
+                // not started, only the package folder
+                enterpriseRepository.deleteTemplate(ovfId);
+                notifier.setTemplateStatus(enterpriseId, ovfId,
+                    TemplateStatusEnumType.NOT_DOWNLOAD);
+            }
+            else if (downloadingFile != null)
             {
                 // also delete all the being download files.
-                inprogress.get(ovfId).onCancel(true);
-                inprogress.remove(ovfId);
+                downloadingFile.onCancel(true);
             }
             else
             {
@@ -227,8 +295,16 @@ public class TemplateDownloader
                 "Provided OVF[%s] is not on DOWNLOADING state,"
                     + " its [%s]. So it can not be cancelled", ovfId, status.name()));
         }
+    }
 
-        purgeInprogress();
+    public DownloadScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    private static String key(final String enterpriseId, final String ovfId)
+    {
+        return enterpriseId + '/' + ovfId;
     }
 
     @Override
@@ -240,4 +316,28 @@ public class TemplateDownloader
             downloads.onCancel(true);
         }
     }
+
+    /** A file to download, waiting for a free download slot. */
+    private static class FileTransfer
+    {
+        private final String fileUrl;
+
+        private final String destinationPath;
+
+        private final String enterpriseId;
+
+        private final String ovfId;
+
+        private final long expectedBytes;
+
+        public FileTransfer(final String fileUrl, final String destinationPath,
+            final String enterpriseId, final String ovfId, final long expectedBytes)
+        {
+            this.fileUrl = fileUrl;
+            this.destinationPath = destinationPath;
+            this.enterpriseId = enterpriseId;
+            this.ovfId = ovfId;
+            this.expectedBytes = expectedBytes;
+        }
+    }
 }
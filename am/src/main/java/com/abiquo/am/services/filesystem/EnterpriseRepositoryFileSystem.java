@@ -21,20 +21,21 @@
 
 package com.abiquo.am.services.filesystem;
 
-import static com.abiquo.appliancemanager.config.AMConfiguration.ENTERPRISE_REPOSITORY_REFRESH_TIMEOUT;
+import static com.abiquo.appliancemanager.config.AMConfiguration.DOWNLOAD_MARK_STALE_MS;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.Properties;
+import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,53 +71,18 @@ public class EnterpriseRepositoryFileSystem
         }
     }
 
+    /**
+     * Status of all the templates in the repository, from its {@link EnterpriseRepositoryIndex}.
+     * 
+     * @throws AMException, if the repository can not be read before the timeout.
+     */
     public static List<TemplateStateDto> getAllOVF(final String enterpriseRepositoryPath,
         final boolean includeBundeles)
     {
-        List<TemplateStateDto> availableOvs = null;
-
-        // TODO consider global thread limit
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-
-        final Future<List<TemplateStateDto>> futureAvailable =
-            executor.submit(new EnterpriseRepositoryRefreshWithTimeout(//
-            new File(enterpriseRepositoryPath).getAbsolutePath(),
-                new String(),
-                includeBundeles,
-                false)); // do not clean downloading packages
-
-        try
-        {
-            availableOvs =
-                futureAvailable.get(ENTERPRISE_REPOSITORY_REFRESH_TIMEOUT, TimeUnit.MILLISECONDS);
-        }
-        catch (TimeoutException e)
-        {
-            futureAvailable.cancel(true);
-            LOG.warn("Timeout while refresh the repository folder " + enterpriseRepositoryPath, e);
-
-        }
-        catch (Exception e)
-        {
-            LOG.error("Can't access the folder " + enterpriseRepositoryPath, e);
-        }
-        finally
-        {
-            executor.shutdownNow();
-        }
-
-        if (availableOvs == null)
-        {
-            throw new AMException(AMError.REPO_TIMEOUT_REFRESH, enterpriseRepositoryPath);
-        }
-
-        return availableOvs;
+        return EnterpriseRepositoryIndex.getIndex(enterpriseRepositoryPath).getTemplates(
+            includeBundeles);
     }
 
-    /***/
-
-    /** ############### REPOSITORY USAGE ############### */
-
     public static boolean isEnoughtSpaceOn(final String enterpriseRepositoryPath,
         final Long expected)
     {
@@ -125,7 +91,8 @@ public class EnterpriseRepositoryFileSystem
 
     public static Long getUsedMb(final String enterpriseRepositoryPath)
     {
-        return sizeOfDirectory(new File(enterpriseRepositoryPath)) / (1024 * 1024);
+        return EnterpriseRepositoryIndex.getIndex(enterpriseRepositoryPath).getUsedBytes()
+            / (1024 * 1024);
     }
 
     public static Long getCapacityMb()
@@ -138,55 +105,61 @@ public class EnterpriseRepositoryFileSystem
         return new File(BASE_REPO_PATH).getFreeSpace() / (1024 * 1024);
     }
 
-    private static Long sizeOfDirectory(final File f)
-    {
-        if (f.isFile())
-        {
-            return f.length();
-        }
-        else if (f.isDirectory() && f.listFiles().length != 0)
-        {
-            Long acum = 0l;
-            for (File element : f.listFiles())
-            {
-                acum += sizeOfDirectory(element);
-            }
-
-            return acum;
-        }
-        else
-        {
-            return 0l;
-        }
-    }
-
     /** ############### DOWNLOADING FILE ############### */
 
     /**
      * A prefix to add at ''destinationPath'' to indicate the file is being download (see
-     * ''takeFile'' and ''releaseFile'').
+     * ''takeFile'' and ''releaseFile''). The mark holds the properties used to decide if the
+     * download can be resumed (see ''markFile'').
      */
     private final static String FILE_MARK = ".download";
 
+    /** The file is download in several segments, so it can have holes. */
+    private final static String MARK_SEGMENTED = "segmented";
+
+    /** ETag or Last-Modified of the source file, to resume with the If-Range header. */
+    private final static String MARK_VALIDATOR = "validator";
+
+    /** The download failed and is not running (see ''suspendFile''). */
+    private final static String MARK_SUSPENDED = "suspended";
+
+    /** Files being download by this process (see ''takeFile''). */
+    private final static Set<String> TAKEN_FILES =
+        Collections.synchronizedSet(new HashSet<String>());
+
     /**
-     * Check the target file is not being download by another package.
+     * Check the target file is not being download by another package and open it to write.
+     * <p>
+     * A file mark updated recently (see ''touchFile'') and not suspended is a download running in
+     * another process. If the file mark of a previous download remains, the download was not
+     * segmented and the mark knows the source validator, the current content is kept so the
+     * download can be resumed from the current file size. Otherwise the file is download again.
      * 
-     * @return null if the destination file is being download by another package.
-     * @throws FileNotFoundException
+     * @throws AMException if the destination file is being download by another package.
      */
-    public static BufferedOutputStream takeFile(final String destinationPath)
+    public static FileChannel takeFile(final String destinationPath)
     {
+        if (!TAKEN_FILES.add(destinationPath))
+        {
+            throw new AMException(AMError.TEMPLATE_INSTALL_ALREADY, destinationPath);
+        }
+
         File destination = new File(destinationPath);
         File destinationMark = new File(destinationPath + FILE_MARK);
 
-        if (destination.exists())
+        final Properties mark = readMark(destinationMark);
+        if (mark != null && !Boolean.parseBoolean(mark.getProperty(MARK_SUSPENDED))
+            && System.currentTimeMillis() - destinationMark.lastModified() < DOWNLOAD_MARK_STALE_MS)
         {
-            if (destinationMark.exists())
-            {
-                throw new AMException(AMError.TEMPLATE_INSTALL_ALREADY, destinationPath);
-            }
+            TAKEN_FILES.remove(destinationPath);
+            throw new AMException(AMError.TEMPLATE_INSTALL_ALREADY, destinationPath);
         }
 
+        final boolean resume =
+            destination.exists() && mark != null
+                && !Boolean.parseBoolean(mark.getProperty(MARK_SEGMENTED))
+                && mark.getProperty(MARK_VALIDATOR) != null;
+
         try
         {
             File parent = destinationMark.getParentFile();
@@ -198,7 +171,13 @@ public class EnterpriseRepositoryFileSystem
                 }
             }
 
-            destinationMark.createNewFile();
+            Properties current = new Properties();
+            if (resume)
+            {
+                current.setProperty(MARK_VALIDATOR, mark.getProperty(MARK_VALIDATOR));
+            }
+            writeMark(destinationMark, current);
+            EnterpriseRepositoryIndex.changed(destinationPath);
         }
         catch (IOException e)
         {
@@ -208,24 +187,84 @@ public class EnterpriseRepositoryFileSystem
 
         try
         {
-            return new BufferedOutputStream(new FileOutputStream(destination));
+            FileChannel channel = new RandomAccessFile(destination, "rw").getChannel();
+            if (resume)
+            {
+                LOG.debug("Resuming the download of {} from {} bytes", destinationPath,
+                    channel.size());
+            }
+            else
+            {
+                channel.truncate(0);
+            }
+            return channel;
         }
-        catch (FileNotFoundException e)
+        catch (IOException e)
         {
+            TAKEN_FILES.remove(destinationPath);
             throw new AMException(AMError.TEMPLATE_INSTALL, e);
         }
     }
 
+    /**
+     * @return the ETag or Last-Modified of the source of a taken file, if known. Only set when the
+     *         download is being resumed or once the source answers.
+     */
+    public static String getFileValidator(final String destinationPath)
+    {
+        Properties mark = readMark(new File(destinationPath + FILE_MARK));
+        return mark != null ? mark.getProperty(MARK_VALIDATOR) : null;
+    }
+
+    /**
+     * Records how a taken file is being download, so a later ''takeFile'' only resumes downloads
+     * without holes of an unchanged source.
+     * 
+     * @param segmented, the file is download with several ranged requests.
+     * @param validator, the ETag or Last-Modified of the source (null if unknown).
+     */
+    public static void markFile(final String destinationPath, final boolean segmented,
+        final String validator)
+    {
+        Properties mark = new Properties();
+        mark.setProperty(MARK_SEGMENTED, String.valueOf(segmented));
+        if (validator != null)
+        {
+            mark.setProperty(MARK_VALIDATOR, validator);
+        }
+
+        try
+        {
+            writeMark(new File(destinationPath + FILE_MARK), mark);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Can't write the destination mark for [{}]: {}", destinationPath,
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Updates the modification time of the file mark, so other processes know the download is
+     * running.
+     */
+    public static void touchFile(final String destinationPath)
+    {
+        new File(destinationPath + FILE_MARK).setLastModified(System.currentTimeMillis());
+    }
+
     /**
      * Ends a file download transaction.
      */
     public static void releaseFile(final String destinationPath)
     {
+        TAKEN_FILES.remove(destinationPath);
         File destinationMark = new File(destinationPath + FILE_MARK);
 
         if (destinationMark.exists())
         {
             destinationMark.delete();
+            EnterpriseRepositoryIndex.changed(destinationPath);
         }
         else
         {
@@ -234,4 +273,75 @@ public class EnterpriseRepositoryFileSystem
             LOG.error(msg);
         }
     }
+
+    /**
+     * Ends a failed file download transaction. The file mark is kept, so the next ''takeFile''
+     * resumes the download (if possible).
+     */
+    public static void suspendFile(final String destinationPath)
+    {
+        File destinationMark = new File(destinationPath + FILE_MARK);
+
+        Properties mark = readMark(destinationMark);
+        if (mark != null)
+        {
+            mark.setProperty(MARK_SUSPENDED, Boolean.TRUE.toString());
+            try
+            {
+                writeMark(destinationMark, mark);
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Can't suspend the destination mark for [{}]: {}", destinationPath,
+                    e.getMessage());
+            }
+        }
+
+        TAKEN_FILES.remove(destinationPath);
+        EnterpriseRepositoryIndex.changed(destinationPath);
+    }
+
+    /**
+     * @return null if the mark does not exist. Empty if it can not be read (a mark of a previous
+     *         version).
+     */
+    private static Properties readMark(final File destinationMark)
+    {
+        if (!destinationMark.exists())
+        {
+            return null;
+        }
+
+        Properties mark = new Properties();
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream(destinationMark);
+            mark.load(in);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Can't read the destination mark {}", destinationMark.getAbsolutePath());
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+
+        return mark;
+    }
+
+    private static void writeMark(final File destinationMark, final Properties mark)
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(destinationMark);
+        try
+        {
+            mark.store(out, null);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+    }
 }
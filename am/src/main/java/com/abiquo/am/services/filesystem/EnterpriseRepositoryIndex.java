@@ -0,0 +1,387 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.am.services.filesystem;
+
+import static com.abiquo.am.services.TemplateConventions.OVF_BUNDLE_PATH_IDENTIFIER;
+import static com.abiquo.am.services.TemplateConventions.OVF_FILE_EXTENSION;
+import static com.abiquo.am.services.TemplateConventions.OVF_LOCATION_PREFIX;
+import static com.abiquo.am.services.TemplateConventions.createBundleOvfId;
+import static com.abiquo.am.services.TemplateConventions.customDencode;
+import static com.abiquo.am.services.filesystem.TemplateFileSystem.getTemplateStatus;
+import static com.abiquo.appliancemanager.config.AMConfiguration.ENTERPRISE_REPOSITORY_REFRESH_TIMEOUT;
+import static com.abiquo.appliancemanager.config.AMConfiguration.ENTERPRISE_REPOSITORY_RESCAN_INTERVAL;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.am.exceptions.AMError;
+import com.abiquo.am.services.filesystem.filters.BundleImageFileFilter;
+import com.abiquo.appliancemanager.exceptions.AMException;
+import com.abiquo.appliancemanager.transport.TemplateStateDto;
+import com.abiquo.appliancemanager.transport.TemplateStatusEnumType;
+
+/**
+ * In-memory index of the templates, status and used space of an enterprise repository.
+ * <p>
+ * Each folder is listed once and kept with its modification time. On every refresh only the
+ * folders whose modification time changed, with a template being downloaded, or that were
+ * modified by the AM itself (see {@link #changed(String)}), are listed again; the rest of the
+ * folders only cost a file stat. As
+ * the modification time of the folders is not reliable on NFS (attribute caching, one second
+ * resolution) the whole repository is listed again every ''abiquo.appliancemanager.rescanms'' ms.
+ * <p>
+ * Refreshes run in a shared thread pool with the ''abiquo.appliancemanager.fstimeoutms''
+ * timeout, and concurrent refreshes of the same repository wait for the one in progress.
+ */
+public class EnterpriseRepositoryIndex
+{
+    private final static Logger LOG = LoggerFactory.getLogger(EnterpriseRepositoryIndex.class);
+
+    /** Indexes by the absolute path of the enterprise repository. */
+    private final static ConcurrentMap<String, EnterpriseRepositoryIndex> INDEXES =
+        new ConcurrentHashMap<String, EnterpriseRepositoryIndex>();
+
+    private final static ExecutorService REFRESH_EXECUTOR =
+        Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "erepo-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private final String enterpriseRepositoryPath;
+
+    /** Folders by absolute path, replaced on each refresh. */
+    private volatile Map<String, Folder> folders = Collections.emptyMap();
+
+    /** Folders modified by the AM since the last refresh. */
+    private final Set<String> dirty =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private long lastFullScan;
+
+    private Future<Void> refreshing;
+
+    protected EnterpriseRepositoryIndex(final String enterpriseRepositoryPath)
+    {
+        this.enterpriseRepositoryPath = enterpriseRepositoryPath;
+    }
+
+    /**
+     * The index of the enterprise repository, created (empty) the first time.
+     */
+    public static EnterpriseRepositoryIndex getIndex(final String enterpriseRepositoryPath)
+    {
+        final String path = new File(enterpriseRepositoryPath).getAbsolutePath();
+
+        EnterpriseRepositoryIndex index = INDEXES.get(path);
+        if (index == null)
+        {
+            EnterpriseRepositoryIndex created = new EnterpriseRepositoryIndex(path);
+            index = INDEXES.putIfAbsent(path, created);
+            if (index == null)
+            {
+                index = created;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Notifies a change done by the AM on a file or folder of any enterprise repository, so its
+     * folder is listed again on the next refresh even if its modification time is the same.
+     */
+    public static void changed(final String path)
+    {
+        final File file = new File(path).getAbsoluteFile();
+
+        for (EnterpriseRepositoryIndex index : INDEXES.values())
+        {
+            if (file.getPath().startsWith(index.enterpriseRepositoryPath))
+            {
+                index.dirty.add(file.getPath());
+                if (file.getParent() != null)
+                {
+                    index.dirty.add(file.getParent());
+                }
+            }
+        }
+    }
+
+    /**
+     * Refresh the index and return the status of all the templates in the repository.
+     * 
+     * @param includeBundles, also return the bundles of the templates (always DOWNLOAD).
+     * @throws AMException, if the repository can not be read before the timeout.
+     */
+    public List<TemplateStateDto> getTemplates(final boolean includeBundles)
+    {
+        if (!refresh())
+        {
+            throw new AMException(AMError.REPO_TIMEOUT_REFRESH, enterpriseRepositoryPath);
+        }
+
+        final List<TemplateStateDto> templates = new LinkedList<TemplateStateDto>();
+        for (Folder folder : folders.values())
+        {
+            for (TemplateStateDto template : folder.templates)
+            {
+                templates.add(copy(template));
+
+                if (includeBundles)
+                {
+                    for (String bundleFile : folder.bundleFiles)
+                    {
+                        final String snapshot =
+                            bundleFile.substring(0, bundleFile.indexOf(OVF_BUNDLE_PATH_IDENTIFIER));
+
+                        TemplateStateDto bundleState = new TemplateStateDto();
+                        bundleState.setOvfId(createBundleOvfId(template.getOvfId(), snapshot));
+                        bundleState.setMasterOvf(template.getOvfId());
+                        bundleState.setStatus(TemplateStatusEnumType.DOWNLOAD);
+
+                        templates.add(bundleState);
+                    }
+                }
+            }
+        }
+
+        return templates;
+    }
+
+    /**
+     * Refresh the index and return the size of all the files in the repository. If the repository
+     * can not be read before the timeout the size of the last refresh is returned.
+     */
+    public long getUsedBytes()
+    {
+        if (!refresh())
+        {
+            LOG.warn("Timeout while refresh the repository folder {}, "
+                + "returning the last known used size", enterpriseRepositoryPath);
+        }
+
+        long used = 0;
+        for (Folder folder : folders.values())
+        {
+            used += folder.filesSize;
+        }
+
+        return used;
+    }
+
+    /**
+     * @return false if the refresh did not end before the timeout.
+     */
+    protected boolean refresh()
+    {
+        final Future<Void> refresh;
+        synchronized (this)
+        {
+            if (refreshing == null || refreshing.isDone())
+            {
+                refreshing = REFRESH_EXECUTOR.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        scan();
+                        return null;
+                    }
+                });
+            }
+
+            refresh = refreshing;
+        }
+
+        try
+        {
+            refresh.get(ENTERPRISE_REPOSITORY_REFRESH_TIMEOUT, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (TimeoutException e)
+        {
+            LOG.warn("Timeout while refresh the repository folder " + enterpriseRepositoryPath, e);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Can't access the folder " + enterpriseRepositoryPath, e);
+        }
+
+        return false;
+    }
+
+    /**
+     * List the new and modified folders, or all of them if the rescan interval expired.
+     */
+    protected void scan()
+    {
+        final long now = System.currentTimeMillis();
+        final boolean full = now - lastFullScan > ENTERPRISE_REPOSITORY_RESCAN_INTERVAL;
+
+        // the folders modified from now on will be listed on the next refresh
+        final Set<String> modified = new HashSet<String>(dirty);
+        dirty.removeAll(modified);
+
+        final Map<String, Folder> scanned = new HashMap<String, Folder>();
+        scan(new File(enterpriseRepositoryPath), "", full, modified, scanned);
+
+        folders = scanned;
+        if (full)
+        {
+            lastFullScan = now;
+        }
+
+        LOG.debug("Repository index of {} refreshed, {} folders", enterpriseRepositoryPath,
+            scanned.size());
+    }
+
+    private void scan(final File directory, final String relativePath, final boolean full,
+        final Set<String> modified, final Map<String, Folder> scanned)
+    {
+        final String path = directory.getPath();
+        // read before listing, so a change while listing is found on the next refresh
+        final long lastModified = directory.lastModified();
+
+        Folder folder = folders.get(path);
+        if (full || folder == null || folder.lastModified != lastModified
+            || folder.downloading || modified.contains(path))
+        {
+            folder = list(directory, relativePath, lastModified);
+        }
+
+        scanned.put(path, folder);
+
+        for (String subfolder : folder.subfolders)
+        {
+            scan(new File(directory, subfolder), relativePath.isEmpty() ? subfolder
+                : relativePath + '/' + subfolder, full, modified, scanned);
+        }
+    }
+
+    private Folder list(final File directory, final String relativePath, final long lastModified)
+    {
+        final Folder folder = new Folder(lastModified);
+
+        final File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return folder;
+        }
+
+        for (File file : files)
+        {
+            if (file.isDirectory())
+            {
+                folder.subfolders.add(file.getName());
+            }
+            else if (file.isFile())
+            {
+                folder.filesSize += file.length();
+
+                if (file.getName().endsWith(OVF_FILE_EXTENSION))
+                {
+                    final String recRelativePath =
+                        relativePath.isEmpty() ? file.getName() : relativePath + '/'
+                            + file.getName();
+                    final String ovfId = OVF_LOCATION_PREFIX + customDencode(recRelativePath);
+
+                    final TemplateStateDto status =
+                        getTemplateStatus(enterpriseRepositoryPath, ovfId);
+                    folder.downloading |= status.getStatus() == TemplateStatusEnumType.DOWNLOADING;
+                    folder.templates.add(status);
+                }
+            }
+        }
+
+        if (!folder.templates.isEmpty())
+        {
+            final String[] bundleFiles = directory.list(new BundleImageFileFilter());
+            if (bundleFiles != null)
+            {
+                Collections.addAll(folder.bundleFiles, bundleFiles);
+            }
+        }
+
+        return folder;
+    }
+
+    private static TemplateStateDto copy(final TemplateStateDto template)
+    {
+        final TemplateStateDto copy = new TemplateStateDto();
+        copy.setOvfId(template.getOvfId());
+        copy.setStatus(template.getStatus());
+        copy.setErrorCause(template.getErrorCause());
+        copy.setMasterOvf(template.getMasterOvf());
+        copy.setDownloadingProgress(template.getDownloadingProgress());
+        copy.setDownloadingThroughput(template.getDownloadingThroughput());
+        return copy;
+    }
+
+    /**
+     * A listed folder of the repository.
+     */
+    private static class Folder
+    {
+        final long lastModified;
+
+        long filesSize;
+
+        /** Files growing without changing the modification time of the folder. */
+        boolean downloading;
+
+        final List<String> subfolders = new ArrayList<String>();
+
+        final List<TemplateStateDto> templates = new ArrayList<TemplateStateDto>();
+
+        final List<String> bundleFiles = new ArrayList<String>();
+
+        Folder(final long lastModified)
+        {
+            this.lastModified = lastModified;
+        }
+    }
+}
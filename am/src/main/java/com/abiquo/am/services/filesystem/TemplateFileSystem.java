@@ -55,7 +55,7 @@ import com.abiquo.am.services.filesystem.filters.FormatsFilter;
 import com.abiquo.appliancemanager.exceptions.AMException;
 import com.abiquo.appliancemanager.transport.TemplateStateDto;
 import com.abiquo.appliancemanager.transport.TemplateStatusEnumType;
-import com.abiquo.ovfmanager.ovf.OVFReferenceUtils;
+import com.abiquo.ovfmanager.ovf.xml.EnvelopeSummary;
 import com.abiquo.ovfmanager.ovf.xml.OVFSerializer;
 
 public class TemplateFileSystem
@@ -107,6 +107,51 @@ public class TemplateFileSystem
         return envelope;
     }
 
+    /**
+     * Reads only the file references, disks and product section of the envelope, see
+     * {@link OVFSerializer#readEnvelopeSummary(java.io.InputStream)}.
+     */
+    public static EnvelopeSummary getEnvelopeSummary(final String enterpriseRepositoryPath,
+        final String ovfId)
+    {
+        EnvelopeSummary summary;
+
+        String ovfPath = enterpriseRepositoryPath + getRelativeTemplatePath(ovfId);
+        File ovfFile = new File(ovfPath);
+
+        if (!ovfFile.exists())
+        {
+            throw new AMException(AMError.TEMPLATE_NOT_FOUND, ovfId);
+        }
+
+        FileInputStream fileIs = null;
+        try
+        {
+            fileIs = new FileInputStream(ovfFile);
+            summary = OVFSerializer.getInstance().readEnvelopeSummary(fileIs);
+        }
+        catch (Exception e)
+        {
+            throw new AMException(AMError.TEMPLATE_MALFORMED, ovfId, e);
+        }
+        finally
+        {
+            try
+            {
+                if (fileIs != null)
+                {
+                    fileIs.close();
+                }
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        return summary;
+    }
+
     public static TemplateStateDto getTemplateStatus(final String enterpriseRepositoryPath,
         final String ovfId)
     {
@@ -239,6 +284,8 @@ public class TemplateFileSystem
             throw new AMException(AMError.TEMPLATE_CHANGE_STATUS, mark.getAbsoluteFile()
                 .getAbsolutePath());
         }
+
+        EnterpriseRepositoryIndex.changed(packagePath);
     }
 
     private static void clearTemplateStatusMarks(final String packagePath)
@@ -311,6 +358,8 @@ public class TemplateFileSystem
             throw new AMException(AMError.DISK_FILE_MOVE, packagePath, e);
 
         }
+
+        EnterpriseRepositoryIndex.changed(filePath);
     }
 
     private static void createTemplateFormatsFolder(final String packagePath)
@@ -353,6 +402,7 @@ public class TemplateFileSystem
         }
 
         createTemplateFormatsFolder(packagePath);
+        EnterpriseRepositoryIndex.changed(packagePath);
     }
 
     /**
@@ -412,6 +462,8 @@ public class TemplateFileSystem
                 }
             }
         }// finally
+
+        EnterpriseRepositoryIndex.changed(envelopePath);
     }
 
     public static void deleteBundleConversion(final String packagePath, final String fileName)
@@ -433,6 +485,8 @@ public class TemplateFileSystem
                 LOG.error(cause);
             }
         }
+
+        EnterpriseRepositoryIndex.changed(formatsPath);
     }
 
     public static void deleteTemplate(final String packagePath)
@@ -473,6 +527,10 @@ public class TemplateFileSystem
                 }// nfs issue
 
             }
+            finally
+            {
+                EnterpriseRepositoryIndex.changed(packagePath);
+            }
             return;
         }
         else
@@ -515,6 +573,8 @@ public class TemplateFileSystem
             LOG.error("Can not delete the bundle of an imported virtual machine, on folder {}",
                 absPath);
         }
+
+        EnterpriseRepositoryIndex.changed(absPath);
     }
 
     public static void deleteBundle(final String enterpriseRepositoryPath, final String ovfId)
@@ -523,8 +583,8 @@ public class TemplateFileSystem
         final String snapshot = getBundleSnapshot(ovfId);
 
         final String packagePath = getTemplatePath(enterpriseRepositoryPath, ovfId);
-        final EnvelopeType envelope = getEnvelope(enterpriseRepositoryPath, masterOvf);
-        Set<String> fileLocations = OVFReferenceUtils.getAllReferencedFileLocations(envelope);
+        Set<String> fileLocations =
+            getEnvelopeSummary(enterpriseRepositoryPath, masterOvf).getFileLocations();
 
         for (String fileLocation : fileLocations)
         {
@@ -567,5 +627,6 @@ public class TemplateFileSystem
 
         final String envelopePath = enterpriseRepositoryPath + getRelativeTemplatePath(ovfId);
         new File(envelopePath).delete();
+        EnterpriseRepositoryIndex.changed(packagePath);
     }
 }
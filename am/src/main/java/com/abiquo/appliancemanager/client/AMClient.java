@@ -24,8 +24,10 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.Resource;
 import org.dmtf.schemas.ovf.envelope._1.EnvelopeType;
 
+import com.abiquo.appliancemanager.transport.DownloadQueueDto;
 import com.abiquo.appliancemanager.transport.EnterpriseRepositoryDto;
 import com.abiquo.appliancemanager.transport.RepositoryConfigurationDto;
 import com.abiquo.appliancemanager.transport.TemplateDto;
@@ -70,6 +72,8 @@ public class AMClient extends AMClientResources
 
     public static final String QUERY_PRAM_STATE = "state";
 
+    public static final String QUERY_PRAM_PRIORITY = "priority";
+
     public TemplatesStateDto getTemplatesState(final Integer idEnterprise,
         final TemplateStatusEnumType state) throws AMClientException
     {
@@ -141,12 +145,39 @@ public class AMClient extends AMClientResources
     public void installTemplateDefinition(final Integer idEnterprise, final String ovfId)
         throws AMClientException
     {
-        ClientResponse response = templates(idEnterprise)//
-            .accept(MediaType.APPLICATION_XML).contentType(MediaType.TEXT_PLAIN).post(ovfId);
+        installTemplateDefinition(idEnterprise, ovfId, false);
+    }
+
+    /**
+     * @param priority, a virtual machine deploy is waiting on the template (also gives priority to
+     *            an already queued download).
+     */
+    public void installTemplateDefinition(final Integer idEnterprise, final String ovfId,
+        final boolean priority) throws AMClientException
+    {
+        Resource resource = templates(idEnterprise);
+        if (priority)
+        {
+            resource.queryParam(QUERY_PRAM_PRIORITY, "true");
+        }
+
+        ClientResponse response =
+            resource.accept(MediaType.APPLICATION_XML).contentType(MediaType.TEXT_PLAIN)
+                .post(ovfId);
 
         checkResponseErrors(response);
     }
 
+    public DownloadQueueDto getDownloadQueue(final Integer idEnterprise)
+        throws AMClientException
+    {
+        ClientResponse response = downloads(idEnterprise)//
+            .accept(MediaType.APPLICATION_XML).get();
+        checkResponseErrors(response);
+
+        return response.getEntity(DownloadQueueDto.class);
+    }
+
     /**
      * Current status, eval if uploading.
      * 
@@ -49,6 +49,8 @@ public class AMClientResources
 
     protected String serviceUri;
 
+    protected boolean configTimeout;
+
     private RestClient client;
 
     private final static Integer CLIENT_TIMEOUT_MS = // 5 seconds
@@ -74,20 +76,34 @@ public class AMClientResources
             + "for repository filesystem requests set to {}ms", EFFECTIVE_CLIENT_TIMEOUT);
     }
 
+    /**
+     * The {@link RestClient} builds its providers registry on creation and it is safe to be used
+     * by several threads, so a single instance is shared by every client with the same timeout
+     * profile. Its requests go through the JDK keep-alive cache (''http.maxConnections'' idle
+     * connections for each remote service), so the connections are reused between requests.
+     */
+    private final static RestClient defaultClient = new RestClient();
+
+    private final static RestClient timeoutClient = new RestClient(confTimeout);
+
     /**
      * @param configTimeout, only for am request that will require some repository filesystem action
      */
     public void initializeClient(final String serviceUri, final boolean configTimeout)
     {
         this.serviceUri = serviceUri;
-        if (configTimeout)
-        {
-            this.client = new RestClient(confTimeout);
-        }
-        else
-        {
-            this.client = new RestClient();
-        }
+        this.configTimeout = configTimeout;
+        this.client = configTimeout ? timeoutClient : defaultClient;
+    }
+
+    public String getServiceUri()
+    {
+        return serviceUri;
+    }
+
+    public boolean isConfigTimeout()
+    {
+        return configTimeout;
     }
 
     public static String resolveTemplateUrl(final String serviceUri, final Integer idEnterprise,
@@ -148,6 +164,15 @@ public class AMClientResources
         return client.resource(url);
     }
 
+    Resource downloads(final Integer idEnterprise)
+    {
+        final String url =
+            URIResolver.resolveURI(serviceUri, "erepos/{erepo}/downloads",
+                Collections.singletonMap("erepo", valueOf(idEnterprise)));
+
+        return client.resource(url);
+    }
+
     Resource repositories()
     {
         final String url = String.format("%s/%s", serviceUri, "erepos");
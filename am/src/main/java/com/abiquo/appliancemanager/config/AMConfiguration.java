@@ -56,6 +56,13 @@ public class AMConfiguration
         Integer.parseInt(System.getProperty("abiquo.appliancemanager.fstimeoutms",
             String.valueOf(REPOSITORY_FILE_MARK_CHECK_TIMEOUT_SECONDS * 10 * 1000)));
 
+    /**
+     * Max time between full scans of the enterprise repository index, meanwhile only the folders
+     * modified since the last scan are read again.
+     */
+    public final static Integer ENTERPRISE_REPOSITORY_RESCAN_INTERVAL = // 5 minutes
+        Integer.parseInt(System.getProperty("abiquo.appliancemanager.rescanms", "300000"));
+
     /** **** ***** TIMEOUT CONNECTIONS **** ******/
 
     public final static Integer DOWNLOADING_PUBLISH_INTERVAL = Integer.valueOf(System.getProperty(
@@ -74,6 +81,45 @@ public class AMConfiguration
     public final static Integer HTTP_MAX_CONNECTIONS = //
         Integer.parseInt(System.getProperty("abiquo.appliancemanager.downloads", "-1"));
 
+    /** **** ***** DOWNLOADS **** ******/
+
+    /** Direct buffer (bytes) used to write each download (or segment) to the repository. */
+    public final static Integer DOWNLOAD_BUFFER_SIZE = //
+        Integer.parseInt(System.getProperty("abiquo.appliancemanager.download.buffer", "262144"));
+
+    /** Times a failed download (or segment) is resumed before setting the ERROR state. */
+    public final static Integer DOWNLOAD_RETRIES = //
+        Integer.parseInt(System.getProperty("abiquo.appliancemanager.download.retries", "3"));
+
+    public final static Integer DOWNLOAD_RETRY_DELAY_MS = //
+        Integer.parseInt(System.getProperty("abiquo.appliancemanager.download.retryDelay", "5000"));
+
+    /** Number of parallel ranged requests for large files (1 disables the segmented download). */
+    public final static Integer DOWNLOAD_SEGMENTS = //
+        Integer.parseInt(System.getProperty("abiquo.appliancemanager.download.segments", "1"));
+
+    /** Minimum file size (bytes) to use the segmented download. */
+    public final static Long DOWNLOAD_SEGMENT_THRESHOLD = //
+        Long.parseLong(System.getProperty("abiquo.appliancemanager.download.segmentThreshold",
+            "1073741824"));
+
+    /**
+     * A download mark not updated for this time (ms) belongs to a download no longer running, which
+     * can be resumed (or restarted) by this process.
+     */
+    public final static Long DOWNLOAD_MARK_STALE_MS = // 15 minutes
+        Long.parseLong(System.getProperty("abiquo.appliancemanager.download.markStaleMs",
+            "900000"));
+
+    /** Maximum number of concurrent template downloads. */
+    public final static Integer DOWNLOAD_MAX_ACTIVE = //
+        Integer.parseInt(System.getProperty("abiquo.appliancemanager.download.maxActive", "10"));
+
+    /** Maximum number of concurrent template downloads of each enterprise repository. */
+    public final static Integer DOWNLOAD_MAX_ACTIVE_REPOSITORY = //
+        Integer.parseInt(System.getProperty(
+            "abiquo.appliancemanager.download.maxActivePerRepository", "3"));
+
     /** **** ***** PROXY **** ******/
     public final static String HTTP_PROXY_USER = //
         System.getProperty("abiquo.httpProxy.user");
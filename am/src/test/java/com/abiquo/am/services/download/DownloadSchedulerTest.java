@@ -0,0 +1,138 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.am.services.download;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DownloadSchedulerTest
+{
+    private List<String> started;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        started = new ArrayList<String>();
+    }
+
+    @Test
+    public void testGlobalAndRepositoryLimits()
+    {
+        DownloadScheduler scheduler = new DownloadScheduler(3, 2);
+
+        submit(scheduler, "1", "a", false);
+        submit(scheduler, "1", "b", false);
+        submit(scheduler, "1", "c", false);
+        submit(scheduler, "2", "d", false);
+        submit(scheduler, "3", "e", false);
+
+        Assert.assertEquals(started.toString(), "[1/a, 1/b, 2/d]");
+        Assert.assertEquals(scheduler.getActive(), 3);
+        Assert.assertEquals(scheduler.getActive("1"), 2);
+        Assert.assertEquals(scheduler.getQueued(), 2);
+        Assert.assertEquals(scheduler.getQueued("1"), 1);
+
+        scheduler.finished("1");
+        Assert.assertEquals(started.toString(), "[1/a, 1/b, 2/d, 1/c]");
+    }
+
+    @Test
+    public void testRoundRobinBetweenRepositories()
+    {
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1);
+
+        submit(scheduler, "1", "a", false);
+        submit(scheduler, "1", "b", false);
+        submit(scheduler, "1", "c", false);
+        submit(scheduler, "2", "d", false);
+
+        scheduler.finished("1");
+        scheduler.finished("1");
+        scheduler.finished("2");
+
+        Assert.assertEquals(started.toString(), "[1/a, 1/b, 2/d, 1/c]");
+    }
+
+    @Test
+    public void testPriorityFirst()
+    {
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1);
+
+        submit(scheduler, "1", "a", false);
+        submit(scheduler, "1", "b", false);
+        submit(scheduler, "2", "c", false);
+        submit(scheduler, "2", "d", true);
+        Assert.assertTrue(scheduler.prioritize("1", "b"));
+
+        scheduler.finished("1");
+        scheduler.finished("2");
+        scheduler.finished("1");
+
+        Assert.assertEquals(started.toString(), "[1/a, 2/d, 1/b, 2/c]");
+        Assert.assertFalse(scheduler.prioritize("1", "b"));
+    }
+
+    @Test
+    public void testCancelQueued()
+    {
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1);
+
+        submit(scheduler, "1", "a", false);
+        submit(scheduler, "1", "b", false);
+
+        Assert.assertFalse(scheduler.cancel("1", "a"));
+        Assert.assertTrue(scheduler.cancel("1", "b"));
+        Assert.assertFalse(scheduler.isQueued("1", "b"));
+
+        scheduler.finished("1");
+        Assert.assertEquals(started.toString(), "[1/a]");
+        Assert.assertEquals(scheduler.getActive(), 0);
+    }
+
+    @Test
+    public void testAlreadyQueued()
+    {
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1);
+
+        Assert.assertTrue(submit(scheduler, "1", "a", false));
+        Assert.assertTrue(submit(scheduler, "1", "b", false));
+        Assert.assertFalse(submit(scheduler, "1", "b", true));
+        Assert.assertEquals(scheduler.getStarted(), 1);
+    }
+
+    private boolean submit(final DownloadScheduler scheduler, final String erepoId,
+        final String ovfId, final boolean priority)
+    {
+        return scheduler.submit(erepoId, ovfId, priority, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.add(erepoId + "/" + ovfId);
+            }
+        });
+    }
+}
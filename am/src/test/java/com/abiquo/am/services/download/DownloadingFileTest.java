@@ -0,0 +1,92 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.am.services.download;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class DownloadingFileTest
+{
+    @Test
+    public void testSmallFileNotSegmented()
+    {
+        List<long[]> ranges = DownloadingFile.split(0, 100, 4, 1000);
+
+        Assert.assertEquals(ranges.size(), 1);
+        assertRange(ranges.get(0), 0, -1);
+    }
+
+    @Test
+    public void testLargeFileSegmented()
+    {
+        List<long[]> ranges = DownloadingFile.split(0, 1000, 4, 1000);
+
+        Assert.assertEquals(ranges.size(), 4);
+        assertRange(ranges.get(0), 0, 249);
+        assertRange(ranges.get(1), 250, 499);
+        assertRange(ranges.get(2), 500, 749);
+        // the last segment reads until the end of the file
+        assertRange(ranges.get(3), 750, -1);
+    }
+
+    @Test
+    public void testResumedFileNotSegmented()
+    {
+        List<long[]> ranges = DownloadingFile.split(300, 1000, 4, 1000);
+
+        Assert.assertEquals(ranges.size(), 1);
+        assertRange(ranges.get(0), 300, -1);
+    }
+
+    @Test
+    public void testStrongEtagPreferred()
+    {
+        Assert.assertEquals(DownloadingFile.validator("\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT"),
+            "\"abc\"");
+    }
+
+    @Test
+    public void testWeakEtagNotUsed()
+    {
+        Assert.assertEquals(DownloadingFile.validator("W/\"abc\"",
+            "Wed, 21 Oct 2015 07:28:00 GMT"), "Wed, 21 Oct 2015 07:28:00 GMT");
+        Assert.assertNull(DownloadingFile.validator("W/\"abc\"", null));
+        Assert.assertNull(DownloadingFile.validator(null, null));
+    }
+
+    @Test
+    public void testRangeNotSatisfiableOfCompleteFile()
+    {
+        Assert.assertTrue(DownloadingFile.isAlreadyComplete(416, 1000, 1000));
+        Assert.assertFalse(DownloadingFile.isAlreadyComplete(416, 800, 1000));
+        Assert.assertFalse(DownloadingFile.isAlreadyComplete(416, 1000, 0));
+        Assert.assertFalse(DownloadingFile.isAlreadyComplete(200, 1000, 1000));
+    }
+
+    private static void assertRange(final long[] range, final long start, final long end)
+    {
+        Assert.assertEquals(range[0], start);
+        Assert.assertEquals(range[1], end);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.am.services.filesystem;
+
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.markFile;
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.releaseFile;
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.suspendFile;
+import static com.abiquo.am.services.filesystem.EnterpriseRepositoryFileSystem.takeFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.appliancemanager.exceptions.AMException;
+
+public class EnterpriseRepositoryFileSystemTest
+{
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("template", ".vmdk");
+        file.delete();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        releaseFile(file.getAbsolutePath());
+        file.delete();
+    }
+
+    @Test
+    public void testSuspendedDownloadIsResumed() throws IOException
+    {
+        FileChannel channel = takeFile(file.getAbsolutePath());
+        markFile(file.getAbsolutePath(), false, "\"etag\"");
+        channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        channel.close();
+        suspendFile(file.getAbsolutePath());
+
+        channel = takeFile(file.getAbsolutePath());
+        Assert.assertEquals(channel.size(), 3);
+        Assert.assertEquals(EnterpriseRepositoryFileSystem.getFileValidator(file
+            .getAbsolutePath()), "\"etag\"");
+        channel.close();
+    }
+
+    @Test
+    public void testSegmentedDownloadIsNotResumed() throws IOException
+    {
+        FileChannel channel = takeFile(file.getAbsolutePath());
+        markFile(file.getAbsolutePath(), true, "\"etag\"");
+        channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 10);
+        channel.close();
+        suspendFile(file.getAbsolutePath());
+
+        channel = takeFile(file.getAbsolutePath());
+        Assert.assertEquals(channel.size(), 0);
+        channel.close();
+    }
+
+    @Test
+    public void testDownloadWithoutValidatorIsNotResumed() throws IOException
+    {
+        FileChannel channel = takeFile(file.getAbsolutePath());
+        markFile(file.getAbsolutePath(), false, null);
+        channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        channel.close();
+        suspendFile(file.getAbsolutePath());
+
+        channel = takeFile(file.getAbsolutePath());
+        Assert.assertEquals(channel.size(), 0);
+        channel.close();
+    }
+
+    @Test(expectedExceptions = AMException.class)
+    public void testFileBeingDownloadByAnotherProcess() throws IOException
+    {
+        // a recent mark not suspended
+        new FileOutputStream(file.getAbsolutePath() + ".download").close();
+
+        takeFile(file.getAbsolutePath());
+    }
+
+    @Test
+    public void testStaleDownloadOfAnotherProcessIsResumed() throws IOException
+    {
+        // another process stopped without suspending the download
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        out = new FileOutputStream(file.getAbsolutePath() + ".download");
+        out.write("segmented=false\nvalidator=\"etag\"\n".getBytes());
+        out.close();
+        new File(file.getAbsolutePath() + ".download").setLastModified(0);
+
+        FileChannel channel = takeFile(file.getAbsolutePath());
+        Assert.assertEquals(channel.size(), 3);
+        channel.close();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.am.services.filesystem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.appliancemanager.transport.TemplateStateDto;
+import com.abiquo.appliancemanager.transport.TemplateStatusEnumType;
+
+public class EnterpriseRepositoryIndexTest
+{
+    private File repository;
+
+    private EnterpriseRepositoryIndex index;
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        repository = File.createTempFile("erepo", "");
+        repository.delete();
+        repository.mkdirs();
+
+        write(new File(repository, "template/desc.ovf"), 10);
+        write(new File(repository, "template/disk.vmdk"), 20);
+
+        index = EnterpriseRepositoryIndex.getIndex(repository.getAbsolutePath());
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(repository);
+    }
+
+    @Test
+    public void testTemplatesAndUsedSize()
+    {
+        List<TemplateStateDto> templates = index.getTemplates(false);
+
+        Assert.assertEquals(templates.size(), 1);
+        Assert.assertTrue(templates.get(0).getOvfId().endsWith("template/desc.ovf"));
+        Assert.assertEquals(templates.get(0).getStatus(), TemplateStatusEnumType.DOWNLOAD);
+        Assert.assertEquals(index.getUsedBytes(), 30);
+    }
+
+    @Test
+    public void testChangedFileIsListedAgain() throws IOException
+    {
+        Assert.assertEquals(index.getUsedBytes(), 30);
+
+        File disk = new File(repository, "template/disk.vmdk");
+        write(disk, 50);
+        EnterpriseRepositoryIndex.changed(disk.getAbsolutePath());
+
+        Assert.assertEquals(index.getUsedBytes(), 60);
+    }
+
+    @Test
+    public void testModifiedFolderIsListedAgain() throws IOException
+    {
+        Assert.assertEquals(index.getTemplates(false).size(), 1);
+
+        write(new File(repository, "other/desc.ovf"), 5);
+        // the folder modification time has one second resolution on some file systems
+        repository.setLastModified(repository.lastModified() + 2000);
+
+        Assert.assertEquals(index.getTemplates(false).size(), 2);
+        Assert.assertEquals(index.getUsedBytes(), 35);
+    }
+
+    private static void write(final File file, final int size) throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(new byte[size]);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
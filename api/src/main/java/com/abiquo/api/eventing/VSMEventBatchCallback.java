@@ -0,0 +1,42 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.eventing;
+
+import java.util.Collection;
+
+import com.abiquo.commons.amqp.impl.vsm.VSMCallback;
+import com.abiquo.commons.amqp.impl.vsm.domain.VirtualSystemEvent;
+
+/**
+ * A {@link VSMCallback} able to apply the state changes of several virtual machines at once. The
+ * other events are still processed one by one with {@link #onEvent(VirtualSystemEvent)}.
+ */
+public interface VSMEventBatchCallback extends VSMCallback
+{
+    /**
+     * Apply the given state changes in a single transaction.
+     * 
+     * @param notifications The state change events (see {@link VSMEventBatcher#isStateChange}), at
+     *            most one for each virtual machine.
+     */
+    public void onStateChanges(Collection<VirtualSystemEvent> notifications);
+}
@@ -0,0 +1,329 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.eventing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.amqp.impl.vsm.VSMCallback;
+import com.abiquo.commons.amqp.impl.vsm.domain.VirtualSystemEvent;
+import com.abiquo.vsm.events.VMEventType;
+
+/**
+ * Drains the received {@link VirtualSystemEvent} into short windows and hands the state changes of
+ * each window to a {@link VSMEventBatchCallback}, so a burst of events (all the virtual machines of
+ * a host powering off) is applied in a single transaction.
+ * <p>
+ * Within a window only the latest state change of each virtual machine is kept. The other events
+ * (DESTROYED, MOVED) are processed one by one, in order and each in its own transaction, after
+ * applying any pending state change of the same virtual machine. If the state changes of a window
+ * can not be applied together they are retried one by one, so a failing event does not discard the
+ * rest of the window.
+ * <p>
+ * The events are acknowledged once buffered, so the events still in the buffer are lost if the
+ * API stops abruptly. When the buffer is full the consumer thread waits.
+ */
+public class VSMEventBatcher implements VSMCallback
+{
+    private final static Logger LOGGER = LoggerFactory.getLogger(VSMEventBatcher.class);
+
+    /** Window to wait for more events once one is received (ms). Zero disables the batching. */
+    public final static long WINDOW = Long.parseLong(System.getProperty(
+        "abiquo.vsm.events.window", "0"));
+
+    /** Maximum number of events in a window. */
+    private final static int MAX_BATCH = Integer.parseInt(System.getProperty(
+        "abiquo.vsm.events.batch", "500"));
+
+    /** Maximum number of buffered events. */
+    private final static int BUFFER = Integer.parseInt(System.getProperty(
+        "abiquo.vsm.events.buffer", "10000"));
+
+    private final VSMEventBatchCallback callback;
+
+    private final BlockingQueue<VirtualSystemEvent> buffer;
+
+    private final long window;
+
+    private final int maxBatch;
+
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong windows = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    public VSMEventBatcher(final VSMEventBatchCallback callback)
+    {
+        this(callback, WINDOW, MAX_BATCH, BUFFER);
+    }
+
+    public VSMEventBatcher(final VSMEventBatchCallback callback, final long window,
+        final int maxBatch, final int bufferSize)
+    {
+        this.callback = callback;
+        this.window = window;
+        this.maxBatch = maxBatch;
+        this.buffer = new LinkedBlockingQueue<VirtualSystemEvent>(bufferSize);
+
+        flusher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flushLoop();
+            }
+        }, "VSMEventBatcher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void onEvent(final VirtualSystemEvent notification)
+    {
+        try
+        {
+            buffer.put(notification);
+            received.incrementAndGet();
+        }
+        catch (InterruptedException e)
+        {
+            // Do not lose the event, process it in the consumer thread
+            Thread.currentThread().interrupt();
+            process(singleton(notification));
+        }
+    }
+
+    /**
+     * Stops the flusher thread once the buffered events are processed.
+     */
+    public void stop()
+    {
+        running = false;
+        flusher.interrupt();
+
+        try
+        {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void flushLoop()
+    {
+        while (running || !buffer.isEmpty())
+        {
+            try
+            {
+                VirtualSystemEvent first = running ? buffer.take() : buffer.poll();
+                if (first == null)
+                {
+                    continue;
+                }
+
+                process(drainWindow(first));
+            }
+            catch (InterruptedException e)
+            {
+                // Stopping, process the remaining events
+            }
+        }
+    }
+
+    private List<VirtualSystemEvent> drainWindow(final VirtualSystemEvent first)
+    {
+        List<VirtualSystemEvent> batch = new ArrayList<VirtualSystemEvent>();
+        batch.add(first);
+
+        long deadline = System.currentTimeMillis() + window;
+        while (batch.size() < maxBatch)
+        {
+            buffer.drainTo(batch, maxBatch - batch.size());
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (batch.size() >= maxBatch || remaining <= 0 || !running)
+            {
+                break;
+            }
+
+            try
+            {
+                VirtualSystemEvent next = buffer.poll(remaining, TimeUnit.MILLISECONDS);
+                if (next == null)
+                {
+                    break;
+                }
+                batch.add(next);
+            }
+            catch (InterruptedException e)
+            {
+                // Stopping, process what we have
+                break;
+            }
+        }
+
+        return batch;
+    }
+
+    private void process(final List<VirtualSystemEvent> batch)
+    {
+        windows.incrementAndGet();
+
+        // Latest state change of each virtual machine, by arrival order
+        Map<String, VirtualSystemEvent> latest = new LinkedHashMap<String, VirtualSystemEvent>();
+
+        for (VirtualSystemEvent notification : batch)
+        {
+            String name = notification.getVirtualSystemId();
+
+            if (isStateChange(notification))
+            {
+                latest.remove(name);
+                latest.put(name, notification);
+            }
+            else
+            {
+                // The destroy depends on the current state, apply the pending change before
+                VirtualSystemEvent pending = latest.remove(name);
+                if (pending != null)
+                {
+                    processEvent(pending);
+                }
+
+                processEvent(notification);
+            }
+        }
+
+        processStateChanges(latest.values());
+    }
+
+    private void processStateChanges(final Collection<VirtualSystemEvent> notifications)
+    {
+        if (notifications.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            callback.onStateChanges(notifications);
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Can not apply {} VSM state changes together, retrying one by one: {}",
+                notifications.size(), e.getMessage());
+
+            for (VirtualSystemEvent notification : notifications)
+            {
+                processEvent(notification);
+            }
+        }
+    }
+
+    private void processEvent(final VirtualSystemEvent notification)
+    {
+        try
+        {
+            callback.onEvent(notification);
+        }
+        catch (Exception e)
+        {
+            failures.incrementAndGet();
+            LOGGER.error("Can not process the VSM event {} of {}: {}", new Object[] {
+            notification.getEventType(), notification.getVirtualSystemId(), e.getMessage()});
+        }
+    }
+
+    /**
+     * Returns true if the event only changes the state of the virtual machine, so it can be
+     * coalesced with the other state changes of the same virtual machine.
+     */
+    public static boolean isStateChange(final VirtualSystemEvent notification)
+    {
+        if (notification.getEventType() == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            switch (VMEventType.valueOf(notification.getEventType()))
+            {
+                case PAUSED:
+                case POWER_OFF:
+                case POWER_ON:
+                case RESUMED:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    private static List<VirtualSystemEvent> singleton(final VirtualSystemEvent notification)
+    {
+        List<VirtualSystemEvent> batch = new ArrayList<VirtualSystemEvent>(1);
+        batch.add(notification);
+        return batch;
+    }
+
+    public long getReceived()
+    {
+        return received.get();
+    }
+
+    public long getWindows()
+    {
+        return windows.get();
+    }
+
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    public int getBuffered()
+    {
+        return buffer.size();
+    }
+}
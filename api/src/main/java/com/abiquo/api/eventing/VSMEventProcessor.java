@@ -21,8 +21,13 @@
 
 package com.abiquo.api.eventing;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.persistence.EntityManager;
 
@@ -45,6 +50,7 @@ import com.abiquo.server.core.cloud.VirtualMachine;
 import com.abiquo.server.core.cloud.VirtualMachineRep;
 import com.abiquo.server.core.cloud.VirtualMachineState;
 import com.abiquo.server.core.infrastructure.Datacenter;
+import com.abiquo.server.core.infrastructure.Machine;
 import com.abiquo.server.core.infrastructure.RemoteService;
 import com.abiquo.tracer.ComponentType;
 import com.abiquo.tracer.EventType;
@@ -54,14 +60,20 @@ import com.abiquo.vsm.events.VMEventType;
 /**
  * This listener {@link VSMCallback} receives the events from the all Virtual System Monitors in
  * each datacenter and updates the state of virtual machines and virtual appliances in database.
+ * <p>
+ * The events can also be processed in windows (see {@link VSMEventBatcher}). Then only the latest
+ * state of each virtual machine is applied, all of them in a single transaction.
  * 
  * @author eruiz@abiquo.com
  */
 @Service
-public class VSMEventProcessor implements VSMCallback
+public class VSMEventProcessor implements VSMEventBatchCallback
 {
     private final static Logger LOGGER = LoggerFactory.getLogger(VSMEventProcessor.class);
 
+    /** Virtual machine names listed in an aggregated trace. */
+    private final static int MAX_TRACED_NAMES = 10;
+
     @Autowired
     protected VirtualMachineRep virtualMachineRep;
 
@@ -147,6 +159,75 @@ public class VSMEventProcessor implements VSMCallback
         }
     }
 
+    /**
+     * Applies the given state changes in a new transaction, and traces them once for each event
+     * type. The events are not coalesced here (see {@link VSMEventBatcher}).
+     * 
+     * @param notifications The state changes, at most one for each virtual machine.
+     */
+    @Override
+    @Transactional(readOnly = false, propagation = Propagation.REQUIRES_NEW)
+    public void onStateChanges(final Collection<VirtualSystemEvent> notifications)
+    {
+        LOGGER.debug("Processing {} state changes.", notifications.size());
+
+        Map<String, VMEventType> eventByName = new HashMap<String, VMEventType>();
+        for (VirtualSystemEvent notification : notifications)
+        {
+            eventByName.put(notification.getVirtualSystemId(),
+                eventFromString(notification.getEventType()));
+        }
+
+        Map<VMEventType, List<String>> namesByEvent =
+            new EnumMap<VMEventType, List<String>>(VMEventType.class);
+
+        // Update the loaded entities, so the changes go through the session as in onEvent
+        for (VirtualMachine machine : virtualMachineRep.findByNames(eventByName.keySet()))
+        {
+            VMEventType event = eventByName.get(machine.getName());
+            machine.setState(stateByEvent.get(event));
+            virtualMachineRep.update(machine);
+
+            List<String> names = namesByEvent.get(event);
+            if (names == null)
+            {
+                names = new ArrayList<String>();
+                namesByEvent.put(event, names);
+            }
+            names.add(machine.getName());
+        }
+
+        for (Entry<VMEventType, List<String>> entry : namesByEvent.entrySet())
+        {
+            traceVirtualMachinesStateUpdated(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Publish a single INFO system log for all the virtual machines updated by the same event.
+     * 
+     * @param event The processed event.
+     * @param names The names of the updated virtual machines.
+     */
+    protected void traceVirtualMachinesStateUpdated(final VMEventType event,
+        final List<String> names)
+    {
+        String listed =
+            names.size() > MAX_TRACED_NAMES ? names.subList(0, MAX_TRACED_NAMES).toString()
+                + " and " + (names.size() - MAX_TRACED_NAMES) + " more" : names.toString();
+
+        String message =
+            String.format("Processed %s event in %d machines %s, the current machines state is %s.",
+                event.name(), names.size(), listed, stateByEvent.get(event).name());
+
+        if (traceEventByEvent.containsKey(event))
+        {
+            tracer.systemLog(SeverityType.INFO, ComponentType.VIRTUAL_MACHINE,
+                traceEventByEvent.get(event), message);
+        }
+        LOGGER.debug(message);
+    }
+
     /**
      * Process the given notification and if it affects to the virtual machine, updates the state of
      * a virtual machine instance.
@@ -261,7 +342,9 @@ public class VSMEventProcessor implements VSMCallback
                 "DESTROY event for virtualmachine '" + virtualMachine.getName() + "'";
             try
             {
-                SchedulerLock.acquire(lockMessage);
+                Machine machine = virtualMachine.getHypervisor().getMachine();
+                SchedulerLock.acquire(machine.getDatacenter().getId(), machine.getRack().getId(),
+                    lockMessage);
                 allocatorService.deallocateVirtualMachine(virtualMachine);
             }
             finally
@@ -22,6 +22,7 @@
 package com.abiquo.api.handlers;
 
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
@@ -43,6 +44,10 @@ public class CheckLinksPermissionsHandler extends AbstractHandler
 
     private static final String SLASH = "/";
 
+    @SuppressWarnings("unchecked")
+    private static final Comparator<RESTLink> LINK_ORDER =
+        CompositeComparator.build(LinkOrder.BY_REL, LinkOrder.BY_TITLE);
+
     @Override
     public void handleResponse(final MessageContext msgContext) throws Throwable
     {
@@ -75,7 +80,6 @@ public class CheckLinksPermissionsHandler extends AbstractHandler
         super.handleResponse(msgContext);
     }
 
-    @SuppressWarnings("unchecked")
     protected List<RESTLink> checkLinks(final List<RESTLink> links, final String baseUri)
     {
         List<RESTLink> authLinks = null;
@@ -83,8 +87,7 @@ public class CheckLinksPermissionsHandler extends AbstractHandler
         if (links != null)
         {
             authLinks = getUrlAuthenticator().checkAuthLinks(links, baseUri);
-            Collections.sort(authLinks,
-                CompositeComparator.build(LinkOrder.BY_REL, LinkOrder.BY_TITLE));
+            Collections.sort(authLinks, LINK_ORDER);
         }
 
         return authLinks;
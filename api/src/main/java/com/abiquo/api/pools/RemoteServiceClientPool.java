@@ -21,17 +21,21 @@
 
 package com.abiquo.api.pools;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 
 import com.abiquo.api.exceptions.APIError;
 import com.abiquo.api.pools.impl.VSMClientPool;
 import com.abiquo.api.services.DefaultApiService;
+import com.abiquo.model.util.LatencyStats;
 import com.abiquo.server.core.infrastructure.RemoteService;
 
 /**
@@ -44,6 +48,7 @@ import com.abiquo.server.core.infrastructure.RemoteService;
  * @param <T> The type of the remote service client.
  */
 @Service
+@ManagedResource(objectName = "Abiquo:Name=RemoteServiceClientPool,Type=com.abiquo.api.pools.RemoteServiceClientPool")
 public class RemoteServiceClientPool extends DefaultApiService
 {
     /** The logger. */
@@ -53,7 +58,12 @@ public class RemoteServiceClientPool extends DefaultApiService
      * A map of remote service client pools holding single connection pools for each remote service
      * in each datacenter.
      */
-    private Map<String, Pool< ? >> pools = new HashMap<String, Pool< ? >>();
+    private final ConcurrentMap<String, Pool< ? >> pools =
+        new ConcurrentHashMap<String, Pool< ? >>();
+
+    private final LatencyStats borrowWait = new LatencyStats();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
 
     /**
      * Get a remote service client from the pool to connect to the given remote service.
@@ -65,9 +75,12 @@ public class RemoteServiceClientPool extends DefaultApiService
     {
         Pool< ? > pool = getPoolForRemoteService(remoteService);
         Object client = null;
+        final long start = System.currentTimeMillis();
         try
         {
             client = pool.borrowObject();
+            borrowWait.record(System.currentTimeMillis() - start);
+            inFlight.incrementAndGet();
         }
         catch (Exception ex)
         {
@@ -86,7 +99,15 @@ public class RemoteServiceClientPool extends DefaultApiService
      */
     public void releaseClientFor(final RemoteService remoteService, final Object client)
     {
-        Pool< ? > pool = getPoolForRemoteService(remoteService);
+        inFlight.decrementAndGet();
+
+        Pool< ? > pool = pools.get(remoteService.getUri());
+        if (pool == null)
+        {
+            // The pool has been evicted, discard the client
+            return;
+        }
+
         try
         {
             pool.returnObject(client);
@@ -111,11 +132,73 @@ public class RemoteServiceClientPool extends DefaultApiService
         Pool< ? > pool = pools.get(remoteService.getUri());
         if (pool == null)
         {
-            pool = createClientPoolFor(remoteService);
+            Pool< ? > created = createClientPoolFor(remoteService);
+
+            pool = pools.putIfAbsent(remoteService.getUri(), created);
+            if (pool == null)
+            {
+                pool = created;
+            }
+            else
+            {
+                close(created);
+            }
         }
         return pool;
     }
 
+    /**
+     * Close the client pool of the remote service with the given URI. Clients currently borrowed
+     * are discarded when released.
+     * 
+     * @param uri The URI of the removed (or modified) remote service.
+     */
+    public void evict(final String uri)
+    {
+        close(pools.remove(uri));
+    }
+
+    private void close(final Pool< ? > pool)
+    {
+        if (pool == null)
+        {
+            return;
+        }
+
+        try
+        {
+            pool.close();
+        }
+        catch (Exception ex)
+        {
+            LOGGER.trace("Unable to close remote service client pool", ex);
+        }
+    }
+
+    @ManagedAttribute(description = "Number of remote service client pools")
+    public int getPools()
+    {
+        return pools.size();
+    }
+
+    @ManagedAttribute(description = "Clients currently borrowed")
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    @ManagedAttribute(description = "Mean time (ms) waiting for a client")
+    public long getBorrowWaitMean()
+    {
+        return borrowWait.getMean();
+    }
+
+    @ManagedAttribute(description = "Max time (ms) waiting for a client")
+    public long getBorrowWaitMax()
+    {
+        return borrowWait.getMax();
+    }
+
     /**
      * Create a new remote service client pool for the given remote service.
      * 
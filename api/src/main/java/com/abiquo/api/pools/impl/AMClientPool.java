@@ -21,39 +21,192 @@
 
 package com.abiquo.api.pools.impl;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.commons.pool.BasePoolableObjectFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
 import com.abiquo.appliancemanager.client.AMClient;
+import com.abiquo.model.util.LatencyStats;
 
 /**
- * {@link GenericObjectPool} for {@link AMClient}.
+ * Registry of {@link GenericObjectPool} of {@link AMClient}, one for each appliance manager URI and
+ * timeout profile.
+ * <p>
+ * The pooled clients are initialized once, when created, and keep its target. The pools of an
+ * appliance manager are closed with {@link #evict(String)} when the remote service is removed or
+ * its URI changes. Each borrowed client is returned to the pool that created it, so a client of
+ * an evicted pool is destroyed instead of being mixed with the clients of a newer pool. At most ''abiquo.appliancemanager.client.maxActive'' clients are borrowed for
+ * each pool, further borrows wait for a client to be returned.
  */
 @Component
-public class AMClientPool extends GenericObjectPool
+@ManagedResource(objectName = "Abiquo:Name=AMClientPool,Type=com.abiquo.api.pools.impl.AMClientPool")
+public class AMClientPool
 {
+    private final static Logger LOGGER = LoggerFactory.getLogger(AMClientPool.class);
 
-    public AMClientPool()
-    {
-        super(new PoolableAMClientFactory());
-    }
+    private final static int MAX_ACTIVE = Integer.parseInt(System.getProperty(
+        "abiquo.appliancemanager.client.maxActive", "8"));
+
+    private final ConcurrentMap<String, GenericObjectPool> pools =
+        new ConcurrentHashMap<String, GenericObjectPool>();
+
+    /** Pool that created each borrowed client. */
+    private final ConcurrentMap<AMClient, GenericObjectPool> borrowed =
+        new ConcurrentHashMap<AMClient, GenericObjectPool>();
+
+    private final LatencyStats borrowWait = new LatencyStats();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
 
     /**
      * @param configTimeout, only for am request that will require some repository filesystem action
      */
     public AMClient borrowObject(final String uri, final boolean withTimeout) throws Exception
     {
-        AMClient client = (AMClient) super.borrowObject();
-        return client.initialize(uri, withTimeout);
+        final long start = System.currentTimeMillis();
+
+        GenericObjectPool pool = getPool(uri, withTimeout);
+        AMClient client = (AMClient) pool.borrowObject();
+        borrowed.put(client, pool);
+
+        borrowWait.record(System.currentTimeMillis() - start);
+        inFlight.incrementAndGet();
+        return client;
+    }
+
+    public void returnObject(final Object obj) throws Exception
+    {
+        AMClient client = (AMClient) obj;
+
+        GenericObjectPool pool = borrowed.remove(client);
+        if (pool == null)
+        {
+            LOGGER.warn("Returned an AMClient not borrowed from the pool");
+            return;
+        }
+        inFlight.decrementAndGet();
+
+        if (pools.get(key(client.getServiceUri(), client.isConfigTimeout())) == pool)
+        {
+            pool.returnObject(client);
+        }
+        else
+        {
+            // the pool has been evicted, discard the client
+            pool.invalidateObject(client);
+        }
+    }
+
+    /**
+     * Close the pools of the given appliance manager. Clients currently borrowed are discarded when
+     * returned.
+     */
+    public void evict(final String uri)
+    {
+        close(pools.remove(key(uri, true)));
+        close(pools.remove(key(uri, false)));
+    }
+
+    protected GenericObjectPool getPool(final String uri, final boolean withTimeout)
+    {
+        final String key = key(uri, withTimeout);
+
+        GenericObjectPool pool = pools.get(key);
+        if (pool == null)
+        {
+            GenericObjectPool created =
+                new GenericObjectPool(new PoolableAMClientFactory(uri, withTimeout), MAX_ACTIVE);
+
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null)
+            {
+                LOGGER.debug("New AMClient pool for {}", key);
+                pool = created;
+            }
+            else
+            {
+                close(created);
+            }
+        }
+        return pool;
+    }
+
+    private static String key(final String uri, final boolean withTimeout)
+    {
+        return uri + (withTimeout ? "#timeout" : "#default");
+    }
+
+    private void close(final GenericObjectPool pool)
+    {
+        if (pool == null)
+        {
+            return;
+        }
+
+        try
+        {
+            pool.close();
+        }
+        catch (Exception e)
+        {
+            LOGGER.trace("Unable to close AMClient pool", e);
+        }
+    }
+
+    @ManagedAttribute(description = "Number of appliance manager client pools")
+    public int getPools()
+    {
+        return pools.size();
+    }
+
+    @ManagedAttribute(description = "Clients currently borrowed")
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    @ManagedAttribute(description = "Mean time (ms) waiting for a client")
+    public long getBorrowWaitMean()
+    {
+        return borrowWait.getMean();
+    }
+
+    @ManagedAttribute(description = "Max time (ms) waiting for a client")
+    public long getBorrowWaitMax()
+    {
+        return borrowWait.getMax();
+    }
+
+    @ManagedAttribute(description = "Number of borrowed clients")
+    public long getBorrowed()
+    {
+        return borrowWait.getCount();
     }
 
     private static class PoolableAMClientFactory extends BasePoolableObjectFactory
     {
+        private final String uri;
+
+        private final boolean withTimeout;
+
+        public PoolableAMClientFactory(final String uri, final boolean withTimeout)
+        {
+            this.uri = uri;
+            this.withTimeout = withTimeout;
+        }
+
         @Override
         public Object makeObject() throws Exception
         {
-            return new AMClient();
+            return new AMClient().initialize(uri, withTimeout);
         }
     }
 }
@@ -47,6 +47,7 @@ import com.abiquo.api.resources.AbstractResource;
 import com.abiquo.api.resources.TaskResourceUtils;
 import com.abiquo.api.services.NetworkService;
 import com.abiquo.api.services.cloud.VirtualApplianceService;
+import com.abiquo.api.services.cloud.VirtualDatacenterService;
 import com.abiquo.api.services.cloud.VirtualMachineLock;
 import com.abiquo.api.util.IRESTBuilder;
 import com.abiquo.model.rest.RESTLink;
@@ -58,6 +59,7 @@ import com.abiquo.server.core.cloud.VirtualAppliance;
 import com.abiquo.server.core.cloud.VirtualApplianceDto;
 import com.abiquo.server.core.cloud.VirtualApplianceState;
 import com.abiquo.server.core.cloud.VirtualApplianceStateDto;
+import com.abiquo.server.core.cloud.VirtualDatacenter;
 import com.abiquo.server.core.cloud.VirtualMachineState;
 import com.abiquo.server.core.cloud.VirtualMachineTaskDto;
 import com.abiquo.server.core.infrastructure.network.IpPoolManagement;
@@ -103,6 +105,9 @@ public class VirtualApplianceResource extends AbstractResource
     @Autowired
     private VirtualMachineLock vmLock;
 
+    @Autowired
+    private VirtualDatacenterService vdcService;
+
     /**
      * Return the virtual appliance if exists. And also the expanded nodes. <br>
      * <ul>
@@ -318,7 +323,9 @@ public class VirtualApplianceResource extends AbstractResource
         final String lockMsg = "Allocate vapp " + vappId;
         try
         {
-            SchedulerLock.acquire(lockMsg);
+            VirtualDatacenter vdc = vdcService.getVirtualDatacenter(vdcId);
+            SchedulerLock.acquireForEnterprise(vdc.getEnterprise().getId(), vdc.getDatacenter()
+                .getId(), lockMsg);
 
             Map<Integer, String> links = service.deployVirtualAppliance(vdcId, vappId, forceLimits);
             addStatusLinks(links, dto, uriInfo);
@@ -443,7 +443,9 @@ public class VirtualMachineResource extends AbstractResource
 
         try
         {
-            SchedulerLock.acquire(lockMsg);
+            VirtualDatacenter vdc = vdcService.getVirtualDatacenter(vdcId);
+            SchedulerLock.acquireForEnterprise(vdc.getEnterprise().getId(), vdc.getDatacenter()
+                .getId(), lockMsg);
 
             String taskId =
                 vmService.deployVirtualMachine(vmId, vappId, vdcId, forceSoftLimits
@@ -38,6 +38,7 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.abiquo.api.exceptions.APIError;
+import com.abiquo.api.resources.DatacentersResource;
 import com.abiquo.api.services.cloud.VirtualDatacenterService;
 import com.abiquo.api.tracer.TracerLogger;
 import com.abiquo.model.enumerator.HypervisorType;
@@ -291,6 +292,7 @@ public class DatacenterService extends DefaultApiService
         }
 
         old.setName(datacenter.getName());
+        resourceRenamed(DatacentersResource.DATACENTERS_PATH, old.getId());
         old.setLocation(datacenter.getLocation());
 
         isValidDatacenter(old);
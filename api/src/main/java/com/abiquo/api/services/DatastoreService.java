@@ -32,6 +32,7 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.abiquo.api.exceptions.APIError;
+import com.abiquo.api.resources.DatastoresResource;
 import com.abiquo.api.services.stub.NodecollectorServiceStub;
 import com.abiquo.model.enumerator.HypervisorType;
 import com.abiquo.model.enumerator.RemoteServiceType;
@@ -137,6 +138,7 @@ public class DatastoreService extends DefaultApiService
         checkDuplicatedDatastoreToUpdate(old, dto);
 
         old.setName(dto.getName());
+        resourceRenamed(DatastoresResource.DATASTORES_PATH, old.getId());
         old.setDirectory(dto.getDirectory());
         old.setEnabled(dto.isEnabled());
         old.setDatastoreUUID(dto.getDatastoreUUID());
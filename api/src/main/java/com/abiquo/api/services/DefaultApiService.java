@@ -35,7 +35,9 @@ import com.abiquo.api.exceptions.InternalServerErrorException;
 import com.abiquo.api.exceptions.NotFoundException;
 import com.abiquo.api.exceptions.ServiceUnavailableException;
 import com.abiquo.api.tracer.TracerLogger;
+import com.abiquo.api.tracer.hierarchy.ResourceNameCache;
 import com.abiquo.model.transport.error.CommonError;
+import com.abiquo.scheduler.limit.EnterpriseUsageCounters;
 import com.abiquo.server.core.common.GenericEnityBase;
 
 public abstract class DefaultApiService
@@ -55,6 +57,40 @@ public abstract class DefaultApiService
     @Autowired
     protected TracerLogger tracer;
 
+    @Autowired(required = false)
+    protected ResourceNameCache resourceNames;
+
+    @Autowired(required = false)
+    protected EnterpriseUsageCounters usageCounters;
+
+    /**
+     * Discards the cached trace name of a renamed resource.
+     * 
+     * @param resourcePath The path of the resource collection.
+     * @param resourceId The identifier of the renamed resource.
+     */
+    protected void resourceRenamed(final String resourcePath, final Integer resourceId)
+    {
+        if (resourceNames != null)
+        {
+            resourceNames.invalidate(resourcePath, resourceId);
+        }
+    }
+
+    /**
+     * Discards the resource usage counters of an enterprise whose storage, VLANs or public IPs
+     * have changed.
+     * 
+     * @param enterpriseId The identifier of the enterprise.
+     */
+    protected void resourceUsageChanged(final Integer enterpriseId)
+    {
+        if (usageCounters != null)
+        {
+            usageCounters.invalidate(enterpriseId);
+        }
+    }
+
     protected void flushErrors()
     {
         Set<CommonError> errors = new LinkedHashSet<CommonError>();
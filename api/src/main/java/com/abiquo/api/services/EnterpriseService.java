@@ -40,6 +40,7 @@ import org.springframework.transaction.annotation.Transactional;
 import com.abiquo.api.exceptions.APIError;
 import com.abiquo.api.resources.DatacenterResource;
 import com.abiquo.api.resources.DatacentersResource;
+import com.abiquo.api.resources.EnterprisesResource;
 import com.abiquo.api.resources.config.PricingTemplateResource;
 import com.abiquo.api.resources.config.PricingTemplatesResource;
 import com.abiquo.api.services.appslibrary.CategoryService;
@@ -304,6 +305,7 @@ public class EnterpriseService extends DefaultApiService
         }
 
         old.setName(dto.getName());
+        resourceRenamed(EnterprisesResource.ENTERPRISES_PATH, old.getId());
         old.setIsReservationRestricted(dto.getIsReservationRestricted());
         old.setRamLimitsInMb(new Limit((long) dto.getRamSoftLimitInMb(), (long) dto
             .getRamHardLimitInMb()));
@@ -399,6 +401,7 @@ public class EnterpriseService extends DefaultApiService
                     for (User u : users)
                     {
                         repo.removeUser(u);
+                        userService.invalidatePrincipal(u);
                     }
                 }
                 deleteRole(r);
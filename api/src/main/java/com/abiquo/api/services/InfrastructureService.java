@@ -44,6 +44,7 @@ import org.springframework.transaction.annotation.Transactional;
 import com.abiquo.api.exceptions.APIError;
 import com.abiquo.api.exceptions.APIException;
 import com.abiquo.api.exceptions.InternalServerErrorException;
+import com.abiquo.api.resources.RacksResource;
 import com.abiquo.api.services.cloud.VirtualMachineService;
 import com.abiquo.api.services.stub.NodecollectorServiceStub;
 import com.abiquo.api.services.stub.VsmServiceStub;
@@ -463,6 +464,7 @@ public class InfrastructureService extends DefaultApiService
         }
 
         old.setName(rack.getName());
+        resourceRenamed(RacksResource.RACKS_PATH, old.getId());
         old.setShortDescription(rack.getShortDescription());
         old.setLongDescription(rack.getLongDescription());
         old.setHaEnabled(rack.isHaEnabled());
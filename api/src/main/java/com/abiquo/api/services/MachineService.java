@@ -37,6 +37,7 @@ import org.springframework.util.StringUtils;
 
 import com.abiquo.api.exceptions.APIError;
 import com.abiquo.api.exceptions.APIException;
+import com.abiquo.api.resources.MachinesResource;
 import com.abiquo.api.services.cloud.VirtualMachineService;
 import com.abiquo.api.services.stub.NodecollectorServiceStub;
 import com.abiquo.api.services.stub.VsmServiceStub;
@@ -263,6 +264,7 @@ public class MachineService extends DefaultApiService
             }
         }
         old.setName(machineDto.getName());
+        resourceRenamed(MachinesResource.MACHINES_PATH, old.getId());
         old.setDescription(machineDto.getDescription());
 
         old.setIpmiIP(machineDto.getIpmiIP());
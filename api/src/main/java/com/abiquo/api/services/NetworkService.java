@@ -26,8 +26,11 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.persistence.EntityManager;
@@ -42,6 +45,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.abiquo.api.config.ConfigService;
 import com.abiquo.api.exceptions.APIError;
+import com.abiquo.api.resources.cloud.PrivateNetworksResource;
 import com.abiquo.api.services.cloud.VirtualMachineService;
 import com.abiquo.api.tracer.TracerLogger;
 import com.abiquo.model.enumerator.NetworkType;
@@ -80,6 +84,9 @@ public class NetworkService extends DefaultApiService
     /** Logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(NetworkService.class);
 
+    /** Number of IPs inserted with each JDBC batch when a VLAN is created. */
+    private static final int IP_INSERT_BATCH = 500;
+
     /**
      * Prepares the {@link Rasd} entity regarding on the virtual machine and the ip we are
      * assigning. It's up to the method that calls this entity either save the Rasd or not.
@@ -145,6 +152,10 @@ public class NetworkService extends DefaultApiService
     @Autowired
     protected VirtualMachineService vmService;
 
+    /** Allocator of the IPs of the private VLANs. */
+    @Autowired(required = false)
+    protected PrivateIpAllocator ipAllocator;
+
     /**
      * Default constructor. Needed by @Autowired injections
      */
@@ -208,7 +219,9 @@ public class NetworkService extends DefaultApiService
         {
             case INTERNAL:
                 // find next available IP to use.
-                ip = repo.findNextIpAvailable(vlan.getId(), vlan.getConfiguration().getGateway());
+                ip =
+                    ipAllocator != null ? ipAllocator.allocate(vlan) : repo.findNextIpAvailable(
+                        vlan.getId(), vlan.getConfiguration().getGateway());
 
                 break;
 
@@ -435,11 +448,13 @@ public class NetworkService extends DefaultApiService
         repo.insertVlan(newVlan);
 
         // Calculate all the IPs of the VLAN and generate the DHCP entity that stores these IPs
-        Collection<IPAddress> range =
-            IPNetworkRang.calculateWholeRange(IPAddress.newIPAddress(newVlan.getConfiguration()
-                .getAddress()), newVlan.getConfiguration().getMask());
+        IPAddress networkAddress =
+            IPAddress.newIPAddress(newVlan.getConfiguration().getAddress());
+        Integer mask = newVlan.getConfiguration().getMask();
+        Iterable<IPAddress> range = IPNetworkRang.wholeRange(networkAddress, mask);
 
-        if (!IPAddress.isIntoRange(range, newVlan.getConfiguration().getGateway()))
+        if (!IPNetworkRang.isIntoWholeRange(networkAddress, mask, newVlan.getConfiguration()
+            .getGateway()))
         {
             addValidationErrors(APIError.VLANS_GATEWAY_OUT_OF_RANGE);
             flushErrors();
@@ -447,6 +462,7 @@ public class NetworkService extends DefaultApiService
 
         // store the dhcp and all the ips.
         storeIPs(virtualDatacenter.getDatacenter(), virtualDatacenter, newVlan, range);
+        resourceUsageChanged(virtualDatacenter.getEnterprise().getId());
         // Trace
         if (tracer != null)
         {
@@ -501,6 +517,11 @@ public class NetworkService extends DefaultApiService
 
         repo.deleteVLAN(vlanToDelete);
         datacenterRepo.deleteAllDhcpOption(vlanToDelete.getDhcpOption());
+        if (ipAllocator != null)
+        {
+            ipAllocator.evict(vlanToDelete.getId());
+        }
+        resourceUsageChanged(vdc.getEnterprise().getId());
 
         if (tracer != null)
         {
@@ -1204,8 +1225,7 @@ public class NetworkService extends DefaultApiService
             String newGateway = newNetwork.getConfiguration().getGateway();
             Integer mask = newNetwork.getConfiguration().getMask();
 
-            if (!IPAddress.isIntoRange(IPNetworkRang.calculateWholeRange(networkIP, mask),
-                newGateway))
+            if (!IPNetworkRang.isIntoWholeRange(networkIP, mask, newGateway))
             {
                 addConflictErrors(APIError.VLANS_GATEWAY_OUT_OF_RANGE);
                 flushErrors();
@@ -1269,6 +1289,7 @@ public class NetworkService extends DefaultApiService
             newNetwork.getConfiguration().getSecondaryDNS());
         oldNetwork.getConfiguration().setSufixDNS(newNetwork.getConfiguration().getSufixDNS());
         oldNetwork.setName(newNetwork.getName());
+        resourceRenamed(PrivateNetworksResource.PRIVATE_NETWORKS_PATH, oldNetwork.getId());
 
         repo.updateVlan(oldNetwork);
 
@@ -1409,15 +1430,16 @@ public class NetworkService extends DefaultApiService
      * @param vdc Virtual Dataceneter where the network are assigned. Can be null for public
      *            networks.
      * @param vlan VLAN to assign its ips.
-     * @param range List of ips to create inside the DHCP
+     * @param range ips to create inside the DHCP
      * @return
      */
     protected void storeIPs(final Datacenter datacenter, final VirtualDatacenter vdc,
-        final VLANNetwork vlan, final Collection<IPAddress> range)
+        final VLANNetwork vlan, final Iterable<IPAddress> range)
     {
+        Set<String> allMacAddresses =
+            vdc != null ? new HashSet<String>(repo.getAllMacs()) : Collections.<String> emptySet();
 
-        Collection<String> allMacAddresses = repo.getAllMacs();
-
+        List<IpPoolManagement> batch = new ArrayList<IpPoolManagement>(IP_INSERT_BATCH);
         for (IPAddress address : range)
         {
             String macAddress = null;
@@ -1428,8 +1450,7 @@ public class NetworkService extends DefaultApiService
                 {
                     macAddress = IPNetworkRang.requestRandomMacAddress(vdc.getHypervisorType());
                 }
-                while (allMacAddresses.contains(macAddress));
-                allMacAddresses.add(macAddress);
+                while (!allMacAddresses.add(macAddress));
 
                 // Replacing the ':' char into an empty char (it seems the dhcp.leases fails when
                 // reload
@@ -1446,9 +1467,14 @@ public class NetworkService extends DefaultApiService
                 ipManagement.setVirtualDatacenter(vdc);
             }
 
-            repo.insertIpManagement(ipManagement);
+            batch.add(ipManagement);
+            if (batch.size() >= IP_INSERT_BATCH)
+            {
+                repo.insertIpManagements(batch);
+                batch.clear();
+            }
         }
-
+        repo.insertIpManagements(batch);
     }
 
     private Integer getMaskbyNetMask(final String netmask)
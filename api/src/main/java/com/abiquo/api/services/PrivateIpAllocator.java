@@ -0,0 +1,318 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.api.services;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.abiquo.server.core.cloud.VirtualDatacenterRep;
+import com.abiquo.server.core.infrastructure.network.IpPoolManagement;
+import com.abiquo.server.core.infrastructure.network.VLANNetwork;
+import com.abiquo.server.core.util.network.IPAddress;
+import com.abiquo.server.core.util.network.IPNetworkRang;
+
+/**
+ * Allocates the IPs of the private VLANs from a bitmap of the used addresses of each VLAN.
+ * <p>
+ * The bitmap of a VLAN is built from the database the first time an IP is requested, and it is
+ * rebuilt when it has no free addresses left, since IPs can be released outside the API. Each
+ * reserved address is checked and locked in the database before it is returned, so concurrent
+ * deploys never get the same IP, and it is released again if the transaction rolls back.
+ * <p>
+ * A reserved address already used in the database means the bitmap is stale (the IP has been
+ * taken by another API instance), so it is built again. If it is still used after rebuilding, the
+ * address is released at the end of the transaction to check it again in the next allocation.
+ */
+@Component
+@ManagedResource(objectName = "Abiquo:Name=PrivateIpAllocator,Type=com.abiquo.api.services.PrivateIpAllocator")
+public class PrivateIpAllocator
+{
+    @Autowired
+    protected VirtualDatacenterRep repo;
+
+    private final ConcurrentMap<Integer, VlanAddresses> vlans =
+        new ConcurrentHashMap<Integer, VlanAddresses>();
+
+    private final AtomicLong allocations = new AtomicLong();
+
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    /**
+     * Reserves the next free IP of the private VLAN and locks it until the end of the current
+     * transaction.
+     * 
+     * @param vlan The private VLAN.
+     * @return The free IP, or null if the VLAN has no free IPs.
+     */
+    public IpPoolManagement allocate(final VLANNetwork vlan)
+    {
+        VlanAddresses addresses = vlans.get(vlan.getId());
+        boolean rebuilt = false;
+        if (addresses == null)
+        {
+            addresses = rebuild(vlan);
+            rebuilt = true;
+        }
+
+        while (true)
+        {
+            long address = addresses.reserve();
+            if (address < 0)
+            {
+                if (rebuilt)
+                {
+                    return null;
+                }
+
+                // Some IPs may have been released outside the API
+                addresses = rebuild(vlan);
+                rebuilt = true;
+                continue;
+            }
+
+            IpPoolManagement ip =
+                repo.findIpByAddressForUpdate(vlan.getId(), IPNetworkRang
+                    .toIPAddressString(address));
+            if (ip != null && ip.getVirtualMachine() == null)
+            {
+                releaseOnCompletion(addresses, address, true);
+                allocations.incrementAndGet();
+                return ip;
+            }
+
+            conflicts.incrementAndGet();
+            if (!rebuilt)
+            {
+                addresses = rebuild(vlan);
+                rebuilt = true;
+            }
+            else if (ip != null)
+            {
+                // Used by a concurrent transaction that may roll back
+                releaseOnCompletion(addresses, address, false);
+            }
+            // Not in the pool, keep it reserved
+        }
+    }
+
+    /**
+     * Releases the address of a detached IP once the current transaction commits.
+     * 
+     * @param ip The detached IP.
+     */
+    public void release(final IpPoolManagement ip)
+    {
+        if (ip.getVlanNetwork() == null || IPAddress.newIPAddress(ip.getIp()) == null)
+        {
+            return;
+        }
+
+        final VlanAddresses addresses = vlans.get(ip.getVlanNetwork().getId());
+        if (addresses == null)
+        {
+            return;
+        }
+
+        final long address = IPNetworkRang.toLong(IPAddress.newIPAddress(ip.getIp()));
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter()
+                {
+                    @Override
+                    public void afterCommit()
+                    {
+                        addresses.release(address);
+                    }
+                });
+        }
+        else
+        {
+            addresses.release(address);
+        }
+    }
+
+    /**
+     * Discards the bitmap of a deleted VLAN.
+     */
+    public void evict(final Integer vlanId)
+    {
+        vlans.remove(vlanId);
+    }
+
+    @ManagedOperation(description = "Discard all the VLAN bitmaps")
+    public void evictAll()
+    {
+        vlans.clear();
+    }
+
+    private VlanAddresses rebuild(final VLANNetwork vlan)
+    {
+        VlanAddresses addresses =
+            new VlanAddresses(IPAddress.newIPAddress(vlan.getConfiguration().getAddress()), vlan
+                .getConfiguration().getMask());
+
+        // The gateway is never assigned to a virtual machine
+        addresses.markUsed(IPAddress.newIPAddress(vlan.getConfiguration().getGateway()));
+        for (String used : repo.findUsedAddressesByVlan(vlan.getId()))
+        {
+            addresses.markUsed(IPAddress.newIPAddress(used));
+        }
+
+        vlans.put(vlan.getId(), addresses);
+        rebuilds.incrementAndGet();
+        return addresses;
+    }
+
+    /**
+     * Releases the reserved address once the current transaction ends.
+     * 
+     * @param onlyOnRollback If the address is kept reserved when the transaction commits.
+     */
+    private void releaseOnCompletion(final VlanAddresses addresses, final long address,
+        final boolean onlyOnRollback)
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter()
+                {
+                    @Override
+                    public void afterCompletion(final int status)
+                    {
+                        if (!onlyOnRollback
+                            || status != TransactionSynchronization.STATUS_COMMITTED)
+                        {
+                            addresses.release(address);
+                        }
+                    }
+                });
+        }
+    }
+
+    @ManagedAttribute(description = "VLANs with a bitmap of used addresses")
+    public int getVlans()
+    {
+        return vlans.size();
+    }
+
+    @ManagedAttribute(description = "IPs allocated from the bitmaps")
+    public long getAllocations()
+    {
+        return allocations.get();
+    }
+
+    @ManagedAttribute(description = "Bitmaps built from the database")
+    public long getRebuilds()
+    {
+        return rebuilds.get();
+    }
+
+    @ManagedAttribute(description = "Reserved addresses already used in the database")
+    public long getConflicts()
+    {
+        return conflicts.get();
+    }
+
+    /**
+     * The used addresses of a VLAN, from the first to the last host address of the network.
+     */
+    protected static class VlanAddresses
+    {
+        private final long first;
+
+        private final int size;
+
+        private final BitSet used;
+
+        /** No address below this index is free. */
+        private int cursor;
+
+        public VlanAddresses(final IPAddress networkAddress, final Integer mask)
+        {
+            this.first = IPNetworkRang.toLong(networkAddress) + 1;
+            this.size = Math.max(0, IPNetworkRang.masktoNumberOfNodes(mask) - 2);
+            this.used = new BitSet(size);
+        }
+
+        /**
+         * Marks the lowest free address as used.
+         * 
+         * @return The reserved address, or -1 if all the addresses are used.
+         */
+        public synchronized long reserve()
+        {
+            int index = used.nextClearBit(cursor);
+            if (index >= size)
+            {
+                cursor = size;
+                return -1;
+            }
+
+            used.set(index);
+            cursor = index + 1;
+            return first + index;
+        }
+
+        public synchronized void release(final long address)
+        {
+            int index = index(address);
+            if (index >= 0)
+            {
+                used.clear(index);
+                cursor = Math.min(cursor, index);
+            }
+        }
+
+        public synchronized void markUsed(final IPAddress address)
+        {
+            int index = address == null ? -1 : index(IPNetworkRang.toLong(address));
+            if (index >= 0)
+            {
+                used.set(index);
+            }
+        }
+
+        public synchronized int getFree()
+        {
+            return size - used.cardinality();
+        }
+
+        private int index(final long address)
+        {
+            long index = address - first;
+            return index >= 0 && index < size ? (int) index : -1;
+        }
+    }
+}
@@ -44,6 +44,8 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
 import com.abiquo.api.exceptions.APIError;
+import com.abiquo.api.pools.RemoteServiceClientPool;
+import com.abiquo.api.pools.impl.AMClientPool;
 import com.abiquo.appliancemanager.client.AMClient;
 import com.abiquo.appliancemanager.client.AMClientException;
 import com.abiquo.model.enumerator.RemoteServiceType;
@@ -69,6 +71,12 @@ public class RemoteServiceService extends DefaultApiService
     @Autowired
     private InfrastructureRep infrastructureRepo;
 
+    @Autowired
+    private AMClientPool amClientPool;
+
+    @Autowired
+    private RemoteServiceClientPool clientPool;
+
     public RemoteServiceService()
     {
 
@@ -162,6 +170,7 @@ public class RemoteServiceService extends DefaultApiService
                 if (rs.getType() == RemoteServiceType.APPLIANCE_MANAGER)
                 {
                     infrastructureRepo.deleteRemoteService(remoteService);
+                    evictClients(remoteService.getUri());
 
                     tracer.log(SeverityType.WARNING, ComponentType.DATACENTER,
                         EventType.REMOTE_SERVICES_CREATE, "remoteServices.am.error",
@@ -369,6 +378,8 @@ public class RemoteServiceService extends DefaultApiService
             flushErrors();
         }
 
+        final String oldUri = old.getUri();
+
         old.setUri(dto.getUri());
         old.setType(dto.getType());
         old.setStatus(STATUS_SUCCESS);
@@ -382,6 +393,7 @@ public class RemoteServiceService extends DefaultApiService
         flushErrors();
 
         infrastructureRepo.updateRemoteService(old);
+        evictClients(oldUri);
 
         RemoteServiceDto responseDto = createTransferObject(old);
 
@@ -475,12 +487,22 @@ public class RemoteServiceService extends DefaultApiService
         checkRemoteServiceStatusBeforeRemoving(remoteService);
 
         infrastructureRepo.deleteRemoteService(remoteService);
+        evictClients(remoteService.getUri());
 
         tracer.log(SeverityType.INFO, ComponentType.DATACENTER, EventType.REMOTE_SERVICES_DELETE,
             "remoteServices.deleted", remoteService.getType().getName());
 
     }
 
+    /**
+     * Close the pooled clients (and its connections) to a remote service that no longer exists.
+     */
+    private void evictClients(final String uri)
+    {
+        amClientPool.evict(uri);
+        clientPool.evict(uri);
+    }
+
     protected void checkRemoteServiceStatusBeforeRemoving(final RemoteService remoteService)
     {
         if (remoteService.getType() == RemoteServiceType.APPLIANCE_MANAGER)
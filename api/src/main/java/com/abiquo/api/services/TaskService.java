@@ -45,12 +45,23 @@ public class TaskService extends DefaultApiService
     private AsyncTaskRep repo;
 
     public List<Task> findTasks(final TaskOwnerType type, final String ownerId)
+    {
+        return findLatestTasks(type, ownerId, 0);
+    }
+
+    /**
+     * Returns the latest tasks of the owner, newest first.
+     * 
+     * @param count The maximum number of tasks to return, or 0 to return all of them.
+     */
+    public List<Task> findLatestTasks(final TaskOwnerType type, final String ownerId,
+        final int count)
     {
         List<Task> tasks = null;
 
         try
         {
-            tasks = repo.findTasksByOwnerId(type, ownerId);
+            tasks = repo.findLatestTasksByOwnerId(type, ownerId, count);
         }
         catch (Exception e)
         {
@@ -53,7 +53,9 @@ import com.abiquo.api.resources.EnterpriseResource;
 import com.abiquo.api.resources.EnterprisesResource;
 import com.abiquo.api.resources.RoleResource;
 import com.abiquo.api.resources.RolesResource;
+import com.abiquo.api.resources.UsersResource;
 import com.abiquo.api.spring.security.AbiquoUserDetails;
+import com.abiquo.api.spring.security.PrincipalCache;
 import com.abiquo.api.spring.security.SecurityService;
 import com.abiquo.api.util.URIResolver;
 import com.abiquo.model.enumerator.Privileges;
@@ -82,6 +84,9 @@ public class UserService extends DefaultApiService
     @Autowired
     SecurityService securityService;
 
+    @Autowired(required = false)
+    PrincipalCache principalCache;
+
     public UserService()
     {
 
@@ -312,6 +317,7 @@ public class UserService extends DefaultApiService
         old.setEmail(user.getEmail());
         old.setLocale(user.getLocale());
         old.setName(user.getName());
+        resourceRenamed(UsersResource.USERS_PATH, old.getId());
         if (!StringUtils.isEmpty(user.getPassword()))
         {
             // Password must only be updated if it is provided
@@ -405,6 +411,7 @@ public class UserService extends DefaultApiService
     public User updateUser(final User user)
     {
         repo.updateUser(user);
+        invalidatePrincipal(user);
 
         return user;
     }
@@ -435,12 +442,24 @@ public class UserService extends DefaultApiService
         }
 
         repo.removeUser(user);
+        invalidatePrincipal(user);
 
         tracer.log(SeverityType.INFO, ComponentType.USER, EventType.USER_DELETE, "user.deleted",
             user.getName(), user.getEnterprise().getName(), user.getName(), user.getSurname(), user
                 .getRole());
     }
 
+    /**
+     * Discard the cached authentication of the user, so its next request sees the changes.
+     */
+    public void invalidatePrincipal(final User user)
+    {
+        if (principalCache != null)
+        {
+            principalCache.invalidate(user.getNick());
+        }
+    }
+
     public boolean isAssignedTo(final Integer enterpriseId, final Integer userId)
     {
         User user = getUser(userId);
@@ -21,7 +21,11 @@
 
 package com.abiquo.api.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.ResourceAllocationException;
 import javax.persistence.EntityManager;
@@ -45,16 +49,21 @@ import com.abiquo.scheduler.VirtualMachineFactory;
 import com.abiquo.scheduler.VirtualMachineRequirementsFactory;
 import com.abiquo.scheduler.check.IMachineCheck;
 import com.abiquo.scheduler.check.MachineCheck;
+import com.abiquo.scheduler.limit.DatacenterLimitChecker;
 import com.abiquo.scheduler.limit.EnterpriseLimitChecker;
 import com.abiquo.scheduler.limit.LimitExceededException;
+import com.abiquo.scheduler.limit.VirtualDatacenterLimitChecker;
 import com.abiquo.scheduler.workload.AllocatorException;
 import com.abiquo.scheduler.workload.NotEnoughResourcesException;
 import com.abiquo.scheduler.workload.VirtualimageAllocationService;
 import com.abiquo.server.core.cloud.VirtualAppliance;
 import com.abiquo.server.core.cloud.VirtualApplianceDAO;
+import com.abiquo.server.core.cloud.VirtualDatacenter;
 import com.abiquo.server.core.cloud.VirtualMachine;
 import com.abiquo.server.core.cloud.VirtualMachineDAO;
 import com.abiquo.server.core.cloud.VirtualMachineRep;
+import com.abiquo.server.core.enterprise.DatacenterLimits;
+import com.abiquo.server.core.infrastructure.InfrastructureRep;
 import com.abiquo.server.core.infrastructure.Machine;
 import com.abiquo.server.core.infrastructure.Rack;
 import com.abiquo.server.core.infrastructure.UcsRack;
@@ -79,7 +88,7 @@ public class VirtualMachineAllocatorService extends DefaultApiService
         .getLogger(VirtualMachineAllocatorService.class);
 
     @Autowired
-    private VirtualMachineRequirementsFactory vmRequirements;
+    protected VirtualMachineRequirementsFactory vmRequirements;
 
     @Autowired
     private VirtualApplianceDAO virtualAppDao;
@@ -99,6 +108,15 @@ public class VirtualMachineAllocatorService extends DefaultApiService
     @Autowired
     protected EnterpriseLimitChecker checkEnterpirse;
 
+    @Autowired
+    protected DatacenterLimitChecker checkDatacenter;
+
+    @Autowired
+    protected VirtualDatacenterLimitChecker checkVirtualDatacenter;
+
+    @Autowired
+    protected InfrastructureRep infrastructureRep;
+
     @Autowired
     protected ResourceUpgradeUse upgradeUse;
 
@@ -121,6 +139,9 @@ public class VirtualMachineAllocatorService extends DefaultApiService
         this.machineChecker = new MachineCheck();
         this.virtualMachineDao = new VirtualMachineDAO(em);
         this.checkEnterpirse = new EnterpriseLimitChecker(em);
+        this.checkDatacenter = new DatacenterLimitChecker(em);
+        this.checkVirtualDatacenter = new VirtualDatacenterLimitChecker(em);
+        this.infrastructureRep = new InfrastructureRep(em);
         this.upgradeUse = new ResourceUpgradeUse(em);
         this.vmRequirements = new VirtualMachineRequirementsFactory();
         this.vmRepo = new VirtualMachineRep(em);
@@ -299,6 +320,179 @@ public class VirtualMachineAllocatorService extends DefaultApiService
         return null; // unreachable code
     }
 
+    /**
+     * Allocates all the provided virtual machines of the virtual appliance in a single pass.
+     * <p>
+     * The limits are checked once for the sum of all the requirements. The candidate machines are
+     * computed once on the rack selected for the first virtual machine, and reused for the rest (as
+     * the candidates are the managed entities, the resources already allocated to the previous
+     * virtual machines are considered on the ranking). If some virtual machine doesn't fit on those
+     * candidates, the complete target selection is used.
+     * <p>
+     * All the resource updates are done in the current transaction, so any error rolls back the
+     * allocation of all the virtual machines.
+     * <p>
+     * Physical Infrastructure synchronized. @see {@link SchedulerLock}
+     * 
+     * @param vmachines, the virtual machines of the virtual appliance to allocate.
+     * @param vapp, the target virtual appliance.
+     * @param foreceEnterpriseSoftLimits, @see #allocateVirtualMachine
+     * @return the allocated virtual machines.
+     */
+    @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+    public List<VirtualMachine> allocateVirtualMachines(final List<VirtualMachine> vmachines,
+        final VirtualAppliance vapp, final Boolean foreceEnterpriseSoftLimits)
+    {
+        final List<VirtualMachine> allocated = new ArrayList<VirtualMachine>(vmachines.size());
+        VirtualMachine current = null;
+
+        try
+        {
+            final Map<VirtualMachine, VirtualMachineRequirements> requirements =
+                new LinkedHashMap<VirtualMachine, VirtualMachineRequirements>();
+            VirtualMachineRequirements total = null;
+            long maxHd = 0;
+
+            for (VirtualMachine vmachine : vmachines)
+            {
+                VirtualMachineRequirements required =
+                    vmRequirements.createVirtualMachineRequirements(vmachine);
+                requirements.put(vmachine, required);
+
+                if (total == null)
+                {
+                    total = new VirtualMachineRequirements(required);
+                }
+                else
+                {
+                    total.addRequirement(required);
+                }
+                maxHd = Math.max(maxHd, required.getHd());
+            }
+
+            if (total == null)
+            {
+                return allocated;
+            }
+
+            final Integer idDatacenter = vapp.getVirtualDatacenter().getDatacenter().getId();
+            final FitPolicy fitPolicy = getAllocationFitPolicyOnDatacenter(idDatacenter);
+
+            checkLimist(vapp, total, foreceEnterpriseSoftLimits, false);
+
+            Collection<Machine> candidates = null;
+
+            for (Map.Entry<VirtualMachine, VirtualMachineRequirements> entry : requirements
+                .entrySet())
+            {
+                current = entry.getKey();
+                final VirtualMachineRequirements required = entry.getValue();
+
+                VirtualMachine allocatedVirtualMachine = null;
+                if (candidates != null)
+                {
+                    try
+                    {
+                        Machine targetMachine =
+                            allocationService.findBestTarget(candidates, required, fitPolicy, vapp);
+                        allocatedVirtualMachine = createVirtualMachine(targetMachine, current);
+                    }
+                    catch (NotEnoughResourcesException e)
+                    {
+                        LOG.debug("Virtual machine {} doesn't fit on the previous candidates: {}",
+                            current.getName(), e.getMessage());
+                    }
+                }
+
+                if (allocatedVirtualMachine == null)
+                {
+                    Machine targetMachine =
+                        allocationService.findBestTarget(required, fitPolicy, vapp);
+
+                    if (candidates == null)
+                    {
+                        // candidates for the biggest datastore requirement
+                        VirtualMachineRequirements maxRequired =
+                            new VirtualMachineRequirements(0L, 0L, maxHd, 0L, 0L, 0L, 0L);
+                        candidates =
+                            allocationService.findCandidates(maxRequired, vapp,
+                                targetMachine.getRack());
+                    }
+
+                    allocatedVirtualMachine = createVirtualMachine(targetMachine, current);
+                }
+
+                upgradeUse.updateUse(vapp, allocatedVirtualMachine);
+
+                allocated.add(allocatedVirtualMachine);
+            }
+
+            return allocated;
+        }
+        catch (NotEnoughResourcesException e)
+        {
+            addConflictErrors(createErrorWithExceptionDetails(APIError.NOT_ENOUGH_RESOURCES,
+                current, e));
+        }
+        catch (LimitExceededException limite)
+        {
+            if (limite.isHardLimit())
+            {
+                addConflictErrors(new CommonError(APIError.LIMIT_EXCEEDED.name(), limite.toString()));
+            }
+            else
+            {
+                addConflictErrors(new CommonError(APIError.SOFT_LIMIT_EXCEEDED.name(),
+                    limite.toString()));
+            }
+        }
+        catch (ResourceUpgradeUseException e)
+        {
+            APIError error = APIError.NOT_ENOUGH_RESOURCES;
+            error.addCause(String.format("%s\n%s", virtualMachineInfo(current), e.getMessage()));
+            addConflictErrors(error);
+        }
+        catch (AllocatorException e)
+        {
+            addConflictErrors(createErrorWithExceptionDetails(APIError.ALLOCATOR_ERROR, current, e));
+        }
+        catch (Exception e)
+        {
+            addUnexpectedErrors(createErrorWithExceptionDetails(APIError.ALLOCATOR_ERROR, current,
+                e));
+        }
+        finally
+        {
+            flushErrors();
+        }
+
+        return null; // unreachable code
+    }
+
+    /**
+     * Sets the target machine, datastore and remote access port of the virtual machine. If the
+     * machine can't hold it (no datastore or port available) the virtual machine is left without
+     * target, so it is not deallocated from a machine that was not updated.
+     * 
+     * @throws NotEnoughResourcesException, if the target machine can't hold the virtual machine.
+     */
+    private VirtualMachine createVirtualMachine(final Machine targetMachine,
+        final VirtualMachine vmachine) throws NotEnoughResourcesException
+    {
+        LOG.info("Attempt to use physical machine [{}] to allocate VirtualMachine [{}]",
+            targetMachine.getName(), vmachine.getName());
+
+        try
+        {
+            return vmFactory.createVirtualMachine(targetMachine, vmachine);
+        }
+        catch (NotEnoughResourcesException e)
+        {
+            vmachine.setHypervisor(null);
+            throw e;
+        }
+    }
+
     @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
     private VirtualMachine selectPhysicalMachineAndAllocateResources(final VirtualMachine vmachine,
         final VirtualAppliance vapp, final FitPolicy fitPolicy,
@@ -481,6 +675,16 @@ public class VirtualMachineAllocatorService extends DefaultApiService
     {
 
         checkEnterpirse.checkLimits(vapp.getEnterprise(), required, force, checkVLAN, false);
+
+        final VirtualDatacenter vdc = vapp.getVirtualDatacenter();
+        final DatacenterLimits dcLimits =
+            infrastructureRep.findDatacenterLimits(vapp.getEnterprise(), vdc.getDatacenter());
+        if (dcLimits != null)
+        {
+            checkDatacenter.checkLimits(dcLimits, required, force, checkVLAN, false);
+        }
+
+        checkVirtualDatacenter.checkLimits(vdc, required, force, checkVLAN, false);
     }
 
     /**
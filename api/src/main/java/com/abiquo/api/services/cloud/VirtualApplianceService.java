@@ -44,6 +44,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.abiquo.api.exceptions.APIError;
 import com.abiquo.api.exceptions.APIException;
+import com.abiquo.api.resources.cloud.VirtualAppliancesResource;
 import com.abiquo.api.services.DatacenterService;
 import com.abiquo.api.services.DefaultApiService;
 import com.abiquo.api.services.EnterpriseService;
@@ -359,6 +360,7 @@ public class VirtualApplianceService extends DefaultApiService
         userService.checkCurrentEnterpriseForPostMethods(vapp.getEnterprise());
 
         vapp.setName(dto.getName());
+        resourceRenamed(VirtualAppliancesResource.VIRTUAL_APPLIANCES_PATH, vapp.getId());
         vapp.setNodeconnections(dto.getNodeconnections());
         repo.updateVirtualAppliance(vapp);
 
@@ -556,20 +558,14 @@ public class VirtualApplianceService extends DefaultApiService
 
         try
         {
+            final List<VirtualMachine> virtualMachines = new ArrayList<VirtualMachine>();
             for (NodeVirtualImage nvi : vapp.getNodes())
             {
-                final VirtualMachine virtualMachine = nvi.getVirtualMachine();
-
-                // XXX duplicated limit checker
-                vmService.allocate(virtualMachine, vapp, foreceEnterpriseSoftLimits);
-
+                virtualMachines.add(nvi.getVirtualMachine());
             }
-            // XXX consider (try to) having the SchechedulerLock by each VM
-            // for (Integer vmid : nviDao.findVirtualMachineIdsByVirtualAppliance(vapp))
-            // { final String msg = String.format("Allocate %d", vmid); try {
-            // SchedulerLock.acquire(msg); final VirtualMachine virtualMachine =
-            // vmService.getVirtualMachine(vmid); vmService.allocate(virtualMachine, vapp,
-            // foreceEnterpriseSoftLimits); } finally { SchedulerLock.release(msg); } }
+
+            // all the virtual machines allocated at once (reusing the candidate machines)
+            vmService.allocate(virtualMachines, vapp, foreceEnterpriseSoftLimits);
         }
         catch (APIException e)
         {
@@ -636,24 +632,24 @@ public class VirtualApplianceService extends DefaultApiService
         tracer.log(SeverityType.INFO, ComponentType.VIRTUAL_APPLIANCE, EventType.VAPP_POWERON,
             "virtualAppliance.deploy", virtualAppliance.getName());
 
-        Map<Integer, String> dto = new HashMap<Integer, String>();
+        List<VirtualMachine> vmachines = new ArrayList<VirtualMachine>(vappNodes.size());
         for (NodeVirtualImage nodevi : vappNodes)
         {
-            VirtualMachine vmachine = nodevi.getVirtualMachine();
-
-            try
-            {
-                String link = vmService.sendDeploy(vmachine, virtualAppliance);
+            vmachines.add(nodevi.getVirtualMachine());
+        }
 
-                dto.put(vmachine.getId(), link);
-            }
-            catch (Exception e)
-            {
-                logger
-                    .error(
-                        "Error already logged in the sendDeploy deploying virtual appliance name {}. {}",
-                        virtualAppliance.getName(), e.toString());
-            }
+        Map<Integer, String> dto = new HashMap<Integer, String>();
+        try
+        {
+            // all the deploy jobs sent at once
+            dto.putAll(vmService.sendDeploy(vmachines, virtualAppliance));
+        }
+        catch (Exception e)
+        {
+            logger
+                .error(
+                    "Error already logged in the sendDeploy deploying virtual appliance name {}. {}",
+                    virtualAppliance.getName(), e.toString());
         }
         return dto;
     }
@@ -761,8 +757,8 @@ public class VirtualApplianceService extends DefaultApiService
         for (NodeVirtualImage m : virtualAppliance.getNodes())
         {
             List<Task> t =
-                taskService.findTasks(TaskOwnerType.VIRTUAL_MACHINE, m.getVirtualMachine().getId()
-                    .toString());
+                taskService.findLatestTasks(TaskOwnerType.VIRTUAL_MACHINE, m.getVirtualMachine()
+                    .getId().toString(), 1);
             if (t != null && !t.isEmpty())
             {
                 tasks.add(t.get(0));
@@ -36,6 +36,7 @@ import org.springframework.transaction.annotation.Transactional;
 import com.abiquo.api.config.ConfigService;
 import com.abiquo.api.exceptions.APIError;
 import com.abiquo.api.resources.cloud.PrivateNetworkResource;
+import com.abiquo.api.resources.cloud.VirtualDatacentersResource;
 import com.abiquo.api.services.DefaultApiService;
 import com.abiquo.api.services.NetworkService;
 import com.abiquo.api.services.UserService;
@@ -229,6 +230,7 @@ public class VirtualDatacenterService extends DefaultApiService
         final VirtualDatacenterDto dto)
     {
         vdc.setName(dto.getName());
+        resourceRenamed(VirtualDatacentersResource.VIRTUAL_DATACENTERS_PATH, vdc.getId());
         setLimits(dto, vdc);
 
         if (!vdc.isValid())
@@ -27,6 +27,7 @@ import static com.abiquo.api.util.URIResolver.buildPath;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -69,6 +70,7 @@ import com.abiquo.api.resources.cloud.VirtualMachineResource;
 import com.abiquo.api.resources.cloud.VirtualMachinesResource;
 import com.abiquo.api.services.DefaultApiService;
 import com.abiquo.api.services.NetworkService;
+import com.abiquo.api.services.PrivateIpAllocator;
 import com.abiquo.api.services.RemoteServiceService;
 import com.abiquo.api.services.UserService;
 import com.abiquo.api.services.VirtualMachineAllocatorService;
@@ -111,6 +113,7 @@ import com.abiquo.server.core.enterprise.EnterpriseRep;
 import com.abiquo.server.core.enterprise.User;
 import com.abiquo.server.core.infrastructure.Datacenter;
 import com.abiquo.server.core.infrastructure.InfrastructureRep;
+import com.abiquo.server.core.infrastructure.Machine;
 import com.abiquo.server.core.infrastructure.RemoteService;
 import com.abiquo.server.core.infrastructure.management.Rasd;
 import com.abiquo.server.core.infrastructure.management.RasdDAO;
@@ -170,6 +173,9 @@ public class VirtualMachineService extends DefaultApiService
     @Autowired
     private VirtualMachineAllocatorService vmAllocatorService;
 
+    @Autowired(required = false)
+    private PrivateIpAllocator ipAllocator;
+
     @Autowired
     private VirtualMachineRequirementsFactory vmRequirements;
 
@@ -784,6 +790,7 @@ public class VirtualMachineService extends DefaultApiService
         allocateNewStorages(vapp, old, storageResources, usedStorageSlots);
 
         repo.update(old);
+        resourceUsageChanged(vapp.getEnterprise().getId());
 
         // FIXME: improvement related ABICLOUDPREMIUM-2925
         updateNodeVirtualImage(old, vmnew.getVirtualMachineTemplate());
@@ -989,7 +996,9 @@ public class VirtualMachineService extends DefaultApiService
             {
                 LOGGER
                     .warn("Delete of the ALLOCATED virtualMachine that has resources allocated. Deallocating");
-                SchedulerLock.acquire(lockMsg);
+                Machine machine = virtualMachine.getHypervisor().getMachine();
+                SchedulerLock.acquire(machine.getDatacenter().getId(), machine.getRack().getId(),
+                    lockMsg);
                 vmAllocatorService.deallocateVirtualMachine(virtualMachine);
             }
             finally
@@ -1046,11 +1055,24 @@ public class VirtualMachineService extends DefaultApiService
                     ip.setName(null);
                 default:
                     ip.detach();
+                    releaseIp(ip);
 
             }
         }
     }
 
+    /**
+     * Returns the address of a detached private IP to the allocator.
+     */
+    private void releaseIp(final IpPoolManagement ip)
+    {
+        if (ipAllocator != null && ip.getVlanNetwork() != null
+            && NetworkType.INTERNAL.equals(ip.getVlanNetwork().getType()))
+        {
+            ipAllocator.release(ip);
+        }
+    }
+
     /**
      * Delete a {@link VirtualMachine}. And the {@link VirtualMachineNode}. Without account for
      * permission.
@@ -1400,6 +1422,81 @@ public class VirtualMachineService extends DefaultApiService
         }
     }
 
+    /**
+     * Allocates all the virtual machines of the virtual appliance in a single pass. @see
+     * VirtualMachineAllocatorService#allocateVirtualMachines
+     */
+    @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+    public void allocate(final List<VirtualMachine> virtualMachines, final VirtualAppliance vapp,
+        final Boolean foreceEnterpriseSoftLimits)
+    {
+        if (virtualMachines.isEmpty())
+        {
+            return;
+        }
+
+        LOGGER.debug("Check for permissions");
+        // The user must have the proper permission
+        userService.checkCurrentEnterpriseForPostMethods(virtualMachines.get(0).getEnterprise());
+        LOGGER.debug("Permission granted");
+
+        VirtualMachine current = null;
+        try
+        {
+            LOGGER.debug("Allocating {} virtual machines with force enterpise soft limits : {}",
+                virtualMachines.size(), foreceEnterpriseSoftLimits);
+
+            vmAllocatorService.allocateVirtualMachines(virtualMachines, vapp,
+                foreceEnterpriseSoftLimits);
+            LOGGER.debug("Allocated!");
+
+            LOGGER.debug("Mapping the external volumes");
+            for (VirtualMachine virtualMachine : virtualMachines)
+            {
+                current = virtualMachine;
+                initiatorMappings(virtualMachine);
+            }
+            LOGGER.debug("Mapping done!");
+        }
+        catch (APIException e)
+        {
+            traceApiExceptionVm(e, current != null ? current.getName() : vapp.getName());
+
+            deallocate(virtualMachines);
+
+            throw e;
+        }
+        catch (Exception ex)
+        {
+            final String name = current != null ? current.getName() : vapp.getName();
+
+            tracer.log(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, EventType.VM_DEPLOY,
+                "virtualMachine.deploy", name);
+
+            tracer.systemError(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE,
+                EventType.VM_DEPLOY, ex, "virtualMachine.deploy", name);
+
+            deallocate(virtualMachines);
+
+            addUnexpectedErrors(APIError.STATUS_INTERNAL_SERVER_ERROR);
+            flushErrors();
+        }
+    }
+
+    /**
+     * Rolls back the resources of the virtual machines already allocated on a target machine.
+     */
+    private void deallocate(final List<VirtualMachine> virtualMachines)
+    {
+        for (VirtualMachine virtualMachine : virtualMachines)
+        {
+            if (virtualMachine.getHypervisor() != null)
+            {
+                vmAllocatorService.deallocateVirtualMachine(virtualMachine);
+            }
+        }
+    }
+
     @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
     public String sendDeploy(final VirtualMachine virtualMachine,
         final VirtualAppliance virtualAppliance)
@@ -1446,6 +1543,79 @@ public class VirtualMachineService extends DefaultApiService
         }
     }
 
+    /**
+     * Sends the deploy of all the virtual machines using a single producer. The virtual machines
+     * whose deploy can not be sent are deallocated, the rest are already in tarantino.
+     * 
+     * @return the deploy task identifier of each sent virtual machine.
+     */
+    @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+    public Map<Integer, String> sendDeploy(final List<VirtualMachine> virtualMachines,
+        final VirtualAppliance virtualAppliance)
+    {
+        Map<VirtualMachine, VirtualMachineDescriptionBuilder> descriptions =
+            new LinkedHashMap<VirtualMachine, VirtualMachineDescriptionBuilder>();
+
+        for (VirtualMachine virtualMachine : virtualMachines)
+        {
+            try
+            {
+                descriptions.put(virtualMachine,
+                    jobCreator.toTarantinoDto(virtualMachine, virtualAppliance));
+            }
+            catch (APIException e)
+            {
+                traceApiExceptionVm(e, virtualMachine.getName());
+                vmAllocatorService.deallocateVirtualMachine(virtualMachine);
+            }
+            catch (Exception ex)
+            {
+                tracer.log(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE,
+                    EventType.VM_DEPLOY, "virtualMachine.deploy", virtualMachine.getName());
+
+                tracer.systemError(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE,
+                    EventType.VM_DEPLOY, ex, "virtualMachine.deploy", virtualMachine.getName());
+
+                vmAllocatorService.deallocateVirtualMachine(virtualMachine);
+            }
+        }
+
+        final Map<Integer, String> taskIds;
+        try
+        {
+            LOGGER.info("Sending the deploy of {} virtual machines", descriptions.size());
+            taskIds = tarantino.deployVirtualMachines(descriptions);
+        }
+        catch (APIException e)
+        {
+            for (VirtualMachine virtualMachine : descriptions.keySet())
+            {
+                traceApiExceptionVm(e, virtualMachine.getName());
+
+                if (virtualMachine.getHypervisor() != null)
+                {
+                    vmAllocatorService.deallocateVirtualMachine(virtualMachine);
+                }
+            }
+
+            throw e;
+        }
+
+        // The sending failed after some of the jobs were sent
+        for (VirtualMachine virtualMachine : descriptions.keySet())
+        {
+            if (!taskIds.containsKey(virtualMachine.getId()))
+            {
+                tracer.log(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE,
+                    EventType.VM_DEPLOY, "virtualMachine.deploy", virtualMachine.getName());
+
+                vmAllocatorService.deallocateVirtualMachine(virtualMachine);
+            }
+        }
+
+        return taskIds;
+    }
+
     private void traceApiExceptionVm(final APIException exception, final String vmName)
     {
         if (exception.getErrors().isEmpty())
@@ -2285,6 +2455,7 @@ public class VirtualMachineService extends DefaultApiService
                     else
                     {
                         ip.detach();
+                        releaseIp(ip);
                         vdcRep.deleteRasd(ip.getRasd());
                         vdcRep.updateIpManagement(ip);
                     }
@@ -2292,6 +2463,7 @@ public class VirtualMachineService extends DefaultApiService
                 else
                 {
                     ip.detach();
+                    releaseIp(ip);
                     if (ip.getVlanNetwork().getType().equals(NetworkType.EXTERNAL))
                     {
                         ip.setMac(null);
@@ -3128,6 +3300,10 @@ public class VirtualMachineService extends DefaultApiService
         repo.update(updatedVm);
         rasdDao.flush();
         // update virtual machine resources
+        if (updatedVm.getEnterprise() != null)
+        {
+            resourceUsageChanged(updatedVm.getEnterprise().getId());
+        }
 
         LOGGER.info("restored virtual machine {} from backup", updatedVm.getUuid());
 
@@ -0,0 +1,304 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.services.stub;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.abiquo.commons.amqp.impl.tarantino.TarantinoRequestProducer;
+import com.abiquo.commons.amqp.impl.tarantino.domain.dto.DatacenterTasks;
+import com.abiquo.model.util.LatencyStats;
+
+/**
+ * Keeps the {@link TarantinoRequestProducer} of each datacenter queue with its channel open, so
+ * the jobs are not paying the channel open and close on every publish.
+ * <p>
+ * A producer failing to publish is closed and discarded (the next publish opens a new one). An
+ * idle producer may have a stale channel (the broker was restarted meanwhile), so if a reused
+ * producer fails the job is retried once with a new producer, and the other idle producers of the
+ * queue are discarded. At most ''com.abiquo.tarantino.producers.idle'' producers are kept for each
+ * datacenter queue.
+ */
+@Component
+@ManagedResource(objectName = "Abiquo:Name=TarantinoProducerPool,Type=com.abiquo.api.services.stub.TarantinoProducerPool")
+public class TarantinoProducerPool
+{
+    private final static Logger LOG = LoggerFactory.getLogger(TarantinoProducerPool.class);
+
+    private final static int MAX_IDLE = Integer.parseInt(System.getProperty(
+        "com.abiquo.tarantino.producers.idle", "8"));
+
+    /** Idle producers (with the channel open) by datacenter queue. */
+    private final ConcurrentMap<String, BlockingQueue<TarantinoRequestProducer>> idle =
+        new ConcurrentHashMap<String, BlockingQueue<TarantinoRequestProducer>>();
+
+    private final LatencyStats publishStats = new LatencyStats();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final AtomicLong discarded = new AtomicLong();
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Publish all the jobs, in order, using the same producer.
+     *
+     * @param datacenterQueueId, the target datacenter queue.
+     * @param jobs, the jobs to send.
+     * @throws PublishException, if the jobs can not be sent. The first
+     *             {@link PublishException#getPublished()} jobs were sent.
+     */
+    public void publish(final String datacenterQueueId, final List<DatacenterTasks> jobs)
+        throws PublishException
+    {
+        TarantinoRequestProducer producer = getIdle(datacenterQueueId).poll();
+        boolean reused = producer != null;
+        int sent = 0;
+
+        active.incrementAndGet();
+        final long start = System.currentTimeMillis();
+        try
+        {
+            if (producer == null)
+            {
+                producer = open(datacenterQueueId);
+            }
+
+            while (sent < jobs.size())
+            {
+                try
+                {
+                    producer.publish(jobs.get(sent));
+                    sent++;
+                }
+                catch (IOException e)
+                {
+                    close(producer);
+                    producer = null;
+
+                    if (!reused)
+                    {
+                        throw e;
+                    }
+
+                    LOG.debug("Stale producer for datacenter queue {}, retrying with a new one",
+                        datacenterQueueId);
+                    discardIdle(datacenterQueueId);
+                    reused = false;
+                    producer = open(datacenterQueueId);
+                }
+            }
+
+            published.addAndGet(sent);
+        }
+        catch (IOException e)
+        {
+            failures.incrementAndGet();
+            published.addAndGet(sent);
+            throw new PublishException(sent, e);
+        }
+        finally
+        {
+            publishStats.record(System.currentTimeMillis() - start);
+            active.decrementAndGet();
+
+            if (producer != null && sent == jobs.size())
+            {
+                giveBack(datacenterQueueId, producer);
+            }
+            else if (producer != null)
+            {
+                close(producer);
+            }
+        }
+    }
+
+    protected TarantinoRequestProducer open(final String datacenterQueueId) throws IOException
+    {
+        TarantinoRequestProducer producer = createProducer(datacenterQueueId);
+        producer.openChannel();
+        created.incrementAndGet();
+
+        LOG.debug("New producer for datacenter queue {}", datacenterQueueId);
+        return producer;
+    }
+
+    protected void giveBack(final String datacenterQueueId,
+        final TarantinoRequestProducer producer)
+    {
+        if (!getIdle(datacenterQueueId).offer(producer))
+        {
+            close(producer);
+        }
+    }
+
+    protected TarantinoRequestProducer createProducer(final String datacenterQueueId)
+    {
+        return new TarantinoRequestProducer(datacenterQueueId);
+    }
+
+    @PreDestroy
+    public void closeAll()
+    {
+        for (String datacenterQueueId : idle.keySet())
+        {
+            discardIdle(datacenterQueueId);
+        }
+    }
+
+    private void discardIdle(final String datacenterQueueId)
+    {
+        BlockingQueue<TarantinoRequestProducer> producers = getIdle(datacenterQueueId);
+
+        TarantinoRequestProducer producer;
+        while ((producer = producers.poll()) != null)
+        {
+            close(producer);
+        }
+    }
+
+    private BlockingQueue<TarantinoRequestProducer> getIdle(final String datacenterQueueId)
+    {
+        BlockingQueue<TarantinoRequestProducer> producers = idle.get(datacenterQueueId);
+
+        if (producers == null)
+        {
+            producers = new LinkedBlockingQueue<TarantinoRequestProducer>(MAX_IDLE);
+            BlockingQueue<TarantinoRequestProducer> previous =
+                idle.putIfAbsent(datacenterQueueId, producers);
+            if (previous != null)
+            {
+                producers = previous;
+            }
+        }
+
+        return producers;
+    }
+
+    private void close(final TarantinoRequestProducer producer)
+    {
+        discarded.incrementAndGet();
+
+        try
+        {
+            producer.closeChannel();
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Can not close the tarantino producer channel: {}", e.getMessage());
+        }
+    }
+
+    @ManagedAttribute(description = "Mean time publishing the jobs of a request (ms)")
+    public long getMeanPublishTime()
+    {
+        return publishStats.getMean();
+    }
+
+    @ManagedAttribute(description = "Max time publishing the jobs of a request (ms)")
+    public long getMaxPublishTime()
+    {
+        return publishStats.getMax();
+    }
+
+    @ManagedAttribute(description = "Published jobs")
+    public long getPublished()
+    {
+        return published.get();
+    }
+
+    @ManagedAttribute(description = "Failed publish requests")
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    @ManagedAttribute(description = "Producers in use")
+    public int getActive()
+    {
+        return active.get();
+    }
+
+    @ManagedAttribute(description = "Idle producers (channel open)")
+    public int getIdle()
+    {
+        int count = 0;
+        for (BlockingQueue<TarantinoRequestProducer> producers : idle.values())
+        {
+            count += producers.size();
+        }
+        return count;
+    }
+
+    @ManagedAttribute(description = "Producers created")
+    public long getCreated()
+    {
+        return created.get();
+    }
+
+    @ManagedAttribute(description = "Producers closed")
+    public long getDiscarded()
+    {
+        return discarded.get();
+    }
+
+    /**
+     * The jobs of a request could not be sent. Only the first {@link #getPublished()} jobs were
+     * sent.
+     */
+    public static class PublishException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int published;
+
+        public PublishException(final int published, final IOException cause)
+        {
+            super(cause.getMessage());
+            initCause(cause);
+            this.published = published;
+        }
+
+        public int getPublished()
+        {
+            return published;
+        }
+    }
+}
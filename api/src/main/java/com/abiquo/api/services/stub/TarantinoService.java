@@ -21,8 +21,12 @@
 
 package com.abiquo.api.services.stub;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
@@ -47,7 +51,6 @@ import com.abiquo.api.tasks.util.DatacenterTaskBuilder;
 import com.abiquo.api.tracer.TracerLogger;
 import com.abiquo.api.util.snapshot.SnapshotUtils;
 import com.abiquo.api.util.snapshot.SnapshotUtils.SnapshotType;
-import com.abiquo.commons.amqp.impl.tarantino.TarantinoRequestProducer;
 import com.abiquo.commons.amqp.impl.tarantino.domain.DiskSnapshot;
 import com.abiquo.commons.amqp.impl.tarantino.domain.HypervisorConnection;
 import com.abiquo.commons.amqp.impl.tarantino.domain.VirtualMachineDefinition;
@@ -98,6 +101,9 @@ public class TarantinoService extends DefaultApiService
     @Autowired
     protected InfrastructureService infrastructureService;
 
+    @Autowired
+    protected TarantinoProducerPool producerPool;
+
     public TarantinoService()
     {
 
@@ -111,6 +117,7 @@ public class TarantinoService extends DefaultApiService
         jobCreator = new TarantinoJobCreator(em);
         vsm = new VsmServiceStub();
         taskService = new TaskService();
+        producerPool = new TarantinoProducerPool();
     }
 
     /**
@@ -130,9 +137,37 @@ public class TarantinoService extends DefaultApiService
     protected void enqueueTask(final Datacenter datacenter, final Task task,
         final DatacenterTasks tasks, final EventType eventType)
     {
+        enqueueTasks(datacenter, Collections.singletonList(task), Collections.singletonList(tasks),
+            eventType);
+    }
+
+    /**
+     * Same as {@link #enqueueTask(Datacenter, Task, DatacenterTasks, EventType)} for several
+     * tasks. All the {@link DatacenterTasks} are sent, in order, using the same producer.
+     * <p>
+     * If the sending fails after some of the jobs were sent, only the tasks of the jobs not sent
+     * are deleted and the number of jobs sent is returned, so the caller only undoes the rest. If
+     * no job is sent the errors are flushed as in the single task case.
+     * 
+     * @param datacenter The {@link Datacenter} where the tasks will be sent to.
+     * @param tasks The {@link Task} to persist.
+     * @param jobs The {@link DatacenterTasks} to send (in the same order as the tasks).
+     * @param eventType The {@link EventType} associated to the task (power on, reconfigure, etc).
+     * @return The number of jobs sent, the first ones of the list.
+     */
+    protected int enqueueTasks(final Datacenter datacenter, final List<Task> tasks,
+        final List<DatacenterTasks> jobs, final EventType eventType)
+    {
+        final String datacenterQueueId = getDatacenterQueue(datacenter);
+
+        final List<Task> persisted = new ArrayList<Task>(tasks.size());
         try
         {
-            taskService.addTask(task);
+            for (Task task : tasks)
+            {
+                taskService.addTask(task);
+                persisted.add(task);
+            }
         }
         catch (RuntimeException e)
         {
@@ -142,28 +177,53 @@ public class TarantinoService extends DefaultApiService
             tracer.systemError(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, eventType, e,
                 "redis.persistTaskError", e.getMessage());
 
+            deleteTasks(persisted, eventType);
+
             addServiceUnavailableErrors(APIError.REDIS_CONNECTION_FAILED);
             flushErrors();
         }
 
-        TarantinoRequestProducer producer = getTarantinoProducer(datacenter);
-
+        int sent = 0;
         try
         {
-            producer.openChannel();
-            producer.publish(tasks);
+            producerPool.publish(datacenterQueueId, jobs);
+            sent = jobs.size();
         }
         catch (Exception e)
         {
+            if (e instanceof TarantinoProducerPool.PublishException)
+            {
+                sent = ((TarantinoProducerPool.PublishException) e).getPublished();
+            }
+
             tracer.log(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, eventType,
                 APIError.RABBITMQ_CONNECTION_FAILED.getMessage());
 
             tracer.systemError(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, eventType, e,
                 "tarantino.sendError", e.getMessage());
 
+            // Delete redis stored tasks of the jobs not sent, the sent ones are in tarantino
+            deleteTasks(persisted.subList(sent, persisted.size()), eventType);
+
+            if (sent == 0)
+            {
+                addServiceUnavailableErrors(APIError.RABBITMQ_CONNECTION_FAILED);
+                flushErrors();
+            }
+        }
+
+        tracer.log(SeverityType.INFO, ComponentType.VIRTUAL_MACHINE, eventType,
+            "tarantino.taskEnqueued");
+
+        return sent;
+    }
+
+    private void deleteTasks(final List<Task> tasks, final EventType eventType)
+    {
+        for (Task task : tasks)
+        {
             try
             {
-                // Delete redis stored task
                 taskService.deleteTask(task);
             }
             catch (RuntimeException r)
@@ -174,17 +234,7 @@ public class TarantinoService extends DefaultApiService
                 tracer.systemError(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, eventType,
                     r, "redis.deleteTaskError", r.getMessage());
             }
-
-            addServiceUnavailableErrors(APIError.RABBITMQ_CONNECTION_FAILED);
-            flushErrors();
-        }
-        finally
-        {
-            closeProducerChannel(producer, eventType);
         }
-
-        tracer.log(SeverityType.INFO, ComponentType.VIRTUAL_MACHINE, eventType,
-            "tarantino.taskEnqueued");
     }
 
     /**
@@ -237,7 +287,7 @@ public class TarantinoService extends DefaultApiService
         return tarantinoTask.getId();
     }
 
-    private TarantinoRequestProducer getTarantinoProducer(final Datacenter datacenter)
+    private String getDatacenterQueue(final Datacenter datacenter)
     {
         final String datacenterQueueId = datacenter.getUuid();
         if (StringUtils.isEmpty(datacenterQueueId))
@@ -250,29 +300,7 @@ public class TarantinoService extends DefaultApiService
             flushErrors();
         }
 
-        return new TarantinoRequestProducer(datacenterQueueId);
-    }
-
-    /**
-     * Close the producer channel.
-     * 
-     * @param producer The channel to close.
-     * @param event The event being processed (power on, reconfigure, etc).
-     */
-    private void closeProducerChannel(final TarantinoRequestProducer producer, final EventType event)
-    {
-        try
-        {
-            producer.closeChannel();
-        }
-        catch (IOException ex)
-        {
-            tracer.log(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, event,
-                APIError.GENERIC_OPERATION_ERROR.getMessage());
-
-            tracer.systemError(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, event, ex,
-                "tarantino.closeProducer", ex.getMessage());
-        }
+        return datacenterQueueId;
     }
 
     /**
@@ -327,6 +355,87 @@ public class TarantinoService extends DefaultApiService
         return null;
     }
 
+    /**
+     * Creates and sends the deploy operations of several virtual machines on the same datacenter.
+     * All the jobs are sent using the same producer.
+     * 
+     * @param virtualMachines The virtual machines to deploy and its descriptions.
+     * @return The identifier of the deploy task of each virtual machine sent. If the sending fails
+     *         after some of the jobs were sent, the virtual machines not sent are not in the map.
+     */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    public Map<Integer, String> deployVirtualMachines(
+        final Map<VirtualMachine, VirtualMachineDescriptionBuilder> virtualMachines)
+    {
+        final Map<Integer, String> taskIds = new LinkedHashMap<Integer, String>();
+        if (virtualMachines.isEmpty())
+        {
+            return taskIds;
+        }
+
+        try
+        {
+            final String user = userService.getCurrentUser().getNick();
+            final List<Task> tasks = new ArrayList<Task>(virtualMachines.size());
+            final List<DatacenterTasks> jobs =
+                new ArrayList<DatacenterTasks>(virtualMachines.size());
+            Datacenter datacenter = null;
+
+            for (Map.Entry<VirtualMachine, VirtualMachineDescriptionBuilder> entry : virtualMachines
+                .entrySet())
+            {
+                final VirtualMachine virtualMachine = entry.getKey();
+                datacenter = virtualMachine.getHypervisor().getMachine().getDatacenter();
+
+                HypervisorConnection conn =
+                    jobCreator.hypervisorConnectionConfiguration(virtualMachine.getHypervisor());
+                DatacenterTaskBuilder builder =
+                    new DatacenterTaskBuilder(entry.getValue().build(), conn, user);
+
+                DatacenterTasks deployTask =
+                    builder.add(VirtualMachineStateTransition.CONFIGURE)
+                        .add(VirtualMachineStateTransition.POWERON).buildTarantinoTask();
+
+                tasks.add(builder.buildAsyncTask(String.valueOf(virtualMachine.getId()),
+                    TaskType.DEPLOY));
+                jobs.add(deployTask);
+                taskIds.put(virtualMachine.getId(), deployTask.getId());
+            }
+
+            int sent = enqueueTasks(datacenter, tasks, jobs, EventType.VM_DEPLOY);
+
+            // Forget the virtual machines whose deploy was not sent
+            Iterator<Integer> notSent = taskIds.keySet().iterator();
+            for (int i = 0; notSent.hasNext(); i++)
+            {
+                notSent.next();
+                if (i >= sent)
+                {
+                    notSent.remove();
+                }
+            }
+
+            return taskIds;
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Error enqueuing the deploy task dto to the virtual factory with error ",
+                e);
+
+            tracer.log(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE, EventType.VM_DEPLOY,
+                APIError.GENERIC_OPERATION_ERROR.getMessage());
+
+            // For the Admin to know all errors
+            tracer.systemLog(SeverityType.CRITICAL, ComponentType.VIRTUAL_MACHINE,
+                EventType.VM_DEPLOY, "tarantino.deployVMError", e.getMessage());
+
+            // There is no point in continue
+            addUnexpectedErrors(APIError.GENERIC_OPERATION_ERROR);
+            flushErrors();
+        }
+        return null;
+    }
+
     /**
      * Creates and sends a reconfigure operation. Unsubscribe el VirtualMachine
      * 
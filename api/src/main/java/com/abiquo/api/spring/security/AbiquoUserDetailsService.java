@@ -61,6 +61,10 @@ public class AbiquoUserDetailsService implements UserDetailsService, UserLoginSe
     @Autowired
     protected EnterpriseRep enterpriseRep;
 
+    /** The cache of the authenticated principals. */
+    @Autowired(required = false)
+    protected PrincipalCache principalCache;
+
     /** The authentication type. */
     protected AuthType authType;
 
@@ -91,6 +95,7 @@ public class AbiquoUserDetailsService implements UserDetailsService, UserLoginSe
         DataAccessException
     {
         User user = null;
+        AuthType userAuthType = null;
         try
         {
             // If we are not coming from remember me we need to call the abiquo db.
@@ -98,7 +103,20 @@ public class AbiquoUserDetailsService implements UserDetailsService, UserLoginSe
             {
                 authType = AuthType.ABIQUO;
             }
-            user = enterpriseRep.getUserByAuth(username, authType);
+            userAuthType = authType;
+
+            if (principalCache != null)
+            {
+                UserDetails cached = principalCache.get(username, userAuthType);
+                if (cached != null)
+                {
+                    // for next logins
+                    authType = null;
+                    return cached;
+                }
+            }
+
+            user = enterpriseRep.getUserByAuth(username, userAuthType);
 
             // for next logins
             authType = null;
@@ -113,7 +131,13 @@ public class AbiquoUserDetailsService implements UserDetailsService, UserLoginSe
             throw new UsernameNotFoundException("Invalid credentials");
         }
 
-        return getUserDetails(user);
+        UserDetails userDetails = getUserDetails(user);
+        if (principalCache != null)
+        {
+            principalCache.put(username, userAuthType, userDetails);
+        }
+
+        return userDetails;
     }
 
     @Override
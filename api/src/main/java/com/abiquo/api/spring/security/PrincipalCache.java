@@ -0,0 +1,207 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.spring.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.abiquo.server.core.enterprise.User.AuthType;
+
+/**
+ * Short lived cache of the authenticated principals, so the API requests are not loading the
+ * user, its role and its privileges on each request.
+ * <p>
+ * At most ''abiquo.api.principals.size'' principals (default 1000) are kept, the least recently
+ * used are discarded first, for ''abiquo.api.principals.ttl'' ms (default 30 seconds). A TTL of 0
+ * disables the cache. The principal of a user is invalidated when the user is modified or removed
+ * through the API. The changes done by other components (such as the role edition in the client)
+ * are seen when the principal expires.
+ */
+@Component
+@ManagedResource(objectName = "Abiquo:Name=PrincipalCache,Type=com.abiquo.api.spring.security.PrincipalCache")
+public class PrincipalCache
+{
+    private final static long TTL = Long.parseLong(System.getProperty("abiquo.api.principals.ttl",
+        "30000"));
+
+    private final static int SIZE = Integer.parseInt(System.getProperty(
+        "abiquo.api.principals.size", "1000"));
+
+    private final long ttl;
+
+    private final Map<String, CachedPrincipal> principals;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public PrincipalCache()
+    {
+        this(TTL, SIZE);
+    }
+
+    protected PrincipalCache(final long ttl, final int maxSize)
+    {
+        this.ttl = ttl;
+        this.principals = new LinkedHashMap<String, CachedPrincipal>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedPrincipal> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached principal of the given user, or null if it is not cached or expired.
+     */
+    public UserDetails get(final String username, final AuthType authType)
+    {
+        if (ttl <= 0)
+        {
+            return null;
+        }
+
+        CachedPrincipal cached;
+        synchronized (principals)
+        {
+            cached = principals.get(key(username, authType));
+        }
+
+        if (cached == null || cached.expires < System.currentTimeMillis())
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return cached.details;
+    }
+
+    public void put(final String username, final AuthType authType, final UserDetails details)
+    {
+        if (ttl <= 0)
+        {
+            return;
+        }
+
+        CachedPrincipal cached = new CachedPrincipal(details, System.currentTimeMillis() + ttl);
+        synchronized (principals)
+        {
+            principals.put(key(username, authType), cached);
+        }
+    }
+
+    /**
+     * Discard the principal of the given user. If there is a transaction in progress the principal
+     * is discarded again when it completes, so a request loading the user before the commit does
+     * not keep the old details.
+     */
+    public void invalidate(final String username)
+    {
+        remove(username);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter()
+                {
+                    @Override
+                    public void afterCompletion(final int status)
+                    {
+                        remove(username);
+                    }
+                });
+        }
+    }
+
+    @ManagedOperation(description = "Discard all the cached principals")
+    public void invalidateAll()
+    {
+        synchronized (principals)
+        {
+            principals.clear();
+        }
+    }
+
+    private void remove(final String username)
+    {
+        synchronized (principals)
+        {
+            for (AuthType authType : AuthType.values())
+            {
+                principals.remove(key(username, authType));
+            }
+        }
+    }
+
+    private static String key(final String username, final AuthType authType)
+    {
+        return authType.name() + ":" + username;
+    }
+
+    @ManagedAttribute(description = "Cached principals")
+    public int getSize()
+    {
+        synchronized (principals)
+        {
+            return principals.size();
+        }
+    }
+
+    @ManagedAttribute(description = "Authentications using a cached principal")
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Authentications loading the principal")
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    private static class CachedPrincipal
+    {
+        private final UserDetails details;
+
+        private final long expires;
+
+        public CachedPrincipal(final UserDetails details, final long expires)
+        {
+            this.details = details;
+            this.expires = expires;
+        }
+    }
+}
@@ -22,8 +22,12 @@
 package com.abiquo.api.spring.security;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.PostConstruct;
 
@@ -31,6 +35,7 @@ import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.Authentication;
 import org.springframework.security.ConfigAttributeDefinition;
+import org.springframework.security.GrantedAuthority;
 import org.springframework.security.context.SecurityContextHolder;
 import org.springframework.security.intercept.web.DefaultFilterInvocationDefinitionSource;
 import org.springframework.security.intercept.web.FilterSecurityInterceptor;
@@ -44,6 +49,11 @@ import com.abiquo.model.rest.RESTLink;
 /**
  * This class eliminates from the dto the links that the user who made the request have no
  * permission to see.
+ * <p>
+ * The secured URL patterns have no numeric literals, so a link is allowed or not regardless of the
+ * ids in its path. The attributes of each link template (the path with its numeric segments
+ * replaced) are looked up only once, and the result of the vote is kept for each set of roles. The
+ * permission of most links is a map lookup.
  * 
  * @author sergi.castro@abiquo.com
  * @author serafin.sedano@abiquo.com
@@ -66,6 +76,30 @@ public class URLAuthenticator
         GET, POST, PUT, DELETE, OPTIONS
     };
 
+    /** Max number of link templates (and of permissions for each set of roles) to keep. */
+    private static final int MAX_TEMPLATES = 5000;
+
+    /** Max number of role sets to keep permissions for. */
+    private static final int MAX_ROLE_SETS = 200;
+
+    /** The attributes of each link template for each method (in {@link methods} order). */
+    private final Map<String, ConfigAttributeDefinition[]> templates =
+        new LinkedHashMap<String, ConfigAttributeDefinition[]>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<String, ConfigAttributeDefinition[]> eldest)
+            {
+                return size() > MAX_TEMPLATES;
+            }
+        };
+
+    /** The permission of each link template by set of roles. */
+    private final ConcurrentMap<String, ConcurrentMap<String, Boolean>> permissions =
+        new ConcurrentHashMap<String, ConcurrentMap<String, Boolean>>();
+
     @PostConstruct
     private void setRoleVoter()
     {
@@ -92,9 +126,12 @@ public class URLAuthenticator
         {
             authslinks = new ArrayList<RESTLink>();
 
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            Map<String, Boolean> allowed = getPermissions(auth);
+
             for (RESTLink link : links)
             {
-                if (checkPermissions(new StringBuffer(link.getHref()), baseUri))
+                if (checkPermissions(link.getHref(), baseUri, auth, allowed))
                 {
                     authslinks.add(link);
                 }
@@ -113,44 +150,194 @@ public class URLAuthenticator
      */
     public boolean checkPermissions(final StringBuffer url, final String baseUri)
     {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return checkPermissions(url.toString(), baseUri, auth, getPermissions(auth));
+    }
 
+    protected boolean checkPermissions(final String url, final String baseUri,
+        final Authentication auth, final Map<String, Boolean> allowed)
+    {
         if (roleVoter == null) // No role based security
         {
             return Boolean.TRUE;
         }
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-
-        DefaultFilterInvocationDefinitionSource fids =
-            (DefaultFilterInvocationDefinitionSource) filterSecurityInterceptor
-                .getObjectDefinitionSource();
 
         String path = parse(url, baseUri);
         if (StringUtils.isBlank(path)) // The uri is not Abiquo
         {
             return Boolean.TRUE;
         }
-        OUTER_LOOP: for (methods m : methods.values())
+
+        String template = toTemplate(path);
+        if (allowed == null)
+        {
+            return vote(auth, template);
+        }
+
+        Boolean granted = allowed.get(template);
+        if (granted == null)
         {
-            ConfigAttributeDefinition config = fids.lookupAttributes(path, m.name());
-            if (config != null)
+            if (allowed.size() >= MAX_TEMPLATES)
             {
-                int result = roleVoter.vote(auth, new Object(), config);
-                switch (result)
-                {
-                    case AccessDecisionVoter.ACCESS_GRANTED:
-                        return Boolean.TRUE;
+                allowed.clear();
+            }
 
-                    case AccessDecisionVoter.ACCESS_DENIED:
-                    default:
-                        continue OUTER_LOOP;
-                }
+            granted = vote(auth, template);
+            allowed.put(template, granted);
+        }
+
+        return granted;
+    }
+
+    /**
+     * Vote the link template with all the methods. The link is allowed if any method is granted.
+     */
+    private boolean vote(final Authentication auth, final String template)
+    {
+        for (ConfigAttributeDefinition config : lookupAttributes(template))
+        {
+            if (config != null
+                && roleVoter.vote(auth, new Object(), config) == AccessDecisionVoter.ACCESS_GRANTED)
+            {
+                return Boolean.TRUE;
             }
         }
         return Boolean.FALSE;
     }
 
-    private static String parse(final StringBuffer url, final String baseUri)
+    /**
+     * Get the attributes of the link template for each method, looking them up in the secured URL
+     * patterns only the first time.
+     */
+    private ConfigAttributeDefinition[] lookupAttributes(final String template)
+    {
+        ConfigAttributeDefinition[] configs;
+        synchronized (templates)
+        {
+            configs = templates.get(template);
+        }
+
+        if (configs == null)
+        {
+            DefaultFilterInvocationDefinitionSource fids =
+                (DefaultFilterInvocationDefinitionSource) filterSecurityInterceptor
+                    .getObjectDefinitionSource();
+
+            methods[] values = methods.values();
+            configs = new ConfigAttributeDefinition[values.length];
+            for (int i = 0; i < values.length; i++)
+            {
+                configs[i] = fids.lookupAttributes(template, values[i].name());
+            }
+
+            synchronized (templates)
+            {
+                templates.put(template, configs);
+            }
+        }
+
+        return configs;
+    }
+
+    /**
+     * Get the permissions already voted for the roles of the given authentication.
+     * 
+     * @return The permissions by link template, or null if there is no authentication.
+     */
+    private Map<String, Boolean> getPermissions(final Authentication auth)
+    {
+        if (auth == null || auth.getAuthorities() == null)
+        {
+            return null;
+        }
+
+        GrantedAuthority[] authorities = auth.getAuthorities();
+        String[] roles = new String[authorities.length];
+        for (int i = 0; i < authorities.length; i++)
+        {
+            roles[i] = authorities[i].getAuthority();
+        }
+        Arrays.sort(roles);
+        String roleSet = StringUtils.join(roles, ',');
+
+        ConcurrentMap<String, Boolean> allowed = permissions.get(roleSet);
+        if (allowed == null)
+        {
+            if (permissions.size() >= MAX_ROLE_SETS)
+            {
+                permissions.clear();
+            }
+
+            ConcurrentMap<String, Boolean> created = new ConcurrentHashMap<String, Boolean>();
+            allowed = permissions.putIfAbsent(roleSet, created);
+            if (allowed == null)
+            {
+                allowed = created;
+            }
+        }
+
+        return allowed;
+    }
+
+    /**
+     * Replace the numeric segments of the path (the ids) with a 0, so all the links to the same
+     * kind of resource have the same template. The query string is kept as is.
+     */
+    protected static String toTemplate(final String path)
+    {
+        StringBuilder template = new StringBuilder(path.length());
+        int segmentStart = 0;
+        boolean numeric = false;
+
+        for (int i = 0; i <= path.length(); i++)
+        {
+            char c = i < path.length() ? path.charAt(i) : '/';
+
+            if (c == '?')
+            {
+                appendSegment(template, path, segmentStart, i, numeric);
+                template.append(path, i, path.length());
+                return template.toString();
+            }
+
+            if (c == '/')
+            {
+                appendSegment(template, path, segmentStart, i, numeric);
+                if (i < path.length())
+                {
+                    template.append('/');
+                }
+                segmentStart = i + 1;
+                numeric = false;
+            }
+            else if (i == segmentStart)
+            {
+                numeric = Character.isDigit(c);
+            }
+            else
+            {
+                numeric = numeric && Character.isDigit(c);
+            }
+        }
+
+        return template.toString();
+    }
+
+    private static void appendSegment(final StringBuilder template, final String path,
+        final int start, final int end, final boolean numeric)
+    {
+        if (numeric)
+        {
+            template.append('0');
+        }
+        else
+        {
+            template.append(path, start, end);
+        }
+    }
+
+    private static String parse(final String url, final String baseUri)
     {
-        return StringUtils.substringAfterLast(url.toString(), baseUri);
+        return StringUtils.substringAfterLast(url, baseUri);
     }
 }
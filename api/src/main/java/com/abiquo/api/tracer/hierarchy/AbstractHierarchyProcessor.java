@@ -23,6 +23,7 @@ package com.abiquo.api.tracer.hierarchy;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Base class for all {@link HierarchyProcessor}.
@@ -31,16 +32,27 @@ import org.apache.commons.lang.StringUtils;
  */
 public abstract class AbstractHierarchyProcessor<T> implements HierarchyProcessor
 {
+    /** The cache of the resource names. */
+    @Autowired(required = false)
+    private ResourceNameCache names;
+
     @Override
     public void process(final String uri, final Map<String, String> resourceData)
+    {
+        processIdentifiers(HierarchyParser.parse(uri), resourceData);
+    }
+
+    @Override
+    public void processIdentifiers(final Map<String, String> identifiers,
+        final Map<String, String> resourceData)
     {
         String resourcePrefix = getIdentifierPrefix();
-        String resourceId = getIdentifier(uri);
+        String resourceId = identifiers.get(resourcePrefix);
 
         // If the resource prefix is not found, ignore this processor
         if (resourceId != null && !resourceId.isEmpty() && StringUtils.isNumeric(resourceId))
         {
-            String resourceName = getResourceName(resourceId);
+            String resourceName = getCachedResourceName(resourcePrefix, resourceId);
 
             if (resourceName == null || StringUtils.isBlank(resourceName))
             {
@@ -52,18 +64,28 @@ public abstract class AbstractHierarchyProcessor<T> implements HierarchyProcesso
     }
 
     /**
-     * Processes the URI to find the resource identifier.
-     * 
-     * @param uri The URI being processed.
-     * @return The identifier of the current resource or <code>null</code> if the identifier is not
-     *         found.
+     * Get the name of the resource from the cache, loading it if it is not cached.
      */
-    private String getIdentifier(final String uri)
+    private String getCachedResourceName(final String resourcePrefix, final String resourceId)
     {
-        String id = uri.replaceAll(String.format(".*%s/?", getIdentifierPrefix()), "");
-        id = id.replaceAll("/.*", "");
+        if (names == null)
+        {
+            return getResourceName(resourceId);
+        }
+
+        String resourceName = names.get(resourcePrefix, resourceId);
+        if (resourceName == null)
+        {
+            resourceName = getResourceName(resourceId);
+            names.put(resourcePrefix, resourceId, resourceName);
+        }
 
-        return StringUtils.isBlank(id) ? null : id;
+        return resourceName;
+    }
+
+    protected void setResourceNameCache(final ResourceNameCache names)
+    {
+        this.names = names;
     }
 
     /**
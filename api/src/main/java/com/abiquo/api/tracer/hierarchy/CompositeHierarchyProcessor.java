@@ -45,10 +45,18 @@ public class CompositeHierarchyProcessor implements HierarchyProcessor
 
     @Override
     public void process(final String uri, final Map<String, String> resourceData)
+    {
+        // Parse the URI once and share the identifiers with all the processors
+        processIdentifiers(HierarchyParser.parse(uri), resourceData);
+    }
+
+    @Override
+    public void processIdentifiers(final Map<String, String> identifiers,
+        final Map<String, String> resourceData)
     {
         for (HierarchyProcessor processor : processors)
         {
-            processor.process(uri, resourceData);
+            processor.processIdentifiers(identifiers, resourceData);
         }
     }
 
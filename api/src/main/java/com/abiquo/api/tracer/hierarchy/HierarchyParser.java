@@ -0,0 +1,64 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.api.tracer.hierarchy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Extracts all the resource identifiers of a hierarchy URI in a single pass.
+ * 
+ * @see HierarchyProcessor
+ */
+public class HierarchyParser
+{
+    /**
+     * Map each path segment, and each pair of consecutive path segments, to the segment that
+     * follows it. For <code>/admin/datacenters/1/racks/2</code> both <code>datacenters</code> and
+     * <code>admin/datacenters</code> are mapped to <code>1</code>, and <code>racks</code> to
+     * <code>2</code>. When a segment appears more than once the last occurrence is kept.
+     * 
+     * @param uri The hierarchy URI.
+     * @return The identifier that follows each segment.
+     */
+    public static Map<String, String> parse(final String uri)
+    {
+        Map<String, String> identifiers = new HashMap<String, String>();
+        if (uri == null)
+        {
+            return identifiers;
+        }
+
+        String[] segments = StringUtils.split(uri, '/');
+        for (int i = 0; i < segments.length - 1; i++)
+        {
+            identifiers.put(segments[i], segments[i + 1]);
+            if (i > 0)
+            {
+                identifiers.put(segments[i - 1] + "/" + segments[i], segments[i + 1]);
+            }
+        }
+
+        return identifiers;
+    }
+}
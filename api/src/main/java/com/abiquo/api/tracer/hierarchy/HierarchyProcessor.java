@@ -36,4 +36,14 @@ public interface HierarchyProcessor
      * @param resourceData The acumulated resource data.
      */
     public void process(String uri, Map<String, String> resourceData);
+
+    /**
+     * Extracts the resource data from the identifiers already parsed from the URI.
+     * 
+     * @param identifiers The identifiers of the URI, as returned by
+     *            {@link HierarchyParser#parse(String)}.
+     * @param resourceData The acumulated resource data.
+     */
+    public void processIdentifiers(Map<String, String> identifiers,
+        Map<String, String> resourceData);
 }
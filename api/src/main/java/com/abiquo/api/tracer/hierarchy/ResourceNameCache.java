@@ -0,0 +1,172 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.api.tracer.hierarchy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache of the resource names added to the traces by the {@link HierarchyProcessor}.
+ * <p>
+ * At most ''abiquo.api.tracer.names.size'' names (default 2000) are kept, the least recently used
+ * are discarded first, for ''abiquo.api.tracer.names.ttl'' ms (default 5 minutes). The services
+ * invalidate the name of a resource when they rename it.
+ */
+@Component
+@ManagedResource(objectName = "Abiquo:Name=ResourceNameCache,Type=com.abiquo.api.tracer.hierarchy.ResourceNameCache")
+public class ResourceNameCache
+{
+    private final static long TTL = Long.parseLong(System.getProperty(
+        "abiquo.api.tracer.names.ttl", "300000"));
+
+    private final static int SIZE = Integer.parseInt(System.getProperty(
+        "abiquo.api.tracer.names.size", "2000"));
+
+    private final long ttl;
+
+    private final Map<String, CachedName> names;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResourceNameCache()
+    {
+        this(TTL, SIZE);
+    }
+
+    protected ResourceNameCache(final long ttl, final int maxSize)
+    {
+        this.ttl = ttl;
+        this.names = new LinkedHashMap<String, CachedName>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedName> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param resourcePath The path of the resource collection, as the prefix of the processor.
+     * @param resourceId The identifier of the resource.
+     * @return The cached name, or null if it is not cached or expired.
+     */
+    public String get(final String resourcePath, final String resourceId)
+    {
+        CachedName cached;
+        synchronized (names)
+        {
+            cached = names.get(key(resourcePath, resourceId));
+        }
+
+        if (cached == null || cached.expires < System.currentTimeMillis())
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return cached.name;
+    }
+
+    public void put(final String resourcePath, final String resourceId, final String name)
+    {
+        if (ttl <= 0 || name == null)
+        {
+            return;
+        }
+
+        CachedName cached = new CachedName(name, System.currentTimeMillis() + ttl);
+        synchronized (names)
+        {
+            names.put(key(resourcePath, resourceId), cached);
+        }
+    }
+
+    /**
+     * Discard the name of a renamed resource.
+     */
+    public void invalidate(final String resourcePath, final Integer resourceId)
+    {
+        synchronized (names)
+        {
+            names.remove(key(resourcePath, String.valueOf(resourceId)));
+        }
+    }
+
+    @ManagedOperation(description = "Discard all the cached names")
+    public void invalidateAll()
+    {
+        synchronized (names)
+        {
+            names.clear();
+        }
+    }
+
+    private static String key(final String resourcePath, final String resourceId)
+    {
+        return resourcePath + "/" + resourceId;
+    }
+
+    @ManagedAttribute(description = "Cached resource names")
+    public int getSize()
+    {
+        synchronized (names)
+        {
+            return names.size();
+        }
+    }
+
+    @ManagedAttribute(description = "Resource names found in the cache")
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Resource names loaded from the database")
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    private static class CachedName
+    {
+        private final String name;
+
+        private final long expires;
+
+        public CachedName(final String name, final long expires)
+        {
+            this.name = name;
+            this.expires = expires;
+        }
+    }
+}
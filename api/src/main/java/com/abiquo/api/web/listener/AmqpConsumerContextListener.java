@@ -32,6 +32,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
+import com.abiquo.api.eventing.VSMEventBatchCallback;
+import com.abiquo.api.eventing.VSMEventBatcher;
 import com.abiquo.api.services.appslibrary.event.AMEventProcessor;
 import com.abiquo.commons.amqp.consumer.BasicConsumer;
 import com.abiquo.commons.amqp.impl.am.AMCallback;
@@ -51,6 +53,9 @@ public class AmqpConsumerContextListener implements ServletContextListener
     /** The RabbitMQ consumer for VSM */
     protected VSMConsumer eventsConsumer;
 
+    /** Groups the VSM events in windows, if enabled */
+    protected VSMEventBatcher eventsBatcher;
+
     /** The RabbitMQ consumer for AM */
     protected AMConsumer amConsumer;
 
@@ -77,6 +82,11 @@ public class AmqpConsumerContextListener implements ServletContextListener
     public void contextDestroyed(final ServletContextEvent arg0)
     {
         shutdownAllInstantiatedConsumers();
+
+        if (eventsBatcher != null)
+        {
+            eventsBatcher.stop();
+        }
     }
 
     protected void registerConsumer(final BasicConsumer< ? > consumer)
@@ -121,8 +131,18 @@ public class AmqpConsumerContextListener implements ServletContextListener
     {
         eventsConsumer = new VSMConsumer(VSMConfiguration.EVENT_SYNK_QUEUE);
 
-        eventsConsumer.addCallback(WebApplicationContextUtils.getRequiredWebApplicationContext(
-            sce.getServletContext()).getBean("VSMEventProcessorWithFilters", VSMCallback.class));
+        VSMCallback callback =
+            WebApplicationContextUtils.getRequiredWebApplicationContext(sce.getServletContext())
+                .getBean("VSMEventProcessorWithFilters", VSMCallback.class);
+
+        if (VSMEventBatcher.WINDOW > 0 && callback instanceof VSMEventBatchCallback)
+        {
+            // Process the events in windows
+            eventsBatcher = new VSMEventBatcher((VSMEventBatchCallback) callback);
+            callback = eventsBatcher;
+        }
+
+        eventsConsumer.addCallback(callback);
 
         eventsConsumer.start();
     }
@@ -0,0 +1,50 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler;
+
+import com.abiquo.api.exceptions.ServiceUnavailableException;
+
+/**
+ * Enterprise and datacenter locks shared between several API instances. Used by
+ * {@link SchedulerLock} once the local locks have been acquired. Several threads of the same API
+ * instance may still wait on the same resource (such as allocations on different racks of a
+ * datacenter, which only share the datacenter read lock), so implementations must be thread safe.
+ */
+public interface DistributedSchedulerLock
+{
+    /**
+     * Acquire the lock of the resource.
+     *
+     * @param resource, the resource to lock (such as ''enterprise:1'' or ''datacenter:1'').
+     * @param timeout, max time to wait (ms).
+     * @return false if the lock can't be acquired in the given time.
+     * @throws ServiceUnavailableException if the shared store is not available.
+     */
+    public boolean acquire(String resource, long timeout);
+
+    /**
+     * Release the lock of the resource acquired by this instance.
+     *
+     * @param resource, the resource to unlock.
+     */
+    public void release(String resource);
+}
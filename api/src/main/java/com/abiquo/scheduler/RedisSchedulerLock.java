@@ -0,0 +1,367 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisException;
+
+import com.abiquo.api.exceptions.APIError;
+import com.abiquo.api.exceptions.ServiceUnavailableException;
+
+/**
+ * {@link DistributedSchedulerLock} stored in the Redis shared by all the API instances. Enabled
+ * with the ''com.abiquo.schedulerlock.distributed'' property.
+ * <p>
+ * The lock value is a random token of the owner, checked on release so an instance never removes
+ * a lock taken by another one. The key expires after the lease (''com.abiquo.schedulerlock.lease'')
+ * so a lock left by a crashed API instance is released by Redis, without comparing the clocks of
+ * the API instances. While held, the lease is renewed every third of its duration; a lock found
+ * expired or taken by another instance on renewal is logged and forgotten.
+ * <p>
+ * If Redis is not available the acquisition fails with a {@link ServiceUnavailableException}.
+ * <p>
+ * Also exposes the {@link SchedulerLock} wait and hold metrics.
+ */
+@Component
+@ManagedResource(objectName = "Abiquo:Name=SchedulerLock,Type=com.abiquo.scheduler.SchedulerLock")
+public class RedisSchedulerLock implements DistributedSchedulerLock
+{
+    private final static Logger LOG = LoggerFactory.getLogger(RedisSchedulerLock.class);
+
+    private final static String KEY_PREFIX = "SchedulerLock:";
+
+    /** Lease of the lock (seconds). */
+    private final static int LEASE = (int) Math.max(1, Long.parseLong(System.getProperty(
+        "com.abiquo.schedulerlock.lease", "300000")) / 1000);
+
+    private final static long RETRY_DELAY = 50;
+
+    private final static long RENEW_PERIOD = Math.max(1, LEASE / 3);
+
+    @Autowired
+    protected JedisPool jedisPool;
+
+    /** Lock tokens owned by this instance. */
+    private final ConcurrentMap<String, String> owned = new ConcurrentHashMap<String, String>();
+
+    /** Renews the lease of the owned locks. */
+    private ScheduledExecutorService renewer;
+
+    @PostConstruct
+    public void register()
+    {
+        if (Boolean.parseBoolean(System.getProperty("com.abiquo.schedulerlock.distributed",
+            "false")))
+        {
+            LOG.info("Scheduler lock shared between API instances using Redis");
+
+            renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "SchedulerLock-renewer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            renewer.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    renewAll();
+                }
+            }, RENEW_PERIOD, RENEW_PERIOD, TimeUnit.SECONDS);
+
+            SchedulerLock.setDistributedLock(this);
+        }
+    }
+
+    @PreDestroy
+    public void unregister()
+    {
+        SchedulerLock.setDistributedLock(null);
+
+        if (renewer != null)
+        {
+            renewer.shutdownNow();
+            renewer = null;
+        }
+    }
+
+    @Override
+    public boolean acquire(final String resource, final long timeout)
+    {
+        final String key = KEY_PREFIX + resource;
+        final String token = UUID.randomUUID().toString();
+        final long deadline = System.currentTimeMillis() + timeout;
+
+        do
+        {
+            if (tryAcquire(key, token))
+            {
+                owned.put(resource, token);
+                return true;
+            }
+
+            try
+            {
+                Thread.sleep(RETRY_DELAY);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        while (System.currentTimeMillis() < deadline);
+
+        return false;
+    }
+
+    @Override
+    public void release(final String resource)
+    {
+        final String key = KEY_PREFIX + resource;
+        final String value = owned.remove(resource);
+        if (value == null)
+        {
+            return;
+        }
+
+        Jedis jedis = null;
+        boolean broken = false;
+
+        try
+        {
+            jedis = jedisPool.getResource();
+            jedis.watch(key);
+            if (value.equals(jedis.get(key)))
+            {
+                Transaction transaction = jedis.multi();
+                transaction.del(key);
+                List<Object> result = transaction.exec();
+                if (result == null)
+                {
+                    LOG.warn("Lock of {} modified while releasing", resource);
+                }
+            }
+            else
+            {
+                jedis.unwatch();
+                LOG.warn("Lock of {} expired before release", resource);
+            }
+        }
+        catch (JedisException e)
+        {
+            // the work is already done, the lock expires after the lease
+            broken = true;
+            LOG.error("Can't release lock of {}: {}", resource, e.getMessage());
+        }
+        finally
+        {
+            returnResource(jedis, broken);
+        }
+    }
+
+    /**
+     * Sets the token as the lock value if the key doesn't exist. The key is watched, so a
+     * concurrent acquisition aborts the transaction.
+     *
+     * @return true if the lock has been acquired.
+     * @throws ServiceUnavailableException if Redis is not available.
+     */
+    private boolean tryAcquire(final String key, final String token)
+    {
+        Jedis jedis = null;
+        boolean broken = false;
+
+        try
+        {
+            jedis = jedisPool.getResource();
+            jedis.watch(key);
+            if (jedis.get(key) != null)
+            {
+                jedis.unwatch();
+                return false;
+            }
+
+            Transaction transaction = jedis.multi();
+            transaction.set(key, token);
+            transaction.expire(key, LEASE);
+            return transaction.exec() != null;
+        }
+        catch (JedisException e)
+        {
+            broken = true;
+            LOG.error("Can't acquire lock of {}: {}", key, e.getMessage());
+            throw new ServiceUnavailableException(APIError.REDIS_CONNECTION_FAILED);
+        }
+        finally
+        {
+            returnResource(jedis, broken);
+        }
+    }
+
+    /**
+     * Extends the lease of all the locks owned by this instance. A lock no longer holding the
+     * token of this instance has been lost (it expired), so it is forgotten.
+     */
+    protected void renewAll()
+    {
+        for (Entry<String, String> lock : owned.entrySet())
+        {
+            try
+            {
+                if (!renew(KEY_PREFIX + lock.getKey(), lock.getValue()))
+                {
+                    LOG.error("Lock of {} lost before release", lock.getKey());
+                    owned.remove(lock.getKey(), lock.getValue());
+                }
+            }
+            catch (JedisException e)
+            {
+                LOG.error("Can't renew lock of {}: {}", lock.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resets the expiration of the key if it still holds the token.
+     *
+     * @return false if the key has another value (or none).
+     */
+    private boolean renew(final String key, final String token)
+    {
+        Jedis jedis = null;
+        boolean broken = false;
+
+        try
+        {
+            jedis = jedisPool.getResource();
+            jedis.watch(key);
+            if (!token.equals(jedis.get(key)))
+            {
+                jedis.unwatch();
+                return false;
+            }
+
+            Transaction transaction = jedis.multi();
+            transaction.expire(key, LEASE);
+            // aborted only if the key changed, so it's checked again on the next renewal
+            transaction.exec();
+            return true;
+        }
+        catch (JedisException e)
+        {
+            broken = true;
+            throw e;
+        }
+        finally
+        {
+            returnResource(jedis, broken);
+        }
+    }
+
+    private void returnResource(final Jedis jedis, final boolean broken)
+    {
+        if (jedis == null)
+        {
+            return;
+        }
+
+        if (broken)
+        {
+            jedisPool.returnBrokenResource(jedis);
+        }
+        else
+        {
+            jedisPool.returnResource(jedis);
+        }
+    }
+
+    @ManagedAttribute(description = "Mean time waiting for the scheduler lock (ms)")
+    public long getMeanWaitTime()
+    {
+        return SchedulerLock.getWaitStats().getMean();
+    }
+
+    @ManagedAttribute(description = "Max time waiting for the scheduler lock (ms)")
+    public long getMaxWaitTime()
+    {
+        return SchedulerLock.getWaitStats().getMax();
+    }
+
+    @ManagedAttribute(description = "Mean time holding the scheduler lock (ms)")
+    public long getMeanHoldTime()
+    {
+        return SchedulerLock.getHoldStats().getMean();
+    }
+
+    @ManagedAttribute(description = "Max time holding the scheduler lock (ms)")
+    public long getMaxHoldTime()
+    {
+        return SchedulerLock.getHoldStats().getMax();
+    }
+
+    @ManagedAttribute(description = "Scheduler lock acquisitions")
+    public long getAcquisitions()
+    {
+        return SchedulerLock.getWaitStats().getCount();
+    }
+
+    @ManagedAttribute(description = "Scheduler lock acquisitions failed due the timeout")
+    public long getTimeouts()
+    {
+        return SchedulerLock.getTimeouts();
+    }
+
+    @ManagedAttribute(description = "Scheduler lock shared between API instances")
+    public boolean isDistributed()
+    {
+        return Boolean.parseBoolean(System.getProperty("com.abiquo.schedulerlock.distributed",
+            "false"));
+    }
+}
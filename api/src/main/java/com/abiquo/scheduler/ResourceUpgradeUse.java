@@ -42,6 +42,8 @@ import org.springframework.stereotype.Component;
 import com.abiquo.api.services.InfrastructureService;
 import com.abiquo.model.enumerator.FitPolicy;
 import com.abiquo.model.enumerator.NetworkType;
+import com.abiquo.scheduler.limit.EnterpriseUsageCounters;
+import com.abiquo.scheduler.workload.MachineCapacityIndex;
 import com.abiquo.scheduler.workload.NotEnoughResourcesException;
 import com.abiquo.scheduler.workload.VirtualimageAllocationService;
 import com.abiquo.server.core.cloud.HypervisorDAO;
@@ -102,6 +104,12 @@ public class ResourceUpgradeUse implements IResourceUpgradeUse
     @Autowired
     private FitPolicyRuleDAO fitPolicyDao;
 
+    @Autowired(required = false)
+    private MachineCapacityIndex capacityIndex;
+
+    @Autowired(required = false)
+    private EnterpriseUsageCounters usageCounters;
+
     public ResourceUpgradeUse()
     {
 
@@ -167,6 +175,8 @@ public class ResourceUpgradeUse implements IResourceUpgradeUse
             if (!isHA)
             {
                 updateUsageDatastore(virtualMachine, false);
+                updateUsageEnterprise(virtualMachine, virtualAppliance.getVirtualDatacenter(),
+                    physicalMachine, false);
                 updateNetworkingResources(physicalMachine, virtualMachine, virtualAppliance);
 
                 virtualMachine.setState(VirtualMachineState.LOCKED); // FIXME
@@ -237,6 +247,7 @@ public class ResourceUpgradeUse implements IResourceUpgradeUse
 
             updateUsageDatastore(virtualMachine, true);
             updateUsagePhysicalMachine(physicalMachine, virtualMachine, true);
+            updateUsageEnterprise(virtualMachine, null, physicalMachine, true);
             rollbackNetworkingResources(physicalMachine, virtualMachine);
 
             // TODO Ignasi must review this
@@ -406,6 +417,11 @@ public class ResourceUpgradeUse implements IResourceUpgradeUse
         // prevent to set negative usage
         machine.setVirtualCpusUsed(newCpu >= 0 ? newCpu : 0);
         machine.setVirtualRamUsedInMb(newRam >= 0 ? newRam : 0);
+
+        if (capacityIndex != null)
+        {
+            capacityIndex.update(machine);
+        }
     }
 
     @Override
@@ -416,6 +432,12 @@ public class ResourceUpgradeUse implements IResourceUpgradeUse
         machine.setVirtualRamUsedInMb((int) (machine.getVirtualRamUsedInMb() + requirements
             .getRam()));
         datastore.setUsedSize(datastore.getUsedSize() + requirements.getHd());
+
+        if (capacityIndex != null)
+        {
+            capacityIndex.update(machine);
+            capacityIndex.update(datastore);
+        }
     }
 
     /**
@@ -456,6 +478,29 @@ public class ResourceUpgradeUse implements IResourceUpgradeUse
         }
     }
 
+    /**
+     * Adds the resources of the virtual machine to the usage counters of its enterprise, virtual
+     * datacenter and datacenter (the same values summed by the usage queries), or releases them on
+     * rollback.
+     * 
+     * @param virtualDatacenter, the virtual datacenter of the virtual machine (null if unknown).
+     */
+    private void updateUsageEnterprise(final VirtualMachine virtual,
+        final VirtualDatacenter virtualDatacenter, final Machine machine, final boolean isRollback)
+    {
+        if (usageCounters == null || virtual.getEnterprise() == null)
+        {
+            return;
+        }
+
+        final int sign = isRollback ? -1 : 1;
+        final long hd = virtual.getHdInBytes() + getDisksSizeInBytes(virtual);
+
+        usageCounters.add(virtual.getEnterprise().getId(), virtualDatacenter != null
+            ? virtualDatacenter.getId() : null, machine != null ? machine.getDatacenter().getId()
+            : null, sign * virtual.getCpu(), sign * virtual.getRam(), sign * hd);
+    }
+
     private void updateDatastore(final Datastore datastore, final Long requestSize,
         final boolean isRollback)
     {
@@ -471,6 +516,11 @@ public class ResourceUpgradeUse implements IResourceUpgradeUse
         }
 
         datastore.setUsedSize(newUsed >= 0 ? newUsed : 0); // prevent negative usage
+
+        if (capacityIndex != null)
+        {
+            capacityIndex.update(datastore);
+        }
     }
 
     /**
@@ -21,71 +21,357 @@
 
 package com.abiquo.scheduler;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.abiquo.api.exceptions.APIError;
 import com.abiquo.api.exceptions.ServiceUnavailableException;
+import com.abiquo.model.util.LatencyStats;
 
 /**
- * Synchronize physical machines resources modification
+ * Synchronize physical machines resources modification.
+ * <p>
+ * Locks are scoped by datacenter (the scheduler selects the target rack, so any rack of the
+ * datacenter can be modified) or by rack (the target machine is already known, such as on
+ * deallocations). A datacenter scope excludes all the rack scopes of the same datacenter while
+ * different racks or datacenters can be modified in parallel. Allocations also lock the
+ * enterprise, so its limits are checked and updated by one allocation at a time even on different
+ * datacenters. Locks are always acquired in the same order: enterprise, datacenter and rack.
+ * <p>
+ * If a {@link DistributedSchedulerLock} is registered (see {@link RedisSchedulerLock}) the
+ * enterprise and the datacenter are also locked in the shared store, so several API instances
+ * can't modify them at once.
  */
 public class SchedulerLock
 {
     private final static Logger LOG = LoggerFactory.getLogger(SchedulerLock.class);
 
-    private final static ReentrantLock THE_LOCK = new ReentrantLock();
-
     private final static long TIMEOUT = Long.parseLong(System.getProperty(
         "com.abiquo.schedulerlock.timeout", "30000"));
 
+    /** Datacenter locks. Write for the whole datacenter, read for a single rack. */
+    private final static ConcurrentMap<Integer, ReentrantReadWriteLock> DATACENTER_LOCKS =
+        new ConcurrentHashMap<Integer, ReentrantReadWriteLock>();
+
+    /** Rack locks. Always acquired holding the read lock of its datacenter. */
+    private final static ConcurrentMap<Integer, ReentrantLock> RACK_LOCKS =
+        new ConcurrentHashMap<Integer, ReentrantLock>();
+
+    /** Enterprise locks. Always acquired before the datacenter lock. */
+    private final static ConcurrentMap<Integer, ReentrantLock> ENTERPRISE_LOCKS =
+        new ConcurrentHashMap<Integer, ReentrantLock>();
+
+    /** Locks acquired by the current thread (most recent first). */
+    private final static ThreadLocal<LinkedList<Held>> HELD = new ThreadLocal<LinkedList<Held>>()
+    {
+        @Override
+        protected LinkedList<Held> initialValue()
+        {
+            return new LinkedList<Held>();
+        }
+    };
+
+    private final static LatencyStats WAIT_STATS = new LatencyStats();
+
+    private final static LatencyStats HOLD_STATS = new LatencyStats();
+
+    private final static AtomicLong TIMEOUTS = new AtomicLong();
+
+    private static volatile DistributedSchedulerLock distributed;
+
+    /**
+     * Gain access to modify resources of any rack in the datacenter.
+     *
+     * @param datacenterId, the datacenter where the scheduler will select the target machine.
+     * @param msg, cause of the lock
+     * @throws ServiceUnavailableException if can't acquire the lock in the configured timeout.
+     */
+    public static void acquire(final Integer datacenterId, final String msg)
+    {
+        acquire(null, datacenterId, null, msg);
+    }
+
     /**
      * Gain access to modify resources in the physical infrastructure.
-     * 
+     *
+     * @param datacenterId, the datacenter of the modified resources.
+     * @param rackId, the rack of the modified resources, null to lock the whole datacenter.
+     * @param msg, cause of the lock
+     * @throws ServiceUnavailableException if can't acquire the lock in the configured timeout.
+     */
+    public static void acquire(final Integer datacenterId, final Integer rackId, final String msg)
+    {
+        acquire(null, datacenterId, rackId, msg);
+    }
+
+    /**
+     * Gain access to allocate resources of the enterprise on any rack in the datacenter. The
+     * enterprise limits are checked and updated holding this lock.
+     *
+     * @param enterpriseId, the enterprise of the allocated resources.
+     * @param datacenterId, the datacenter where the scheduler will select the target machine.
      * @param msg, cause of the lock
      * @throws ServiceUnavailableException if can't acquire the lock in the configured timeout.
      */
-    public static void acquire(final String msg)
+    public static void acquireForEnterprise(final Integer enterpriseId,
+        final Integer datacenterId, final String msg)
+    {
+        acquire(enterpriseId, datacenterId, null, msg);
+    }
+
+    private static void acquire(final Integer enterpriseId, final Integer datacenterId,
+        final Integer rackId, final String msg)
     {
         final long start = System.currentTimeMillis();
+        final long deadline = start + TIMEOUT;
 
-        LOG.debug("Wait to adquire lock - {}", msg);
+        LOG.debug("Wait to adquire lock enterprise {} datacenter {} rack {} - {}", new Object[] {
+        enterpriseId, datacenterId, rackId, msg});
 
-        try
+        final ReentrantReadWriteLock dcLock = datacenterLock(datacenterId);
+        if (rackId == null && dcLock.getReadHoldCount() > 0
+            && !dcLock.isWriteLockedByCurrentThread())
         {
-            if (!THE_LOCK.tryLock(TIMEOUT, TimeUnit.MILLISECONDS))
+            // a rack scope can not be upgraded to the datacenter scope
+            LOG.error("Can't acquire datacenter lock holding a rack lock - {}", msg);
+            throw new ServiceUnavailableException(APIError.SERVICE_UNAVAILABLE_ERROR);
+        }
+
+        final List<Lock> locks = new ArrayList<Lock>(3);
+        final List<String> resources = new ArrayList<String>(2);
+
+        if (enterpriseId != null)
+        {
+            final ReentrantLock enterpriseLock = lock(ENTERPRISE_LOCKS, enterpriseId);
+            if (!enterpriseLock.isHeldByCurrentThread() && !HELD.get().isEmpty())
             {
-                LOG.error("Can't acquire lock after {}ms - {}", TIMEOUT, msg);
+                // the enterprise must be locked before any datacenter
+                LOG.error("Can't acquire enterprise lock holding other locks - {}", msg);
                 throw new ServiceUnavailableException(APIError.SERVICE_UNAVAILABLE_ERROR);
             }
+
+            locks.add(enterpriseLock);
+            resources.add("enterprise:" + enterpriseId);
         }
-        catch (InterruptedException e)
+
+        locks.add(rackId == null ? dcLock.writeLock() : dcLock.readLock());
+        resources.add("datacenter:" + datacenterId);
+
+        if (rackId != null)
         {
-            LOG.error("Lock interrupted - {}", msg, e);
-            throw new ServiceUnavailableException(APIError.SERVICE_UNAVAILABLE_ERROR);
+            locks.add(lock(RACK_LOCKS, rackId));
+        }
+
+        final DistributedSchedulerLock cluster = distributed;
+        final List<Lock> locked = new ArrayList<Lock>(locks.size());
+        final List<String> distributedLocked = new ArrayList<String>(resources.size());
+
+        try
+        {
+            for (Lock lock : locks)
+            {
+                tryLock(lock, deadline, msg);
+                locked.add(lock);
+            }
+
+            if (cluster != null)
+            {
+                for (String resource : resources)
+                {
+                    if (holdsDistributed(resource))
+                    {
+                        continue;
+                    }
+
+                    if (!cluster.acquire(resource, deadline - System.currentTimeMillis()))
+                    {
+                        timeout(msg);
+                    }
+                    distributedLocked.add(resource);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            unlock(locked, cluster, distributedLocked);
+            throw e;
         }
 
-        LOG.debug("Adquired lock after {}ms - {}", System.currentTimeMillis() - start, msg);
+        final long acquired = System.currentTimeMillis();
+        WAIT_STATS.record(acquired - start);
+        HELD.get().addFirst(new Held(msg, locked, cluster, distributedLocked, acquired));
+
+        LOG.debug("Adquired lock after {}ms - {}", acquired - start, msg);
     }
 
     /**
      * Release the lock (or do nothing if not owned by the current thread)
-     * 
+     *
      * @param msg, cause of the lock
      */
     public static void release(final String msg)
     {
-        if (THE_LOCK.isHeldByCurrentThread())
+        final LinkedList<Held> held = HELD.get();
+        final Held lock = held.peek();
+
+        if (lock == null || !lock.msg.equals(msg))
         {
-            THE_LOCK.unlock();
-            LOG.debug("Released - {}", msg);
+            LOG.warn("Not adquired - {}", msg);
+            return;
         }
-        else
+
+        held.removeFirst();
+        unlock(lock.locks, lock.distributed, lock.resources);
+
+        HOLD_STATS.record(System.currentTimeMillis() - lock.acquired);
+        LOG.debug("Released - {}", msg);
+    }
+
+    /**
+     * Register the lock used to synchronize several API instances. Null to only synchronize the
+     * current instance.
+     */
+    public static void setDistributedLock(final DistributedSchedulerLock distributedLock)
+    {
+        distributed = distributedLock;
+    }
+
+    /** Time waiting to acquire the lock (ms). */
+    public static LatencyStats getWaitStats()
+    {
+        return WAIT_STATS;
+    }
+
+    /** Time holding the lock (ms). */
+    public static LatencyStats getHoldStats()
+    {
+        return HOLD_STATS;
+    }
+
+    /** Number of acquisitions failed due the timeout. */
+    public static long getTimeouts()
+    {
+        return TIMEOUTS.get();
+    }
+
+    private static void tryLock(final Lock lock, final long deadline, final String msg)
+    {
+        try
         {
-            LOG.warn("Not adquired - {}", msg);
+            if (!lock.tryLock(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS))
+            {
+                timeout(msg);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            LOG.error("Lock interrupted - {}", msg, e);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException(APIError.SERVICE_UNAVAILABLE_ERROR);
+        }
+    }
+
+    private static void timeout(final String msg)
+    {
+        TIMEOUTS.incrementAndGet();
+        LOG.error("Can't acquire lock after {}ms - {}", TIMEOUT, msg);
+        throw new ServiceUnavailableException(APIError.SERVICE_UNAVAILABLE_ERROR);
+    }
+
+    /** Releases the locks in the reverse order they were acquired. */
+    private static void unlock(final List<Lock> locks, final DistributedSchedulerLock cluster,
+        final List<String> resources)
+    {
+        try
+        {
+            for (int i = resources.size() - 1; i >= 0; i--)
+            {
+                cluster.release(resources.get(i));
+            }
+        }
+        finally
+        {
+            for (int i = locks.size() - 1; i >= 0; i--)
+            {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    /** Checks if the current thread already owns the distributed lock of the resource. */
+    private static boolean holdsDistributed(final String resource)
+    {
+        Iterator<Held> it = HELD.get().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().resources.contains(resource))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ReentrantReadWriteLock datacenterLock(final Integer datacenterId)
+    {
+        ReentrantReadWriteLock lock = DATACENTER_LOCKS.get(datacenterId);
+        if (lock == null)
+        {
+            ReentrantReadWriteLock created = new ReentrantReadWriteLock(true);
+            lock = DATACENTER_LOCKS.putIfAbsent(datacenterId, created);
+            return lock == null ? created : lock;
+        }
+
+        return lock;
+    }
+
+    private static ReentrantLock lock(final ConcurrentMap<Integer, ReentrantLock> locks,
+        final Integer id)
+    {
+        ReentrantLock lock = locks.get(id);
+        if (lock == null)
+        {
+            ReentrantLock created = new ReentrantLock(true);
+            lock = locks.putIfAbsent(id, created);
+            return lock == null ? created : lock;
+        }
+
+        return lock;
+    }
+
+    private static class Held
+    {
+        final String msg;
+
+        final List<Lock> locks;
+
+        final DistributedSchedulerLock distributed;
+
+        /** Resources locked in the distributed lock. */
+        final List<String> resources;
+
+        final long acquired;
+
+        Held(final String msg, final List<Lock> locks, final DistributedSchedulerLock distributed,
+            final List<String> resources, final long acquired)
+        {
+            this.msg = msg;
+            this.locks = locks;
+            this.distributed = distributed;
+            this.resources = resources;
+            this.acquired = acquired;
         }
     }
 }
@@ -0,0 +1,92 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler.limit;
+
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.abiquo.server.core.common.DefaultEntityCurrentUsed;
+import com.abiquo.server.core.common.DefaultEntityWithLimits.LimitStatus;
+import com.abiquo.server.core.enterprise.DatacenterLimits;
+import com.abiquo.server.core.infrastructure.InfrastructureRep;
+
+/**
+ * Checks the limits of an enterprise on a datacenter.
+ */
+@Component
+public class DatacenterLimitChecker extends EntityLimitChecker<DatacenterLimits>
+{
+    @Autowired
+    InfrastructureRep infrastructureRep;
+
+    @Autowired(required = false)
+    EnterpriseUsageCounters usageCounters;
+
+    public DatacenterLimitChecker()
+    {
+
+    }
+
+    public DatacenterLimitChecker(final EntityManager entityManager)
+    {
+        infrastructureRep = new InfrastructureRep(entityManager);
+    }
+
+    @Override
+    protected String getEntityIdentifier(final DatacenterLimits entity)
+    {
+        return String.format("Datacenter [%s] of enterprise [%s]", entity.getDatacenter()
+            .getName(), entity.getEnterprise().getName());
+    }
+
+    @Override
+    protected DefaultEntityCurrentUsed getCurrentUsed(final DatacenterLimits entity)
+    {
+        if (usageCounters != null)
+        {
+            return usageCounters.getDatacenter(entity.getEnterprise().getId(), entity
+                .getDatacenter().getId(), false);
+        }
+
+        return infrastructureRep.getDatacenterResourceUsage(entity.getDatacenter().getId(),
+            entity.getEnterprise().getId());
+    }
+
+    @Override
+    protected DefaultEntityCurrentUsed getCurrentUsedFromDatabase(final DatacenterLimits entity)
+    {
+        return usageCounters != null ? usageCounters.getDatacenter(entity.getEnterprise().getId(),
+            entity.getDatacenter().getId(), true) : null;
+    }
+
+    @Override
+    protected Map<LimitResource, LimitStatus> getFilterResourcesStatus(
+        final Map<LimitResource, LimitStatus> limitStatus)
+    {
+        // datacenter uses all resources
+        return limitStatus;
+    }
+}
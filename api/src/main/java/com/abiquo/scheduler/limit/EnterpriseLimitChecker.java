@@ -39,6 +39,9 @@ public class EnterpriseLimitChecker extends EntityLimitChecker<Enterprise>
     @Autowired
     EnterpriseRep enterpriseRep;
 
+    @Autowired(required = false)
+    EnterpriseUsageCounters usageCounters;
+
     public EnterpriseLimitChecker()
     {
 
@@ -58,9 +61,20 @@ public class EnterpriseLimitChecker extends EntityLimitChecker<Enterprise>
     @Override
     protected DefaultEntityCurrentUsed getCurrentUsed(Enterprise entity)
     {
+        if (usageCounters != null)
+        {
+            return usageCounters.get(entity.getId());
+        }
+
         return enterpriseRep.getEnterpriseResourceUsage(entity.getId());
     }
 
+    @Override
+    protected DefaultEntityCurrentUsed getCurrentUsedFromDatabase(final Enterprise entity)
+    {
+        return usageCounters != null ? usageCounters.get(entity.getId(), true) : null;
+    }
+
     @Override
     protected Map<LimitResource, LimitStatus> getFilterResourcesStatus(
         Map<LimitResource, LimitStatus> limitStatus)
@@ -0,0 +1,444 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler.limit;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.abiquo.server.core.cloud.VirtualDatacenterRep;
+import com.abiquo.server.core.common.DefaultEntityCurrentUsed;
+import com.abiquo.server.core.enterprise.EnterpriseRep;
+import com.abiquo.server.core.infrastructure.InfrastructureRep;
+
+/**
+ * In-memory counters of the resources used by each enterprise, its virtual datacenters and the
+ * datacenters where it allocates, read by the limit checkers instead of running the usage queries
+ * on every allocation.
+ * <p>
+ * The counters are loaded with the usage queries the first time they are needed and reconciled
+ * with the database every ''abiquo.api.limits.usage.ttl'' ms, which also covers the changes not
+ * done by this API node. Meanwhile the resource upgrade adds the CPU, RAM and HD of the allocated
+ * and deallocated virtual machines when their transaction commits, and the services changing the
+ * storage, VLANs or public IPs discard the counters of the enterprise. As the changes done by other
+ * nodes are only seen on the reconciliation, the limit checkers reload the usage from the database
+ * when it is close to the limits (see {@link EntityLimitChecker}).
+ * <p>
+ * Counters loaded while a transaction of the enterprise is in progress are not kept, so a commit
+ * is never counted both in the loaded values and in the added ones.
+ */
+@Component
+@ManagedResource(objectName = "Abiquo:Name=EnterpriseUsageCounters,Type=com.abiquo.scheduler.limit.EnterpriseUsageCounters")
+public class EnterpriseUsageCounters
+{
+    private final static long TTL = Long.parseLong(System.getProperty(
+        "abiquo.api.limits.usage.ttl", "300000"));
+
+    private final static String ENTERPRISE = "enterprise";
+
+    private final static String VIRTUAL_DATACENTER = "virtualdatacenter:";
+
+    private final static String DATACENTER = "datacenter:";
+
+    @Autowired
+    protected EnterpriseRep enterpriseRep;
+
+    @Autowired
+    protected VirtualDatacenterRep virtualDatacenterRep;
+
+    @Autowired
+    protected InfrastructureRep infrastructureRep;
+
+    /** Counters of each enterprise: the enterprise, its virtual datacenters and datacenters. */
+    private final ConcurrentMap<Integer, ConcurrentMap<String, Usage>> usages =
+        new ConcurrentHashMap<Integer, ConcurrentMap<String, Usage>>();
+
+    /** Transactions with pending changes of each enterprise. */
+    private final ConcurrentMap<Integer, AtomicInteger> inProgress =
+        new ConcurrentHashMap<Integer, AtomicInteger>();
+
+    /** Changes registered on each enterprise, to detect the ones done while loading. */
+    private final ConcurrentMap<Integer, AtomicLong> changes =
+        new ConcurrentHashMap<Integer, AtomicLong>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+
+    public EnterpriseUsageCounters()
+    {
+
+    }
+
+    public EnterpriseUsageCounters(final EntityManager entityManager)
+    {
+        enterpriseRep = new EnterpriseRep(entityManager);
+        virtualDatacenterRep = new VirtualDatacenterRep(entityManager);
+        infrastructureRep = new InfrastructureRep(entityManager);
+    }
+
+    /**
+     * Current resource usage of the enterprise.
+     */
+    public DefaultEntityCurrentUsed get(final Integer enterpriseId)
+    {
+        return get(enterpriseId, false);
+    }
+
+    /**
+     * Current resource usage of the enterprise.
+     * 
+     * @param reload, read the usage from the database (and update the counters).
+     */
+    public DefaultEntityCurrentUsed get(final Integer enterpriseId, final boolean reload)
+    {
+        return get(enterpriseId, ENTERPRISE, reload, new UsageLoader()
+        {
+            @Override
+            public DefaultEntityCurrentUsed load()
+            {
+                return enterpriseRep.getEnterpriseResourceUsage(enterpriseId);
+            }
+        });
+    }
+
+    /**
+     * Current resource usage of a virtual datacenter of the enterprise.
+     * 
+     * @param reload, read the usage from the database (and update the counters).
+     */
+    public DefaultEntityCurrentUsed getVirtualDatacenter(final Integer enterpriseId,
+        final Integer virtualDatacenterId, final boolean reload)
+    {
+        return get(enterpriseId, VIRTUAL_DATACENTER + virtualDatacenterId, reload,
+            new UsageLoader()
+            {
+                @Override
+                public DefaultEntityCurrentUsed load()
+                {
+                    return virtualDatacenterRep
+                        .getVirtualDatacenterResourceUsage(virtualDatacenterId);
+                }
+            });
+    }
+
+    /**
+     * Current resource usage of the enterprise on a datacenter.
+     * 
+     * @param reload, read the usage from the database (and update the counters).
+     */
+    public DefaultEntityCurrentUsed getDatacenter(final Integer enterpriseId,
+        final Integer datacenterId, final boolean reload)
+    {
+        return get(enterpriseId, DATACENTER + datacenterId, reload, new UsageLoader()
+        {
+            @Override
+            public DefaultEntityCurrentUsed load()
+            {
+                return infrastructureRep.getDatacenterResourceUsage(datacenterId, enterpriseId);
+            }
+        });
+    }
+
+    /**
+     * Adds the resources of a virtual machine to the enterprise when the current transaction
+     * commits. Negative values release them.
+     * 
+     * @param virtualDatacenterId, the virtual datacenter of the virtual machine. If null the
+     *            counters of all the virtual datacenters of the enterprise are discarded.
+     * @param datacenterId, the datacenter of the virtual machine. If null the counters of all the
+     *            datacenters of the enterprise are discarded.
+     * @param hd the hard disk size in the same unit as the usage queries (bytes).
+     */
+    public void add(final Integer enterpriseId, final Integer virtualDatacenterId,
+        final Integer datacenterId, final long cpu, final long ramInMb, final long hd)
+    {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            apply(enterpriseId, virtualDatacenterId, datacenterId, cpu, ramInMb, hd);
+            changes(enterpriseId).incrementAndGet();
+            return;
+        }
+
+        inProgress(enterpriseId).incrementAndGet();
+        changes(enterpriseId).incrementAndGet();
+
+        TransactionSynchronizationManager
+            .registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCompletion(final int status)
+                {
+                    if (status == TransactionSynchronization.STATUS_COMMITTED)
+                    {
+                        apply(enterpriseId, virtualDatacenterId, datacenterId, cpu, ramInMb, hd);
+                    }
+                    else
+                    {
+                        usages.remove(enterpriseId);
+                    }
+
+                    changes(enterpriseId).incrementAndGet();
+                    inProgress(enterpriseId).decrementAndGet();
+                }
+            });
+    }
+
+    /**
+     * Discards the counters of the enterprise once the current transaction finishes, they will be
+     * loaded from the database on the next check.
+     */
+    public void invalidate(final Integer enterpriseId)
+    {
+        usages.remove(enterpriseId);
+        changes(enterpriseId).incrementAndGet();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            inProgress(enterpriseId).incrementAndGet();
+
+            TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter()
+                {
+                    @Override
+                    public void afterCompletion(final int status)
+                    {
+                        usages.remove(enterpriseId);
+                        changes(enterpriseId).incrementAndGet();
+                        inProgress(enterpriseId).decrementAndGet();
+                    }
+                });
+        }
+    }
+
+    @ManagedOperation(description = "Discard all the counters, they are reloaded from the database")
+    public void reconcile()
+    {
+        usages.clear();
+    }
+
+    @ManagedAttribute(description = "Limit checks served from the counters")
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Limit checks that loaded the usage from the database")
+    public long getLoads()
+    {
+        return loads.get();
+    }
+
+    @ManagedAttribute(description = "Enterprises with counters")
+    public int getSize()
+    {
+        return usages.size();
+    }
+
+    private DefaultEntityCurrentUsed get(final Integer enterpriseId, final String scope,
+        final boolean reload, final UsageLoader loader)
+    {
+        ConcurrentMap<String, Usage> scopes = usages.get(enterpriseId);
+        Usage usage = scopes != null ? scopes.get(scope) : null;
+        if (!reload && usage != null && !usage.isExpired())
+        {
+            hits.incrementAndGet();
+            return usage.toCurrentUsed();
+        }
+
+        long changesBefore = changes(enterpriseId).get();
+        DefaultEntityCurrentUsed used = loader.load();
+        loads.incrementAndGet();
+
+        if (inProgress(enterpriseId).get() == 0
+            && changes(enterpriseId).get() == changesBefore)
+        {
+            scopes(enterpriseId).put(scope, new Usage(used));
+        }
+
+        return used;
+    }
+
+    private void apply(final Integer enterpriseId, final Integer virtualDatacenterId,
+        final Integer datacenterId, final long cpu, final long ramInMb, final long hd)
+    {
+        ConcurrentMap<String, Usage> scopes = usages.get(enterpriseId);
+        if (scopes == null)
+        {
+            return;
+        }
+
+        add(scopes, ENTERPRISE, cpu, ramInMb, hd);
+
+        if (virtualDatacenterId != null)
+        {
+            add(scopes, VIRTUAL_DATACENTER + virtualDatacenterId, cpu, ramInMb, hd);
+        }
+        else
+        {
+            removeAll(scopes, VIRTUAL_DATACENTER);
+        }
+
+        if (datacenterId != null)
+        {
+            add(scopes, DATACENTER + datacenterId, cpu, ramInMb, hd);
+        }
+        else
+        {
+            removeAll(scopes, DATACENTER);
+        }
+    }
+
+    private static void add(final ConcurrentMap<String, Usage> scopes, final String scope,
+        final long cpu, final long ramInMb, final long hd)
+    {
+        Usage usage = scopes.get(scope);
+        if (usage != null)
+        {
+            usage.add(cpu, ramInMb, hd);
+        }
+    }
+
+    private static void removeAll(final ConcurrentMap<String, Usage> scopes, final String prefix)
+    {
+        for (Iterator<String> it = scopes.keySet().iterator(); it.hasNext();)
+        {
+            if (it.next().startsWith(prefix))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private ConcurrentMap<String, Usage> scopes(final Integer enterpriseId)
+    {
+        ConcurrentMap<String, Usage> scopes = usages.get(enterpriseId);
+        if (scopes == null)
+        {
+            ConcurrentMap<String, Usage> created = new ConcurrentHashMap<String, Usage>();
+            scopes = usages.putIfAbsent(enterpriseId, created);
+            return scopes == null ? created : scopes;
+        }
+
+        return scopes;
+    }
+
+    private AtomicInteger inProgress(final Integer enterpriseId)
+    {
+        AtomicInteger counter = inProgress.get(enterpriseId);
+        if (counter == null)
+        {
+            AtomicInteger created = new AtomicInteger();
+            counter = inProgress.putIfAbsent(enterpriseId, created);
+            return counter == null ? created : counter;
+        }
+
+        return counter;
+    }
+
+    private AtomicLong changes(final Integer enterpriseId)
+    {
+        AtomicLong counter = changes.get(enterpriseId);
+        if (counter == null)
+        {
+            AtomicLong created = new AtomicLong();
+            counter = changes.putIfAbsent(enterpriseId, created);
+            return counter == null ? created : counter;
+        }
+
+        return counter;
+    }
+
+    /**
+     * Reads the current usage of a counter from the database.
+     */
+    protected interface UsageLoader
+    {
+        DefaultEntityCurrentUsed load();
+    }
+
+    /**
+     * The resources used by an enterprise, a virtual datacenter or a datacenter, loaded from a
+     * {@link DefaultEntityCurrentUsed}.
+     */
+    protected static class Usage
+    {
+        private final long loaded = System.currentTimeMillis();
+
+        private long cpu;
+
+        private long ramInMb;
+
+        private long hd;
+
+        private final long storage;
+
+        private final long publicIp;
+
+        private final long vlanCount;
+
+        Usage(final DefaultEntityCurrentUsed used)
+        {
+            cpu = used.getCpu();
+            ramInMb = used.getRamInMb();
+            hd = used.getHdInMb();
+            storage = used.getStorage();
+            publicIp = used.getPublicIp();
+            vlanCount = used.getVlanCount();
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() - loaded > TTL;
+        }
+
+        synchronized void add(final long cpu, final long ramInMb, final long hd)
+        {
+            // prevent negative usage
+            this.cpu = Math.max(0, this.cpu + cpu);
+            this.ramInMb = Math.max(0, this.ramInMb + ramInMb);
+            this.hd = Math.max(0, this.hd + hd);
+        }
+
+        synchronized DefaultEntityCurrentUsed toCurrentUsed()
+        {
+            DefaultEntityCurrentUsed used = new DefaultEntityCurrentUsed((int) cpu, ramInMb, hd);
+            used.setStorage(storage);
+            used.setPublicIp(publicIp);
+            used.setVlanCount(vlanCount);
+            return used;
+        }
+    }
+}
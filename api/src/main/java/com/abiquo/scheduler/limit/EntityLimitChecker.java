@@ -52,6 +52,13 @@ import com.abiquo.tracer.SeverityType;
 @Component
 public abstract class EntityLimitChecker<T extends DefaultEntityWithLimits>
 {
+    /**
+     * Ratio of the soft limits from which the usage is read from the database, when the current
+     * usage is served by counters that can miss the changes of other API nodes.
+     */
+    private final static double RELOAD_RATIO = Double.parseDouble(System.getProperty(
+        "abiquo.api.limits.usage.reloadratio", "0.8"));
+
     @Autowired
     private TracerLogger tracer;
 
@@ -78,6 +85,18 @@ public abstract class EntityLimitChecker<T extends DefaultEntityWithLimits>
      */
     protected abstract DefaultEntityCurrentUsed getCurrentUsed(T entity);
 
+    /**
+     * Get the sum of all the resources allocated by a given entity reading the database. Used
+     * instead of {@link #getCurrentUsed(DefaultEntityWithLimits)} when the usage is close to the
+     * limits.
+     * 
+     * @return null if {@link #getCurrentUsed(DefaultEntityWithLimits)} already reads the database.
+     */
+    protected DefaultEntityCurrentUsed getCurrentUsedFromDatabase(final T entity)
+    {
+        return null;
+    }
+
     /**
      * Create the entity identifier (used to trace)
      */
@@ -141,7 +160,16 @@ public abstract class EntityLimitChecker<T extends DefaultEntityWithLimits>
             return;
         }
 
-        final DefaultEntityCurrentUsed actualAllocated = getCurrentUsed(entity);
+        DefaultEntityCurrentUsed actualAllocated = getCurrentUsed(entity);
+
+        if (isCloseToLimits(entity, actualAllocated, required, checkVLAN, checkIPs))
+        {
+            final DefaultEntityCurrentUsed exact = getCurrentUsedFromDatabase(entity);
+            if (exact != null)
+            {
+                actualAllocated = exact;
+            }
+        }
 
         Map<LimitResource, LimitStatus> entityResourceStatus =
 
@@ -200,6 +228,29 @@ public abstract class EntityLimitChecker<T extends DefaultEntityWithLimits>
         return limitStatus;
     }
 
+    /**
+     * @return true if some of the checked resources reaches the ''RELOAD_RATIO'' of its soft limit.
+     */
+    private boolean isCloseToLimits(final T limits, final DefaultEntityCurrentUsed actual,
+        final VirtualMachineRequirements required, final Boolean checkVLAN, final Boolean checkIPs)
+    {
+        return isClose(limits.getCpuCountSoftLimit(), actual.getCpu() + required.getCpu())
+            || isClose(limits.getRamSoftLimitInMb(), actual.getRamInMb() + required.getRam())
+            || (required.getHd() >= 0 && isClose(limits.getHdSoftLimitInMb(), actual
+                .getHdInMb() + required.getHd()))
+            || isClose(limits.getStorageSoft(), actual.getStorage() + required.getStorage())
+            || (checkVLAN && isClose(limits.getVlanSoft(), actual.getVlanCount()
+                + required.getPublicVLAN()))
+            || (checkIPs && isClose(limits.getPublicIpsSoft(), actual.getPublicIp()
+                + required.getPublicIP()));
+    }
+
+    private static boolean isClose(final Long softLimit, final long current)
+    {
+        return softLimit != null && softLimit != DefaultEntityWithLimits.NO_LIMIT
+            && current >= softLimit * RELOAD_RATIO;
+    }
+
     /**
      * @return true if all the soft and hard limits are set to 0 (unlimited)
      */
@@ -0,0 +1,87 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler.limit;
+
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.abiquo.server.core.cloud.VirtualDatacenter;
+import com.abiquo.server.core.cloud.VirtualDatacenterRep;
+import com.abiquo.server.core.common.DefaultEntityCurrentUsed;
+import com.abiquo.server.core.common.DefaultEntityWithLimits.LimitStatus;
+
+@Component
+public class VirtualDatacenterLimitChecker extends EntityLimitChecker<VirtualDatacenter>
+{
+    @Autowired
+    VirtualDatacenterRep virtualDatacenterRep;
+
+    @Autowired(required = false)
+    EnterpriseUsageCounters usageCounters;
+
+    public VirtualDatacenterLimitChecker()
+    {
+
+    }
+
+    public VirtualDatacenterLimitChecker(final EntityManager entityManager)
+    {
+        virtualDatacenterRep = new VirtualDatacenterRep(entityManager);
+    }
+
+    @Override
+    protected String getEntityIdentifier(final VirtualDatacenter entity)
+    {
+        return String.format("Virtual datacenter [%s]", entity.getName());
+    }
+
+    @Override
+    protected DefaultEntityCurrentUsed getCurrentUsed(final VirtualDatacenter entity)
+    {
+        if (usageCounters != null)
+        {
+            return usageCounters.getVirtualDatacenter(entity.getEnterprise().getId(), entity
+                .getId(), false);
+        }
+
+        return virtualDatacenterRep.getVirtualDatacenterResourceUsage(entity.getId());
+    }
+
+    @Override
+    protected DefaultEntityCurrentUsed getCurrentUsedFromDatabase(final VirtualDatacenter entity)
+    {
+        return usageCounters != null ? usageCounters.getVirtualDatacenter(entity.getEnterprise()
+            .getId(), entity.getId(), true) : null;
+    }
+
+    @Override
+    protected Map<LimitResource, LimitStatus> getFilterResourcesStatus(
+        final Map<LimitResource, LimitStatus> limitStatus)
+    {
+        // virtual datacenter uses all resources
+        return limitStatus;
+    }
+}
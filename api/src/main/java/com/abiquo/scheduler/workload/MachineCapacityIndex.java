@@ -0,0 +1,500 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler.workload;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.abiquo.model.enumerator.HypervisorType;
+import com.abiquo.model.enumerator.MachineState;
+import com.abiquo.server.core.enterprise.Enterprise;
+import com.abiquo.server.core.infrastructure.Datastore;
+import com.abiquo.server.core.infrastructure.InfrastructureRep;
+import com.abiquo.server.core.infrastructure.Machine;
+import com.abiquo.server.core.scheduler.MachineLoadRule;
+import com.abiquo.server.core.scheduler.RulesRep;
+import com.abiquo.server.core.scheduler.VirtualMachineRequirements;
+
+/**
+ * Optional in-memory index of the free CPU, RAM and datastore capacity of the machines in each
+ * rack, used by {@link VirtualimageAllocationService} instead of the first pass candidate queries.
+ * Enabled with the ''com.abiquo.scheduler.capacityindex'' property.
+ * <p>
+ * Each rack is loaded from the DB on demand (two projection queries) and kept for
+ * ''com.abiquo.scheduler.capacityindex.ttl'' ms. Meanwhile the resource upgrade updates the used
+ * resources on allocation and deallocation, and the rack is discarded if the transaction doing the
+ * update is rolled back.
+ * <p>
+ * The index is only a filter: the returned candidates are loaded and their state, hypervisor type
+ * and reservation checked against the entity; if none is found the caller falls back to the
+ * queries. CPU and RAM are checked with the highest load percentage of the rules of the rack (at
+ * least 100%), so no machine accepted by its load rules on the second pass is discarded.
+ */
+@Component
+public class MachineCapacityIndex
+{
+    private final static Logger LOG = LoggerFactory.getLogger(MachineCapacityIndex.class);
+
+    private final static boolean ENABLED = Boolean.parseBoolean(System.getProperty(
+        "com.abiquo.scheduler.capacityindex", "false"));
+
+    private final static long TTL = Long.parseLong(System.getProperty(
+        "com.abiquo.scheduler.capacityindex.ttl", "60000"));
+
+    private final static long MB = 1024 * 1024;
+
+    @Autowired
+    private InfrastructureRep datacenterRepo;
+
+    @Autowired
+    private RulesRep rulesRepo;
+
+    private final ConcurrentMap<Integer, RackCapacity> racks =
+        new ConcurrentHashMap<Integer, RackCapacity>();
+
+    public MachineCapacityIndex()
+    {
+
+    }
+
+    public MachineCapacityIndex(final InfrastructureRep datacenterRepo, final RulesRep rulesRepo)
+    {
+        this.datacenterRepo = datacenterRepo;
+        this.rulesRepo = rulesRepo;
+    }
+
+    public boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * First pass candidates of the rack.
+     *
+     * @param hdRequired, required datastore size in bytes.
+     * @return the machines able to allocate the requirements. Empty if none (or the index is not
+     *         able to decide).
+     */
+    public List<Machine> findCandidateMachines(final Integer idRack,
+        final HypervisorType hypervisorType, final Enterprise enterprise,
+        final VirtualMachineRequirements requirements)
+    {
+        // overcommit allowed by the load rules, the second pass checks the rule of each machine
+        final Object[] maxLoad = rulesRepo.findMaxMachineLoadPercentagesByRack(idRack);
+        final int cpuLoad = loadPercentage(maxLoad != null ? maxLoad[0] : null);
+        final int ramLoad = loadPercentage(maxLoad != null ? maxLoad[1] : null);
+
+        final int[] candidateIds =
+            getRack(idRack).findCandidates(hypervisorType.ordinal(), enterprise.getId(),
+                requirements.getCpu(), requirements.getRam(), requirements.getHd(), cpuLoad,
+                ramLoad);
+
+        final List<Machine> candidates = new LinkedList<Machine>();
+        if (candidateIds.length == 0)
+        {
+            return candidates;
+        }
+
+        final Set<Integer> excluded =
+            new HashSet<Integer>(datacenterRepo.findMachineIdsExcludedForEnterprise(enterprise));
+
+        final List<Integer> notExcluded = new ArrayList<Integer>(candidateIds.length);
+        for (int machineId : candidateIds)
+        {
+            if (!excluded.contains(machineId))
+            {
+                notExcluded.add(machineId);
+            }
+        }
+
+        if (notExcluded.isEmpty())
+        {
+            return candidates;
+        }
+
+        // the index can be outdated (see TTL) for changes not done by the scheduler
+        for (Machine machine : datacenterRepo.findMachinesByIds(notExcluded))
+        {
+            if (machine.getState() == MachineState.MANAGED
+                && machine.getHypervisor() != null
+                && machine.getHypervisor().getType() == hypervisorType
+                && (machine.getEnterprise() == null || machine.getEnterprise().getId().equals(
+                    enterprise.getId())))
+            {
+                candidates.add(machine);
+            }
+        }
+
+        if (candidates.isEmpty())
+        {
+            invalidate(idRack);
+        }
+
+        return candidates;
+    }
+
+    /**
+     * @return the load percentage of the rule, 100 (the default rule) if lower or there are no
+     *         rules.
+     */
+    private static int loadPercentage(final Object maxRulePercentage)
+    {
+        return maxRulePercentage != null ? Math.max(100,
+            ((Number) maxRulePercentage).intValue()) : 100;
+    }
+
+    /**
+     * Checks the datastore capacity of an indexed machine (same as the default load rule).
+     *
+     * @param hdRequired, required size in bytes.
+     * @return null if the machine is not indexed.
+     */
+    public Boolean passDatastores(final Machine machine, final Long hdRequired)
+    {
+        final RackCapacity rack =
+            machine.getRack() != null ? racks.get(machine.getRack().getId()) : null;
+
+        return rack != null ? rack.passDatastores(machine.getId(), hdRequired) : null;
+    }
+
+    /**
+     * Set the current CPU and RAM usage of the machine.
+     */
+    public void update(final Machine machine)
+    {
+        if (!ENABLED || machine.getRack() == null)
+        {
+            return;
+        }
+
+        final Integer idRack = machine.getRack().getId();
+        final RackCapacity rack = racks.get(idRack);
+        if (rack != null)
+        {
+            rack.update(machine.getId(), machine.getVirtualCpusUsed(),
+                machine.getVirtualRamUsedInMb());
+            invalidateOnRollback(idRack);
+        }
+    }
+
+    /**
+     * Set the current used size of the datastore (on any rack).
+     */
+    public void update(final Datastore datastore)
+    {
+        if (!ENABLED)
+        {
+            return;
+        }
+
+        for (Map.Entry<Integer, RackCapacity> rack : racks.entrySet())
+        {
+            if (rack.getValue().update(datastore.getId(), datastore.getUsedSize()))
+            {
+                invalidateOnRollback(rack.getKey());
+            }
+        }
+    }
+
+    /**
+     * Discard the rack, it will be loaded from the DB on the next use.
+     */
+    public void invalidate(final Integer idRack)
+    {
+        racks.remove(idRack);
+    }
+
+    public void invalidateAll()
+    {
+        racks.clear();
+    }
+
+    protected RackCapacity getRack(final Integer idRack)
+    {
+        RackCapacity rack = racks.get(idRack);
+        if (rack == null || rack.isExpired())
+        {
+            rack =
+                new RackCapacity(datacenterRepo.findRackMachinesCapacity(idRack),
+                    datacenterRepo.findRackDatastoresCapacity(idRack));
+            racks.put(idRack, rack);
+
+            LOG.debug("Capacity index of rack {} loaded with {} machines", idRack,
+                rack.machineIds.length);
+        }
+
+        return rack;
+    }
+
+    private void invalidateOnRollback(final Integer idRack)
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter()
+                {
+                    @Override
+                    public void afterCompletion(final int status)
+                    {
+                        if (status != TransactionSynchronization.STATUS_COMMITTED)
+                        {
+                            invalidate(idRack);
+                        }
+                    }
+                });
+        }
+    }
+
+    /**
+     * Capacity of the machines of a rack in parallel arrays (one position per machine). Datastores
+     * are also kept in parallel arrays and each machine references the position of its
+     * datastores.
+     */
+    static class RackCapacity
+    {
+        final long loaded = System.currentTimeMillis();
+
+        final int[] machineIds;
+
+        final int[] cpuTotal;
+
+        final int[] cpuUsed;
+
+        final int[] ramTotal;
+
+        final int[] ramUsed;
+
+        final boolean[] managed;
+
+        final int[] hypervisorType;
+
+        /** Reserved enterprise, 0 if not reserved. */
+        final int[] enterpriseId;
+
+        final int[] datastoreIds;
+
+        final long[] datastoreSize;
+
+        final long[] datastoreUsed;
+
+        final boolean[] datastoreEnabled;
+
+        /** Positions in the datastore arrays of each machine. */
+        final int[][] machineDatastores;
+
+        private final Map<Integer, Integer> machinePos = new HashMap<Integer, Integer>();
+
+        RackCapacity(final List<Object[]> machines, final List<Object[]> datastores)
+        {
+            final int size = machines.size();
+            machineIds = new int[size];
+            cpuTotal = new int[size];
+            cpuUsed = new int[size];
+            ramTotal = new int[size];
+            ramUsed = new int[size];
+            managed = new boolean[size];
+            hypervisorType = new int[size];
+            enterpriseId = new int[size];
+
+            for (int i = 0; i < size; i++)
+            {
+                final Object[] row = machines.get(i);
+                machineIds[i] = (Integer) row[0];
+                cpuTotal[i] = intValue(row[1]);
+                cpuUsed[i] = intValue(row[2]);
+                ramTotal[i] = intValue(row[3]);
+                ramUsed[i] = intValue(row[4]);
+                managed[i] = row[5] == MachineState.MANAGED;
+                hypervisorType[i] = row[6] != null ? ((HypervisorType) row[6]).ordinal() : -1;
+                enterpriseId[i] = row[7] != null ? (Integer) row[7] : 0;
+                machinePos.put(machineIds[i], i);
+            }
+
+            final Map<Integer, Integer> datastorePos = new HashMap<Integer, Integer>();
+            final List<List<Integer>> byMachine = new ArrayList<List<Integer>>(size);
+            for (int i = 0; i < size; i++)
+            {
+                byMachine.add(new ArrayList<Integer>(2));
+            }
+
+            final List<Object[]> uniqueDatastores = new ArrayList<Object[]>();
+            for (Object[] row : datastores)
+            {
+                final Integer datastoreId = (Integer) row[0];
+                Integer pos = datastorePos.get(datastoreId);
+                if (pos == null)
+                {
+                    pos = uniqueDatastores.size();
+                    datastorePos.put(datastoreId, pos);
+                    uniqueDatastores.add(row);
+                }
+
+                final Integer machine = machinePos.get(row[4]);
+                if (machine != null)
+                {
+                    byMachine.get(machine).add(pos);
+                }
+            }
+
+            datastoreIds = new int[uniqueDatastores.size()];
+            datastoreSize = new long[uniqueDatastores.size()];
+            datastoreUsed = new long[uniqueDatastores.size()];
+            datastoreEnabled = new boolean[uniqueDatastores.size()];
+            for (int i = 0; i < uniqueDatastores.size(); i++)
+            {
+                final Object[] row = uniqueDatastores.get(i);
+                datastoreIds[i] = (Integer) row[0];
+                datastoreSize[i] = ((Number) row[1]).longValue();
+                datastoreUsed[i] = ((Number) row[2]).longValue();
+                datastoreEnabled[i] = (Boolean) row[3];
+            }
+
+            machineDatastores = new int[size][];
+            for (int i = 0; i < size; i++)
+            {
+                final List<Integer> positions = byMachine.get(i);
+                machineDatastores[i] = new int[positions.size()];
+                for (int j = 0; j < positions.size(); j++)
+                {
+                    machineDatastores[i][j] = positions.get(j);
+                }
+            }
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() - loaded > TTL;
+        }
+
+        /**
+         * Same conditions as the candidate machine queries (state, hypervisor type, reservation
+         * and an enabled datastore with enough free space) and the load rule percentages.
+         */
+        synchronized int[] findCandidates(final int type, final Integer enterprise,
+            final long cpu, final long ram, final long hd, final int cpuLoad, final int ramLoad)
+        {
+            final int[] found = new int[machineIds.length];
+            int count = 0;
+
+            for (int i = 0; i < machineIds.length; i++)
+            {
+                if (managed[i] && hypervisorType[i] == type
+                    && (enterpriseId[i] == 0 || enterpriseId[i] == enterprise)
+                    && MachineLoadRule.pass((long) cpuUsed[i], cpu, (long) cpuTotal[i], cpuLoad)
+                    && MachineLoadRule.pass((long) ramUsed[i], ram, (long) ramTotal[i], ramLoad)
+                    && hasDatastore(i, hd) && passDatastoresAt(i, hd))
+                {
+                    found[count++] = machineIds[i];
+                }
+            }
+
+            final int[] candidates = new int[count];
+            System.arraycopy(found, 0, candidates, 0, count);
+            return candidates;
+        }
+
+        synchronized Boolean passDatastores(final int machineId, final long hd)
+        {
+            final int pos = machinePosition(machineId);
+            return pos < 0 ? null : passDatastoresAt(pos, hd);
+        }
+
+        synchronized void update(final int machineId, final int cpu, final int ram)
+        {
+            final int pos = machinePosition(machineId);
+            if (pos >= 0)
+            {
+                cpuUsed[pos] = cpu;
+                ramUsed[pos] = ram;
+            }
+        }
+
+        /**
+         * @return true if the datastore is in this rack.
+         */
+        synchronized boolean update(final int datastoreId, final long used)
+        {
+            for (int i = 0; i < datastoreIds.length; i++)
+            {
+                if (datastoreIds[i] == datastoreId)
+                {
+                    datastoreUsed[i] = used;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Any enabled datastore with more free space than required. */
+        private boolean hasDatastore(final int pos, final long hd)
+        {
+            for (int ds : machineDatastores[pos])
+            {
+                if (datastoreEnabled[ds] && datastoreSize[ds] - datastoreUsed[ds] > hd)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Datastores sum in MB, as the default load rule. */
+        private boolean passDatastoresAt(final int pos, final long hd)
+        {
+            long allowedMb = 0;
+            long usedMb = 0;
+            for (int ds : machineDatastores[pos])
+            {
+                allowedMb += datastoreSize[ds] / MB;
+                usedMb += datastoreUsed[ds] / MB;
+            }
+
+            return MachineLoadRule.pass(usedMb, hd / MB, allowedMb, 100);
+        }
+
+        private int machinePosition(final int machineId)
+        {
+            final Integer pos = machinePos.get(machineId);
+            return pos != null ? pos : -1;
+        }
+
+        private static int intValue(final Object value)
+        {
+            return value != null ? ((Number) value).intValue() : 0;
+        }
+    }
+}
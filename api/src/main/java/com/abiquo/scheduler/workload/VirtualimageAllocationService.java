@@ -136,6 +136,9 @@ public class VirtualimageAllocationService
     @Autowired
     private SecondPassRuleFinder<VirtualMachineTemplate, Machine, Integer> ruleFinder;
 
+    @Autowired(required = false)
+    private MachineCapacityIndex capacityIndex;
+
     public VirtualimageAllocationService()
     {
 
@@ -237,6 +240,33 @@ public class VirtualimageAllocationService
 
     }
 
+    /**
+     * First pass candidates on the rack. Used to allocate several virtual machines reusing the same
+     * candidates.
+     * 
+     * @param requirements, the hd requirement is used to select the machines datastores.
+     * @throws NotEnoughResourcesException, if there isn't any candidate on the rack.
+     */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    public Collection<Machine> findCandidates(final VirtualMachineRequirements requirements,
+        final VirtualAppliance vapp, final Rack rack) throws NotEnoughResourcesException
+    {
+        return findFirstPassCandidates(requirements, vapp, rack);
+    }
+
+    /**
+     * Selects the best target between already computed candidates. Candidates are the managed
+     * entities, so the resources allocated for previous virtual machines are considered.
+     * 
+     * @throws NotEnoughResourcesException, if none of the candidates can be used.
+     */
+    public Machine findBestTarget(final Collection<Machine> candidates,
+        final VirtualMachineRequirements requirements, final FitPolicy fitPolicy,
+        final VirtualAppliance vapp) throws NotEnoughResourcesException
+    {
+        return findSecondPassCandidates(candidates, requirements, vapp, fitPolicy);
+    }
+
     /**
      * Return a sorted list of racks (sorted by rack goodness based on network params). If some
      * network assigment on the datacenter then the rack is already defined.
@@ -312,6 +342,22 @@ public class VirtualimageAllocationService
         // log.debug("The network assigned to the VM, VLAN network ID: {},  "
         // + "has already been assigned to rack : {}.", na.getVlanNetwork().getId(), idRack);
 
+        if (capacityIndex != null && capacityIndex.isEnabled()
+            && !enterprise.getIsReservationRestricted())
+        {
+            candidateMachines =
+                capacityIndex.findCandidateMachines(idRack, virtualDatacenter.getHypervisorType(),
+                    enterprise, requirements);
+
+            if (!candidateMachines.isEmpty())
+            {
+                return candidateMachines;
+            }
+
+            // the queries also provide the cause of the discarded machines
+            log.debug("No candidates on the capacity index of rack {}", idRack);
+        }
+
         try
         {
             candidateMachines =
@@ -344,6 +390,16 @@ public class VirtualimageAllocationService
                 pass(Long.valueOf(machine.getVirtualRamUsedInMb()), requirements.getRam(),
                     Long.valueOf(machine.getVirtualRamInMb()), 100);
 
+            if (capacityIndex != null && capacityIndex.isEnabled())
+            {
+                // avoid loading the datastores of the machine
+                final Boolean passHD = capacityIndex.passDatastores(machine, requirements.getHd());
+                if (passHD != null)
+                {
+                    return passCPU && passRAM && passHD;
+                }
+            }
+
             // BYTE to MB
             Long templateRequiredMb = requirements.getHd() / (1024 * 1024);
 
@@ -0,0 +1,233 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.eventing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.abiquo.commons.amqp.impl.vsm.domain.VirtualSystemEvent;
+
+public class VSMEventBatcherTest
+{
+    @Test
+    public void testEventsInSameWindow() throws Exception
+    {
+        RecordingCallback callback = new RecordingCallback(3);
+        VSMEventBatcher batcher = new VSMEventBatcher(callback, 500, 100, 100);
+
+        batcher.onEvent(event("vm1", "POWER_OFF"));
+        batcher.onEvent(event("vm2", "POWER_OFF"));
+        batcher.onEvent(event("vm3", "POWER_OFF"));
+
+        Assert.assertTrue(callback.await());
+        batcher.stop();
+
+        Assert.assertEquals(callback.windows.size(), 1);
+        Assert.assertEquals(names(callback.windows.get(0)), "vm1,vm2,vm3,");
+        Assert.assertEquals(batcher.getReceived(), 3);
+        Assert.assertEquals(batcher.getWindows(), 1);
+    }
+
+    @Test
+    public void testWindowSizeLimit() throws Exception
+    {
+        RecordingCallback callback = new RecordingCallback(3);
+        VSMEventBatcher batcher = new VSMEventBatcher(callback, 500, 2, 100);
+
+        batcher.onEvent(event("vm1", "POWER_OFF"));
+        batcher.onEvent(event("vm2", "POWER_OFF"));
+        batcher.onEvent(event("vm3", "POWER_OFF"));
+
+        Assert.assertTrue(callback.await());
+        batcher.stop();
+
+        Assert.assertEquals(callback.windows.size(), 2);
+        Assert.assertEquals(names(callback.windows.get(0)), "vm1,vm2,");
+        Assert.assertEquals(names(callback.windows.get(1)), "vm3,");
+    }
+
+    @Test
+    public void testLatestStateChangeIsKept() throws Exception
+    {
+        RecordingCallback callback = new RecordingCallback(1);
+        VSMEventBatcher batcher = new VSMEventBatcher(callback, 60000, 100, 100);
+
+        batcher.onEvent(event("vm1", "POWER_ON"));
+        batcher.onEvent(event("vm1", "POWER_OFF"));
+        batcher.stop();
+
+        Assert.assertTrue(callback.await());
+        Assert.assertEquals(callback.windows.size(), 1);
+        Assert.assertEquals(callback.windows.get(0).size(), 1);
+        Assert.assertEquals(callback.windows.get(0).get(0).getEventType(), "POWER_OFF");
+    }
+
+    @Test
+    public void testDestroyedProcessedAfterThePendingStateChange() throws Exception
+    {
+        RecordingCallback callback = new RecordingCallback(3);
+        VSMEventBatcher batcher = new VSMEventBatcher(callback, 60000, 100, 100);
+
+        batcher.onEvent(event("vm1", "POWER_OFF"));
+        batcher.onEvent(event("vm2", "POWER_OFF"));
+        batcher.onEvent(event("vm1", "DESTROYED"));
+        batcher.stop();
+
+        Assert.assertTrue(callback.await());
+        Assert.assertEquals(names(callback.single), "vm1,vm1,");
+        Assert.assertEquals(callback.single.get(0).getEventType(), "POWER_OFF");
+        Assert.assertEquals(callback.single.get(1).getEventType(), "DESTROYED");
+        Assert.assertEquals(names(callback.windows.get(0)), "vm2,");
+    }
+
+    @Test
+    public void testPendingEventsProcessedOnStop() throws Exception
+    {
+        RecordingCallback callback = new RecordingCallback(1);
+        VSMEventBatcher batcher = new VSMEventBatcher(callback, 60000, 100, 100);
+
+        batcher.onEvent(event("vm1", "POWER_OFF"));
+        batcher.stop();
+
+        Assert.assertTrue(callback.await());
+        Assert.assertEquals(names(callback.windows.get(0)), "vm1,");
+    }
+
+    @Test
+    public void testFailedWindowIsRetriedOneByOne() throws Exception
+    {
+        RecordingCallback callback = new RecordingCallback(4)
+        {
+            @Override
+            public synchronized void onStateChanges(
+                final Collection<VirtualSystemEvent> notifications)
+            {
+                throw new IllegalStateException("failed");
+            }
+
+            @Override
+            public synchronized void onEvent(final VirtualSystemEvent notification)
+            {
+                super.onEvent(notification);
+                if (notification.getVirtualSystemId().equals("vm2"))
+                {
+                    throw new IllegalStateException("failed");
+                }
+            }
+        };
+        VSMEventBatcher batcher = new VSMEventBatcher(callback, 60000, 100, 100);
+
+        batcher.onEvent(event("vm1", "POWER_OFF"));
+        batcher.onEvent(event("vm2", "POWER_OFF"));
+        batcher.onEvent(event("vm3", "POWER_OFF"));
+        batcher.stop();
+
+        callback.await();
+        Assert.assertEquals(names(callback.single), "vm1,vm2,vm3,");
+        Assert.assertEquals(batcher.getFailures(), 1);
+    }
+
+    @Test
+    public void testFailedWindowDoesNotStopTheBatcher() throws Exception
+    {
+        RecordingCallback callback = new RecordingCallback(2)
+        {
+            @Override
+            public synchronized void onEvent(final VirtualSystemEvent notification)
+            {
+                super.onEvent(notification);
+                throw new IllegalStateException("failed");
+            }
+        };
+        VSMEventBatcher batcher = new VSMEventBatcher(callback, 0, 100, 100);
+
+        batcher.onEvent(event("vm1", "DESTROYED"));
+        Thread.sleep(200);
+        batcher.onEvent(event("vm2", "DESTROYED"));
+
+        Assert.assertTrue(callback.await());
+        batcher.stop();
+
+        Assert.assertEquals(batcher.getFailures(), 2);
+    }
+
+    private static VirtualSystemEvent event(final String name, final String type)
+    {
+        VirtualSystemEvent event = new VirtualSystemEvent();
+        event.setEventType(type);
+        event.setVirtualSystemId(name);
+        return event;
+    }
+
+    private static String names(final List<VirtualSystemEvent> events)
+    {
+        StringBuilder names = new StringBuilder();
+        for (VirtualSystemEvent event : events)
+        {
+            names.append(event.getVirtualSystemId()).append(',');
+        }
+        return names.toString();
+    }
+
+    private static class RecordingCallback implements VSMEventBatchCallback
+    {
+        protected final List<List<VirtualSystemEvent>> windows =
+            new ArrayList<List<VirtualSystemEvent>>();
+
+        protected final List<VirtualSystemEvent> single = new ArrayList<VirtualSystemEvent>();
+
+        private final CountDownLatch events;
+
+        public RecordingCallback(final int expectedEvents)
+        {
+            events = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public synchronized void onStateChanges(final Collection<VirtualSystemEvent> notifications)
+        {
+            windows.add(new ArrayList<VirtualSystemEvent>(notifications));
+            for (int i = 0; i < notifications.size(); i++)
+            {
+                events.countDown();
+            }
+        }
+
+        @Override
+        public synchronized void onEvent(final VirtualSystemEvent notification)
+        {
+            single.add(notification);
+            events.countDown();
+        }
+
+        public boolean await() throws InterruptedException
+        {
+            return events.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
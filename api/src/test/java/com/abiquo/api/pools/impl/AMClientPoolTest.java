@@ -0,0 +1,93 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.pools.impl;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.appliancemanager.client.AMClient;
+
+public class AMClientPoolTest
+{
+    private static final String AM_URI = "http://10.60.1.4:80/am";
+
+    private AMClientPool pool;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        pool = new AMClientPool();
+    }
+
+    @Test
+    public void testClientReused() throws Exception
+    {
+        AMClient client = pool.borrowObject(AM_URI, false);
+        Assert.assertEquals(client.getServiceUri(), AM_URI);
+        Assert.assertEquals(pool.getInFlight(), 1);
+        pool.returnObject(client);
+
+        Assert.assertSame(pool.borrowObject(AM_URI, false), client);
+        Assert.assertEquals(pool.getPools(), 1);
+    }
+
+    @Test
+    public void testPoolByTimeoutProfile() throws Exception
+    {
+        AMClient client = pool.borrowObject(AM_URI, false);
+        pool.returnObject(client);
+
+        AMClient timeout = pool.borrowObject(AM_URI, true);
+        Assert.assertNotSame(timeout, client);
+        Assert.assertTrue(timeout.isConfigTimeout());
+        Assert.assertEquals(pool.getPools(), 2);
+    }
+
+    @Test
+    public void testEvict() throws Exception
+    {
+        AMClient client = pool.borrowObject(AM_URI, false);
+        pool.evict(AM_URI);
+        Assert.assertEquals(pool.getPools(), 0);
+
+        // the borrowed client is discarded
+        pool.returnObject(client);
+        Assert.assertEquals(pool.getInFlight(), 0);
+        Assert.assertNotSame(pool.borrowObject(AM_URI, false), client);
+    }
+
+    @Test
+    public void testEvictedClientNotReturnedToNewPool() throws Exception
+    {
+        AMClient evicted = pool.borrowObject(AM_URI, false);
+        pool.evict(AM_URI);
+
+        AMClient client = pool.borrowObject(AM_URI, false);
+        pool.returnObject(evicted);
+        pool.returnObject(client);
+
+        Assert.assertEquals(pool.getInFlight(), 0);
+        Assert.assertEquals(pool.getPool(AM_URI, false).getNumIdle(), 1);
+        Assert.assertSame(pool.borrowObject(AM_URI, false), client);
+    }
+}
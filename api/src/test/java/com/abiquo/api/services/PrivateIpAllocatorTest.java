@@ -0,0 +1,164 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.api.services;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.abiquo.api.services.PrivateIpAllocator.VlanAddresses;
+import com.abiquo.server.core.cloud.VirtualDatacenterRep;
+import com.abiquo.server.core.cloud.VirtualMachine;
+import com.abiquo.server.core.infrastructure.network.IpPoolManagement;
+import com.abiquo.server.core.infrastructure.network.NetworkConfiguration;
+import com.abiquo.server.core.infrastructure.network.VLANNetwork;
+import com.abiquo.server.core.util.network.IPAddress;
+import com.abiquo.server.core.util.network.IPNetworkRang;
+
+public class PrivateIpAllocatorTest
+{
+    @Test
+    public void testReserveLowestFreeAddress()
+    {
+        VlanAddresses addresses = new VlanAddresses(IPAddress.newIPAddress("10.0.0.0"), 29);
+        addresses.markUsed(IPAddress.newIPAddress("10.0.0.1"));
+        addresses.markUsed(IPAddress.newIPAddress("10.0.0.3"));
+
+        assertEquals(addresses.getFree(), 4);
+        assertEquals(ip(addresses.reserve()), "10.0.0.2");
+        assertEquals(ip(addresses.reserve()), "10.0.0.4");
+        assertEquals(addresses.getFree(), 2);
+    }
+
+    @Test
+    public void testExhaustionAndRelease()
+    {
+        VlanAddresses addresses = new VlanAddresses(IPAddress.newIPAddress("10.0.0.0"), 30);
+
+        assertEquals(ip(addresses.reserve()), "10.0.0.1");
+        assertEquals(ip(addresses.reserve()), "10.0.0.2");
+        assertEquals(addresses.reserve(), -1);
+
+        addresses.release(IPNetworkRang.toLong(IPAddress.newIPAddress("10.0.0.1")));
+        assertEquals(ip(addresses.reserve()), "10.0.0.1");
+        assertEquals(addresses.reserve(), -1);
+    }
+
+    @Test
+    public void testAddressesOutOfTheNetworkAreIgnored()
+    {
+        VlanAddresses addresses = new VlanAddresses(IPAddress.newIPAddress("10.0.0.0"), 30);
+        addresses.markUsed(IPAddress.newIPAddress("10.0.0.0"));
+        addresses.markUsed(IPAddress.newIPAddress("10.0.0.3"));
+        addresses.markUsed(IPAddress.newIPAddress("192.168.0.1"));
+        addresses.release(IPNetworkRang.toLong(IPAddress.newIPAddress("10.0.1.1")));
+
+        assertEquals(addresses.getFree(), 2);
+    }
+
+    @Test
+    public void testAllocateSkipsTheUsedAddresses()
+    {
+        PrivateIpAllocator allocator = allocator(Collections.singletonList("10.0.0.2"));
+        IpPoolManagement free = ip(null);
+        when(allocator.repo.findIpByAddressForUpdate(1, "10.0.0.3")).thenReturn(free);
+
+        assertSame(allocator.allocate(vlan()), free);
+        assertEquals(allocator.getRebuilds(), 1);
+        assertEquals(allocator.getConflicts(), 0);
+    }
+
+    @Test
+    public void testConflictRebuildsTheBitmap()
+    {
+        PrivateIpAllocator allocator = allocator(Collections.<String> emptyList());
+        VLANNetwork vlan = vlan();
+        IpPoolManagement free = ip(null);
+        when(allocator.repo.findIpByAddressForUpdate(1, "10.0.0.2")).thenReturn(free);
+        allocator.allocate(vlan);
+
+        // 10.0.0.3 is taken outside this instance
+        IpPoolManagement used = ip(mock(VirtualMachine.class));
+        IpPoolManagement next = ip(null);
+        when(allocator.repo.findUsedAddressesByVlan(1)).thenReturn(
+            Arrays.asList("10.0.0.2", "10.0.0.3"));
+        when(allocator.repo.findIpByAddressForUpdate(1, "10.0.0.3")).thenReturn(used);
+        when(allocator.repo.findIpByAddressForUpdate(1, "10.0.0.4")).thenReturn(next);
+
+        assertSame(allocator.allocate(vlan), next);
+        assertEquals(allocator.getConflicts(), 1);
+        assertEquals(allocator.getRebuilds(), 2);
+    }
+
+    @Test
+    public void testAllocateInFullVlan()
+    {
+        PrivateIpAllocator allocator =
+            allocator(Arrays.asList("10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5", "10.0.0.6"));
+        when(allocator.repo.findIpByAddressForUpdate(eq(1), anyString())).thenReturn(ip(null));
+
+        assertNull(allocator.allocate(vlan()));
+    }
+
+    private static PrivateIpAllocator allocator(final List<String> used)
+    {
+        PrivateIpAllocator allocator = new PrivateIpAllocator();
+        allocator.repo = mock(VirtualDatacenterRep.class);
+        when(allocator.repo.findUsedAddressesByVlan(1)).thenReturn(used);
+        return allocator;
+    }
+
+    /** 10.0.0.0/29 with the gateway in 10.0.0.1. */
+    private static VLANNetwork vlan()
+    {
+        NetworkConfiguration configuration = mock(NetworkConfiguration.class);
+        when(configuration.getAddress()).thenReturn("10.0.0.0");
+        when(configuration.getMask()).thenReturn(29);
+        when(configuration.getGateway()).thenReturn("10.0.0.1");
+
+        VLANNetwork vlan = mock(VLANNetwork.class);
+        when(vlan.getId()).thenReturn(1);
+        when(vlan.getConfiguration()).thenReturn(configuration);
+        return vlan;
+    }
+
+    private static IpPoolManagement ip(final VirtualMachine virtualMachine)
+    {
+        IpPoolManagement ip = mock(IpPoolManagement.class);
+        when(ip.getVirtualMachine()).thenReturn(virtualMachine);
+        return ip;
+    }
+
+    private static String ip(final long address)
+    {
+        return IPNetworkRang.toIPAddressString(address);
+    }
+}
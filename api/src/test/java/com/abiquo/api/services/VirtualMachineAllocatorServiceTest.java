@@ -0,0 +1,206 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.services;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.api.exceptions.ConflictException;
+import com.abiquo.model.enumerator.FitPolicy;
+import com.abiquo.scheduler.ResourceUpgradeUse;
+import com.abiquo.scheduler.VirtualMachineFactory;
+import com.abiquo.scheduler.VirtualMachineRequirementsFactory;
+import com.abiquo.scheduler.workload.NotEnoughResourcesException;
+import com.abiquo.scheduler.workload.VirtualimageAllocationService;
+import com.abiquo.server.core.cloud.VirtualAppliance;
+import com.abiquo.server.core.cloud.VirtualDatacenter;
+import com.abiquo.server.core.cloud.VirtualMachine;
+import com.abiquo.server.core.infrastructure.Datacenter;
+import com.abiquo.server.core.infrastructure.Machine;
+import com.abiquo.server.core.infrastructure.Rack;
+import com.abiquo.server.core.scheduler.VirtualMachineRequirements;
+
+/**
+ * Allocation of all the virtual machines of a virtual appliance (
+ * {@link VirtualMachineAllocatorService#allocateVirtualMachines}).
+ */
+public class VirtualMachineAllocatorServiceTest
+{
+    private VirtualMachineAllocatorService allocator;
+
+    private VirtualimageAllocationService allocationService;
+
+    private VirtualMachineFactory vmFactory;
+
+    private ResourceUpgradeUse upgradeUse;
+
+    private VirtualAppliance vapp;
+
+    private VirtualMachine vm1;
+
+    private VirtualMachine vm2;
+
+    private VirtualMachineRequirements required1;
+
+    private VirtualMachineRequirements required2;
+
+    private Machine machine1;
+
+    private Machine machine2;
+
+    @BeforeMethod
+    public void setUp() throws Exception
+    {
+        allocator = new VirtualMachineAllocatorService()
+        {
+            @Override
+            protected void checkLimist(final VirtualAppliance vapp,
+                final VirtualMachineRequirements required, final Boolean force,
+                final Boolean checkVLAN)
+            {
+                // limits not checked
+            }
+        };
+
+        allocationService = mock(VirtualimageAllocationService.class);
+        vmFactory = mock(VirtualMachineFactory.class);
+        upgradeUse = mock(ResourceUpgradeUse.class);
+        allocator.allocationService = allocationService;
+        allocator.vmFactory = vmFactory;
+        allocator.upgradeUse = upgradeUse;
+        allocator.vmRequirements = mock(VirtualMachineRequirementsFactory.class);
+
+        Datacenter datacenter = mock(Datacenter.class);
+        when(datacenter.getId()).thenReturn(1);
+        VirtualDatacenter vdc = mock(VirtualDatacenter.class);
+        when(vdc.getDatacenter()).thenReturn(datacenter);
+        vapp = mock(VirtualAppliance.class);
+        when(vapp.getVirtualDatacenter()).thenReturn(vdc);
+
+        vm1 = mock(VirtualMachine.class);
+        vm2 = mock(VirtualMachine.class);
+        required1 = new VirtualMachineRequirements(1L, 512L, 1000L, 0L, 0L, 0L, 0L);
+        required2 = new VirtualMachineRequirements(1L, 512L, 2000L, 0L, 0L, 0L, 0L);
+        when(allocator.vmRequirements.createVirtualMachineRequirements(vm1)).thenReturn(required1);
+        when(allocator.vmRequirements.createVirtualMachineRequirements(vm2)).thenReturn(required2);
+
+        machine1 = mock(Machine.class);
+        machine2 = mock(Machine.class);
+        when(vmFactory.createVirtualMachine(any(Machine.class), eq(vm1))).thenReturn(vm1);
+        when(vmFactory.createVirtualMachine(any(Machine.class), eq(vm2))).thenReturn(vm2);
+
+        when(allocationService.findBestTarget(required1, FitPolicy.PROGRESSIVE, vapp)).thenReturn(
+            machine1);
+        when(
+            allocationService.findCandidates(any(VirtualMachineRequirements.class), eq(vapp),
+                any(Rack.class))).thenReturn(Arrays.asList(machine1));
+    }
+
+    @Test
+    public void testCandidatesReused() throws Exception
+    {
+        when(
+            allocationService.findBestTarget(anyCollectionOf(Machine.class), eq(required2),
+                eq(FitPolicy.PROGRESSIVE), eq(vapp))).thenReturn(machine1);
+
+        List<VirtualMachine> allocated =
+            allocator.allocateVirtualMachines(Arrays.asList(vm1, vm2), vapp, false);
+
+        Assert.assertEquals(allocated, Arrays.asList(vm1, vm2));
+        verify(allocationService, times(1)).findCandidates(any(VirtualMachineRequirements.class),
+            eq(vapp), any(Rack.class));
+        verify(allocationService, never()).findBestTarget(required2, FitPolicy.PROGRESSIVE, vapp);
+        verify(upgradeUse).updateUse(vapp, vm1);
+        verify(upgradeUse).updateUse(vapp, vm2);
+    }
+
+    @Test
+    public void testNotFitOnCandidatesUsesCompleteSelection() throws Exception
+    {
+        when(
+            allocationService.findBestTarget(anyCollectionOf(Machine.class), eq(required2),
+                eq(FitPolicy.PROGRESSIVE), eq(vapp))).thenThrow(
+            new NotEnoughResourcesException("no candidate"));
+        when(allocationService.findBestTarget(required2, FitPolicy.PROGRESSIVE, vapp)).thenReturn(
+            machine2);
+
+        allocator.allocateVirtualMachines(Arrays.asList(vm1, vm2), vapp, false);
+
+        verify(vmFactory).createVirtualMachine(machine2, vm2);
+        verify(upgradeUse).updateUse(vapp, vm2);
+    }
+
+    @Test
+    public void testNoDatastoreOnCandidateUsesCompleteSelection() throws Exception
+    {
+        when(
+            allocationService.findBestTarget(anyCollectionOf(Machine.class), eq(required2),
+                eq(FitPolicy.PROGRESSIVE), eq(vapp))).thenReturn(machine1);
+        when(vmFactory.createVirtualMachine(machine1, vm2)).thenThrow(
+            new NotEnoughResourcesException("no datastore"));
+        when(allocationService.findBestTarget(required2, FitPolicy.PROGRESSIVE, vapp)).thenReturn(
+            machine2);
+        when(vmFactory.createVirtualMachine(machine2, vm2)).thenReturn(vm2);
+
+        List<VirtualMachine> allocated =
+            allocator.allocateVirtualMachines(Arrays.asList(vm1, vm2), vapp, false);
+
+        Assert.assertEquals(allocated, Arrays.asList(vm1, vm2));
+        verify(upgradeUse, times(1)).updateUse(vapp, vm2);
+    }
+
+    @Test(expectedExceptions = ConflictException.class)
+    public void testNotEnoughResources() throws Exception
+    {
+        when(
+            allocationService.findBestTarget(anyCollectionOf(Machine.class), eq(required2),
+                eq(FitPolicy.PROGRESSIVE), eq(vapp))).thenReturn(machine1);
+        when(vmFactory.createVirtualMachine(machine1, vm2)).thenThrow(
+            new NotEnoughResourcesException("no datastore"));
+        when(allocationService.findBestTarget(required2, FitPolicy.PROGRESSIVE, vapp)).thenThrow(
+            new NotEnoughResourcesException("no machine"));
+
+        try
+        {
+            allocator.allocateVirtualMachines(Arrays.asList(vm1, vm2), vapp, false);
+        }
+        finally
+        {
+            // the virtual machine without resources is not left on the candidate
+            verify(vm2).setHypervisor(null);
+            verify(upgradeUse, never()).updateUse(vapp, vm2);
+        }
+    }
+}
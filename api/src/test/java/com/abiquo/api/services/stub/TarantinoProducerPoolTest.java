@@ -0,0 +1,185 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.services.stub;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.commons.amqp.impl.tarantino.TarantinoRequestProducer;
+import com.abiquo.commons.amqp.impl.tarantino.domain.dto.DatacenterTasks;
+
+public class TarantinoProducerPoolTest
+{
+    private List<TarantinoRequestProducer> producers;
+
+    private TarantinoProducerPool pool;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        producers = new ArrayList<TarantinoRequestProducer>();
+        pool = new TarantinoProducerPool()
+        {
+            @Override
+            protected TarantinoRequestProducer createProducer(final String datacenterQueueId)
+            {
+                TarantinoRequestProducer producer = mock(TarantinoRequestProducer.class);
+                producers.add(producer);
+                return producer;
+            }
+        };
+    }
+
+    @Test
+    public void testProducerReused() throws IOException
+    {
+        pool.publish("dc1", jobs(2));
+        pool.publish("dc1", jobs(1));
+
+        Assert.assertEquals(producers.size(), 1);
+        verify(producers.get(0), times(1)).openChannel();
+        verify(producers.get(0), times(3)).publish(any(DatacenterTasks.class));
+        Assert.assertEquals(pool.getPublished(), 3);
+        Assert.assertEquals(pool.getIdle(), 1);
+        Assert.assertEquals(pool.getActive(), 0);
+    }
+
+    @Test
+    public void testProducerByQueue() throws IOException
+    {
+        pool.publish("dc1", jobs(1));
+        pool.publish("dc2", jobs(1));
+
+        Assert.assertEquals(producers.size(), 2);
+        Assert.assertEquals(pool.getIdle(), 2);
+    }
+
+    @Test
+    public void testStaleProducerRetriedWithNewOne() throws IOException
+    {
+        pool.publish("dc1", jobs(1));
+        doThrow(new IOException("stale")).when(producers.get(0)).publish(
+            any(DatacenterTasks.class));
+
+        pool.publish("dc1", jobs(2));
+
+        verify(producers.get(0)).closeChannel();
+        Assert.assertEquals(producers.size(), 2);
+        verify(producers.get(1), times(2)).publish(any(DatacenterTasks.class));
+        Assert.assertEquals(pool.getPublished(), 3);
+        Assert.assertEquals(pool.getFailures(), 0);
+        Assert.assertEquals(pool.getIdle(), 1);
+    }
+
+    @Test
+    public void testBrokenNewProducerDiscarded() throws IOException
+    {
+        pool = new TarantinoProducerPool()
+        {
+            @Override
+            protected TarantinoRequestProducer createProducer(final String datacenterQueueId)
+            {
+                TarantinoRequestProducer producer = mock(TarantinoRequestProducer.class);
+                try
+                {
+                    doThrow(new IOException("broken")).when(producer).publish(
+                        any(DatacenterTasks.class));
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+                producers.add(producer);
+                return producer;
+            }
+        };
+
+        try
+        {
+            pool.publish("dc1", jobs(1));
+            Assert.fail("publish should fail");
+        }
+        catch (TarantinoProducerPool.PublishException e)
+        {
+            Assert.assertEquals(e.getPublished(), 0);
+        }
+
+        Assert.assertEquals(producers.size(), 1);
+        verify(producers.get(0)).closeChannel();
+        Assert.assertEquals(pool.getFailures(), 1);
+        Assert.assertEquals(pool.getIdle(), 0);
+        Assert.assertEquals(pool.getActive(), 0);
+    }
+
+    @Test
+    public void testPartiallyPublished() throws IOException
+    {
+        final TarantinoRequestProducer producer = mock(TarantinoRequestProducer.class);
+        pool = new TarantinoProducerPool()
+        {
+            @Override
+            protected TarantinoRequestProducer createProducer(final String datacenterQueueId)
+            {
+                return producer;
+            }
+        };
+
+        List<DatacenterTasks> jobs = jobs(3);
+        doThrow(new IOException("broken")).when(producer).publish(jobs.get(1));
+
+        try
+        {
+            pool.publish("dc1", jobs);
+            Assert.fail("publish should fail");
+        }
+        catch (TarantinoProducerPool.PublishException e)
+        {
+            Assert.assertEquals(e.getPublished(), 1);
+        }
+
+        verify(producer).closeChannel();
+        Assert.assertEquals(pool.getPublished(), 1);
+        Assert.assertEquals(pool.getIdle(), 0);
+    }
+
+    private static List<DatacenterTasks> jobs(final int count)
+    {
+        DatacenterTasks[] jobs = new DatacenterTasks[count];
+        for (int i = 0; i < count; i++)
+        {
+            jobs[i] = mock(DatacenterTasks.class);
+        }
+        return Arrays.asList(jobs);
+    }
+}
@@ -26,6 +26,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -136,6 +137,20 @@ public class TarantinoServiceMock extends TarantinoService
 
     // Delegate methods
 
+    @Override
+    public Map<Integer, String> deployVirtualMachines(
+        final Map<VirtualMachine, VirtualMachineDescriptionBuilder> virtualMachines)
+    {
+        Map<Integer, String> taskIds = new LinkedHashMap<Integer, String>();
+        for (Map.Entry<VirtualMachine, VirtualMachineDescriptionBuilder> entry : virtualMachines
+            .entrySet())
+        {
+            taskIds.put(entry.getKey().getId(),
+                mock.deployVirtualMachine(entry.getKey(), entry.getValue()));
+        }
+        return taskIds;
+    }
+
     @Override
     public String deployVirtualMachine(final VirtualMachine virtualMachine,
         final VirtualMachineDescriptionBuilder virtualMachineDesciptionBuilder)
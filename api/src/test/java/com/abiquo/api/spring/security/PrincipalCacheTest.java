@@ -0,0 +1,96 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.spring.security;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.Test;
+
+import com.abiquo.server.core.enterprise.User.AuthType;
+
+public class PrincipalCacheTest
+{
+    @Test
+    public void testHitAndMiss()
+    {
+        PrincipalCache cache = new PrincipalCache(60000, 10);
+        AbiquoUserDetails details = details("admin");
+
+        assertNull(cache.get("admin", AuthType.ABIQUO));
+        cache.put("admin", AuthType.ABIQUO, details);
+
+        assertSame(cache.get("admin", AuthType.ABIQUO), details);
+        assertNull(cache.get("admin", AuthType.LDAP));
+
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test
+    public void testExpiration() throws InterruptedException
+    {
+        PrincipalCache cache = new PrincipalCache(50, 10);
+        cache.put("admin", AuthType.ABIQUO, details("admin"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("admin", AuthType.ABIQUO));
+    }
+
+    @Test
+    public void testBounded()
+    {
+        PrincipalCache cache = new PrincipalCache(60000, 2);
+        cache.put("user1", AuthType.ABIQUO, details("user1"));
+        cache.put("user2", AuthType.ABIQUO, details("user2"));
+        cache.get("user1", AuthType.ABIQUO);
+        cache.put("user3", AuthType.ABIQUO, details("user3"));
+
+        assertEquals(cache.getSize(), 2);
+        assertNull(cache.get("user2", AuthType.ABIQUO));
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        PrincipalCache cache = new PrincipalCache(60000, 10);
+        cache.put("admin", AuthType.ABIQUO, details("admin"));
+        cache.put("admin", AuthType.LDAP, details("admin"));
+        cache.put("user", AuthType.ABIQUO, details("user"));
+
+        cache.invalidate("admin");
+        assertNull(cache.get("admin", AuthType.ABIQUO));
+        assertNull(cache.get("admin", AuthType.LDAP));
+        assertEquals(cache.getSize(), 1);
+
+        cache.invalidateAll();
+        assertEquals(cache.getSize(), 0);
+    }
+
+    private static AbiquoUserDetails details(final String username)
+    {
+        AbiquoUserDetails details = new AbiquoUserDetails();
+        details.setUsername(username);
+        return details;
+    }
+}
@@ -100,6 +100,20 @@ public class SecuredURLProcessingTest extends AbstractTestNGSpringContextTests
         assertSize(urlAuthenticator.checkAuthLinks(links, BASE_URI), 0);
     }
 
+    @Test
+    public void testLinksWithIdsPermissions()
+    {
+        loginAsSysAdmin();
+        List<RESTLink> links = new ArrayList<RESTLink>();
+        links.add(new RESTLink("", BASE_URI + "/admin/datacenters/1"));
+        links.add(new RESTLink("", BASE_URI + "/admin/datacenters/2"));
+        links.add(new RESTLink("", BASE_URI + "/admin/enterprises/1"));
+        assertSize(urlAuthenticator.checkAuthLinks(links, BASE_URI), 3);
+
+        loginAsBasicUser();
+        assertSize(urlAuthenticator.checkAuthLinks(links, BASE_URI), 0);
+    }
+
     /**
      * In case the link is not from Abiquo we must return it.
      */
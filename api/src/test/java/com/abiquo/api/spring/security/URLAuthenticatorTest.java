@@ -0,0 +1,76 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.api.spring.security;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.Test;
+
+public class URLAuthenticatorTest
+{
+    @Test
+    public void testToTemplate()
+    {
+        assertEquals(URLAuthenticator.toTemplate("/admin/datacenters"), "/admin/datacenters");
+        assertEquals(URLAuthenticator.toTemplate("/admin/datacenters/12/racks/3"),
+            "/admin/datacenters/0/racks/0");
+        assertEquals(URLAuthenticator.toTemplate("/admin/datacenters/12/"),
+            "/admin/datacenters/0/");
+        assertEquals(URLAuthenticator.toTemplate("/cloud/vdcs/1a/vapps/2?limit=25"),
+            "/cloud/vdcs/1a/vapps/0?limit=25");
+        assertEquals(URLAuthenticator.toTemplate("/"), "/");
+    }
+
+    /**
+     * The link templates are only valid if the secured URL patterns do not depend on the ids.
+     */
+    @Test
+    public void testSecuredPatternsWithoutNumbers() throws Exception
+    {
+        Pattern pattern = Pattern.compile("pattern=\"([^\"]*)\"");
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(getClass().getClassLoader()
+                .getResourceAsStream("springresources/security-beans.xml")));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                Matcher matcher = pattern.matcher(line);
+                while (matcher.find())
+                {
+                    assertFalse(matcher.group(1).matches(".*[0-9].*"), matcher.group(1));
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+}
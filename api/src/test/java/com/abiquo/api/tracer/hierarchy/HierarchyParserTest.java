@@ -0,0 +1,92 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.api.tracer.hierarchy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class HierarchyParserTest
+{
+    @Test
+    public void testParseInfrastructure()
+    {
+        Map<String, String> ids =
+            HierarchyParser.parse("/admin/datacenters/1/racks/2/machines/3/datastores/4");
+
+        assertEquals(ids.get("admin/datacenters"), "1");
+        assertEquals(ids.get("racks"), "2");
+        assertEquals(ids.get("machines"), "3");
+        assertEquals(ids.get("datastores"), "4");
+        assertNull(ids.get("virtualmachines"));
+    }
+
+    @Test
+    public void testMachinesDoesNotMatchVirtualMachines()
+    {
+        Map<String, String> ids =
+            HierarchyParser
+                .parse("/cloud/virtualdatacenters/1/virtualappliances/2/virtualmachines/3");
+
+        assertEquals(ids.get("cloud/virtualdatacenters"), "1");
+        assertEquals(ids.get("virtualappliances"), "2");
+        assertEquals(ids.get("virtualmachines"), "3");
+        assertFalse(ids.containsKey("machines"));
+    }
+
+    @Test
+    public void testParseTrailingSlashAndCollections()
+    {
+        Map<String, String> ids = HierarchyParser.parse("/admin/enterprises/5/users/");
+
+        assertEquals(ids.get("admin/enterprises"), "5");
+        assertFalse(ids.containsKey("users"));
+        assertTrue(HierarchyParser.parse(null).isEmpty());
+    }
+
+    @Test
+    public void testNameCache() throws InterruptedException
+    {
+        ResourceNameCache cache = new ResourceNameCache(60000, 2);
+        cache.put("racks", "1", "rack1");
+        assertEquals(cache.get("racks", "1"), "rack1");
+        assertNull(cache.get("machines", "1"));
+
+        cache.invalidate("racks", 1);
+        assertNull(cache.get("racks", "1"));
+
+        cache.put("racks", "1", "rack1");
+        cache.put("racks", "2", "rack2");
+        cache.put("racks", "3", "rack3");
+        assertEquals(cache.getSize(), 2);
+        assertNull(cache.get("racks", "1"));
+
+        ResourceNameCache expiring = new ResourceNameCache(50, 2);
+        expiring.put("racks", "1", "rack1");
+        Thread.sleep(100);
+        assertNull(expiring.get("racks", "1"));
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.api.exceptions.ServiceUnavailableException;
+
+public class SchedulerLockTest
+{
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDifferentDatacentersInParallel() throws Exception
+    {
+        SchedulerLock.acquire(1, "dc1");
+        try
+        {
+            Assert.assertTrue(tryInOtherThread(2, null));
+        }
+        finally
+        {
+            SchedulerLock.release("dc1");
+        }
+    }
+
+    @Test
+    public void testDifferentRacksInParallel() throws Exception
+    {
+        SchedulerLock.acquire(1, 1, "rack1");
+        try
+        {
+            Assert.assertTrue(tryInOtherThread(1, 2));
+        }
+        finally
+        {
+            SchedulerLock.release("rack1");
+        }
+    }
+
+    @Test
+    public void testDatacenterExcludesRack() throws Exception
+    {
+        SchedulerLock.acquire(1, "dc1");
+        Future<Boolean> rack = acquireInOtherThread(1, 1);
+        try
+        {
+            assertBlocked(rack);
+        }
+        finally
+        {
+            SchedulerLock.release("dc1");
+        }
+
+        Assert.assertTrue(rack.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRackExcludesDatacenter() throws Exception
+    {
+        SchedulerLock.acquire(1, 1, "rack1");
+        Future<Boolean> dc = acquireInOtherThread(1, null);
+        try
+        {
+            assertBlocked(dc);
+        }
+        finally
+        {
+            SchedulerLock.release("rack1");
+        }
+
+        Assert.assertTrue(dc.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReentrantAndReleaseNotAcquired()
+    {
+        SchedulerLock.acquire(1, "outer");
+        SchedulerLock.acquire(1, 1, "inner");
+
+        // not the last acquired lock, must be ignored
+        SchedulerLock.release("outer");
+
+        SchedulerLock.release("inner");
+        SchedulerLock.release("outer");
+        SchedulerLock.release("outer");
+    }
+
+    @Test
+    public void testRackAndOtherDatacenter()
+    {
+        // ids sharing a lock stripe must not be confused
+        SchedulerLock.acquire(1, 1, "rack1");
+        try
+        {
+            SchedulerLock.acquire(65, "dc65");
+            SchedulerLock.release("dc65");
+        }
+        finally
+        {
+            SchedulerLock.release("rack1");
+        }
+    }
+
+    @Test
+    public void testSameEnterpriseInDifferentDatacenters() throws Exception
+    {
+        SchedulerLock.acquireForEnterprise(1, 1, "ent1");
+        Future<Boolean> other = allocateInOtherThread(1, 2);
+        try
+        {
+            assertBlocked(other);
+        }
+        finally
+        {
+            SchedulerLock.release("ent1");
+        }
+
+        Assert.assertTrue(other.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDifferentEnterprisesInParallel() throws Exception
+    {
+        SchedulerLock.acquireForEnterprise(1, 1, "ent1");
+        try
+        {
+            Assert.assertTrue(allocateInOtherThread(2, 2).get(1, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            SchedulerLock.release("ent1");
+        }
+    }
+
+    @Test(expectedExceptions = ServiceUnavailableException.class)
+    public void testEnterpriseAfterDatacenterRejected()
+    {
+        SchedulerLock.acquire(1, "dc1");
+        try
+        {
+            SchedulerLock.acquireForEnterprise(1, 2, "ent1");
+        }
+        finally
+        {
+            SchedulerLock.release("dc1");
+        }
+    }
+
+    private Future<Boolean> allocateInOtherThread(final Integer enterpriseId,
+        final Integer datacenterId)
+    {
+        return executor.submit(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                SchedulerLock.acquireForEnterprise(enterpriseId, datacenterId, "other");
+                SchedulerLock.release("other");
+                return true;
+            }
+        });
+    }
+
+    private boolean tryInOtherThread(final Integer datacenterId, final Integer rackId)
+        throws Exception
+    {
+        return acquireInOtherThread(datacenterId, rackId).get(1, TimeUnit.SECONDS);
+    }
+
+    private Future<Boolean> acquireInOtherThread(final Integer datacenterId, final Integer rackId)
+    {
+        return executor.submit(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                SchedulerLock.acquire(datacenterId, rackId, "other");
+                SchedulerLock.release("other");
+                return true;
+            }
+        });
+    }
+
+    private void assertBlocked(final Future<Boolean> future) throws Exception
+    {
+        Thread.sleep(200);
+        Assert.assertFalse(future.isDone());
+    }
+}
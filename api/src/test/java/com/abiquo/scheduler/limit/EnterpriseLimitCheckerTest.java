@@ -0,0 +1,93 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler.limit;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.server.core.common.DefaultEntityCurrentUsed;
+import com.abiquo.server.core.enterprise.Enterprise;
+import com.abiquo.server.core.scheduler.VirtualMachineRequirements;
+
+public class EnterpriseLimitCheckerTest
+{
+    private EnterpriseLimitChecker checker;
+
+    private Enterprise enterprise;
+
+    private int reloads;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        reloads = 0;
+        checker = new EnterpriseLimitChecker();
+        checker.usageCounters = new EnterpriseUsageCounters()
+        {
+            @Override
+            public DefaultEntityCurrentUsed get(final Integer enterpriseId, final boolean reload)
+            {
+                if (reload)
+                {
+                    // other API nodes allocated since the counters were loaded
+                    reloads++;
+                    return new DefaultEntityCurrentUsed(15, 0, 0);
+                }
+
+                return new DefaultEntityCurrentUsed(2, 0, 0);
+            }
+        };
+
+        // 10 soft and 20 hard limit of CPU
+        enterprise = new Enterprise("enterprise", 0, 10, 0, 0, 20, 0);
+    }
+
+    @Test
+    public void test_countersFarFromLimits() throws LimitExceededException
+    {
+        checker.checkLimits(enterprise, cpu(5), false);
+
+        assertEquals(reloads, 0);
+    }
+
+    @Test
+    public void test_reloadCloseToLimits()
+    {
+        try
+        {
+            checker.checkLimits(enterprise, cpu(6), false);
+            throw new AssertionError("hard limit not reached");
+        }
+        catch (LimitExceededException e)
+        {
+            assertEquals(reloads, 1);
+            assertEquals(e.isHardLimit(), true);
+        }
+    }
+
+    private static VirtualMachineRequirements cpu(final long cpu)
+    {
+        return new VirtualMachineRequirements(cpu, 0L, 0L, 0L, 0L, 0L, 0L);
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler.limit;
+
+import static org.testng.Assert.assertEquals;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.server.core.cloud.VirtualDatacenterRep;
+import com.abiquo.server.core.common.DefaultEntityCurrentUsed;
+import com.abiquo.server.core.enterprise.EnterpriseRep;
+import com.abiquo.server.core.infrastructure.InfrastructureRep;
+
+public class EnterpriseUsageCountersTest
+{
+    private static final Integer ENTERPRISE = 1;
+
+    private static final Integer VIRTUAL_DATACENTER = 2;
+
+    private static final Integer DATACENTER = 3;
+
+    private EnterpriseUsageCounters counters;
+
+    private int queries;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        queries = 0;
+        counters = new EnterpriseUsageCounters();
+        counters.enterpriseRep = new EnterpriseRep()
+        {
+            @Override
+            public DefaultEntityCurrentUsed getEnterpriseResourceUsage(final int enterpriseId)
+            {
+                queries++;
+                DefaultEntityCurrentUsed used = new DefaultEntityCurrentUsed(2, 1024, 4096);
+                used.setVlanCount(1);
+                return used;
+            }
+        };
+        counters.virtualDatacenterRep = new VirtualDatacenterRep()
+        {
+            @Override
+            public DefaultEntityCurrentUsed getVirtualDatacenterResourceUsage(
+                final int virtualDatacenterId)
+            {
+                queries++;
+                return new DefaultEntityCurrentUsed(1, 512, 2048);
+            }
+        };
+        counters.infrastructureRep = new InfrastructureRep()
+        {
+            @Override
+            public DefaultEntityCurrentUsed getDatacenterResourceUsage(final int datacenterId,
+                final int enterpriseId)
+            {
+                queries++;
+                return new DefaultEntityCurrentUsed(2, 1024, 4096);
+            }
+        };
+    }
+
+    @Test
+    public void test_loadOnce()
+    {
+        counters.get(ENTERPRISE);
+        DefaultEntityCurrentUsed used = counters.get(ENTERPRISE);
+
+        assertEquals(queries, 1);
+        assertEquals(used.getCpu(), 2);
+        assertEquals(used.getRamInMb(), 1024);
+        assertEquals(used.getVlanCount(), 1);
+        assertEquals(counters.getHits(), 1);
+    }
+
+    @Test
+    public void test_addWithoutTransaction()
+    {
+        counters.get(ENTERPRISE);
+        counters.add(ENTERPRISE, VIRTUAL_DATACENTER, DATACENTER, 1, 512, 1024);
+
+        DefaultEntityCurrentUsed used = counters.get(ENTERPRISE);
+        assertEquals(queries, 1);
+        assertEquals(used.getCpu(), 3);
+        assertEquals(used.getRamInMb(), 1536);
+        assertEquals(used.getHdInMb(), 5120);
+
+        counters.add(ENTERPRISE, VIRTUAL_DATACENTER, DATACENTER, -10, -512, -1024);
+        used = counters.get(ENTERPRISE);
+        assertEquals(used.getCpu(), 0);
+        assertEquals(used.getRamInMb(), 1024);
+    }
+
+    @Test
+    public void test_addOnCommit()
+    {
+        counters.get(ENTERPRISE);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            counters.add(ENTERPRISE, VIRTUAL_DATACENTER, DATACENTER, 1, 512, 0);
+            assertEquals(counters.get(ENTERPRISE).getCpu(), 2);
+
+            complete(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(counters.get(ENTERPRISE).getCpu(), 3);
+        assertEquals(queries, 1);
+    }
+
+    @Test
+    public void test_notCachedWhileInProgress()
+    {
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            counters.add(ENTERPRISE, VIRTUAL_DATACENTER, DATACENTER, 1, 512, 0);
+
+            counters.get(ENTERPRISE);
+            counters.get(ENTERPRISE);
+            assertEquals(queries, 2);
+
+            complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        counters.get(ENTERPRISE);
+        counters.get(ENTERPRISE);
+        assertEquals(queries, 3);
+    }
+
+    @Test
+    public void test_invalidate()
+    {
+        counters.get(ENTERPRISE);
+        counters.invalidate(ENTERPRISE);
+        counters.get(ENTERPRISE);
+        assertEquals(queries, 2);
+
+        counters.reconcile();
+        counters.get(ENTERPRISE);
+        assertEquals(queries, 3);
+        assertEquals(counters.getSize(), 1);
+    }
+
+    @Test
+    public void test_addToVirtualDatacenterAndDatacenter()
+    {
+        counters.getVirtualDatacenter(ENTERPRISE, VIRTUAL_DATACENTER, false);
+        counters.getDatacenter(ENTERPRISE, DATACENTER, false);
+        counters.add(ENTERPRISE, VIRTUAL_DATACENTER, DATACENTER, 1, 512, 1024);
+
+        assertEquals(counters.getVirtualDatacenter(ENTERPRISE, VIRTUAL_DATACENTER, false)
+            .getCpu(), 2);
+        assertEquals(counters.getDatacenter(ENTERPRISE, DATACENTER, false).getRamInMb(), 1536);
+        assertEquals(queries, 2);
+    }
+
+    @Test
+    public void test_unknownVirtualDatacenterDiscarded()
+    {
+        counters.getVirtualDatacenter(ENTERPRISE, VIRTUAL_DATACENTER, false);
+        counters.getDatacenter(ENTERPRISE, DATACENTER, false);
+        counters.add(ENTERPRISE, null, DATACENTER, -1, -512, -1024);
+
+        assertEquals(counters.getDatacenter(ENTERPRISE, DATACENTER, false).getCpu(), 1);
+        assertEquals(queries, 2);
+
+        // the virtual datacenter of the released virtual machine is not known
+        assertEquals(counters.getVirtualDatacenter(ENTERPRISE, VIRTUAL_DATACENTER, false)
+            .getCpu(), 1);
+        assertEquals(queries, 3);
+    }
+
+    @Test
+    public void test_reload()
+    {
+        counters.get(ENTERPRISE);
+        counters.add(ENTERPRISE, VIRTUAL_DATACENTER, DATACENTER, 1, 512, 1024);
+
+        assertEquals(counters.get(ENTERPRISE, true).getCpu(), 2);
+        assertEquals(queries, 2);
+        assertEquals(counters.get(ENTERPRISE).getCpu(), 2);
+        assertEquals(queries, 2);
+    }
+
+    private void complete(final int status)
+    {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager
+            .getSynchronizations())
+        {
+            synchronization.afterCompletion(status);
+        }
+    }
+}
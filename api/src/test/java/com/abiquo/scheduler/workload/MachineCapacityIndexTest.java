@@ -0,0 +1,152 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.scheduler.workload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.model.enumerator.HypervisorType;
+import com.abiquo.model.enumerator.MachineState;
+import com.abiquo.scheduler.workload.MachineCapacityIndex.RackCapacity;
+
+public class MachineCapacityIndexTest
+{
+    private static final long GB = 1024L * 1024 * 1024;
+
+    private static final int KVM = HypervisorType.KVM.ordinal();
+
+    private List<Object[]> machines;
+
+    private List<Object[]> datastores;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        machines = new ArrayList<Object[]>();
+        datastores = new ArrayList<Object[]>();
+    }
+
+    @Test
+    public void testCandidatesByCapacity()
+    {
+        machine(1, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        machine(2, 8, 7, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        machine(3, 8, 0, 8192, 8000, MachineState.MANAGED, HypervisorType.KVM, null);
+        datastore(10, 100 * GB, 0, true, 1, 2, 3);
+
+        RackCapacity rack = new RackCapacity(machines, datastores);
+
+        assertCandidates(rack.findCandidates(KVM, 1, 2, 1024, GB, 100, 100), 1);
+        assertCandidates(rack.findCandidates(KVM, 1, 1, 100, GB, 100, 100), 1, 2, 3);
+    }
+
+    @Test
+    public void testCandidatesByLoadRule()
+    {
+        machine(1, 8, 8, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        machine(2, 8, 0, 8192, 8192, MachineState.MANAGED, HypervisorType.KVM, null);
+        datastore(10, 100 * GB, 0, true, 1, 2);
+
+        RackCapacity rack = new RackCapacity(machines, datastores);
+
+        assertCandidates(rack.findCandidates(KVM, 1, 2, 1024, GB, 100, 100));
+        assertCandidates(rack.findCandidates(KVM, 1, 2, 1024, GB, 200, 100), 1);
+        assertCandidates(rack.findCandidates(KVM, 1, 2, 1024, GB, 200, 150), 1, 2);
+    }
+
+    @Test
+    public void testCandidatesByStateTypeAndReservation()
+    {
+        machine(1, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        machine(2, 8, 0, 8192, 0, MachineState.STOPPED, HypervisorType.KVM, null);
+        machine(3, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.VMX_04, null);
+        machine(4, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, 2);
+        machine(5, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, 1);
+        datastore(10, 100 * GB, 0, true, 1, 2, 3, 4, 5);
+
+        RackCapacity rack = new RackCapacity(machines, datastores);
+
+        assertCandidates(rack.findCandidates(KVM, 1, 1, 512, GB, 100, 100), 1, 5);
+    }
+
+    @Test
+    public void testCandidatesByDatastore()
+    {
+        machine(1, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        machine(2, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        machine(3, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        datastore(10, 100 * GB, 99 * GB, true, 1);
+        datastore(11, 100 * GB, 0, false, 2);
+        datastore(12, 100 * GB, 50 * GB, true, 2, 3);
+
+        RackCapacity rack = new RackCapacity(machines, datastores);
+
+        assertCandidates(rack.findCandidates(KVM, 1, 1, 512, 10 * GB, 100, 100), 2, 3);
+
+        // shared datastore updated for all its machines
+        Assert.assertTrue(rack.update(12, 95 * GB));
+        assertCandidates(rack.findCandidates(KVM, 1, 1, 512, 10 * GB, 100, 100));
+        Assert.assertFalse(rack.update(99, 0));
+    }
+
+    @Test
+    public void testUpdateMachine()
+    {
+        machine(1, 8, 0, 8192, 0, MachineState.MANAGED, HypervisorType.KVM, null);
+        datastore(10, 100 * GB, 0, true, 1);
+
+        RackCapacity rack = new RackCapacity(machines, datastores);
+        assertCandidates(rack.findCandidates(KVM, 1, 4, 512, GB, 100, 100), 1);
+
+        rack.update(1, 6, 512);
+        assertCandidates(rack.findCandidates(KVM, 1, 4, 512, GB, 100, 100));
+
+        Assert.assertTrue(rack.passDatastores(1, GB));
+        Assert.assertNull(rack.passDatastores(2, GB));
+    }
+
+    private void machine(final Integer id, final Integer cpu, final Integer cpuUsed,
+        final Integer ram, final Integer ramUsed, final MachineState state,
+        final HypervisorType type, final Integer enterpriseId)
+    {
+        machines.add(new Object[] {id, cpu, cpuUsed, ram, ramUsed, state, type, enterpriseId});
+    }
+
+    private void datastore(final Integer id, final long size, final long used,
+        final boolean enabled, final Integer... machineIds)
+    {
+        for (Integer machineId : machineIds)
+        {
+            datastores.add(new Object[] {id, size, used, enabled, machineId});
+        }
+    }
+
+    private static void assertCandidates(final int[] candidates, final int... expected)
+    {
+        Assert.assertEquals(Arrays.toString(candidates), Arrays.toString(expected));
+    }
+}
@@ -0,0 +1,89 @@
+-- ############################################################################################################### --   
+-- ############################################################################################################### --   
+-- INDEX:
+--  SCHEMA: TABLES ADDED
+--  SCHEMA: INDEXES ADDED
+--  DATA: METERING TOKENS
+-- ############################################################################################################### --   
+-- ############################################################################################################### --   
+SELECT "### APPLYING 2_0_0-HF2 TO 2_0_0-HF3 PATCH. ###" as " ";
+
+SET @DISABLE_STATS_TRIGGERS = 1;
+SELECT "STEP 1 TRIGGERS DISABLED DURING THE UPGRADE" as " ";
+
+DROP PROCEDURE IF EXISTS kinton.delta_2_0_0HF2_to_2_0_0HF3;
+
+DELIMITER |
+CREATE PROCEDURE kinton.delta_2_0_0HF2_to_2_0_0HF3() 
+BEGIN
+
+    -- ##################################### --
+    -- ######## SCHEMA: TABLES ADDED ####### --
+    -- ##################################### --
+    SELECT "STEP 2 CREATING NEW TABLES..." as " ";
+    -- Definition of table kinton.metering_token
+    --
+    IF NOT EXISTS ( SELECT * FROM information_schema.tables WHERE table_schema='kinton' AND table_name='metering_token') THEN
+        SELECT "Adding new table metering_token..." as " ";
+        CREATE TABLE kinton.metering_token (
+          token varchar(128) NOT NULL,
+          idMeter BIGINT unsigned NOT NULL,
+          timestamp timestamp NOT NULL,
+          PRIMARY KEY (token, timestamp, idMeter),
+          KEY metering_token_idMeter_IX (idMeter)
+          ) ENGINE=MyISAM DEFAULT CHARSET=utf8;
+
+        -- The existing entries get the token of the whole value of each column, the server
+        -- writes a token for every word of the new ones
+        SELECT "Filling table metering_token..." as " ";
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('datacenter:', LOWER(datacenter)), 128), idMeter, timestamp FROM kinton.metering WHERE datacenter IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('rack:', LOWER(rack)), 128), idMeter, timestamp FROM kinton.metering WHERE rack IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('physicalmachine:', LOWER(physicalmachine)), 128), idMeter, timestamp FROM kinton.metering WHERE physicalmachine IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('storagesystem:', LOWER(storageSystem)), 128), idMeter, timestamp FROM kinton.metering WHERE storageSystem IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('storagepool:', LOWER(storagePool)), 128), idMeter, timestamp FROM kinton.metering WHERE storagePool IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('volume:', LOWER(volume)), 128), idMeter, timestamp FROM kinton.metering WHERE volume IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('network:', LOWER(network)), 128), idMeter, timestamp FROM kinton.metering WHERE network IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('subnet:', LOWER(subnet)), 128), idMeter, timestamp FROM kinton.metering WHERE subnet IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('enterprise:', LOWER(enterprise)), 128), idMeter, timestamp FROM kinton.metering WHERE enterprise IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('user:', LOWER(user)), 128), idMeter, timestamp FROM kinton.metering WHERE user IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('virtualdatacenter:', LOWER(virtualDataCenter)), 128), idMeter, timestamp FROM kinton.metering WHERE virtualDataCenter IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('virtualapp:', LOWER(virtualApp)), 128), idMeter, timestamp FROM kinton.metering WHERE virtualApp IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('virtualmachine:', LOWER(virtualmachine)), 128), idMeter, timestamp FROM kinton.metering WHERE virtualmachine IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('performedby:', LOWER(performedby)), 128), idMeter, timestamp FROM kinton.metering WHERE performedby IS NOT NULL;
+        INSERT IGNORE INTO kinton.metering_token (token, idMeter, timestamp) SELECT LEFT(CONCAT('component:', LOWER(component)), 128), idMeter, timestamp FROM kinton.metering WHERE component IS NOT NULL;
+        SELECT "- Table metering_token created" as " ";
+    END IF;
+
+    -- ###################################### --
+    -- ######## SCHEMA: INDEXES ADDED ####### --
+    -- ###################################### --
+    SELECT "STEP 3 CREATING NEW INDEXES..." as " ";
+
+    -- metering: the event log is read by time, newest first --
+    IF NOT EXISTS (SELECT * FROM information_schema.statistics WHERE table_schema= 'kinton' AND table_name='metering' AND index_name='metering_timestamp_IX') THEN
+        ALTER TABLE kinton.metering ADD INDEX metering_timestamp_IX (timestamp, idMeter);
+    END IF;
+
+    IF NOT EXISTS (SELECT * FROM information_schema.statistics WHERE table_schema= 'kinton' AND table_name='metering' AND index_name='metering_idUser_IX') THEN
+        ALTER TABLE kinton.metering ADD INDEX metering_idUser_IX (idUser, timestamp);
+    END IF;
+
+    -- ip_pool_management: the private IPs are looked up by vlan and address --
+    IF NOT EXISTS (SELECT * FROM information_schema.statistics WHERE table_schema= 'kinton' AND table_name='ip_pool_management' AND index_name='ippool_vlan_ip_IX') THEN
+        ALTER TABLE kinton.ip_pool_management ADD INDEX ippool_vlan_ip_IX (vlan_network_id, ip);
+    END IF;
+
+    END;
+|
+DELIMITER ;
+
+
+# Now invoke the SP
+CALL kinton.delta_2_0_0HF2_to_2_0_0HF3();
+
+# And on successful completion, remove the SP, so we are not cluttering the DBMS with upgrade code!
+DROP PROCEDURE IF EXISTS kinton.delta_2_0_0HF2_to_2_0_0HF3;
+
+SELECT "STEP 4 ENABLING TRIGGERS" as " ";
+SET @DISABLE_STATS_TRIGGERS = null;
+SELECT "#### UPGRADE COMPLETED ####" as " ";
@@ -717,6 +717,7 @@ CREATE TABLE  `kinton`.`ip_pool_management` (
   `version_c` integer NOT NULL DEFAULT 1,
   KEY `id_management_FK` (`idManagement`),
   KEY `ippool_vlan_network_FK` (`vlan_network_id`),
+  KEY `ippool_vlan_ip_IX` (`vlan_network_id`, `ip`),
   CONSTRAINT `id_management_FK` FOREIGN KEY (`idManagement`) REFERENCES `rasd_management` (`idManagement`) ON DELETE CASCADE,
   CONSTRAINT `ippool_vlan_network_FK` FOREIGN KEY (`vlan_network_id`) REFERENCES `vlan_network` (`vlan_network_id`)  ON DELETE RESTRICT
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -1221,9 +1222,25 @@ CREATE TABLE  `kinton`.`metering` (
   `actionperformed` varchar(100) NOT NULL,
   `component` varchar(255) default NULL,
   `stacktrace` text default NULL,
-  PRIMARY KEY  (`idMeter`)
+  PRIMARY KEY  (`idMeter`),
+  KEY `metering_timestamp_IX` (`timestamp`, `idMeter`),
+  KEY `metering_idUser_IX` (`idUser`, `timestamp`)
 ) ENGINE=MyISAM AUTO_INCREMENT=1 DEFAULT CHARSET=utf8;
 
+/**
+ *  Definition of table `kinton`.`metering_token`
+ *  Tokens of the name columns of the metering entries, used by the event log filters
+ */
+
+DROP TABLE IF EXISTS `kinton`.`metering_token`;
+CREATE TABLE  `kinton`.`metering_token` (
+  `token` varchar(128) NOT NULL,
+  `idMeter` BIGINT unsigned NOT NULL,
+  `timestamp` timestamp NOT NULL,
+  PRIMARY KEY  (`token`, `timestamp`, `idMeter`),
+  KEY `metering_token_idMeter_IX` (`idMeter`)
+) ENGINE=MyISAM DEFAULT CHARSET=utf8;
+
 DROP TABLE IF EXISTS `kinton`.`virtualimage_conversions`;
 CREATE TABLE  `kinton`.`virtualimage_conversions` (
   `id` int(10) unsigned NOT NULL auto_increment,
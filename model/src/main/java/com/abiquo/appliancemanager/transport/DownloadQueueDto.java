@@ -0,0 +1,151 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.appliancemanager.transport;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.abiquo.model.transport.SingleResourceTransportDto;
+
+/**
+ * Template download queue of the appliance manager (all the enterprise repositories and the
+ * requested one).
+ */
+@XmlRootElement(name = "downloadQueue")
+public class DownloadQueueDto extends SingleResourceTransportDto
+{
+    private static final long serialVersionUID = 4316128743018934515L;
+
+    /** Downloads in progress (all the enterprise repositories). */
+    private int active;
+
+    /** Downloads waiting for a free slot (all the enterprise repositories). */
+    private int queued;
+
+    /** Downloads in progress of the enterprise repository. */
+    private int repositoryActive;
+
+    /** Downloads waiting for a free slot of the enterprise repository. */
+    private int repositoryQueued;
+
+    private int maxActive;
+
+    private int maxActivePerRepository;
+
+    /** Mean time the started downloads waited in the queue (ms). */
+    private long meanWaitMs;
+
+    /** Max time a started download waited in the queue (ms). */
+    private long maxWaitMs;
+
+    public int getActive()
+    {
+        return active;
+    }
+
+    public void setActive(final int active)
+    {
+        this.active = active;
+    }
+
+    public int getQueued()
+    {
+        return queued;
+    }
+
+    public void setQueued(final int queued)
+    {
+        this.queued = queued;
+    }
+
+    public int getRepositoryActive()
+    {
+        return repositoryActive;
+    }
+
+    public void setRepositoryActive(final int repositoryActive)
+    {
+        this.repositoryActive = repositoryActive;
+    }
+
+    public int getRepositoryQueued()
+    {
+        return repositoryQueued;
+    }
+
+    public void setRepositoryQueued(final int repositoryQueued)
+    {
+        this.repositoryQueued = repositoryQueued;
+    }
+
+    public int getMaxActive()
+    {
+        return maxActive;
+    }
+
+    public void setMaxActive(final int maxActive)
+    {
+        this.maxActive = maxActive;
+    }
+
+    public int getMaxActivePerRepository()
+    {
+        return maxActivePerRepository;
+    }
+
+    public void setMaxActivePerRepository(final int maxActivePerRepository)
+    {
+        this.maxActivePerRepository = maxActivePerRepository;
+    }
+
+    public long getMeanWaitMs()
+    {
+        return meanWaitMs;
+    }
+
+    public void setMeanWaitMs(final long meanWaitMs)
+    {
+        this.meanWaitMs = meanWaitMs;
+    }
+
+    public long getMaxWaitMs()
+    {
+        return maxWaitMs;
+    }
+
+    public void setMaxWaitMs(final long maxWaitMs)
+    {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    @Override
+    public String getMediaType()
+    {
+        return MediaType.APPLICATION_XML;
+    }
+
+    @Override
+    public String getBaseMediaType()
+    {
+        return MediaType.APPLICATION_XML;
+    }
+}
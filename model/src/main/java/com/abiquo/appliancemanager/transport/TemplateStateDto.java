@@ -62,6 +62,11 @@ public class TemplateStateDto extends SingleResourceTransportDto
      */
     protected Double downloadingProgress;
 
+    /**
+     * If status == DOWNLOADING reports the current download throughput (bytes per second)
+     */
+    protected Long downloadingThroughput;
+
     /**
      * If status == ERROR reports the creation error cause (content of ''deploy.error'' file)
      */
@@ -99,6 +104,16 @@ public class TemplateStateDto extends SingleResourceTransportDto
         this.downloadingProgress = downloadingProgress;
     }
 
+    public Long getDownloadingThroughput()
+    {
+        return downloadingThroughput;
+    }
+
+    public void setDownloadingThroughput(final Long downloadingThroughput)
+    {
+        this.downloadingThroughput = downloadingThroughput;
+    }
+
     public String getErrorCause()
     {
         return errorCause;
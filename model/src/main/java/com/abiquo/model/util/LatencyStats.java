@@ -0,0 +1,91 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.model.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free accumulator of elapsed times (count, total and max) used to expose simple latency
+ * metrics without any external metrics library.
+ */
+public class LatencyStats
+{
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds a new sample.
+     *
+     * @param elapsed, the elapsed time (in any unit, usually milliseconds).
+     */
+    public void record(final long elapsed)
+    {
+        count.incrementAndGet();
+        total.addAndGet(elapsed);
+
+        long current = max.get();
+        while (elapsed > current && !max.compareAndSet(current, elapsed))
+        {
+            current = max.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getTotal()
+    {
+        return total.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of all the recorded samples, 0 if there aren't any.
+     */
+    public long getMean()
+    {
+        long samples = count.get();
+        return samples == 0 ? 0 : total.get() / samples;
+    }
+
+    public void reset()
+    {
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count:%d mean:%d max:%d", getCount(), getMean(), getMax());
+    }
+}
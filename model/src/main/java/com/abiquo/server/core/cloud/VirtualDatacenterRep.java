@@ -30,6 +30,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import com.abiquo.model.enumerator.NetworkType;
+import com.abiquo.server.core.common.DefaultEntityCurrentUsed;
 import com.abiquo.server.core.common.DefaultRepBase;
 import com.abiquo.server.core.enterprise.Enterprise;
 import com.abiquo.server.core.enterprise.User;
@@ -114,6 +115,12 @@ public class VirtualDatacenterRep extends DefaultRepBase
         this.diskManagementDAO = new DiskManagementDAO(em);
     }
 
+    public DefaultEntityCurrentUsed getVirtualDatacenterResourceUsage(
+        final int virtualDatacenterId)
+    {
+        return virtualDatacenterDAO.getCurrentResourcesAllocated(virtualDatacenterId);
+    }
+
     /**
      * Creates teh nodevirtualimage to associate the virtual machine to a virtual appliance
      */
@@ -368,6 +375,16 @@ public class VirtualDatacenterRep extends DefaultRepBase
             numElem, has, orderBy, asc);
     }
 
+    public List<String> findUsedAddressesByVlan(final Integer vlanId)
+    {
+        return ipManagementDAO.findUsedAddressesByVlan(vlanId);
+    }
+
+    public IpPoolManagement findIpByAddressForUpdate(final Integer vlanId, final String address)
+    {
+        return ipManagementDAO.findIpByAddressForUpdate(vlanId, address);
+    }
+
     /**
      * Return next available private IP by VLAN with filter options.
      * 
@@ -626,6 +643,14 @@ public class VirtualDatacenterRep extends DefaultRepBase
         virtualDatacenterDAO.persist(vdc);
     }
 
+    /**
+     * Inserts new IPs with JDBC batches. See {@link IpPoolManagementDAO#insertAll(Collection)}.
+     */
+    public void insertIpManagements(final Collection<IpPoolManagement> ipManagements)
+    {
+        ipManagementDAO.insertAll(ipManagements);
+    }
+
     public void insertIpManagement(final IpPoolManagement ipManagement)
     {
         if (ipManagement.getRasd() != null)
@@ -21,7 +21,9 @@
 
 package com.abiquo.server.core.cloud;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -265,6 +267,23 @@ public class VirtualMachineDAO extends DefaultDAOBase<Integer, VirtualMachine>
         flush();
     }
 
+    /**
+     * Loads all the given virtual machines with a single query.
+     * 
+     * @param names The names of the virtual machines.
+     * @return The virtual machines found.
+     */
+    public List<VirtualMachine> findByNames(final Collection<String> names)
+    {
+        if (names.isEmpty())
+        {
+            return new ArrayList<VirtualMachine>();
+        }
+
+        Criteria criteria = createCriteria(Restrictions.in(VirtualMachine.NAME_PROPERTY, names));
+        return getResultList(criteria);
+    }
+
     /**
      * Sets the {@link VirtualMachine#setState(VirtualMachineState)} to
      * {@link VirtualMachineState#UNKNOWN}.
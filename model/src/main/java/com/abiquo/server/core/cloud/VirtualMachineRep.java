@@ -150,6 +150,11 @@ public class VirtualMachineRep extends DefaultRepBase
         dao.unknownState(vmId);
     }
 
+    public List<VirtualMachine> findByNames(final Collection<String> names)
+    {
+        return dao.findByNames(names);
+    }
+
     public VirtualMachine findVirtualMachineByHypervisor(final Hypervisor hypervisor,
         final Integer virtualMachineId)
     {
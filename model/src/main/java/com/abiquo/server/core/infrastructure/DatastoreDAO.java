@@ -28,6 +28,7 @@ import javax.persistence.PersistenceException;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
@@ -81,6 +82,26 @@ public class DatastoreDAO extends DefaultDAOBase<Integer, Datastore>
         return getResultList(crit);
     }
 
+    /**
+     * Datastores of all the machines of the rack (shared datastores are returned once for each
+     * machine).
+     * 
+     * @return rows of [datastore id, size, usedSize, enabled, machine id]
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> findRackDatastoresCapacity(final Integer idRack)
+    {
+        Query query = getSession().createQuery(QUERY_RACK_DATASTORES_CAPACITY);
+        query.setInteger("idRack", idRack);
+
+        return query.list();
+    }
+
+    private final static String QUERY_RACK_DATASTORES_CAPACITY = //
+        "SELECT d.id, d.size, d.usedSize, d.enabled, m.id " + //
+            "FROM com.abiquo.server.core.infrastructure.Datastore d JOIN d.machines m " + //
+            "WHERE m.rack.id = :idRack";
+
     /***
      * Get the datastore with the provided UUID mounted on the target machine. (this call is
      * expected after ''datastoreSelection'' so the target machine will have the datastore)
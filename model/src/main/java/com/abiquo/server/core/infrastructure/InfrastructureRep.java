@@ -41,6 +41,7 @@ import com.abiquo.server.core.cloud.HypervisorDAO;
 import com.abiquo.server.core.cloud.VirtualMachine;
 import com.abiquo.server.core.cloud.VirtualMachineDAO;
 import com.abiquo.server.core.cloud.VirtualMachineState;
+import com.abiquo.server.core.common.DefaultEntityCurrentUsed;
 import com.abiquo.server.core.common.DefaultRepBase;
 import com.abiquo.server.core.enterprise.DatacenterLimits;
 import com.abiquo.server.core.enterprise.DatacenterLimitsDAO;
@@ -163,6 +164,12 @@ public class InfrastructureRep extends DefaultRepBase
         return this.dao.findById(id);
     }
 
+    public DefaultEntityCurrentUsed getDatacenterResourceUsage(final int datacenterId,
+        final int enterpriseId)
+    {
+        return this.dao.getCurrentResourcesAllocated(datacenterId, enterpriseId);
+    }
+
     public Collection<Datacenter> findAll()
     {
         return this.dao.findAll();
@@ -625,6 +632,26 @@ public class InfrastructureRep extends DefaultRepBase
             datastoreUuid, originalHypervisorId);
     }
 
+    public List<Object[]> findRackMachinesCapacity(final Integer idRack)
+    {
+        return machineDao.findRackMachinesCapacity(idRack);
+    }
+
+    public List<Object[]> findRackDatastoresCapacity(final Integer idRack)
+    {
+        return datastoreDao.findRackDatastoresCapacity(idRack);
+    }
+
+    public List<Machine> findMachinesByIds(final Collection<Integer> ids)
+    {
+        return machineDao.findMachinesByIds(ids);
+    }
+
+    public List<Integer> findMachineIdsExcludedForEnterprise(final Enterprise enterprise)
+    {
+        return machineDao.findMachineIdsExcludedForEnterprise(enterprise);
+    }
+
     public List<Integer> getRackIdByMinVLANCount(final int idDatacenter)
     {
         return rackDao.getRackIdByMinVLANCount(idDatacenter);
@@ -287,6 +287,43 @@ public class MachineDAO extends DefaultDAOBase<Integer, Machine>
         return notExcludedMachines;
     }
 
+    /**
+     * Capacity of all the machines of the rack.
+     * 
+     * @return rows of [id, virtualCpuCores, virtualCpusUsed, virtualRamInMb, virtualRamUsedInMb,
+     *         state, hypervisor type, reserved enterprise id (or null)]
+     */
+    public List<Object[]> findRackMachinesCapacity(final Integer idRack)
+    {
+        Query query = getSession().createQuery(QUERY_RACK_MACHINES_CAPACITY);
+        query.setInteger("idRack", idRack);
+
+        return query.list();
+    }
+
+    /**
+     * Machines with any of the provided identifiers (in a single query).
+     */
+    public List<Machine> findMachinesByIds(final Collection<Integer> ids)
+    {
+        Query query = getSession().createQuery(QUERY_MACHINES_BY_IDS);
+        query.setParameterList("ids", ids);
+
+        return query.list();
+    }
+
+    /**
+     * Identifiers of the machines with virtual machines of some enterprise excluded by the
+     * enterprise exclusion rules of the provided enterprise.
+     */
+    public List<Integer> findMachineIdsExcludedForEnterprise(final Enterprise enterprise)
+    {
+        Query excludedQuery = getSession().createQuery(QUERY_CANDIDATE_NO_ENTERPRISE_EXCLUDED);
+        excludedQuery.setParameter("enterpriseId", enterprise.getId());
+
+        return excludedQuery.list();
+    }
+
     private List<Machine> findFirstCandidateMachines(final Integer idRack,
         final Integer idVirtualDatacenter, final Long hdRequiredOnDatastore,
         final Enterprise enterprise)
@@ -721,6 +758,18 @@ public class MachineDAO extends DefaultDAOBase<Integer, Machine>
             "AND m.state = :state " + //
             "AND (m.enterprise is null OR m.enterprise.id = :enterpriseId) ";
 
+    // idRack
+    private final static String QUERY_RACK_MACHINES_CAPACITY = //
+        "SELECT m.id, m.virtualCpuCores, m.virtualCpusUsed, m.virtualRamInMb, " + //
+            "m.virtualRamUsedInMb, m.state, h.type, e.id " + //
+            "FROM com.abiquo.server.core.infrastructure.Machine m " + //
+            "JOIN m.hypervisor h LEFT JOIN m.enterprise e " + //
+            "WHERE m.rack.id = :idRack";
+
+    private final static String QUERY_MACHINES_BY_IDS = //
+        "SELECT m FROM com.abiquo.server.core.infrastructure.Machine m " + //
+            "LEFT JOIN FETCH m.hypervisor WHERE m.id IN (:ids)";
+
     /**
      * HA related
      */
@@ -21,12 +21,20 @@
 
 package com.abiquo.server.core.infrastructure.network;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
@@ -35,6 +43,7 @@ import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 import org.springframework.stereotype.Repository;
 
 import com.abiquo.model.enumerator.NetworkType;
@@ -1063,6 +1072,7 @@ public class IpPoolManagementDAO extends DefaultDAOBase<Integer, IpPoolManagemen
     public Collection<String> getAllMacs()
     {
         Criteria criteria = getSession().createCriteria(IpPoolManagement.class);
+        criteria.add(Restrictions.isNotNull(IpPoolManagement.MAC_PROPERTY));
         ProjectionList projList = Projections.projectionList();
         projList.add(Projections.property(IpPoolManagement.MAC_PROPERTY));
 
@@ -1070,6 +1080,140 @@ public class IpPoolManagementDAO extends DefaultDAOBase<Integer, IpPoolManagemen
         return criteria.list();
     }
 
+    private static final String INSERT_RASD_MANAGEMENT = "INSERT INTO "
+        + RasdManagement.TABLE_NAME + " (idResourceType, idVirtualDataCenter) VALUES (?, ?)";
+
+    private static final String INSERT_IP_POOL_MANAGEMENT = "INSERT INTO "
+        + IpPoolManagement.TABLE_NAME + " (idManagement, mac, name, ip, vlan_network_name,"
+        + " vlan_network_id, quarantine, available) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Inserts new IPs with two JDBC batches, one for each table of the hierarchy. The IPs are not
+     * attached to the persistence context, so their identifiers are not set.
+     * 
+     * @param ips the new IPs, all of them without {@link RasdManagement#getRasd()}.
+     */
+    public void insertAll(final Collection<IpPoolManagement> ips)
+    {
+        if (ips.isEmpty())
+        {
+            return;
+        }
+
+        // The VLAN and the virtual datacenter must already be in the database
+        getEntityManager().flush();
+
+        getSession().doWork(new Work()
+        {
+            @Override
+            public void execute(final Connection connection) throws SQLException
+            {
+                List<Integer> ids = new ArrayList<Integer>(ips.size());
+                PreparedStatement rasds =
+                    connection.prepareStatement(INSERT_RASD_MANAGEMENT,
+                        Statement.RETURN_GENERATED_KEYS);
+                try
+                {
+                    for (IpPoolManagement ip : ips)
+                    {
+                        rasds.setString(1, ip.getIdResourceType());
+                        if (ip.getVirtualDatacenter() != null)
+                        {
+                            rasds.setInt(2, ip.getVirtualDatacenter().getId());
+                        }
+                        else
+                        {
+                            rasds.setNull(2, Types.INTEGER);
+                        }
+                        rasds.addBatch();
+                    }
+                    rasds.executeBatch();
+
+                    ResultSet keys = rasds.getGeneratedKeys();
+                    while (keys.next())
+                    {
+                        ids.add(keys.getInt(1));
+                    }
+                    keys.close();
+                }
+                finally
+                {
+                    rasds.close();
+                }
+
+                if (ids.size() != ips.size())
+                {
+                    throw new SQLException("Expected " + ips.size() + " generated keys but got "
+                        + ids.size());
+                }
+
+                PreparedStatement pool = connection.prepareStatement(INSERT_IP_POOL_MANAGEMENT);
+                try
+                {
+                    Iterator<Integer> id = ids.iterator();
+                    for (IpPoolManagement ip : ips)
+                    {
+                        pool.setInt(1, id.next());
+                        pool.setString(2, ip.getMac());
+                        pool.setString(3, ip.getName());
+                        pool.setString(4, ip.getIp());
+                        pool.setString(5, ip.getNetworkName());
+                        pool.setInt(6, ip.getVlanNetwork().getId());
+                        pool.setBoolean(7, ip.getQuarantine());
+                        pool.setBoolean(8, ip.getAvailable());
+                        pool.addBatch();
+                    }
+                    pool.executeBatch();
+                }
+                finally
+                {
+                    pool.close();
+                }
+            }
+        });
+    }
+
+    private static final String ADDRESSES_USED_BY_VLAN =
+        "SELECT ip.ip FROM IpPoolManagement ip WHERE ip.vlanNetwork.id = :vlan_id"
+            + " AND ip.virtualMachine is not null";
+
+    private static final String BY_VLAN_AND_ADDRESS =
+        "SELECT ip FROM IpPoolManagement ip WHERE ip.vlanNetwork.id = :vlan_id AND ip.ip = :ip";
+
+    /**
+     * @param vlanId identifier of the vlan.
+     * @return the addresses of the vlan used by any virtual machine.
+     */
+    public List<String> findUsedAddressesByVlan(final Integer vlanId)
+    {
+        Query query = getSession().createQuery(ADDRESSES_USED_BY_VLAN);
+        query.setParameter("vlan_id", vlanId);
+        return query.list();
+    }
+
+    /**
+     * Find the IP of the vlan with the given address, locking its row until the end of the
+     * transaction.
+     * 
+     * @param vlanId identifier of the vlan.
+     * @param address the IP address.
+     * @return the locked IP, refreshed from database, or null if it does not exist.
+     */
+    public IpPoolManagement findIpByAddressForUpdate(final Integer vlanId, final String address)
+    {
+        Query query = getSession().createQuery(BY_VLAN_AND_ADDRESS);
+        query.setParameter("vlan_id", vlanId);
+        query.setParameter("ip", address);
+        query.setMaxResults(1);
+
+        IpPoolManagement ip = (IpPoolManagement) query.uniqueResult();
+        if (ip != null)
+        {
+            getEntityManager().refresh(ip, LockModeType.PESSIMISTIC_WRITE);
+        }
+        return ip;
+    }
+
     public List<IpPoolManagement> getPublicNetworkPoolPurchasedByEnterprise(
         final Integer enterpriseId)
     {
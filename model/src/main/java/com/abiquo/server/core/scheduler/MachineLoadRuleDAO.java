@@ -68,6 +68,27 @@ public class MachineLoadRuleDAO extends DefaultDAOBase<Integer, MachineLoadRule>
         return query.list();
     }
 
+    private final static String QUERY_MAX_LOAD_BY_RACK = //
+        "SELECT max(obj.cpuLoadPercentage), max(obj.ramLoadPercentage) "
+            + "FROM com.abiquo.server.core.scheduler.MachineLoadRule obj "
+            + "LEFT JOIN obj.machine m LEFT JOIN obj.rack r LEFT JOIN obj.datacenter d WHERE "
+            + "m.rack.id = :idRack OR r.id = :idRack OR d.id = (SELECT rk.datacenter.id "
+            + "FROM com.abiquo.server.core.infrastructure.Rack rk WHERE rk.id = :idRack)";
+
+    /**
+     * Highest CPU and RAM load percentages of the rules that may apply to the machines of the rack
+     * (rules of its machines, the rack and its datacenter).
+     * 
+     * @return [cpu, ram], both null if there are no rules.
+     */
+    public Object[] findMaxLoadPercentagesByRack(final Integer idRack)
+    {
+        Query query = getSession().createQuery(QUERY_MAX_LOAD_BY_RACK);
+        query.setInteger("idRack", idRack);
+
+        return (Object[]) query.uniqueResult();
+    }
+
     public List<MachineLoadRule> getRulesForDatacenter(final Integer idDatacenter)
     {
         Criteria crit = createNestedCriteria(MachineLoadRule.DATACENTER_PROPERTY);
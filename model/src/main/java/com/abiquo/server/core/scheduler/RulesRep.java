@@ -166,6 +166,11 @@ public class RulesRep extends DefaultRepBase
         return this.machineLoadRuleDao.findByRack(rack, true);
     }
 
+    public Object[] findMaxMachineLoadPercentagesByRack(final Integer idRack)
+    {
+        return this.machineLoadRuleDao.findMaxLoadPercentagesByRack(idRack);
+    }
+
     public void deleteMachineLoadRule(final MachineLoadRule machineLoadRule)
     {
         if (machineLoadRule != null)
@@ -21,6 +21,9 @@
 
 package com.abiquo.server.core.task;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +31,8 @@ import org.springframework.stereotype.Component;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
 import com.abiquo.server.core.task.enums.TaskOwnerType;
@@ -68,6 +73,8 @@ public class AsyncTaskRep
             taskDao.save(task, transaction);
             transaction.exec();
             discard = false;
+
+            taskDao.trimOwner(task, jedis);
         }
         finally
         {
@@ -138,21 +145,24 @@ public class AsyncTaskRep
     }
 
     public List<Task> findTasksByOwnerId(final TaskOwnerType type, final String ownerId)
+    {
+        return findLatestTasksByOwnerId(type, ownerId, 0);
+    }
+
+    /**
+     * Returns the latest tasks of the owner with their jobs, newest first.
+     * 
+     * @param count The maximum number of tasks to return, or 0 to return all of them.
+     */
+    public List<Task> findLatestTasksByOwnerId(final TaskOwnerType type, final String ownerId,
+        final int count)
     {
         Jedis jedis = jedisPool.getResource();
 
         try
         {
-            List<Task> tasks = taskDao.findByOwnerId(type, ownerId, jedis);
-
-            for (Task task : tasks)
-            {
-                if (task != null)
-                {
-                    task.getJobs().addAll(
-                        jobDao.findJobs(taskDao.getTaskJobsEntityKey(task.getIdAsString()), jedis));
-                }
-            }
+            List<Task> tasks = taskDao.findLatestByOwnerId(type, ownerId, count, jedis);
+            loadJobs(tasks, jedis);
 
             return tasks;
         }
@@ -172,8 +182,7 @@ public class AsyncTaskRep
 
             if (task != null)
             {
-                task.getJobs().addAll(
-                    jobDao.findJobs(taskDao.getTaskJobsEntityKey(task.getIdAsString()), jedis));
+                loadJobs(Collections.singletonList(task), jedis);
             }
 
             return task;
@@ -218,4 +227,41 @@ public class AsyncTaskRep
             jedisPool.returnResource(jedis);
         }
     }
+
+    /**
+     * Adds the jobs to the given tasks using two pipelined round-trips, one for the job lists of
+     * all the tasks and another one for all their jobs.
+     */
+    protected void loadJobs(final List<Task> tasks, final Jedis jedis)
+    {
+        List<Response<List<String>>> jobLists = new ArrayList<Response<List<String>>>(tasks.size());
+
+        Pipeline pipeline = jedis.pipelined();
+        for (Task task : tasks)
+        {
+            String jobsKey = taskDao.getTaskJobsEntityKey(task.getIdAsString());
+            jobLists.add(pipeline.lrange(jobsKey, 0, -1));
+        }
+        pipeline.sync();
+
+        List<String> jobKeys = new ArrayList<String>();
+        for (Response<List<String>> jobList : jobLists)
+        {
+            jobKeys.addAll(jobList.get());
+        }
+
+        Iterator<Job> jobs = jobDao.findAll(jobKeys, jedis).iterator();
+        for (int i = 0; i < tasks.size(); i++)
+        {
+            for (int j = 0; j < jobLists.get(i).get().size(); j++)
+            {
+                Job job = jobs.next();
+
+                if (job != null)
+                {
+                    tasks.get(i).getJobs().add(job);
+                }
+            }
+        }
+    }
 }
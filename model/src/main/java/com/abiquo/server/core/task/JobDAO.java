@@ -23,6 +23,8 @@ package com.abiquo.server.core.task;
 
 import static com.abiquo.model.redis.RedisEntityUtils.getEntityKey;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,6 +33,8 @@ import java.util.Map;
 import org.springframework.stereotype.Component;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
 import com.abiquo.model.redis.KeyMaker;
@@ -76,10 +80,8 @@ public class JobDAO extends RedisDAOBase<Job>
     {
         List<Job> jobs = new LinkedList<Job>();
 
-        for (String jobKey : jedis.lrange(jobsKey, 0, -1))
+        for (Job job : findAll(jedis.lrange(jobsKey, 0, -1), jedis))
         {
-            Job job = find(jobKey, jedis);
-
             if (job != null)
             {
                 jobs.add(job);
@@ -89,11 +91,43 @@ public class JobDAO extends RedisDAOBase<Job>
         return jobs;
     }
 
+    /**
+     * Reads the jobs and their data with a single pipelined round-trip.
+     * 
+     * @return The jobs in the same order than the keys, with null for the missing ones.
+     */
+    public List<Job> findAll(final List<String> jobKeys, Jedis jedis)
+    {
+        List<Response<Map<String, String>>> hashes =
+            new ArrayList<Response<Map<String, String>>>(jobKeys.size());
+        List<Response<Map<String, String>>> data =
+            new ArrayList<Response<Map<String, String>>>(jobKeys.size());
+
+        Pipeline pipeline = jedis.pipelined();
+        for (String jobKey : jobKeys)
+        {
+            hashes.add(pipeline.hgetAll(jobKey));
+            data.add(pipeline.hgetAll(getJobDataKeyFromEntityKey(jobKey)));
+        }
+        pipeline.sync();
+
+        List<Job> jobs = new ArrayList<Job>(jobKeys.size());
+        for (int i = 0; i < jobKeys.size(); i++)
+        {
+            jobs.add(load(hashes.get(i).get(), data.get(i).get()));
+        }
+
+        return jobs;
+    }
+
     protected Job find(final String jobKey, Jedis jedis)
     {
-        Map<String, String> hashed = jedis.hgetAll(jobKey);
+        return findAll(Collections.singletonList(jobKey), jedis).get(0);
+    }
 
-        if (hashed.isEmpty())
+    protected Job load(final Map<String, String> hashed, final Map<String, String> data)
+    {
+        if (hashed == null || hashed.isEmpty())
         {
             return null;
         }
@@ -108,8 +142,6 @@ public class JobDAO extends RedisDAOBase<Job>
         job.setTimestamp(Long.parseLong(hashed.get("timestamp")));
         job.setParentTaskId(hashed.get("parentTaskId"));
 
-        Map<String, String> data = jedis.hgetAll(getJobDataKey(job.getIdAsString()));
-
         if (data != null && !data.isEmpty())
         {
             job.getData().putAll(data);
@@ -166,4 +198,12 @@ public class JobDAO extends RedisDAOBase<Job>
     {
         return keyMaker.make(jobId, "data");
     }
+
+    /**
+     * The same key than {@link #getJobDataKey(String)}, from the key of the job.
+     */
+    private String getJobDataKeyFromEntityKey(final String jobKey)
+    {
+        return jobKey + ":data";
+    }
 }
@@ -31,6 +31,8 @@ import java.util.Map;
 import org.springframework.stereotype.Component;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 
 import com.abiquo.model.redis.KeyMaker;
@@ -61,6 +63,7 @@ import com.abiquo.server.core.task.enums.TaskType;
  * RPUSH Task:0:jobs Jobs:0
  * RPUSH Task:0:jobs Jobs:1
  * LPUSH Owner:VirtualMachine:A Task:0
+ * RPUSH Owner:VirtualMachine:A:archive Task:0 (when trimmed from the owner list)
  * 
  * <pre>
  * @author eruiz@abiquo.com
@@ -70,6 +73,10 @@ public class TaskDAO extends RedisDAOBase<Task>
 {
     protected final KeyMaker keyMaker = new KeyMaker(Task.class);
 
+    /** Tasks kept in the list of each owner; the oldest ones are archived. 0 keeps all. */
+    protected int maxTasksPerOwner = Integer.parseInt(System.getProperty(
+        "abiquo.redis.tasks.maxPerOwner", "100"));
+
     public Task findById(final String taskId, Jedis jedis)
     {
         return find(getEntityKey(Task.class, taskId), jedis);
@@ -77,12 +84,40 @@ public class TaskDAO extends RedisDAOBase<Task>
 
     public List<Task> findByOwnerId(final TaskOwnerType type, final String ownerId, Jedis jedis)
     {
-        List<Task> tasks = new ArrayList<Task>();
+        return findLatestByOwnerId(type, ownerId, 0, jedis);
+    }
+
+    /**
+     * Returns the latest tasks of the owner, newest first.
+     * 
+     * @param count The maximum number of tasks to return, or 0 to return all of them.
+     */
+    public List<Task> findLatestByOwnerId(final TaskOwnerType type, final String ownerId,
+        final int count, Jedis jedis)
+    {
         String ownerKey = getOwnerTaskEntityKey(type, ownerId);
+        return findAll(jedis.lrange(ownerKey, 0, count - 1), jedis);
+    }
+
+    /**
+     * Reads the tasks with a single pipelined round-trip. Missing tasks are skipped.
+     */
+    protected List<Task> findAll(final List<String> taskKeys, Jedis jedis)
+    {
+        List<Response<Map<String, String>>> responses =
+            new ArrayList<Response<Map<String, String>>>(taskKeys.size());
+
+        Pipeline pipeline = jedis.pipelined();
+        for (String taskKey : taskKeys)
+        {
+            responses.add(pipeline.hgetAll(taskKey));
+        }
+        pipeline.sync();
 
-        for (String taskKey : jedis.lrange(ownerKey, 0, -1))
+        List<Task> tasks = new ArrayList<Task>(taskKeys.size());
+        for (Response<Map<String, String>> response : responses)
         {
-            Task task = find(taskKey, jedis);
+            Task task = load(response.get());
 
             if (task != null)
             {
@@ -95,9 +130,12 @@ public class TaskDAO extends RedisDAOBase<Task>
 
     protected Task find(final String taskKey, Jedis jedis)
     {
-        Map<String, String> hashed = jedis.hgetAll(taskKey);
+        return load(jedis.hgetAll(taskKey));
+    }
 
-        if (hashed.isEmpty())
+    protected Task load(final Map<String, String> hashed)
+    {
+        if (hashed == null || hashed.isEmpty())
         {
             return null;
         }
@@ -114,6 +152,45 @@ public class TaskDAO extends RedisDAOBase<Task>
         return task;
     }
 
+    /**
+     * Moves the oldest tasks of the owner of the task to its archive list, keeping the latest
+     * {@link #maxTasksPerOwner} in the owner list. The archived tasks are not deleted, but they are
+     * no longer read by the owner queries.
+     */
+    public void trimOwner(final Task task, Jedis jedis)
+    {
+        String ownerKey = getOwnerTaskEntityKey(task);
+
+        if (maxTasksPerOwner <= 0 || jedis.llen(ownerKey) <= maxTasksPerOwner)
+        {
+            return;
+        }
+
+        jedis.watch(ownerKey);
+        List<String> archived = jedis.lrange(ownerKey, maxTasksPerOwner, -1);
+
+        if (archived.isEmpty())
+        {
+            jedis.unwatch();
+            return;
+        }
+
+        Transaction transaction = jedis.multi();
+        transaction.ltrim(ownerKey, 0, maxTasksPerOwner - 1);
+        for (String taskKey : archived)
+        {
+            transaction.rpush(getArchiveEntityKey(ownerKey), taskKey);
+        }
+
+        // Aborted if the owner list changed meanwhile, it will be trimmed on the next save
+        transaction.exec();
+    }
+
+    public void setMaxTasksPerOwner(final int maxTasksPerOwner)
+    {
+        this.maxTasksPerOwner = maxTasksPerOwner;
+    }
+
     @Override
     public void delete(Task task, Transaction transaction)
     {
@@ -127,6 +204,7 @@ public class TaskDAO extends RedisDAOBase<Task>
 
         // Remove task from Owner index
         transaction.lrem(ownerTaskKey, 0, task.getEntityKey());
+        transaction.lrem(getArchiveEntityKey(ownerTaskKey), 0, task.getEntityKey());
     }
 
     @Override
@@ -174,4 +252,9 @@ public class TaskDAO extends RedisDAOBase<Task>
     {
         return String.format("Owner:%s:%s", type.getName(), ownerId);
     }
+
+    protected String getArchiveEntityKey(final String ownerTaskKey)
+    {
+        return ownerTaskKey + ":archive";
+    }
 }
@@ -22,7 +22,9 @@
 package com.abiquo.server.core.util.network;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
 import com.abiquo.model.enumerator.HypervisorType;
@@ -171,6 +173,101 @@ public class IPNetworkRang
         return wholeRange;
     }
 
+    /**
+     * Iterates over the same IP addresses than {@link #calculateWholeRange(IPAddress, Integer)},
+     * using integer arithmetic and without building the whole list.
+     * 
+     * @param networkAddress address that defines the network.
+     * @param mask mask of the network in the Integer way.
+     * @return the IP addresses of the network, computed while iterating.
+     */
+    public static Iterable<IPAddress> wholeRange(final IPAddress networkAddress,
+        final Integer mask)
+    {
+        final long first = toLong(networkAddress) + 1;
+        final long last = toLong(networkAddress) + masktoNumberOfNodes(mask) - 2;
+
+        return new Iterable<IPAddress>()
+        {
+            @Override
+            public Iterator<IPAddress> iterator()
+            {
+                return new Iterator<IPAddress>()
+                {
+                    private long next = first;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return next <= last;
+                    }
+
+                    @Override
+                    public IPAddress next()
+                    {
+                        if (!hasNext())
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        return IPAddress.newIPAddress(toIPAddressString(next++));
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Checks if the address is one of the addresses returned by
+     * {@link #calculateWholeRange(IPAddress, Integer)}, without building the list.
+     * 
+     * @param networkAddress address that defines the network.
+     * @param mask mask of the network in the Integer way.
+     * @param address the address to check.
+     * @return true if the address belongs to the network and is not the network or broadcast one.
+     */
+    public static boolean isIntoWholeRange(final IPAddress networkAddress, final Integer mask,
+        final String address)
+    {
+        IPAddress ip = IPAddress.newIPAddress(address);
+        if (ip == null)
+        {
+            return false;
+        }
+
+        long value = toLong(ip);
+        long network = toLong(networkAddress);
+        return value > network && value < network + masktoNumberOfNodes(mask) - 1;
+    }
+
+    /**
+     * @return the IP address as an unsigned 32 bit value.
+     */
+    public static long toLong(final IPAddress address)
+    {
+        StringTokenizer tokenizer = new StringTokenizer(address.toString(), ".");
+        long value = 0;
+        while (tokenizer.hasMoreTokens())
+        {
+            value = value << 8 | Integer.parseInt(tokenizer.nextToken());
+        }
+        return value;
+    }
+
+    /**
+     * @return the dotted representation of an unsigned 32 bit IP address.
+     */
+    public static String toIPAddressString(final long address)
+    {
+        return (address >>> 24 & 0xff) + "." + (address >>> 16 & 0xff) + "."
+            + (address >>> 8 & 0xff) + "." + (address & 0xff);
+    }
+
     /**
      * Moves IP mask (ej. "255.255.255.0") into integer mask format (ej. 24);
      * 
@@ -22,7 +22,9 @@
 package com.abiquo.server.core.infrastructure.network;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 
@@ -329,4 +331,53 @@ public class IpPoolManagementDAOTest extends
 
         Assert.assertNull(available);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void insertAllReadBack()
+    {
+        List<Object> entities = new ArrayList<Object>();
+
+        VirtualDatacenter vdc = virtualDatacenterGenerator.createUniqueInstance();
+        virtualDatacenterGenerator.addAuxiliaryEntitiesToPersist(vdc, entities);
+
+        VLANNetwork vlan = vlanNetworkGenerator.createUniqueInstance();
+        vlanNetworkGenerator.addAuxiliaryEntitiesToPersist(vlan, entities);
+
+        persistAll(ds(), entities, vdc, vlan);
+
+        List<IpPoolManagement> range = new ArrayList<IpPoolManagement>();
+        Set<String> addresses = new HashSet<String>();
+        for (int i = 2; i < 7; i++)
+        {
+            String address = "10.0.0." + i;
+            IpPoolManagement ip =
+                new IpPoolManagement(vlan, "00:00:00:00:00:0" + i, "ip" + i, address, vlan
+                    .getName());
+            ip.setVirtualDatacenter(vdc);
+            range.add(ip);
+            addresses.add(address);
+        }
+
+        IpPoolManagementDAO dao = createDaoForRollbackTransaction();
+        dao.insertAll(range);
+
+        List<IpPoolManagement> inserted = dao.findIpsByVlan(vlan);
+        Assert.assertEquals(inserted.size(), range.size());
+
+        Set<String> found = new HashSet<String>();
+        for (IpPoolManagement ip : inserted)
+        {
+            found.add(ip.getIp());
+            Assert.assertNotNull(ip.getId());
+            Assert.assertEquals(ip.getVirtualDatacenter().getId(), vdc.getId());
+            Assert.assertEquals(ip.getVlanNetwork().getId(), vlan.getId());
+            Assert.assertEquals(ip.getNetworkName(), vlan.getName());
+            Assert.assertEquals(ip.getMac(), "00:00:00:00:00:0" + ip.getIp().substring(7));
+            Assert.assertEquals(ip.getName(), "ip" + ip.getIp().substring(7));
+            Assert.assertTrue(ip.getAvailable());
+            Assert.assertFalse(ip.getQuarantine());
+            Assert.assertNull(ip.getVirtualMachine());
+        }
+        Assert.assertEquals(found, addresses);
+    }
+}
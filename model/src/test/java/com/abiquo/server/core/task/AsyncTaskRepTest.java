@@ -243,6 +243,71 @@ public class AsyncTaskRepTest extends RedisRepoTestBase
         assertEquals(tasks.get(0).getTaskId(), task3.getTaskId());
     }
 
+    @Test
+    public void test_findLatestTasksByOwnerId()
+    {
+        Task task0 = taskGenerator.createUniqueInstance();
+        Task task1 = taskGenerator.createUniqueInstance();
+        Task task2 = taskGenerator.createUniqueInstance();
+
+        task0.setOwnerId("D");
+        task1.setOwnerId("D");
+        task2.setOwnerId("D");
+
+        task1.getJobs().add(jobGenerator.createUniqueInstance());
+        task2.getJobs().add(jobGenerator.createUniqueInstance());
+        task2.getJobs().add(jobGenerator.createUniqueInstance());
+
+        repo.save(task0);
+        repo.save(task1);
+        repo.save(task2);
+
+        List<Task> tasks = repo.findLatestTasksByOwnerId(TaskOwnerType.VIRTUAL_MACHINE, "D", 2);
+        assertEquals(tasks.size(), 2);
+        assertEquals(tasks.get(0).getTaskId(), task2.getTaskId());
+        assertEquals(tasks.get(0).getJobs().size(), 2);
+        assertEquals(tasks.get(1).getTaskId(), task1.getTaskId());
+        assertEquals(tasks.get(1).getJobs().size(), 1);
+
+        tasks = repo.findLatestTasksByOwnerId(TaskOwnerType.VIRTUAL_MACHINE, "D", 0);
+        assertEquals(tasks.size(), 3);
+        assertEquals(tasks.get(2).getJobs().size(), 0);
+    }
+
+    @Test
+    public void test_trimOwnerTasks()
+    {
+        int maxTasksPerOwner = repo.taskDao.maxTasksPerOwner;
+        repo.taskDao.setMaxTasksPerOwner(2);
+
+        try
+        {
+            Task task0 = taskGenerator.createUniqueInstance();
+            Task task1 = taskGenerator.createUniqueInstance();
+            Task task2 = taskGenerator.createUniqueInstance();
+
+            task0.setOwnerId("E");
+            task1.setOwnerId("E");
+            task2.setOwnerId("E");
+
+            repo.save(task0);
+            repo.save(task1);
+            repo.save(task2);
+
+            List<Task> tasks = repo.findTasksByOwnerId(TaskOwnerType.VIRTUAL_MACHINE, "E");
+            assertEquals(tasks.size(), 2);
+            assertEquals(tasks.get(0).getTaskId(), task2.getTaskId());
+            assertEquals(tasks.get(1).getTaskId(), task1.getTaskId());
+
+            // Archived tasks are still available by id
+            assertNotNull(repo.findTask(task0.getTaskId()));
+        }
+        finally
+        {
+            repo.taskDao.setMaxTasksPerOwner(maxTasksPerOwner);
+        }
+    }
+
     protected void expectRuntimeOnInsertNullField(Task task)
     {
         try
@@ -0,0 +1,71 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.server.core.util.network;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class IPNetworkRangTest
+{
+    @Test
+    public void testWholeRangeMatchesCalculatedRange()
+    {
+        for (int mask : new int[] {22, 24, 28, 30})
+        {
+            IPAddress network = IPAddress.newIPAddress("10.0.0.0");
+            List<IPAddress> streamed = new ArrayList<IPAddress>();
+            for (IPAddress address : IPNetworkRang.wholeRange(network, mask))
+            {
+                streamed.add(address);
+            }
+
+            assertEquals(streamed, IPNetworkRang.calculateWholeRange(network, mask));
+        }
+    }
+
+    @Test
+    public void testIsIntoWholeRange()
+    {
+        IPAddress network = IPAddress.newIPAddress("192.168.1.0");
+
+        assertTrue(IPNetworkRang.isIntoWholeRange(network, 24, "192.168.1.1"));
+        assertTrue(IPNetworkRang.isIntoWholeRange(network, 24, "192.168.1.254"));
+        assertFalse(IPNetworkRang.isIntoWholeRange(network, 24, "192.168.1.0"));
+        assertFalse(IPNetworkRang.isIntoWholeRange(network, 24, "192.168.1.255"));
+        assertFalse(IPNetworkRang.isIntoWholeRange(network, 24, "192.168.2.1"));
+        assertFalse(IPNetworkRang.isIntoWholeRange(network, 24, "not an ip"));
+    }
+
+    @Test
+    public void testLongConversion()
+    {
+        IPAddress address = IPAddress.newIPAddress("255.1.2.3");
+
+        assertEquals(IPNetworkRang.toLong(address), 0xff010203L);
+        assertEquals(IPNetworkRang.toIPAddressString(0xff010203L), "255.1.2.3");
+    }
+}
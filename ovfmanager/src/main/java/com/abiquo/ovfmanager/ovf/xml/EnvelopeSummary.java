@@ -0,0 +1,227 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.ovfmanager.ovf.xml;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The fields of an OVF-envelope used to index the repository (file references, disks and the
+ * first product section), read without binding the whole envelope.
+ * 
+ * @see OVFSerializer#readEnvelopeSummary(java.io.InputStream)
+ */
+public class EnvelopeSummary
+{
+    private final List<FileReference> files = new ArrayList<FileReference>();
+
+    private final List<Disk> disks = new ArrayList<Disk>();
+
+    private String info;
+
+    private String product;
+
+    private String vendor;
+
+    private String version;
+
+    private String iconFileRef;
+
+    public List<FileReference> getFiles()
+    {
+        return files;
+    }
+
+    /** Same as {@link com.abiquo.ovfmanager.ovf.OVFReferenceUtils#getAllReferencedFileLocations} */
+    public Set<String> getFileLocations()
+    {
+        Set<String> locations = new HashSet<String>();
+        for (FileReference file : files)
+        {
+            locations.add(file.getHref());
+        }
+
+        return locations;
+    }
+
+    public FileReference getFile(final String fileId)
+    {
+        for (FileReference file : files)
+        {
+            if (file.getId() != null && file.getId().equals(fileId))
+            {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+    public List<Disk> getDisks()
+    {
+        return disks;
+    }
+
+    public String getInfo()
+    {
+        return info;
+    }
+
+    public void setInfo(final String info)
+    {
+        this.info = info;
+    }
+
+    public String getProduct()
+    {
+        return product;
+    }
+
+    public void setProduct(final String product)
+    {
+        this.product = product;
+    }
+
+    public String getVendor()
+    {
+        return vendor;
+    }
+
+    public void setVendor(final String vendor)
+    {
+        this.vendor = vendor;
+    }
+
+    public String getVersion()
+    {
+        return version;
+    }
+
+    public void setVersion(final String version)
+    {
+        this.version = version;
+    }
+
+    public String getIconFileRef()
+    {
+        return iconFileRef;
+    }
+
+    public void setIconFileRef(final String iconFileRef)
+    {
+        this.iconFileRef = iconFileRef;
+    }
+
+    /** A File element of the References section. */
+    public static class FileReference
+    {
+        private final String id;
+
+        private final String href;
+
+        private final Long size;
+
+        public FileReference(final String id, final String href, final Long size)
+        {
+            this.id = id;
+            this.href = href;
+            this.size = size;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public String getHref()
+        {
+            return href;
+        }
+
+        /** Null if not specified. */
+        public Long getSize()
+        {
+            return size;
+        }
+    }
+
+    /** A Disk element of the Disk section. */
+    public static class Disk
+    {
+        private final String diskId;
+
+        private final String fileRef;
+
+        private final String capacity;
+
+        private final String capacityAllocationUnits;
+
+        private final String format;
+
+        private final Long populatedSize;
+
+        public Disk(final String diskId, final String fileRef, final String capacity,
+            final String capacityAllocationUnits, final String format, final Long populatedSize)
+        {
+            this.diskId = diskId;
+            this.fileRef = fileRef;
+            this.capacity = capacity;
+            this.capacityAllocationUnits = capacityAllocationUnits;
+            this.format = format;
+            this.populatedSize = populatedSize;
+        }
+
+        public String getDiskId()
+        {
+            return diskId;
+        }
+
+        public String getFileRef()
+        {
+            return fileRef;
+        }
+
+        /** As in the envelope, it can be a property reference. */
+        public String getCapacity()
+        {
+            return capacity;
+        }
+
+        public String getCapacityAllocationUnits()
+        {
+            return capacityAllocationUnits;
+        }
+
+        public String getFormat()
+        {
+            return format;
+        }
+
+        /** Null if not specified. */
+        public Long getPopulatedSize()
+        {
+            return populatedSize;
+        }
+    }
+}
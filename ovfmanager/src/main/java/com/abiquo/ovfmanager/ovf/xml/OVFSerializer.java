@@ -23,6 +23,8 @@ package com.abiquo.ovfmanager.ovf.xml;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.bind.Binder;
 import javax.xml.bind.JAXBContext;
@@ -33,6 +35,7 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
@@ -61,6 +64,9 @@ import com.abiquo.ovfmanager.ovf.exceptions.XMLException;
 
 /**
  * Use JAXB to bind standard OVF-envelope and OVFIndex objects into/from XML documents.<br/>
+ * The marshallers and unmarshallers are not thread-safe, so they are pooled and each call uses its
+ * own one. {@link #readEnvelopeSummary(InputStream)} reads only the fields used to index the
+ * repository without binding the whole envelope.<br/>
  * 
  * @see Stax2Factory, where Woodstox is used as StAX implementation of the underlying XML parser.
  * @see ANT build file "jaxb" target, where the binding classes are generated.
@@ -83,6 +89,17 @@ public class OVFSerializer
     /** The singleton instance. */
     private static OVFSerializer instance;
 
+    /** The OVF-envelope name space. */
+    private final static String OVF_NAMESPACE = "http://schemas.dmtf.org/ovf/envelope/1";
+
+    /** Maximum number of idle marshallers (and unmarshallers) kept to be reused. */
+    private final static int POOL_SIZE = Integer.parseInt(System.getProperty(
+        "abiquo.ovfmanager.jaxb.pool", "16"));
+
+    private final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<Marshaller>();
+
+    private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+
     /** Used to bind an envelope into a DOM document. **/
     private static DocumentBuilderFactory docBuilderFact = DocumentBuilderFactory.newInstance();
 
@@ -97,7 +114,7 @@ public class OVFSerializer
      * 
      * @return the OVFSerializer instance or null if it can not be created.
      */
-    public static OVFSerializer getInstance()
+    public static synchronized OVFSerializer getInstance()
     {
         if (instance == null)
         {
@@ -164,11 +181,13 @@ public class OVFSerializer
         try
         {
             reader = Stax2Factory.getStreamReaderFactory().createXMLStreamReader(is);
-            unmarshall = contextEnvelope.createUnmarshaller();
-            unmarshall.setSchema(null); // never try to validate an OVF
+            unmarshall = borrowUnmarshaller();
 
             jaxbEnvelope = unmarshall.unmarshal(reader, EnvelopeType.class);
 
+            // only reused if it did not fail
+            releaseUnmarshaller(unmarshall);
+
         }
         catch (JAXBException ea)
         {
@@ -296,16 +315,13 @@ public class OVFSerializer
         try
         {
             writer = Stax2Factory.getStreamWriterFactory().createXMLStreamWriter(os);
-            marshall = contextEnvelope.createMarshaller();
-
-            if (formatOutput)
-            {
-                marshall.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            }
+            marshall = borrowMarshaller();
 
             JAXBElement<EnvelopeType> jaxbElem = factoryEnvelop.createEnvelope(envelope);
             marshall.marshal(jaxbElem, writer);
 
+            releaseMarshaller(marshall);
+
         }
         catch (JAXBException ea)
         {
@@ -346,14 +362,10 @@ public class OVFSerializer
         try
         {
             writer = Stax2Factory.getStreamWriterFactory().createXMLStreamWriter(os);
-            marshall = contextEnvelope.createMarshaller();
-
-            if (formatOutput)
-            {
-                marshall.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            }
+            marshall = borrowMarshaller();
 
             marshall.marshal(toJAXBElement(section), writer);
+            releaseMarshaller(marshall);
 
             writer.close();
         }
@@ -386,4 +398,187 @@ public class OVFSerializer
         writeXML(envelope, os);
     }
 
+    /**
+     * Read the fields of the OVF-envelope used to index the repository (file references, disks
+     * and the first product section) with a single pass of the StAX reader, without binding the
+     * whole envelope.
+     * 
+     * @param is, the input stream source where read XML documents.
+     * @return the summary of the envelope read from source.
+     * @throws XMLException, any XML problem.
+     */
+    public EnvelopeSummary readEnvelopeSummary(final InputStream is) throws XMLException
+    {
+        XMLStreamReader reader = null;
+        EnvelopeSummary summary = new EnvelopeSummary();
+
+        try
+        {
+            reader = Stax2Factory.getStreamReaderFactory().createXMLStreamReader(is);
+
+            boolean inProductSection = false;
+            boolean productSectionRead = false;
+
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.END_ELEMENT && inProductSection
+                    && "ProductSection".equals(reader.getLocalName()))
+                {
+                    inProductSection = false;
+                    productSectionRead = true;
+                }
+
+                if (event != XMLStreamConstants.START_ELEMENT
+                    || !OVF_NAMESPACE.equals(reader.getNamespaceURI()))
+                {
+                    continue;
+                }
+
+                String element = reader.getLocalName();
+
+                if ("File".equals(element))
+                {
+                    summary.getFiles().add(
+                        new EnvelopeSummary.FileReference(getAttribute(reader, "id"),
+                            getAttribute(reader, "href"),
+                            toLong(getAttribute(reader, "size"))));
+                }
+                else if ("Disk".equals(element))
+                {
+                    summary.getDisks().add(
+                        new EnvelopeSummary.Disk(getAttribute(reader, "diskId"),
+                            getAttribute(reader, "fileRef"),
+                            getAttribute(reader, "capacity"),
+                            getAttribute(reader, "capacityAllocationUnits"),
+                            getAttribute(reader, "format"),
+                            toLong(getAttribute(reader, "populatedSize"))));
+                }
+                else if ("ProductSection".equals(element))
+                {
+                    inProductSection = !productSectionRead;
+                }
+                else if (inProductSection)
+                {
+                    readProductSectionElement(reader, element, summary);
+                }
+            }
+        }
+        catch (XMLStreamException ex)
+        {
+            throw new XMLException(ex);
+        }
+        finally
+        {
+            try
+            {
+                if (reader != null)
+                {
+                    reader.close();
+                }
+            }
+            catch (XMLStreamException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        return summary;
+    }
+
+    private void readProductSectionElement(final XMLStreamReader reader, final String element,
+        final EnvelopeSummary summary) throws XMLStreamException
+    {
+        if ("Info".equals(element) && summary.getInfo() == null)
+        {
+            summary.setInfo(reader.getElementText());
+        }
+        else if ("Product".equals(element))
+        {
+            summary.setProduct(reader.getElementText());
+        }
+        else if ("Vendor".equals(element))
+        {
+            summary.setVendor(reader.getElementText());
+        }
+        else if ("Version".equals(element))
+        {
+            summary.setVersion(reader.getElementText());
+        }
+        else if ("Icon".equals(element) && summary.getIconFileRef() == null)
+        {
+            summary.setIconFileRef(getAttribute(reader, "fileRef"));
+        }
+    }
+
+    /** OVF attributes are qualified, but also accept the unqualified ones. */
+    private static String getAttribute(final XMLStreamReader reader, final String name)
+    {
+        String value = reader.getAttributeValue(OVF_NAMESPACE, name);
+        return value != null ? value : reader.getAttributeValue(null, name);
+    }
+
+    private static Long toLong(final String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return Long.valueOf(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private Marshaller borrowMarshaller() throws JAXBException
+    {
+        Marshaller marshall = marshallers.poll();
+
+        if (marshall == null)
+        {
+            marshall = contextEnvelope.createMarshaller();
+
+            if (formatOutput)
+            {
+                marshall.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            }
+        }
+
+        return marshall;
+    }
+
+    private void releaseMarshaller(final Marshaller marshall)
+    {
+        if (marshallers.size() < POOL_SIZE)
+        {
+            marshallers.offer(marshall);
+        }
+    }
+
+    private Unmarshaller borrowUnmarshaller() throws JAXBException
+    {
+        Unmarshaller unmarshall = unmarshallers.poll();
+
+        if (unmarshall == null)
+        {
+            unmarshall = contextEnvelope.createUnmarshaller();
+            unmarshall.setSchema(null); // never try to validate an OVF
+        }
+
+        return unmarshall;
+    }
+
+    private void releaseUnmarshaller(final Unmarshaller unmarshall)
+    {
+        if (unmarshallers.size() < POOL_SIZE)
+        {
+            unmarshallers.offer(unmarshall);
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.ovfmanager.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.abiquo.ovfmanager.ovf.xml.OVFSerializer;
+
+/**
+ * Compares the time to read an envelope binding it with JAXB and reading only its summary with
+ * StAX. Not a unit test, run it with the test classpath:
+ * 
+ * <pre>
+ * java com.abiquo.ovfmanager.test.OVFSerializerBenchmark [envelope] [iterations] [threads]
+ * </pre>
+ * 
+ * The envelope is read into memory first so the file system is not measured.
+ */
+public class OVFSerializerBenchmark
+{
+    public static void main(final String[] args) throws Exception
+    {
+        final String envelopePath = args.length > 0 ? args[0] : "src/test/resources/myservice.ovf";
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        final byte[] envelope = read(envelopePath);
+
+        System.out.println(String.format("Envelope %s (%d bytes), %d iterations, %d threads",
+            envelopePath, envelope.length, iterations, threads));
+
+        for (int round = 0; round < 2; round++)
+        {
+            // the first round is the warm up
+            final String label = round == 0 ? "warm up" : "measure";
+            report(label, "JAXB", run(new Read(envelope, false), iterations, threads), iterations);
+            report(label, "StAX", run(new Read(envelope, true), iterations, threads), iterations);
+        }
+    }
+
+    private static long run(final Read read, final int iterations, final int threads)
+        throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(threads);
+        for (int i = 0; i < threads; i++)
+        {
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    for (int j = 0; j < iterations / threads; j++)
+                    {
+                        read.execute();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        final long start = System.nanoTime();
+        try
+        {
+            for (Future<Void> result : executor.invokeAll(tasks))
+            {
+                result.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void report(final String label, final String path, final long nanos,
+        final int iterations)
+    {
+        System.out.println(String.format("%s %s: %.1f us/op, %.0f ops/s", label, path, nanos
+            / 1000.0 / iterations, iterations * 1e9 / nanos));
+    }
+
+    private static byte[] read(final String path) throws IOException
+    {
+        final InputStream is = new FileInputStream(path);
+        try
+        {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                os.write(buffer, 0, read);
+            }
+            return os.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static class Read
+    {
+        private final byte[] envelope;
+
+        private final boolean summary;
+
+        Read(final byte[] envelope, final boolean summary)
+        {
+            this.envelope = envelope;
+            this.summary = summary;
+        }
+
+        void execute() throws Exception
+        {
+            if (summary)
+            {
+                OVFSerializer.getInstance().readEnvelopeSummary(
+                    new ByteArrayInputStream(envelope));
+            }
+            else
+            {
+                OVFSerializer.getInstance().readXMLEnvelope(new ByteArrayInputStream(envelope));
+            }
+        }
+    }
+}
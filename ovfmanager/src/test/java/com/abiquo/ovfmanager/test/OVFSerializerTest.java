@@ -21,6 +21,7 @@
 
 package com.abiquo.ovfmanager.test;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
 
 import java.io.File;
@@ -36,6 +37,8 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.abiquo.ovfmanager.ovf.OVFReferenceUtils;
+import com.abiquo.ovfmanager.ovf.xml.EnvelopeSummary;
 import com.abiquo.ovfmanager.ovf.xml.OVFSerializer;
 
 public class OVFSerializerTest
@@ -100,4 +103,28 @@ public class OVFSerializerTest
         }
     }
 
+    @Test
+    public void testReadEnvelopeSummary() throws Exception
+    {
+        testReadXMLEnvelope();
+
+        EnvelopeSummary summary =
+            OVFSerializer.getInstance().readEnvelopeSummary(
+                new FileInputStream(new File(testOVFPath)));
+
+        assertEquals(summary.getFileLocations(),
+            OVFReferenceUtils.getAllReferencedFileLocations(envelope));
+        assertEquals(summary.getFile("base").getSize(), Long.valueOf(180114671));
+
+        assertEquals(summary.getDisks().size(), 3);
+        assertEquals(summary.getDisks().get(0).getDiskId(), "base");
+        assertEquals(summary.getDisks().get(0).getFileRef(), "base");
+        assertEquals(summary.getDisks().get(0).getCapacity(), "4294967296");
+        assertEquals(summary.getDisks().get(0).getPopulatedSize(), Long.valueOf(1924967692));
+
+        assertEquals(summary.getProduct(), "Petstore Web Portal");
+        assertEquals(summary.getVendor(), "Some Random Organization");
+        assertEquals(summary.getVersion(), "4.5");
+        assertEquals(summary.getIconFileRef(), "icon");
+    }
 }
@@ -0,0 +1,843 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.abiserver.eventing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.abiserver.persistence.dao.metering.MeterTokens;
+import com.abiquo.abiserver.persistence.hibernate.HibernateDAOFactory;
+
+/**
+ * Asynchronous writer of the metering table.
+ * <p>
+ * The rows are queued and inserted by a background thread with JDBC batches of at most
+ * ''abiquo.metering.batch'' rows (default 200), flushed at least every
+ * ''abiquo.metering.flushInterval'' ms (default 1000). When the queue
+ * (''abiquo.metering.buffer'', default 1000) is full the callers wait up to
+ * ''abiquo.metering.offerTimeout'' ms (default 5000), slowing down the tracer consumer. The
+ * tokens of the name columns of each row are inserted in the metering_token table with the same
+ * batch (see {@link MeterTokens}).
+ * <p>
+ * The traces are acknowledged once queued, so the queue size bounds the rows lost if the server
+ * crashes; on a clean stop the queued rows are spilled.
+ * <p>
+ * If the database can not be reached, or the queue is still full after waiting, the rows are
+ * appended to the ''abiquo.metering.spillFile'' file (default abiquo-metering.spill in the
+ * ''abiquo.metering.dataDir'' folder, default /opt/abiquo/data), and they are inserted again when
+ * the writer starts and when the database is back. The rows already in the table are not inserted
+ * again, so a replay interrupted after a commit can be repeated. While the database is down the
+ * inserts are retried every ''abiquo.metering.retryDelay'' ms (default 30000).
+ * <p>
+ * Only the connection and transaction errors are retried. If a batch fails with any other error
+ * its rows are inserted one by one, and the rows that still fail are appended to the
+ * ''.rejected'' file next to the spill file.
+ */
+public class MeteringWriter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeteringWriter.class);
+
+    private final static int BUFFER = Integer.parseInt(System.getProperty(
+        "abiquo.metering.buffer", "1000"));
+
+    private final static int BATCH = Integer.parseInt(System.getProperty("abiquo.metering.batch",
+        "200"));
+
+    private final static long FLUSH_INTERVAL = Long.parseLong(System.getProperty(
+        "abiquo.metering.flushInterval", "1000"));
+
+    private final static long OFFER_TIMEOUT = Long.parseLong(System.getProperty(
+        "abiquo.metering.offerTimeout", "5000"));
+
+    private final static long RETRY_DELAY = Long.parseLong(System.getProperty(
+        "abiquo.metering.retryDelay", "30000"));
+
+    private final static String DATA_DIR = System.getProperty("abiquo.metering.dataDir",
+        "/opt/abiquo/data");
+
+    private final static String SPILL_FILE = System.getProperty("abiquo.metering.spillFile",
+        DATA_DIR + File.separator + "abiquo-metering.spill");
+
+    /** The parameters of each row, in the order of the columns of the insert. */
+    public static final String[] PARAMETERS =
+        {"datacenterId", "datacenter", "rackId", "rack", "machineId", "machine", "storageId",
+        "storage", "storagePoolId", "storagePool", "volumeId", "volume", "networkId", "network",
+        "subnetId", "subnet", "enterpriseId", "enterprise", "userId", "user",
+        "virtualDatacenterId", "virtualDatacenter", "virtualAppId", "virtualApp",
+        "virtualMachineId", "virtualMachine", "severity", "performedBy", "actionPerformed",
+        "component", "stacktrace", "timestamp"};
+
+    private static final String INSERT =
+        "INSERT INTO metering(idDatacenter, datacenter, idRack, rack, idPhysicalMachine,"
+            + " physicalMachine, idStorageSystem, storageSystem, idStoragePool, storagePool,"
+            + " idVolume, volume, idNetwork, network, idSubnet, subnet, idEnterprise, enterprise,"
+            + " idUser, user, idVirtualDataCenter, virtualDataCenter, idVirtualApp, virtualApp,"
+            + " idVirtualMachine, virtualmachine, severity, performedby, actionperformed,"
+            + " component, stacktrace, timestamp)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?,"
+            + " ?, ?, ?, ?, ?, ?, ?)";
+
+    /** The name columns indexed in the metering_token table, as parameter and filter key. */
+    private static final String[][] TOKENIZED =
+        { {"datacenter", "datacenter"}, {"rack", "rack"}, {"machine", "physicalmachine"},
+        {"storage", "storagesystem"}, {"storagePool", "storagepool"}, {"volume", "volume"},
+        {"network", "network"}, {"subnet", "subnet"}, {"enterprise", "enterprise"},
+        {"user", "user"}, {"virtualDatacenter", "virtualdatacenter"},
+        {"virtualApp", "virtualapp"}, {"virtualMachine", "virtualmachine"},
+        {"performedBy", "performedby"}, {"component", "component"}};
+
+    private static final String INSERT_TOKEN =
+        "INSERT INTO metering_token(token, idMeter, timestamp) VALUES (?, ?, ?)";
+
+    private static final String SELECT =
+        "SELECT idDatacenter, datacenter, idRack, rack, idPhysicalMachine, physicalMachine,"
+            + " idStorageSystem, storageSystem, idStoragePool, storagePool, idVolume, volume,"
+            + " idNetwork, network, idSubnet, subnet, idEnterprise, enterprise, idUser, user,"
+            + " idVirtualDataCenter, virtualDataCenter, idVirtualApp, virtualApp,"
+            + " idVirtualMachine, virtualmachine, severity, performedby, actionperformed,"
+            + " component, stacktrace, timestamp FROM metering WHERE timestamp BETWEEN ? AND ?";
+
+    private static final int TIMESTAMP = PARAMETERS.length - 1;
+
+    /** The position in the rows of each tokenized parameter. */
+    private static final Map<String, Integer> TOKEN_COLUMNS = new HashMap<String, Integer>();
+
+    static
+    {
+        List<String> parameters = Arrays.asList(PARAMETERS);
+        for (String[] column : TOKENIZED)
+        {
+            TOKEN_COLUMNS.put(column[0], parameters.indexOf(column[0]));
+        }
+    }
+
+    private static final String NULL = "\\N";
+
+    private final BlockingQueue<String[]> queue;
+
+    private final int batchSize;
+
+    private final long flushInterval;
+
+    private final File spillFile;
+
+    private final File replayFile;
+
+    private final File rejectedFile;
+
+    private final Object spillLock = new Object();
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    /** The time when the database will be tried again after a failure. */
+    private long retryAt;
+
+    public MeteringWriter()
+    {
+        this(BUFFER, BATCH, FLUSH_INTERVAL, new File(SPILL_FILE));
+    }
+
+    protected MeteringWriter(final int bufferSize, final int batchSize, final long flushInterval,
+        final File spillFile)
+    {
+        this.queue = new ArrayBlockingQueue<String[]>(bufferSize);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.spillFile = spillFile;
+        this.replayFile = new File(spillFile.getPath() + ".replay");
+        this.rejectedFile = new File(spillFile.getPath() + ".rejected");
+    }
+
+    /**
+     * Starts the writer thread. The rows spilled by a previous execution are inserted first.
+     */
+    public synchronized void start()
+    {
+        if (running)
+        {
+            return;
+        }
+
+        running = true;
+        writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                replay();
+                write();
+            }
+        }, "metering-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer thread once the queued rows have been written.
+     */
+    public synchronized void stop()
+    {
+        running = false;
+        if (writer != null)
+        {
+            writer.interrupt();
+            try
+            {
+                writer.join(FLUSH_INTERVAL + OFFER_TIMEOUT);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+
+        // Anything not written yet is kept for the next start
+        List<String[]> pending = new ArrayList<String[]>();
+        queue.drainTo(pending);
+        spill(pending);
+    }
+
+    /**
+     * Queues a row of the metering table.
+     * 
+     * @param values The values of the row, by the names in {@link #PARAMETERS}.
+     */
+    public void write(final Map<String, Object> values)
+    {
+        String[] row = new String[PARAMETERS.length];
+        for (int i = 0; i < PARAMETERS.length; i++)
+        {
+            Object value = values.get(PARAMETERS[i]);
+            row[i] = value == null ? null : String.valueOf(value);
+        }
+        if (row[TIMESTAMP] == null)
+        {
+            row[TIMESTAMP] = String.valueOf(System.currentTimeMillis());
+        }
+
+        boolean queued = false;
+        try
+        {
+            queued = queue.offer(row, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!queued)
+        {
+            LOGGER.warn("The metering queue is full. Spilling the trace to {}", spillFile);
+            spill(Collections.singletonList(row));
+        }
+    }
+
+    public int getQueued()
+    {
+        return queue.size();
+    }
+
+    private void write()
+    {
+        List<String[]> batch = new ArrayList<String[]>(batchSize);
+        while (running || !queue.isEmpty())
+        {
+            try
+            {
+                String[] first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    replayIfPending();
+                    continue;
+                }
+
+                // Wait for a full batch, at most the flush interval
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < batchSize)
+                {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || wait <= 0 || !running)
+                    {
+                        break;
+                    }
+
+                    String[] next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null)
+                    {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                // Stopping; keep writing until the queue is empty
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+
+            if (!batch.isEmpty())
+            {
+                if (flush(batch, false))
+                {
+                    replayIfPending();
+                }
+                else
+                {
+                    spill(batch);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Inserts the batch if the database is not known to be down. The rows that fail with a
+     * permanent error are rejected.
+     * 
+     * @param replayed, if the rows have been spilled, only the rows not in the table are inserted.
+     * @return If the batch has been inserted or rejected, false to spill it.
+     */
+    private boolean flush(final List<String[]> batch, final boolean replayed)
+    {
+        if (System.currentTimeMillis() < retryAt)
+        {
+            return false;
+        }
+
+        List<String[]> rows = batch;
+        try
+        {
+            if (replayed)
+            {
+                rows = notInserted(batch);
+            }
+            if (!rows.isEmpty())
+            {
+                insert(rows);
+            }
+            retryAt = 0;
+            return true;
+        }
+        catch (Exception ex)
+        {
+            if (isTransient(ex))
+            {
+                LOGGER.warn("Could not write the metering batch, retrying in " + RETRY_DELAY
+                    + " ms", ex);
+                retryAt = System.currentTimeMillis() + RETRY_DELAY;
+                return false;
+            }
+
+            LOGGER.warn("Could not write the metering batch, writing its rows one by one", ex);
+        }
+
+        // Find the rows causing the permanent failure
+        for (int i = 0; i < rows.size(); i++)
+        {
+            try
+            {
+                insert(Collections.singletonList(rows.get(i)));
+            }
+            catch (Exception ex)
+            {
+                if (isTransient(ex))
+                {
+                    LOGGER.warn("Could not write the metering batch, retrying in " + RETRY_DELAY
+                        + " ms", ex);
+                    retryAt = System.currentTimeMillis() + RETRY_DELAY;
+                    spill(rows.subList(i, rows.size()));
+                    return true;
+                }
+
+                LOGGER.error("Rejected metering row, appending it to " + rejectedFile, ex);
+                append(rejectedFile, Collections.singletonList(rows.get(i)));
+            }
+        }
+
+        retryAt = 0;
+        return true;
+    }
+
+    /**
+     * Only the errors of the connection (SQLState class 08) or the transaction (class 40) can
+     * succeed if retried.
+     */
+    protected static boolean isTransient(final Throwable error)
+    {
+        for (Throwable cause = error; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException)
+            {
+                return true;
+            }
+            if (cause instanceof SQLException)
+            {
+                String state = ((SQLException) cause).getSQLState();
+                return state != null && (state.startsWith("08") || state.startsWith("40"));
+            }
+            if (cause instanceof NumberFormatException)
+            {
+                return false;
+            }
+        }
+
+        // Not an error of the row (such as no session or connection available)
+        return true;
+    }
+
+    /**
+     * Inserts the rows with a single JDBC batch.
+     */
+    protected void insert(final List<String[]> rows) throws SQLException
+    {
+        try
+        {
+            HibernateDAOFactory.instance().beginConnection();
+            HibernateDAOFactory.getSessionFactory().getCurrentSession().doWork(new Work()
+            {
+                @Override
+                public void execute(final Connection connection) throws SQLException
+                {
+                    PreparedStatement statement =
+                        connection.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS);
+                    try
+                    {
+                        for (String[] row : rows)
+                        {
+                            for (int i = 0; i < TIMESTAMP; i++)
+                            {
+                                statement.setString(i + 1, row[i]);
+                            }
+                            statement.setTimestamp(TIMESTAMP + 1,
+                                new Timestamp(Long.parseLong(row[TIMESTAMP])));
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+
+                        insertTokens(connection, statement.getGeneratedKeys(), rows);
+                    }
+                    finally
+                    {
+                        statement.close();
+                    }
+                }
+            });
+            HibernateDAOFactory.instance().endConnection();
+        }
+        catch (RuntimeException ex)
+        {
+            Transaction tx =
+                HibernateDAOFactory.getSessionFactory().getCurrentSession().getTransaction();
+            if (tx != null && tx.isActive())
+            {
+                tx.rollback();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Inserts the tokens of the name columns of the inserted rows, see {@link MeterTokens}.
+     * 
+     * @param keys The generated idMeter of each row, in the same order.
+     */
+    private static void insertTokens(final Connection connection, final ResultSet keys,
+        final List<String[]> rows) throws SQLException
+    {
+        PreparedStatement statement = connection.prepareStatement(INSERT_TOKEN);
+        try
+        {
+            for (int r = 0; r < rows.size() && keys.next(); r++)
+            {
+                String[] row = rows.get(r);
+                long idMeter = keys.getLong(1);
+                Timestamp timestamp = new Timestamp(Long.parseLong(row[TIMESTAMP]));
+
+                for (String[] column : TOKENIZED)
+                {
+                    String value = row[TOKEN_COLUMNS.get(column[0])];
+                    for (String token : MeterTokens.tokens(column[1], value))
+                    {
+                        statement.setString(1, token);
+                        statement.setLong(2, idMeter);
+                        statement.setTimestamp(3, timestamp);
+                        statement.addBatch();
+                    }
+                }
+            }
+            statement.executeBatch();
+        }
+        finally
+        {
+            keys.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * Filters the rows already in the metering table, comparing all the columns of the rows with
+     * the same timestamp (seconds).
+     */
+    protected List<String[]> notInserted(final List<String[]> rows) throws SQLException
+    {
+        if (rows.isEmpty())
+        {
+            return rows;
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (String[] row : rows)
+        {
+            long timestamp = Long.parseLong(row[TIMESTAMP]);
+            min = Math.min(min, timestamp);
+            max = Math.max(max, timestamp);
+        }
+        final long from = min / 1000 * 1000;
+        final long to = max / 1000 * 1000 + 999;
+
+        final Map<String, Integer> inserted = new HashMap<String, Integer>();
+        try
+        {
+            HibernateDAOFactory.instance().beginConnection();
+            HibernateDAOFactory.getSessionFactory().getCurrentSession().doWork(new Work()
+            {
+                @Override
+                public void execute(final Connection connection) throws SQLException
+                {
+                    PreparedStatement statement = connection.prepareStatement(SELECT);
+                    try
+                    {
+                        statement.setTimestamp(1, new Timestamp(from));
+                        statement.setTimestamp(2, new Timestamp(to));
+                        ResultSet result = statement.executeQuery();
+                        while (result.next())
+                        {
+                            String[] row = new String[PARAMETERS.length];
+                            for (int i = 0; i < TIMESTAMP; i++)
+                            {
+                                row[i] = result.getString(i + 1);
+                            }
+                            row[TIMESTAMP] =
+                                String.valueOf(result.getTimestamp(TIMESTAMP + 1).getTime());
+
+                            String key = key(row);
+                            Integer count = inserted.get(key);
+                            inserted.put(key, count == null ? 1 : count + 1);
+                        }
+                        result.close();
+                    }
+                    finally
+                    {
+                        statement.close();
+                    }
+                }
+            });
+            HibernateDAOFactory.instance().endConnection();
+        }
+        catch (RuntimeException ex)
+        {
+            Transaction tx =
+                HibernateDAOFactory.getSessionFactory().getCurrentSession().getTransaction();
+            if (tx != null && tx.isActive())
+            {
+                tx.rollback();
+            }
+            throw ex;
+        }
+
+        List<String[]> missing = new ArrayList<String[]>(rows.size());
+        for (String[] row : rows)
+        {
+            String key = key(row);
+            Integer count = inserted.get(key);
+            if (count == null || count == 0)
+            {
+                missing.add(row);
+            }
+            else
+            {
+                inserted.put(key, count - 1);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * The encoded row with the timestamp in seconds, as stored in the table.
+     */
+    protected static String key(final String[] row)
+    {
+        String[] key = row.clone();
+        key[TIMESTAMP] = String.valueOf(Long.parseLong(row[TIMESTAMP]) / 1000);
+        return encode(key);
+    }
+
+    private void replayIfPending()
+    {
+        if (retryAt == 0 && (spillFile.exists() || replayFile.exists()))
+        {
+            replay();
+        }
+    }
+
+    /**
+     * Inserts the spilled rows. The rows that can not be inserted are spilled again.
+     */
+    private void replay()
+    {
+        synchronized (spillLock)
+        {
+            if (!replayFile.exists())
+            {
+                if (!spillFile.exists() || !spillFile.renameTo(replayFile))
+                {
+                    return;
+                }
+            }
+        }
+
+        LOGGER.info("Writing the spilled metering rows from {}", replayFile);
+        BufferedReader reader = null;
+        try
+        {
+            reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(replayFile), "UTF-8"));
+
+            List<String[]> batch = new ArrayList<String[]>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                batch.add(decode(line));
+                if (batch.size() >= batchSize)
+                {
+                    if (!flush(batch, true))
+                    {
+                        spill(batch);
+                    }
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty() && !flush(batch, true))
+            {
+                spill(batch);
+            }
+        }
+        catch (IOException ex)
+        {
+            LOGGER.error("Could not read the spilled metering rows from " + replayFile, ex);
+            return;
+        }
+        finally
+        {
+            close(reader);
+        }
+
+        replayFile.delete();
+    }
+
+    /**
+     * Appends the rows to the spill file.
+     */
+    protected void spill(final List<String[]> rows)
+    {
+        append(spillFile, rows);
+    }
+
+    private void append(final File file, final List<String[]> rows)
+    {
+        if (rows.isEmpty())
+        {
+            return;
+        }
+
+        synchronized (spillLock)
+        {
+            Writer out = null;
+            try
+            {
+                if (file.getParentFile() != null)
+                {
+                    file.getParentFile().mkdirs();
+                }
+
+                out =
+                    new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                        "UTF-8"));
+                for (String[] row : rows)
+                {
+                    out.write(encode(row));
+                    out.write('\n');
+                }
+            }
+            catch (IOException ex)
+            {
+                LOGGER.error("Could not write " + rows.size() + " metering rows to " + file, ex);
+            }
+            finally
+            {
+                close(out);
+            }
+        }
+    }
+
+    /**
+     * Encodes a row as a line of tab separated values.
+     */
+    protected static String encode(final String[] row)
+    {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < row.length; i++)
+        {
+            if (i > 0)
+            {
+                line.append('\t');
+            }
+            if (row[i] == null)
+            {
+                line.append(NULL);
+                continue;
+            }
+
+            for (int c = 0; c < row[i].length(); c++)
+            {
+                char ch = row[i].charAt(c);
+                switch (ch)
+                {
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    default:
+                        line.append(ch);
+                }
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Decodes a line written by {@link #encode(String[])}.
+     */
+    protected static String[] decode(final String line)
+    {
+        String[] row = new String[PARAMETERS.length];
+        StringBuilder value = new StringBuilder();
+        boolean isNull = false;
+        int column = 0;
+        for (int c = 0; c <= line.length() && column < row.length; c++)
+        {
+            if (c == line.length() || line.charAt(c) == '\t')
+            {
+                row[column++] = isNull ? null : value.toString();
+                value.setLength(0);
+                isNull = false;
+                continue;
+            }
+
+            char ch = line.charAt(c);
+            if (ch == '\\' && c + 1 < line.length())
+            {
+                char escaped = line.charAt(++c);
+                switch (escaped)
+                {
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 'N':
+                        isNull = true;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+            else
+            {
+                value.append(ch);
+            }
+        }
+        return row;
+    }
+
+    private static void close(final Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException ex)
+            {
+                LOGGER.warn("Could not close the metering spill file", ex);
+            }
+        }
+    }
+}
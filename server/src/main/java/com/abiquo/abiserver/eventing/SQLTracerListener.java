@@ -24,9 +24,6 @@ package com.abiquo.abiserver.eventing;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.hibernate.Query;
-
-import com.abiquo.abiserver.persistence.hibernate.HibernateDAOFactory;
 import com.abiquo.commons.amqp.impl.tracer.TracerCallback;
 import com.abiquo.commons.amqp.impl.tracer.domain.Trace;
 
@@ -46,7 +43,7 @@ public class SQLTracerListener implements TracerCallback
     static
     {
         parameterMappings = new HashMap<String, String>();
-        parameterMappings.put("datacenter", "admin/datacenters/");
+        parameterMappings.put("datacenter", "admin/datacenters");
         parameterMappings.put("rack", "racks");
         parameterMappings.put("machine", "machines");
         parameterMappings.put("storage", "");
@@ -64,51 +61,52 @@ public class SQLTracerListener implements TracerCallback
         // parameterMappings.put("user", "users");
     }
 
+    /** Writes the metering rows in batches. */
+    private final MeteringWriter writer;
+
+    public SQLTracerListener()
+    {
+        this(new MeteringWriter());
+    }
+
+    protected SQLTracerListener(final MeteringWriter writer)
+    {
+        this.writer = writer;
+        this.writer.start();
+    }
+
     @Override
     public void onTrace(final Trace trace)
     {
-        try
-        {
-            String insert =
-                "INSERT DELAYED INTO metering(idDatacenter, datacenter, idRack, rack, idPhysicalMachine, physicalMachine,"
-                    + " idStorageSystem, storageSystem, idStoragePool, storagePool, idVolume, volume, idNetwork, network,"
-                    + " idSubnet, subnet, idEnterprise, enterprise, idUser, user, idVirtualDataCenter, virtualDataCenter,"
-                    + " idVirtualApp, virtualApp, idVirtualMachine, virtualmachine, severity, performedby, actionperformed,"
-                    + " component, stacktrace)"
-                    + " VALUES (:datacenterId, :datacenter, :rackId, :rack, :machineId, :machine, :storageId, :storage,"
-                    + " :storagePoolId, :storagePool, :volumeId, :volume, :networkId, :network, :subnetId, :subnet,"
-                    + " :enterpriseId, :enterprise, :userId, :user, :virtualDatacenterId, :virtualDatacenter, :virtualAppId,"
-                    + " :virtualApp, :virtualMachineId, :virtualMachine, :severity, :performedBy, :actionPerformed,"
-                    + " :component, :stacktrace)";
-
-            HibernateDAOFactory.instance().beginConnection();
-
-            Query query =
-                HibernateDAOFactory.getSessionFactory().getCurrentSession().createSQLQuery(insert)
-                    .setParameter("severity", trace.getSeverity())
-                    .setParameter("performedBy", trace.getUsername())
-                    .setParameter("actionPerformed", trace.getEvent())
-                    .setParameter("component", trace.getComponent())
-                    .setParameter("stacktrace", trace.getMessage());
-
-            // TODO: Remove these parameters. Currently the hierarchy shows the enterprise and user
-            // who performs the action. Not the enterprise/user resource where the action happens!
-            query.setParameter("enterpriseId", trace.getEnterpriseId());
-            query.setParameter("enterprise", trace.getEnterpriseName());
-            query.setParameter("userId", trace.getUserId());
-            query.setParameter("user", trace.getUsername());
-
-            addTraceParameters(trace, query);
-
-            query.executeUpdate();
-        }
-        finally
-        {
-            HibernateDAOFactory.instance().endConnection();
-        }
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("severity", trace.getSeverity());
+        row.put("performedBy", trace.getUsername());
+        row.put("actionPerformed", trace.getEvent());
+        row.put("component", trace.getComponent());
+        row.put("stacktrace", trace.getMessage());
+        row.put("timestamp", System.currentTimeMillis());
+
+        // TODO: Remove these parameters. Currently the hierarchy shows the enterprise and user
+        // who performs the action. Not the enterprise/user resource where the action happens!
+        row.put("enterpriseId", trace.getEnterpriseId());
+        row.put("enterprise", trace.getEnterpriseName());
+        row.put("userId", trace.getUserId());
+        row.put("user", trace.getUsername());
+
+        addTraceParameters(trace, row);
+
+        writer.write(row);
+    }
+
+    /**
+     * Stops the metering writer, keeping the pending rows for the next start.
+     */
+    public void destroy()
+    {
+        writer.stop();
     }
 
-    private void addTraceParameters(final Trace trace, final Query query)
+    private void addTraceParameters(final Trace trace, final Map<String, Object> row)
     {
         Map<String, String> data = trace.getHierarchyData();
 
@@ -135,8 +133,8 @@ public class SQLTracerListener implements TracerCallback
                 }
             }
 
-            query.setParameter(column + "Id", parameterId);
-            query.setParameter(column, parameterName);
+            row.put(column + "Id", parameterId);
+            row.put(column, parameterName);
         }
     }
 }
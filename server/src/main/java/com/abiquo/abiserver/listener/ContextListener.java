@@ -56,6 +56,9 @@ public class ContextListener implements ServletContextListener
     /** The RabbitMQ consumer for Tracer **/
     protected TracerConsumer tracerConsumer;
 
+    /** The listener that writes the traces to the metering table **/
+    protected SQLTracerListener sqlTracerListener;
+
     @Override
     public void contextInitialized(final ServletContextEvent sce)
     {
@@ -85,7 +88,8 @@ public class ContextListener implements ServletContextListener
     protected void initializeTracerListener() throws IOException
     {
         tracerConsumer = new TracerConsumer();
-        tracerConsumer.addCallback(new SQLTracerListener());
+        sqlTracerListener = new SQLTracerListener();
+        tracerConsumer.addCallback(sqlTracerListener);
         tracerConsumer.start();
     }
 
@@ -97,6 +101,7 @@ public class ContextListener implements ServletContextListener
     private void shutdownTracerListener() throws IOException
     {
         tracerConsumer.stop();
+        sqlTracerListener.destroy();
     }
 
     /**
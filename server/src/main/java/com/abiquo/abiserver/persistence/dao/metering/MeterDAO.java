@@ -64,6 +64,8 @@ public interface MeterDAO extends DAO<MeterHB, Long>
      *            "component" <br>
      *            "datefrom" <br>
      *            "dateto" <br>
+     *            "lasttimestamp" and "lastid", the timestamp and id of the last entry of the
+     *            previous page <br>
      * @param performedbyList the list of users we can watch its movements
      * @param numrows set the max rows to return
      * @return List of matching entries if "performedby" is a key. Null otherwise.
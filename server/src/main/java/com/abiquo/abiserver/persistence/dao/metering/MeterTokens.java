@@ -0,0 +1,103 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.abiserver.persistence.dao.metering;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Tokens of the name columns of the metering entries, stored in the ''metering_token'' table
+ * (token, idMeter, timestamp) to look up the name filters of the event log with an index.
+ * <p>
+ * A token is the filter key and the lower case value from the beginning of one of its words, so
+ * ''web-server01'' in the virtual machine column gives ''virtualmachine:web-server01'',
+ * ''virtualmachine:server01'' and ''virtualmachine:01''. A filter matches the entries with a token
+ * starting with {@link #prefix(String, String)}, that is, with a word of the column starting with
+ * the filter. Tokens and filters longer than {@link #LENGTH} are truncated.
+ */
+public final class MeterTokens
+{
+    /** The length of the token column. */
+    public static final int LENGTH = 128;
+
+    private MeterTokens()
+    {
+    }
+
+    /**
+     * @param key The filter key of the column.
+     * @param value The value of the column, can be null.
+     * @return The tokens of the value, empty if null.
+     */
+    public static Set<String> tokens(final String key, final String value)
+    {
+        Set<String> tokens = new LinkedHashSet<String>();
+        if (value == null)
+        {
+            return tokens;
+        }
+
+        String lower = value.toLowerCase();
+        for (int i = 0; i < lower.length(); i++)
+        {
+            if (isWordStart(lower, i))
+            {
+                tokens.add(truncate(key + ':' + lower.substring(i)));
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * @return The beginning of the tokens matched by the filter of the column.
+     */
+    public static String prefix(final String key, final String filter)
+    {
+        return truncate(key + ':' + filter.toLowerCase());
+    }
+
+    /**
+     * A letter or digit after a character that is not, or a change between letters and digits.
+     */
+    private static boolean isWordStart(final String value, final int i)
+    {
+        char c = value.charAt(i);
+        if (!Character.isLetterOrDigit(c))
+        {
+            return false;
+        }
+        if (i == 0)
+        {
+            return true;
+        }
+
+        char previous = value.charAt(i - 1);
+        return !Character.isLetterOrDigit(previous)
+            || Character.isDigit(previous) != Character.isDigit(c);
+    }
+
+    private static String truncate(final String token)
+    {
+        return token.length() > LENGTH ? token.substring(0, LENGTH) : token;
+    }
+}
@@ -25,18 +25,19 @@
 package com.abiquo.abiserver.persistence.dao.metering.hibernate;
 
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 
 import com.abiquo.abiserver.business.hibernate.pojohb.metering.MeterHB;
 import com.abiquo.abiserver.business.hibernate.pojohb.user.UserHB;
 import com.abiquo.abiserver.exception.PersistenceException;
 import com.abiquo.abiserver.persistence.dao.metering.MeterDAO;
+import com.abiquo.abiserver.persistence.dao.metering.MeterTokens;
 import com.abiquo.abiserver.persistence.hibernate.HibernateDAO;
 import com.abiquo.abiserver.persistence.hibernate.HibernateDAOFactory;
 import com.abiquo.abiserver.security.SecurityService;
@@ -52,16 +53,35 @@ public class MeterDAOHibernate extends HibernateDAO<MeterHB, Long> implements Me
 
     private static final String GET_METER_LIST_FILTERED = "GET_METER_LIST_FILTERED";
 
+    /**
+     * The filters matched from the beginning of any word of the column, as filter key and column
+     * name. Each one is joined with the metering_token rows starting with the filter (see
+     * {@link MeterTokens}), so the entries are found through the token index instead of scanning
+     * the date range.
+     */
+    private static final String[][] NAME_FILTERS =
+        { {"datacenter", "datacenter"}, {"rack", "rack"}, {"physicalmachine", "physicalMachine"},
+        {"storagesystem", "storageSystem"}, {"storagepool", "storagePool"},
+        {"volume", "volume"}, {"network", "network"}, {"subnet", "subnet"},
+        {"enterprise", "enterprise"}, {"user", "user"},
+        {"virtualdatacenter", "virtualDataCenter"}, {"virtualapp", "virtualApp"},
+        {"virtualmachine", "virtualmachine"}, {"performedby", "performedby"},
+        {"component", "component"}};
+
+    /**
+     * The filters matched at the beginning of the column, as filter key and column name.
+     */
+    private static final String[][] PREFIX_FILTERS =
+        { {"severity", "severity"}, {"actionperformed", "actionperformed"}};
+
     @SuppressWarnings("unchecked")
     @Override
     public List<MeterHB> findAllByFilter(final HashMap<String, String> filter,
         final List<String> performedbyList, final Integer numrows, final UserHB user)
         throws PersistenceException
     {
-        Integer numberOfParameters = 0;
-        List<MeterHB> listOfMeters = new ArrayList<MeterHB>();
-        StringBuilder stringQuery =
-            new StringBuilder("from com.abiquo.abiserver.business.hibernate.pojohb.metering.MeterHB ");
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        StringBuilder stringQuery = new StringBuilder("select distinct {m.*} from metering m");
 
         // Create Dates
         String fromDateInit = new Timestamp(0).toString();
@@ -88,84 +108,51 @@ public class MeterDAOHibernate extends HibernateDAO<MeterHB, Long> implements Me
             todateFilter = toDateEnd;
         }
 
-        stringQuery.append("where timestamp between '").append(fromdateFilter).append("' and '")
-            .append(todateFilter).append("' and timestamp > '")
-            .append(user.getCreationDate().toString()).append("'");
-
-        // create all the filters from the HashMap information. Due all of them are included in the
-        // query, we need to
-        // insert '%' for all the filters not included in the hashmap
-        if (filter.containsKey("datacenter"))
-        {
-            stringQuery.append(" and datacenter like '%" + filter.get("datacenter") + "%'");
-        }
-        if (filter.containsKey("rack"))
-        {
-            stringQuery.append(" and rack like '%" + filter.get("rack") + "%'");
-        }
-        if (filter.containsKey("physicalmachine"))
-        {
-            stringQuery.append(" and physicalMachine like '%" + filter.get("physicalmachine")
-                + "%'");
-        }
-        if (filter.containsKey("storagesystem"))
-        {
-            stringQuery.append(" and storagesystem like '%" + filter.get("storagesystem") + "%'");
-        }
-        if (filter.containsKey("storagepool"))
-        {
-            stringQuery.append(" and storagepool like '%" + filter.get("storagepool") + "%'");
-        }
-        if (filter.containsKey("volume"))
-        {
-            stringQuery.append(" and volume like '%" + filter.get("volume") + "%'");
-        }
-        if (filter.containsKey("network"))
-        {
-            stringQuery.append(" and network like '%" + filter.get("network") + "%'");
-        }
-        if (filter.containsKey("subnet"))
-        {
-            stringQuery.append(" and subnet like '%" + filter.get("subnet") + "%'");
-        }
-        if (filter.containsKey("enterprise"))
-        {
-            stringQuery.append(" and enterprise like '%"
-                + replaceApostrophe(filter.get("enterprise")) + "%'");
-        }
-        if (filter.containsKey("user"))
-        {
-            stringQuery.append(" and user like '%" + filter.get("user") + "%'");
-        }
-        if (filter.containsKey("virtualdatacenter"))
+        // Only the filters present in the HashMap are included in the query. The name filters
+        // are looked up on the token index, the tokens are truncated so the column is checked too
+        StringBuilder conditions = new StringBuilder();
+        for (String[] name : NAME_FILTERS)
         {
-            stringQuery.append(" and virtualDataCenter like '%" + filter.get("virtualdatacenter")
-                + "%'");
-        }
-        if (filter.containsKey("virtualapp"))
-        {
-            stringQuery.append(" and virtualApp like '%" + filter.get("virtualapp") + "%'");
-        }
-        if (filter.containsKey("virtualmachine"))
-        {
-            stringQuery.append(" and virtualmachine like '%" + filter.get("virtualmachine") + "%'");
-        }
-        if (filter.containsKey("severity"))
-        {
-            stringQuery.append(" and severity like '" + filter.get("severity") + "%'");
-        }
-        if (filter.containsKey("performedby"))
-        {
-            stringQuery.append(" and performedby like '%" + filter.get("performedby") + "%'");
+            if (filter.containsKey(name[0]))
+            {
+                String token = "t_" + name[0];
+                stringQuery.append(" join metering_token ").append(token).append(" on ")
+                    .append(token).append(".idMeter = m.idMeter and ").append(token)
+                    .append(".token like :").append(token).append(" and ").append(token)
+                    .append(".timestamp between :datefrom and :dateto");
+                parameters.put(token, MeterTokens.prefix(name[0], filter.get(name[0])) + "%");
+
+                conditions.append(" and m.").append(name[1]).append(" like :")
+                    .append(name[0]);
+                parameters.put(name[0], "%" + filter.get(name[0]) + "%");
+            }
         }
-        if (filter.containsKey("actionperformed"))
+        for (String[] prefix : PREFIX_FILTERS)
         {
-            stringQuery
-                .append(" and actionperformed like '" + filter.get("actionperformed") + "%'");
+            if (filter.containsKey(prefix[0]))
+            {
+                conditions.append(" and m.").append(prefix[1]).append(" like :")
+                    .append(prefix[0]);
+                parameters.put(prefix[0], filter.get(prefix[0]) + "%");
+            }
         }
-        if (filter.containsKey("component"))
+
+        // Without name filters the range on the timestamp index is scanned backwards and stops
+        // after numrows matches
+        stringQuery.append(" where m.timestamp between :datefrom and :dateto"
+            + " and m.timestamp > :created");
+        parameters.put("datefrom", fromdateFilter);
+        parameters.put("dateto", todateFilter);
+        parameters.put("created", user.getCreationDate().toString());
+        stringQuery.append(conditions);
+
+        // Keyset pagination: continue after the last entry of the previous page
+        if (filter.containsKey("lasttimestamp") && filter.containsKey("lastid"))
         {
-            stringQuery.append(" and component like '%" + filter.get("component") + "%'");
+            stringQuery.append(" and (m.timestamp < :lasttimestamp"
+                + " or (m.timestamp = :lasttimestamp and m.idMeter < :lastid))");
+            parameters.put("lasttimestamp", filter.get("lasttimestamp"));
+            parameters.put("lastid", Long.valueOf(filter.get("lastid")));
         }
 
         // if (role != Role.SYS_ADMIN)
@@ -176,44 +163,32 @@ public class MeterDAOHibernate extends HibernateDAO<MeterHB, Long> implements Me
                 && !SecurityService.hasPrivilege(SecurityService.EVENTLOG_VIEW_ALL, user
                     .getRoleHB().toPojo()))
             {
-                stringQuery.append(" and idUser = " + user.getIdUser());
+                stringQuery.append(" and m.idUser = :idUser");
+                parameters.put("idUser", user.getIdUser());
             }
 
             if (performedbyList != null && !performedbyList.isEmpty())
             {
                 // performedby filter
-                stringQuery.append(" and performedby in (");
-                boolean firstentry = true;
-                for (String currentString : performedbyList)
-                {
-                    if (firstentry == false)
-                    {
-                        stringQuery.append(",");
-                    }
-                    stringQuery.append("'" + currentString + "'");
-                    if (firstentry == true)
-                    {
-                        firstentry = false;
-                    }
-                }
-                stringQuery.append(")");
+                stringQuery.append(" and m.performedby in (:performedbyList)");
             }
         }
-        // delete last ','
-        stringQuery.append(" order by timestamp desc");
+        stringQuery.append(" order by m.timestamp desc, m.idMeter desc");
 
         // Setting the query
         Session session = HibernateDAOFactory.getSessionFactory().getCurrentSession();
-        Query meterQuery = session.createQuery(stringQuery.toString());
+        SQLQuery meterQuery = session.createSQLQuery(stringQuery.toString());
+        meterQuery.addEntity("m", MeterHB.class);
+        for (Map.Entry<String, Object> parameter : parameters.entrySet())
+        {
+            meterQuery.setParameter(parameter.getKey(), parameter.getValue());
+        }
+        if (stringQuery.indexOf(":performedbyList") != -1)
+        {
+            meterQuery.setParameterList("performedbyList", performedbyList);
+        }
         meterQuery.setMaxResults(numrows);
 
-        listOfMeters = meterQuery.list();
-
-        return listOfMeters;
-    }
-
-    private final String replaceApostrophe(final String name)
-    {
-        return name.replaceAll("'", "''");
+        return meterQuery.list();
     }
 }
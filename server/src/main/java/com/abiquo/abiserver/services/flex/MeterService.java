@@ -73,17 +73,40 @@ public class MeterService
      */
     public BasicResult getMeters(UserSession userSession, HashMap<String, String> filters,
         Integer numrows)
+    {
+        return getMeters(userSession, filters, numrows, null);
+    }
+
+    /**
+     * Get the next page of the list of meters matching with the filters
+     * 
+     * @param userSession UserSession object with the information of the user that called this
+     *            method
+     * @param filters to filter the list of meters
+     * @param numrows the number of rows to return
+     * @param last the last meter of the previous page, null to get the first page
+     * @return a BasicResult containing the list of the meters found
+     */
+    public BasicResult getMeters(UserSession userSession, HashMap<String, String> filters,
+        Integer numrows, Meter last)
     {
         DataResult<List<Meter>> dataResult = new DataResult<List<Meter>>();
 
         MeterCommand command = proxyCommand(userSession);
 
+        HashMap<String, String> pageFilters = new HashMap<String, String>(filters);
+        if (last != null)
+        {
+            // Keyset pagination, continues after the last meter instead of skipping rows
+            pageFilters.put("lasttimestamp", last.getTimestamp());
+            pageFilters.put("lastid", String.valueOf(last.getIdMeter()));
+        }
+
         // Get the list of private IPs
         List<MeterHB> meterList = new ArrayList<MeterHB>();
         try
         {
-            meterList =
-                command.getMeters(userSession, new HashMap<String, String>(filters), numrows);
+            meterList = command.getMeters(userSession, pageFilters, numrows);
             List<Meter> returnList = new ArrayList<Meter>();
 
             for (MeterHB meterHB : meterList)
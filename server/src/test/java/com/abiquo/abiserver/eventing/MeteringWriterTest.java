@@ -0,0 +1,255 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.abiserver.eventing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.FileUtils;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MeteringWriterTest
+{
+    private File spillFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        spillFile = File.createTempFile("metering", ".spill");
+        spillFile.delete();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        spillFile.delete();
+        new File(spillFile.getPath() + ".rejected").delete();
+    }
+
+    @Test
+    public void testEncodeDecode()
+    {
+        String[] row = new String[MeteringWriter.PARAMETERS.length];
+        row[0] = "1";
+        row[1] = "tab\tnew\nline\r\\";
+        row[2] = "\\N";
+        row[row.length - 1] = "";
+
+        String[] decoded = MeteringWriter.decode(MeteringWriter.encode(row));
+
+        assertEquals(decoded[0], "1");
+        assertEquals(decoded[1], row[1]);
+        assertEquals(decoded[2], "\\N");
+        assertNull(decoded[3]);
+        assertEquals(decoded[row.length - 1], "");
+    }
+
+    @Test
+    public void testBatches() throws InterruptedException
+    {
+        RecordingWriter writer = new RecordingWriter(3, false);
+        writer.start();
+        for (int i = 0; i < 7; i++)
+        {
+            writer.write(row(i));
+        }
+        writer.stop();
+
+        assertEquals(writer.rows(), 7);
+        for (Integer size : writer.batches)
+        {
+            assertTrue(size <= 3);
+        }
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testSpillAndReplay() throws InterruptedException
+    {
+        RecordingWriter failing = new RecordingWriter(2, true);
+        failing.start();
+        for (int i = 0; i < 5; i++)
+        {
+            failing.write(row(i));
+        }
+        failing.stop();
+
+        assertEquals(failing.rows(), 0);
+        assertTrue(spillFile.exists());
+
+        RecordingWriter writer = new RecordingWriter(2, false);
+        writer.start();
+        writer.stop();
+
+        assertEquals(writer.rows(), 5);
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testReplayTwice() throws Exception
+    {
+        RecordingWriter failing = new RecordingWriter(2, true);
+        failing.start();
+        for (int i = 0; i < 5; i++)
+        {
+            failing.write(row(i));
+        }
+        failing.stop();
+        String spilled = FileUtils.readFileToString(spillFile, "UTF-8");
+
+        RecordingWriter writer = new RecordingWriter(2, false);
+        writer.start();
+        writer.stop();
+
+        // as if the writer stopped before deleting the replayed file
+        FileUtils.writeStringToFile(spillFile, spilled, "UTF-8");
+        writer.start();
+        writer.stop();
+
+        assertEquals(writer.rows(), 5);
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testRejectPermanentFailures() throws Exception
+    {
+        RecordingWriter writer = new RecordingWriter(5, false)
+        {
+            @Override
+            protected void insert(final List<String[]> rows) throws SQLException
+            {
+                for (String[] row : rows)
+                {
+                    if ("trace 2".equals(row[30]))
+                    {
+                        throw new SQLException("Data too long", "22001");
+                    }
+                }
+                super.insert(rows);
+            }
+        };
+        writer.start();
+        for (int i = 0; i < 5; i++)
+        {
+            writer.write(row(i));
+        }
+        writer.stop();
+
+        assertEquals(writer.rows(), 4);
+        assertFalse(spillFile.exists());
+
+        File rejected = new File(spillFile.getPath() + ".rejected");
+        assertEquals(FileUtils.readLines(rejected, "UTF-8").size(), 1);
+    }
+
+    @Test
+    public void testTransientErrors()
+    {
+        assertTrue(MeteringWriter.isTransient(new SQLException("Link failure", "08S01")));
+        assertTrue(MeteringWriter.isTransient(new SQLException("Deadlock", "40001")));
+        assertTrue(MeteringWriter.isTransient(new RuntimeException(new SQLException("Down",
+            "08001"))));
+        assertFalse(MeteringWriter.isTransient(new SQLException("Data too long", "22001")));
+        assertFalse(MeteringWriter.isTransient(new NumberFormatException()));
+    }
+
+    private static Map<String, Object> row(final int i)
+    {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("severity", "INFO");
+        row.put("stacktrace", "trace " + i);
+        return row;
+    }
+
+    private class RecordingWriter extends MeteringWriter
+    {
+        private final List<Integer> batches = new CopyOnWriteArrayList<Integer>();
+
+        /** The keys of the inserted rows. */
+        private final List<String> table = new CopyOnWriteArrayList<String>();
+
+        private final boolean fail;
+
+        public RecordingWriter(final int batchSize, final boolean fail)
+        {
+            super(100, batchSize, 50, spillFile);
+            this.fail = fail;
+        }
+
+        @Override
+        protected void insert(final List<String[]> rows) throws SQLException
+        {
+            if (fail)
+            {
+                throw new SQLException("The database is down", "08S01");
+            }
+            batches.add(rows.size());
+            for (String[] row : rows)
+            {
+                table.add(key(row));
+            }
+        }
+
+        @Override
+        protected List<String[]> notInserted(final List<String[]> rows) throws SQLException
+        {
+            if (fail)
+            {
+                throw new SQLException("The database is down", "08S01");
+            }
+
+            List<String> inserted = new ArrayList<String>(table);
+            List<String[]> missing = new ArrayList<String[]>();
+            for (String[] row : rows)
+            {
+                if (!inserted.remove(key(row)))
+                {
+                    missing.add(row);
+                }
+            }
+            return missing;
+        }
+
+        public int rows()
+        {
+            int rows = 0;
+            for (Integer size : batches)
+            {
+                rows += size;
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.abiserver.persistence.dao.metering;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class MeterTokensTest
+{
+    @Test
+    public void testTokensFromEachWord()
+    {
+        assertEquals(new ArrayList<String>(MeterTokens.tokens("virtualmachine", "Web-Server01")),
+            Arrays.asList("virtualmachine:web-server01", "virtualmachine:server01",
+                "virtualmachine:01"));
+
+        assertEquals(new ArrayList<String>(MeterTokens.tokens("user", " admin  admin")), Arrays
+            .asList("user:admin  admin", "user:admin"));
+    }
+
+    @Test
+    public void testNoTokens()
+    {
+        assertTrue(MeterTokens.tokens("rack", null).isEmpty());
+        assertTrue(MeterTokens.tokens("rack", "--").isEmpty());
+    }
+
+    @Test
+    public void testFilterMatchesTheTokens()
+    {
+        String prefix = MeterTokens.prefix("virtualmachine", "SERVER");
+        assertEquals(prefix, "virtualmachine:server");
+
+        int matches = 0;
+        for (String token : MeterTokens.tokens("virtualmachine", "web-server01"))
+        {
+            matches += token.startsWith(prefix) ? 1 : 0;
+        }
+        assertEquals(matches, 1);
+    }
+
+    @Test
+    public void testTruncated()
+    {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            value.append('a');
+        }
+
+        String token = MeterTokens.tokens("volume", value.toString()).iterator().next();
+        assertEquals(token.length(), MeterTokens.LENGTH);
+        assertEquals(MeterTokens.prefix("volume", value.toString()), token);
+    }
+}
@@ -21,14 +21,22 @@
 
 package com.abiquo.tracer.client;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
-import javax.jms.Destination;
 import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
 import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
 import javax.jms.Session;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.activemq.pool.PooledConnectionFactory;
 import org.slf4j.Logger;
@@ -42,14 +50,87 @@ import com.abiquo.tracer.SeverityType;
 import com.abiquo.tracer.TracerTo;
 import com.abiquo.tracer.UserInfo;
 
-public class TracerActiveMq implements Tracer, ExceptionListener
+/**
+ * Sends the traces to the tracer queue.
+ * <p>
+ * The traces are put in a bounded buffer (''abiquo.tracer.buffer'', default 10000) and the caller
+ * returns immediately. A publisher thread sends them in batches of up to ''abiquo.tracer.batch''
+ * (default 100) traces, each batch in one transaction of a session and producer that are kept
+ * open. When the buffer is full the trace is dropped, unless ''abiquo.tracer.policy'' is
+ * ''block'': then the caller waits up to ''abiquo.tracer.blockTimeout'' ms (default 5000) for
+ * room in the buffer before dropping it.
+ * <p>
+ * A batch that can not be sent is kept and sent again after connecting again. Once the tracer is
+ * destroyed the pending traces are sent, and a batch that fails is dropped.
+ */
+public class TracerActiveMq implements Tracer, ExceptionListener, TracerActiveMqMBean
 {
     private static final Logger log = LoggerFactory.getLogger(TracerActiveMq.class.getName());
 
+    /** Delay before connecting again after a failure. */
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    /** Max time to send the pending traces when destroyed. */
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
     private PooledConnectionFactory connectionFactory;
 
+    private final BlockingQueue<TracerTo> buffer;
+
+    private final int batchSize;
+
+    private final long blockTimeout;
+
+    private final Thread publisher;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    // Only used by the publisher thread
+
+    private Connection connection;
+
+    private Session session;
+
+    private MessageProducer producer;
+
+    /** Set when the connection reports an error, so the publisher connects again. */
+    private volatile boolean broken;
+
     protected TracerActiveMq()
     {
+        this(Integer.parseInt(System.getProperty("abiquo.tracer.buffer", "10000")), Integer
+            .parseInt(System.getProperty("abiquo.tracer.batch", "100")), getBlockTimeout());
+
+        registerMBean();
+    }
+
+    private static long getBlockTimeout()
+    {
+        if ("block".equalsIgnoreCase(System.getProperty("abiquo.tracer.policy", "drop")))
+        {
+            return Long.parseLong(System.getProperty("abiquo.tracer.blockTimeout", "5000"));
+        }
+        return 0;
+    }
+
+    /**
+     * @param bufferSize Max number of traces waiting to be sent.
+     * @param batchSize Max number of traces sent in each transaction.
+     * @param blockTimeout Time (ms) to wait for room in the buffer before dropping a trace. 0 to
+     *            drop it without waiting.
+     */
+    protected TracerActiveMq(final int bufferSize, final int batchSize, final long blockTimeout)
+    {
+        this.buffer = new ArrayBlockingQueue<TracerTo>(bufferSize);
+        this.batchSize = batchSize;
+        this.blockTimeout = blockTimeout;
+
         try
         {
             String brokerUrl =
@@ -63,73 +144,226 @@ public class TracerActiveMq implements Tracer, ExceptionListener
         {
             log.error("Error initializing TracerActiveMq.", e);
         }
+
+        publisher = new Thread(new Publisher(), "tracer-publisher");
+        publisher.setDaemon(true);
+        publisher.start();
     }
 
-    private synchronized void sendEvent(TracerTo payload) throws Exception
+    private void registerMBean()
     {
-        Connection connection = null;
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name =
+                new ObjectName("Abiquo:Name=Tracer,Type=" + TracerActiveMq.class.getName());
 
-        Destination destination = null;
+            if (!server.isRegistered(name))
+            {
+                server.registerMBean(this, name);
+            }
+        }
+        catch (Exception e)
+        {
+            log.warn("Could not register the tracer MBean: {}", e.getMessage());
+        }
+    }
 
-        Session session = null;
+    /**
+     * Put the trace in the buffer, or drop it if there is no room.
+     */
+    private void sendEvent(final TracerTo payload) throws InterruptedException
+    {
+        boolean queued =
+            blockTimeout > 0 ? buffer.offer(payload, blockTimeout, TimeUnit.MILLISECONDS)
+                : buffer.offer(payload);
 
-        MessageProducer producer = null;
-        try
+        if (!queued)
         {
-            connection = connectionFactory.createConnection();
-            connection.start();
+            // Do not log each one, the buffer is full because the traces can not be sent
+            if (dropped.incrementAndGet() % 1000 == 1)
+            {
+                log.warn("Tracer buffer full, dropping traces ({} dropped)", dropped.get());
+            }
+        }
+    }
 
-            // Create the session
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            destination = session.createQueue(Constants.QUEUE_TRACER_OUT_QUEUE);
+    /**
+     * Send the traces in one transaction.
+     */
+    protected void publish(final List<TracerTo> batch) throws JMSException
+    {
+        if (broken)
+        {
+            closeSession();
+        }
 
-            // Create the producer.
-            producer = session.createProducer(destination);
+        if (session == null)
+        {
+            connection = connectionFactory.createConnection();
+            connection.setExceptionListener(this);
+            connection.start();
 
+            session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            producer =
+                session.createProducer(session.createQueue(Constants.QUEUE_TRACER_OUT_QUEUE));
             producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            broken = false;
+        }
 
-            ObjectMessage msg = session.createObjectMessage(payload);
-            producer.send(msg);
-            log.debug("Sent message back to process queue:" + payload.toString());
+        for (TracerTo payload : batch)
+        {
+            producer.send(session.createObjectMessage(payload));
         }
-        catch (Exception e)
+        session.commit();
+
+        if (log.isDebugEnabled())
         {
-            log.error("Cannot send message:" + payload.toString(), e);
-            throw e;
+            log.debug("Sent {} traces to the tracer queue", batch.size());
         }
-        finally
+    }
+
+    private void closeSession()
+    {
+        try
         {
-            try
+            if (producer != null)
             {
-                if (producer != null)
-                {
-                    producer.close();
-                }
-                if (session != null)
-                {
-                    session.close();
-                }
-                if (connection != null)
-                {
-                    connection.close();
-                }
+                producer.close();
             }
-            catch (JMSException e)
+            if (session != null)
             {
-                log.error("Cannot destroy jms connection", e);
-                throw e;
+                session.close();
             }
+            if (connection != null)
+            {
+                connection.close();
+            }
+        }
+        catch (JMSException e)
+        {
+            log.debug("Cannot destroy jms connection", e);
+        }
+        finally
+        {
+            producer = null;
+            session = null;
+            connection = null;
         }
     }
 
-    public void onException(JMSException exception)
+    public void onException(final JMSException exception)
     {
         log.error("An error sending to the queue:", exception);
+        broken = true;
     }
 
+    /**
+     * Send the buffered traces and stop the publisher. The connections are closed once the
+     * publisher has finished.
+     */
+    @Override
     public void destroy() throws Exception
     {
+        running = false;
+        publisher.join(DRAIN_TIMEOUT_MS);
+
+        if (publisher.isAlive())
+        {
+            log.warn("Could not send the pending traces, {} traces are lost", buffer.size());
+            publisher.interrupt();
+            publisher.join(RECONNECT_DELAY_MS);
+        }
+
+        if (connectionFactory != null && !publisher.isAlive())
+        {
+            connectionFactory.stop();
+        }
+    }
+
+    @Override
+    public long getSentTraces()
+    {
+        return sent.get();
+    }
+
+    @Override
+    public long getDroppedTraces()
+    {
+        return dropped.get();
+    }
+
+    @Override
+    public long getFailedTraces()
+    {
+        return failed.get();
+    }
+
+    @Override
+    public int getQueuedTraces()
+    {
+        return buffer.size();
+    }
+
+    /**
+     * Sends the buffered traces in batches, until stopped and the buffer is empty.
+     */
+    private class Publisher implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            List<TracerTo> batch = new ArrayList<TracerTo>(batchSize);
+
+            while (running || !batch.isEmpty() || !buffer.isEmpty())
+            {
+                try
+                {
+                    if (batch.isEmpty() && buffer.isEmpty())
+                    {
+                        TracerTo first = buffer.poll(1, TimeUnit.SECONDS);
+                        if (first == null)
+                        {
+                            continue;
+                        }
+                        batch.add(first);
+                    }
+                    buffer.drainTo(batch, batchSize - batch.size());
+
+                    try
+                    {
+                        publish(batch);
+                        sent.addAndGet(batch.size());
+                        batch.clear();
+                    }
+                    catch (Exception e)
+                    {
+                        closeSession();
+
+                        if (running)
+                        {
+                            // Keep the batch, it is sent again once connected
+                            log.error("Cannot send " + batch.size() + " traces, retrying", e);
+                            Thread.sleep(RECONNECT_DELAY_MS);
+                        }
+                        else
+                        {
+                            failed.addAndGet(batch.size());
+                            log.error("Cannot send " + batch.size() + " traces", e);
+                            batch.clear();
+                        }
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    // Forced stop by destroy, the pending traces could not be sent
+                    failed.addAndGet(batch.size());
+                    break;
+                }
+            }
 
+            closeSession();
+        }
     }
 
     @Override
@@ -148,6 +382,10 @@ public class TracerActiveMq implements Tracer, ExceptionListener
             to.setPlatform(platform);
             this.sendEvent(to);
         }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
         catch (Exception e)
         {
             // No exceptions. It must be transparent to the rest of the
@@ -0,0 +1,40 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.tracer.client;
+
+/**
+ * Metrics of the {@link TracerActiveMq}.
+ */
+public interface TracerActiveMqMBean
+{
+    /** Traces sent to the tracer queue. */
+    public long getSentTraces();
+
+    /** Traces dropped because the buffer was full. */
+    public long getDroppedTraces();
+
+    /** Traces lost because they could not be sent. */
+    public long getFailedTraces();
+
+    /** Traces waiting to be sent. */
+    public int getQueuedTraces();
+}
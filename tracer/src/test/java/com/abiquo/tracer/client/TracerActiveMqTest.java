@@ -0,0 +1,163 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.tracer.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.abiquo.tracer.ComponentType;
+import com.abiquo.tracer.EventType;
+import com.abiquo.tracer.SeverityType;
+import com.abiquo.tracer.TracerTo;
+
+public class TracerActiveMqTest
+{
+    @Test
+    public void testTracesSentInBatches() throws Exception
+    {
+        final List<Integer> batches = new ArrayList<Integer>();
+        final CountDownLatch released = new CountDownLatch(1);
+
+        TracerActiveMq tracer = new TracerActiveMq(100, 10, 0)
+        {
+            @Override
+            protected void publish(final List<TracerTo> batch)
+            {
+                await(released);
+                batches.add(batch.size());
+            }
+        };
+
+        for (int i = 0; i < 25; i++)
+        {
+            trace(tracer);
+        }
+        released.countDown();
+        tracer.destroy();
+
+        assertEquals(tracer.getSentTraces(), 25);
+        assertEquals(tracer.getQueuedTraces(), 0);
+        for (Integer size : batches)
+        {
+            assertTrue(size <= 10);
+        }
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception
+    {
+        final CountDownLatch released = new CountDownLatch(1);
+
+        TracerActiveMq tracer = new TracerActiveMq(5, 1, 0)
+        {
+            @Override
+            protected void publish(final List<TracerTo> batch)
+            {
+                await(released);
+            }
+        };
+
+        // One trace may be taken by the publisher, the buffer holds 5 more
+        for (int i = 0; i < 20; i++)
+        {
+            trace(tracer);
+        }
+
+        assertTrue(tracer.getDroppedTraces() >= 14);
+        released.countDown();
+        tracer.destroy();
+
+        assertEquals(tracer.getSentTraces() + tracer.getDroppedTraces(), 20);
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception
+    {
+        TracerActiveMq tracer = new TracerActiveMq(100, 10, 0)
+        {
+            @Override
+            protected void publish(final List<TracerTo> batch)
+            {
+                throw new IllegalStateException("broker down");
+            }
+        };
+
+        trace(tracer);
+        tracer.destroy();
+
+        assertEquals(tracer.getFailedTraces(), 1);
+        assertEquals(tracer.getSentTraces(), 0);
+    }
+
+    @Test
+    public void testFailedBatchSentAgain() throws Exception
+    {
+        final CountDownLatch failedOnce = new CountDownLatch(1);
+
+        TracerActiveMq tracer = new TracerActiveMq(100, 10, 0)
+        {
+            @Override
+            protected void publish(final List<TracerTo> batch)
+            {
+                if (failedOnce.getCount() > 0)
+                {
+                    failedOnce.countDown();
+                    throw new IllegalStateException("broker down");
+                }
+            }
+        };
+
+        for (int i = 0; i < 3; i++)
+        {
+            trace(tracer);
+        }
+        await(failedOnce);
+        tracer.destroy();
+
+        assertEquals(tracer.getSentTraces(), 3);
+        assertEquals(tracer.getFailedTraces(), 0);
+    }
+
+    private static void trace(final TracerActiveMq tracer)
+    {
+        tracer.log(SeverityType.INFO, ComponentType.USER, EventType.USER_LOGIN, "test");
+    }
+
+    private static void await(final CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
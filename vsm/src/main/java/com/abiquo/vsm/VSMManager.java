@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import com.abiquo.commons.amqp.util.RabbitMQUtils;
 import com.abiquo.vsm.model.PhysicalMachine;
+import com.abiquo.vsm.monitor.executor.MonitorScheduler;
 import com.abiquo.vsm.redis.dao.RedisDao;
 import com.abiquo.vsm.redis.dao.RedisDaoFactory;
 import com.abiquo.vsm.redis.pubsub.RedisSubscriber;
@@ -159,6 +160,10 @@ public class VSMManager
 
         if (ping)
         {
+            // The event processing reads the states from the index
+            RedisDao dao = RedisDaoFactory.getInstance();
+            dao.getStateDao().migrate(dao);
+
             subscriber = new RedisSubscriber(redisHost, redisPort);
             subscriberExecutor.execute(subscriber);
         }
@@ -228,6 +233,7 @@ public class VSMManager
     {
         subscriberExecutor.shutdown();
         VSMService.getInstance().stopAllMonitors();
+        MonitorScheduler.shutdown();
     }
 
     /**
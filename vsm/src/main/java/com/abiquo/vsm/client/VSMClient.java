@@ -52,6 +52,20 @@ public class VSMClient
     /** The default context path of the VSM module. */
     private static final String DEFAULT_CONTEXT_PATH = "vsm/api";
 
+    /**
+     * The REST client shared by all the instances. It is thread safe and expensive to create, and
+     * reusing it keeps the connections to the VSM alive in the JDK keep-alive cache.
+     */
+    private static final RestClient sharedClient;
+    static
+    {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.readTimeout(0);
+        clientConfig.connectTimeout(0);
+
+        sharedClient = new RestClient(clientConfig);
+    }
+
     /** The REST client. */
     private RestClient client;
 
@@ -70,11 +84,7 @@ public class VSMClient
             throw new IllegalArgumentException("The provided parameter is not a valid URL.");
         }
 
-        ClientConfig clientConfig = new ClientConfig();
-        clientConfig.readTimeout(0);
-        clientConfig.connectTimeout(0);
-
-        client = new RestClient(clientConfig);
+        client = sharedClient;
 
         String target = uri.substring(uri.indexOf("://") + 3);
         int slash = target.indexOf('/');
@@ -98,11 +108,7 @@ public class VSMClient
      */
     public VSMClient initialize(final String host, final int port)
     {
-        ClientConfig clientConfig = new ClientConfig();
-        clientConfig.readTimeout(0);
-        clientConfig.connectTimeout(0);
-
-        client = new RestClient(clientConfig);
+        client = sharedClient;
         basePath = "http://" + host + ":" + port + "/" + DEFAULT_CONTEXT_PATH;
 
         if (!isValidURI(basePath))
@@ -127,6 +127,17 @@ public class Migrator
         }
     }
 
+    /**
+     * Index the states of the migrated (and the already existing) virtual machines.
+     */
+    public void migrateStateIndex()
+    {
+        RedisDao dao = RedisDaoFactory.getInstance();
+        int indexed = dao.getStateDao().migrate(dao);
+
+        logger.info("Number of indexed virtual machine states: {}", indexed);
+    }
+
     public void migrateNonPersistedModelFromFile(final File file) throws IOException
     {
         LineIterator iterator = FileUtils.lineIterator(file);
@@ -320,6 +331,7 @@ public class Migrator
         }
 
         migrator.migratePersistedModel();
+        migrator.migrateStateIndex();
 
         logger.info("Number of migrated physical machines: {}", migrator.getMachinesCount());
         logger.info("Number of migrated subscriptions: {}", migrator.getSubscriptionsCount());
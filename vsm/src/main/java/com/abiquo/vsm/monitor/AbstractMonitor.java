@@ -29,7 +29,6 @@ import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.abiquo.vsm.VSMManager;
 import com.abiquo.vsm.events.VMEvent;
 import com.abiquo.vsm.events.VMEventType;
 import com.abiquo.vsm.exception.MonitorException;
@@ -38,6 +37,7 @@ import com.abiquo.vsm.model.VirtualMachine;
 import com.abiquo.vsm.redis.dao.RedisDao;
 import com.abiquo.vsm.redis.dao.RedisDaoFactory;
 import com.abiquo.vsm.redis.pubsub.RedisPublisher;
+import com.abiquo.vsm.redis.pubsub.RedisPublisher.FailureListener;
 
 /**
  * Base class for all monitor implementations.
@@ -49,7 +49,7 @@ public abstract class AbstractMonitor
     /** The logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractMonitor.class);
 
-    /** Event notifier used to push events to Redis. */
+    /** Event notifier used to push events to Redis (shared by all the monitors). */
     private RedisPublisher redisPublisher;
 
     /** List of monitored physical machine addresses. */
@@ -60,18 +60,37 @@ public abstract class AbstractMonitor
 
     protected String uuid;
 
+    /** The last published state of the monitored virtual machines. */
+    protected VMStateSnapshot snapshot;
+
+    /** Forgets the polled state of the events that could not be published. */
+    private final FailureListener forgetOnFailure = new FailureListener()
+    {
+        @Override
+        public void failed(final VMEvent event)
+        {
+            forgetState(event.getPhysicalMachineAddress(), event.getVirtualMachineName());
+        }
+    };
+
     /**
      * Creates the monitor.
      */
     public AbstractMonitor()
     {
-        String redisHost = VSMManager.getInstance().getRedisHost();
-        int redisPort = VSMManager.getInstance().getRedisPort();
+        this(RedisPublisher.getInstance());
+    }
 
-        redisPublisher = new RedisPublisher(redisHost, redisPort);
+    /**
+     * Creates the monitor using the given publisher.
+     */
+    protected AbstractMonitor(final RedisPublisher redisPublisher)
+    {
+        this.redisPublisher = redisPublisher;
         monitoredMachines = Collections.synchronizedList(new LinkedList<String>());
         dao = RedisDaoFactory.getInstance();
         uuid = UUID.randomUUID().toString();
+        snapshot = new VMStateSnapshot();
 
         LOGGER.debug("New monitor with UUID " + uuid + " created.");
     }
@@ -112,6 +131,8 @@ public abstract class AbstractMonitor
     public void invalidateLastKnownState(final String physicalMachineAddress,
         final String virtualMachineName) throws MonitorException
     {
+        forgetState(physicalMachineAddress, virtualMachineName);
+
         // Update the last known state to UNKNOWN in order to force the event notification
         VirtualMachine virtualMachine = dao.findVirtualMachineByName(virtualMachineName);
 
@@ -122,6 +143,19 @@ public abstract class AbstractMonitor
         }
     }
 
+    /**
+     * Forget the last polled state of the given virtual machine, so it is published again in the
+     * next poll.
+     * 
+     * @param physicalMachineAddress The monitored physical machine where the virtual machine is
+     *            deployed.
+     * @param virtualMachineName The name of the virtual machine.
+     */
+    public void forgetState(final String physicalMachineAddress, final String virtualMachineName)
+    {
+        snapshot.forget(physicalMachineAddress, virtualMachineName);
+    }
+
     /**
      * Return the maximum number of hypervisors that can be monitored by this monitor instance.
      * 
@@ -172,6 +206,7 @@ public abstract class AbstractMonitor
         synchronized (monitoredMachines)
         {
             monitoredMachines.remove(physicalMachineAddress);
+            snapshot.forget(physicalMachineAddress);
 
             LOGGER.debug("Removed {} from the list of monitored machines of monitor {}",
                 physicalMachineAddress, uuid);
@@ -206,14 +241,35 @@ public abstract class AbstractMonitor
      */
     public void notify(final VMEvent event)
     {
+        if (event.getType() == VMEventType.DESTROYED)
+        {
+            forgetState(event.getPhysicalMachineAddress(), event.getVirtualMachineName());
+        }
+
         try
         {
             LOGGER.trace("Received event from monitor {}: {}", uuid, event.toString());
-            redisPublisher.publishEvent(event);
+            redisPublisher.publishEvent(event, forgetOnFailure);
         }
         catch (IOException ex)
         {
             LOGGER.error("Unable to notify event: " + event.toString(), ex);
+            forgetOnFailure.failed(event);
+        }
+    }
+
+    /**
+     * Notifies the state polled from a virtual machine, only if it changed since the last poll.
+     * 
+     * @param event The event to propagate.
+     * @see VMStateSnapshot
+     */
+    public void notifyChange(final VMEvent event)
+    {
+        // if the event can not be published its state is forgotten, so the next poll notifies it
+        if (snapshot.changed(event))
+        {
+            notify(event);
         }
     }
 
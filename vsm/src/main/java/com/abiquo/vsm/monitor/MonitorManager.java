@@ -251,6 +251,13 @@ public class MonitorManager
 
         dao.save(vm);
 
+        // The pollers only publish the state changes. Force the next poll to publish the state
+        AbstractMonitor monitor = findRunningMonitor(physicalMachineAddress, type);
+        if (monitor != null)
+        {
+            monitor.forgetState(physicalMachineAddress, virtualMachineName);
+        }
+
         return vm;
     }
 
@@ -0,0 +1,92 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.vsm.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.abiquo.vsm.util.MBeanUtils;
+
+/**
+ * Counters of the events published and suppressed by the {@link VMStateSnapshot} of all the
+ * monitors.
+ */
+public class PollerStats implements PollerStatsMBean
+{
+    private static PollerStats instance;
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private final AtomicLong resyncs = new AtomicLong();
+
+    /**
+     * Get the counters shared by all the monitors.
+     */
+    public static synchronized PollerStats getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new PollerStats();
+            MBeanUtils.register(instance, PollerStats.class.getName());
+        }
+
+        return instance;
+    }
+
+    protected PollerStats()
+    {
+        super();
+    }
+
+    public void published()
+    {
+        published.incrementAndGet();
+    }
+
+    public void suppressed()
+    {
+        suppressed.incrementAndGet();
+    }
+
+    public void resync()
+    {
+        resyncs.incrementAndGet();
+    }
+
+    @Override
+    public long getPublishedEvents()
+    {
+        return published.get();
+    }
+
+    @Override
+    public long getSuppressedEvents()
+    {
+        return suppressed.get();
+    }
+
+    @Override
+    public long getResyncs()
+    {
+        return resyncs.get();
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.vsm.monitor;
+
+/**
+ * Metrics of the events published by the monitor pollers.
+ */
+public interface PollerStatsMBean
+{
+    /** Virtual machine states published because they changed (or were resynchronized). */
+    public long getPublishedEvents();
+
+    /** Virtual machine states not published because they did not change. */
+    public long getSuppressedEvents();
+
+    /** Full resynchronizations of the state of a physical machine. */
+    public long getResyncs();
+}
@@ -0,0 +1,139 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.vsm.monitor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.abiquo.vsm.events.VMEvent;
+import com.abiquo.vsm.events.VMEventType;
+
+/**
+ * Last published state of the virtual machines in each monitored physical machine. The pollers
+ * use it to publish only the states that changed since the last poll, instead of the state of
+ * every virtual machine on every poll.
+ * <p>
+ * The snapshot of each physical machine is discarded every ''abiquo.vsm.pollers.resync'' ms
+ * (default 5 minutes), so all its states are published again and a lost event can not leave a
+ * virtual machine in a wrong state. A value of 0 disables the change detection.
+ */
+public class VMStateSnapshot
+{
+    private final static long RESYNC = Long.parseLong(System.getProperty(
+        "abiquo.vsm.pollers.resync", "300000"));
+
+    private final long resync;
+
+    private final PollerStats stats;
+
+    private final ConcurrentMap<String, HostSnapshot> hosts =
+        new ConcurrentHashMap<String, HostSnapshot>();
+
+    public VMStateSnapshot()
+    {
+        this(RESYNC, PollerStats.getInstance());
+    }
+
+    protected VMStateSnapshot(final long resync, final PollerStats stats)
+    {
+        this.resync = resync;
+        this.stats = stats;
+    }
+
+    /**
+     * Record the state of the event and check if it must be published.
+     * 
+     * @param event The state polled from the hypervisor.
+     * @return True if the state changed since the last poll (or the physical machine must be
+     *         resynchronized). False if the event can be discarded.
+     */
+    public boolean changed(final VMEvent event)
+    {
+        if (resync <= 0)
+        {
+            stats.published();
+            return true;
+        }
+
+        HostSnapshot host = getHost(event.getPhysicalMachineAddress());
+
+        long now = System.currentTimeMillis();
+        if (now - host.since >= resync)
+        {
+            host.states.clear();
+            host.since = now;
+            stats.resync();
+        }
+
+        VMEventType previous = host.states.put(event.getVirtualMachineName(), event.getType());
+        if (previous == event.getType())
+        {
+            stats.suppressed();
+            return false;
+        }
+
+        stats.published();
+        return true;
+    }
+
+    /**
+     * Forget the state of the given virtual machine, so the next polled state is published.
+     */
+    public void forget(final String physicalMachineAddress, final String virtualMachineName)
+    {
+        HostSnapshot host = hosts.get(physicalMachineAddress);
+        if (host != null)
+        {
+            host.states.remove(virtualMachineName);
+        }
+    }
+
+    /**
+     * Forget the state of all the virtual machines in the given physical machine.
+     */
+    public void forget(final String physicalMachineAddress)
+    {
+        hosts.remove(physicalMachineAddress);
+    }
+
+    private HostSnapshot getHost(final String physicalMachineAddress)
+    {
+        HostSnapshot host = hosts.get(physicalMachineAddress);
+        if (host == null)
+        {
+            HostSnapshot created = new HostSnapshot();
+            host = hosts.putIfAbsent(physicalMachineAddress, created);
+            if (host == null)
+            {
+                host = created;
+            }
+        }
+        return host;
+    }
+
+    private static class HostSnapshot
+    {
+        private final ConcurrentMap<String, VMEventType> states =
+            new ConcurrentHashMap<String, VMEventType>();
+
+        private volatile long since = System.currentTimeMillis();
+    }
+}
@@ -203,9 +203,9 @@ public class ExecutorBasedESXiPoller extends AbstractMonitor
 
                                 VMEvent event = new VMEvent(state, physicalMachineAddress, vmName);
 
-                                // Propagate the event. RedisSubscriber will decide if it must be
-                                // notified, based on subscription information
-                                ExecutorBasedESXiPoller.this.notify(event);
+                                // Only changed states are propagated. RedisSubscriber will
+                                // decide if it must be notified, based on subscription information
+                                ExecutorBasedESXiPoller.this.notifyChange(event);
                             }
                         }
 
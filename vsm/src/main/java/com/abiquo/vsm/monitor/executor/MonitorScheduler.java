@@ -0,0 +1,339 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.vsm.monitor.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.vsm.util.MBeanUtils;
+
+/**
+ * Scheduling engine shared by all the {@link PeriodicalExecutor}.
+ * <p>
+ * A small scheduler pool (''abiquo.vsm.scheduler.threads'') only dispatches the due tasks to a
+ * bounded worker pool (''abiquo.vsm.pollers.threads'' threads and ''abiquo.vsm.pollers.queue''
+ * pending polls) where the blocking hypervisor calls are performed. When the workers can not
+ * accept more polls the task is retried later instead of piling up. Each execution is delayed a
+ * random ''abiquo.vsm.scheduler.jitter'' percent of the periodicity so the polls are spread over
+ * time.
+ */
+public class MonitorScheduler implements MonitorSchedulerMBean
+{
+    private final static Logger LOGGER = LoggerFactory.getLogger(MonitorScheduler.class);
+
+    /** Retry delay (ms) for the polls rejected by the worker pool. */
+    protected final static long BACKOFF = 500;
+
+    private static MonitorScheduler instance;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final ThreadPoolExecutor workers;
+
+    private final int jitter;
+
+    private final Random random = new Random();
+
+    private final Set<PeriodicalExecutor> tasks = new CopyOnWriteArraySet<PeriodicalExecutor>();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong polls = new AtomicLong();
+
+    private final AtomicLong totalLag = new AtomicLong();
+
+    private final AtomicLong maxLag = new AtomicLong();
+
+    /**
+     * Get the scheduler shared by all the monitors.
+     */
+    public static synchronized MonitorScheduler getInstance()
+    {
+        if (instance == null)
+        {
+            instance =
+                new MonitorScheduler(getProperty("abiquo.vsm.scheduler.threads", 2),
+                    getProperty("abiquo.vsm.pollers.threads", 50),
+                    getProperty("abiquo.vsm.pollers.queue", 1000),
+                    getProperty("abiquo.vsm.scheduler.jitter", 10));
+
+            MBeanUtils.register(instance, MonitorScheduler.class.getName());
+        }
+
+        return instance;
+    }
+
+    protected MonitorScheduler(final int schedulerThreads, final int workerThreads,
+        final int queueSize, final int jitter)
+    {
+        this.jitter = jitter;
+
+        scheduler =
+            new ScheduledThreadPoolExecutor(schedulerThreads, new NamedThreadFactory(
+                "vsm-scheduler"));
+
+        workers =
+            new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("vsm-poller"));
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start executing the task periodically. The first execution is spread over the task
+     * periodicity.
+     */
+    public void schedule(final PeriodicalExecutor task)
+    {
+        tasks.add(task);
+
+        int periodicity = task.getPeriodicity();
+        schedule(task, jitter > 0 ? random.nextInt(Math.max(periodicity, 1)) : 0);
+    }
+
+    /**
+     * Stop executing the task. A running execution is not interrupted.
+     */
+    public void cancel(final PeriodicalExecutor task)
+    {
+        tasks.remove(task);
+
+        ScheduledFuture< ? > next = task.getNext();
+        if (next != null)
+        {
+            next.cancel(false);
+        }
+    }
+
+    /**
+     * Stop the shared scheduler, if started. The next {@link #getInstance()} creates a new one.
+     */
+    public static synchronized void shutdown()
+    {
+        if (instance != null)
+        {
+            instance.stop();
+            MBeanUtils.unregister(MonitorScheduler.class.getName());
+            instance = null;
+        }
+    }
+
+    /**
+     * Stop all the threads.
+     */
+    protected void stop()
+    {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void schedule(final PeriodicalExecutor task, final long delay)
+    {
+        schedule(task, delay, System.currentTimeMillis() + delay);
+    }
+
+    private void schedule(final PeriodicalExecutor task, final long delay, final long due)
+    {
+        if (!tasks.contains(task))
+        {
+            return;
+        }
+
+        try
+        {
+            task.setNext(scheduler.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    dispatch(task, due);
+                }
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+        catch (RejectedExecutionException e)
+        {
+            LOGGER.debug("Monitor scheduler is shut down");
+        }
+    }
+
+    /**
+     * Hand the due task to the worker pool, or retry later if there are too many pending polls.
+     */
+    private void dispatch(final PeriodicalExecutor task, final long due)
+    {
+        if (!tasks.contains(task))
+        {
+            return;
+        }
+
+        try
+        {
+            workers.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    execute(task, due);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejected.incrementAndGet();
+            LOGGER.trace("Too many pending polls, delaying {}", task);
+
+            schedule(task, BACKOFF, due);
+        }
+    }
+
+    private void execute(final PeriodicalExecutor task, final long due)
+    {
+        long lag = Math.max(0, System.currentTimeMillis() - due);
+        recordLag(task, lag);
+
+        try
+        {
+            task.execute();
+        }
+        finally
+        {
+            // Fixed delay: the next poll is scheduled once this one ends
+            schedule(task, nextDelay(task.getPeriodicity()));
+        }
+    }
+
+    private long nextDelay(final int periodicity)
+    {
+        if (jitter <= 0 || periodicity <= 0)
+        {
+            return periodicity;
+        }
+
+        int bound = Math.max(periodicity * jitter / 100, 1);
+        return periodicity + random.nextInt(bound);
+    }
+
+    private void recordLag(final PeriodicalExecutor task, final long lag)
+    {
+        task.setLastLag(lag);
+
+        polls.incrementAndGet();
+        totalLag.addAndGet(lag);
+
+        long max = maxLag.get();
+        while (lag > max && !maxLag.compareAndSet(max, lag))
+        {
+            max = maxLag.get();
+        }
+    }
+
+    @Override
+    public int getScheduledTasks()
+    {
+        return tasks.size();
+    }
+
+    @Override
+    public int getActivePolls()
+    {
+        return workers.getActiveCount();
+    }
+
+    @Override
+    public int getQueuedPolls()
+    {
+        return workers.getQueue().size();
+    }
+
+    @Override
+    public long getRejectedPolls()
+    {
+        return rejected.get();
+    }
+
+    @Override
+    public long getMeanLag()
+    {
+        long count = polls.get();
+        return count == 0 ? 0 : totalLag.get() / count;
+    }
+
+    @Override
+    public long getMaxLag()
+    {
+        return maxLag.get();
+    }
+
+    @Override
+    public String[] getTaskLags()
+    {
+        List<String> lags = new ArrayList<String>(tasks.size());
+        for (PeriodicalExecutor task : tasks)
+        {
+            lags.add(task + ": " + task.getLastLag());
+        }
+
+        return lags.toArray(new String[lags.size()]);
+    }
+
+    private static int getProperty(final String name, final int defaultValue)
+    {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Creates daemon threads with a meaningful name.
+     */
+    private static class NamedThreadFactory implements ThreadFactory
+    {
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public NamedThreadFactory(final String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
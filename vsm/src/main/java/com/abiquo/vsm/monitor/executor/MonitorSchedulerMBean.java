@@ -0,0 +1,48 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.vsm.monitor.executor;
+
+/**
+ * Metrics of the {@link MonitorScheduler}.
+ */
+public interface MonitorSchedulerMBean
+{
+    /** Periodical tasks currently scheduled. */
+    public int getScheduledTasks();
+
+    /** Polls being executed. */
+    public int getActivePolls();
+
+    /** Polls waiting for a free worker. */
+    public int getQueuedPolls();
+
+    /** Polls delayed because all the workers were busy and the queue was full. */
+    public long getRejectedPolls();
+
+    /** Mean time (ms) the polls start after its scheduled time. */
+    public long getMeanLag();
+
+    /** Max time (ms) a poll has started after its scheduled time. */
+    public long getMaxLag();
+
+    /** Last lag (ms) of each scheduled task, as "task: lag". */
+    public String[] getTaskLags();
+}
@@ -20,19 +20,20 @@
  */
 package com.abiquo.vsm.monitor.executor;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Executes a task periodically.
+ * <p>
+ * The executions are performed by the {@link MonitorScheduler} shared by all the monitors, so no
+ * thread is kept for each monitored hypervisor.
  * 
  * @author ibarrera
  */
 public class PeriodicalExecutor implements ExecutionCallback
 {
-    /** Target executor */
-    private ScheduledExecutorService executor;
+    /** Shared scheduling engine */
+    private MonitorScheduler scheduler;
 
     /** Execution delay interval, in milliseconds */
     private int periodicity;
@@ -40,6 +41,14 @@ public class PeriodicalExecutor implements ExecutionCallback
     /** The task to execute */
     private AbstractTask task;
 
+    /** The next scheduled execution */
+    private volatile ScheduledFuture< ? > next;
+
+    /** Delay of the last execution start, in milliseconds */
+    private volatile long lastLag;
+
+    private volatile boolean running;
+
     /**
      * Creates a new {@link PeriodicalExecutor} the execute the specified with the specified
      * periodicity.
@@ -48,9 +57,14 @@ public class PeriodicalExecutor implements ExecutionCallback
      * @param periodicity Execution periodicity.
      */
     public PeriodicalExecutor(AbstractTask task, int periodicity)
+    {
+        this(task, periodicity, MonitorScheduler.getInstance());
+    }
+
+    protected PeriodicalExecutor(AbstractTask task, int periodicity, MonitorScheduler scheduler)
     {
         super();
-        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.scheduler = scheduler;
         this.periodicity = periodicity;
         this.task = task;
         this.task.setCallback(this);
@@ -59,17 +73,33 @@ public class PeriodicalExecutor implements ExecutionCallback
     /**
      * Start the {@link PeriodicalExecutor}.
      */
-    public void start()
+    public synchronized void start()
     {
-        executor.scheduleWithFixedDelay(task, 0, periodicity, TimeUnit.MILLISECONDS);
+        if (!running)
+        {
+            running = true;
+            scheduler.schedule(this);
+        }
     }
 
     /**
-     * Stop the {@link PeriodicalExecutor}.
+     * Stop the {@link PeriodicalExecutor}. The current execution, if any, is not interrupted.
      */
-    public void stop()
+    public synchronized void stop()
     {
-        executor.shutdownNow();
+        running = false;
+        scheduler.cancel(this);
+    }
+
+    /**
+     * Executes the task once. Called by the {@link MonitorScheduler}.
+     */
+    protected void execute()
+    {
+        if (running)
+        {
+            task.run();
+        }
     }
 
     /**
@@ -114,4 +144,35 @@ public class PeriodicalExecutor implements ExecutionCallback
         this.periodicity = periodicity;
     }
 
+    /**
+     * Gets the delay of the last execution start, in milliseconds.
+     * 
+     * @return the last lag
+     */
+    public long getLastLag()
+    {
+        return lastLag;
+    }
+
+    protected void setLastLag(long lastLag)
+    {
+        this.lastLag = lastLag;
+    }
+
+    protected ScheduledFuture< ? > getNext()
+    {
+        return next;
+    }
+
+    protected void setNext(ScheduledFuture< ? > next)
+    {
+        this.next = next;
+    }
+
+    @Override
+    public String toString()
+    {
+        return task.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(this));
+    }
+
 }
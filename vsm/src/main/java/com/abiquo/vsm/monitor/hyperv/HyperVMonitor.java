@@ -195,9 +195,9 @@ public class HyperVMonitor extends AbstractMonitor
 
                             VMEvent event = new VMEvent(state, physicalMachineAddress, vmName);
 
-                            // Propagate the event. RedisSubscriber will decide if it must be
-                            // notified, based on subscription information
-                            HyperVMonitor.this.notify(event);
+                            // Only changed states are propagated. RedisSubscriber will decide if
+                            // it must be notified, based on subscription information
+                            HyperVMonitor.this.notifyChange(event);
                         }
 
                         if (LOGGER.isTraceEnabled())
@@ -192,9 +192,9 @@ public class VirtualBoxMonitor extends AbstractMonitor
 
                             VMEvent event = new VMEvent(state, physicalMachineAddress, vmName);
 
-                            // Propagate the event. RedisSubscriber will decide if it must be
-                            // notified, based on subscription information
-                            VirtualBoxMonitor.this.notify(event);
+                            // Only changed states are propagated. RedisSubscriber will decide if
+                            // it must be notified, based on subscription information
+                            VirtualBoxMonitor.this.notifyChange(event);
                         }
 
                         if (LOGGER.isTraceEnabled())
@@ -207,9 +207,9 @@ public class XenServerMonitor extends AbstractMonitor
 
                                 VMEvent event = new VMEvent(state, physicalMachineAddress, vmName);
 
-                                // Propagate the event. RedisSubscriber will decide if it must be
-                                // notified, based on subscription information
-                                XenServerMonitor.this.notify(event);
+                                // Only changed states are propagated. RedisSubscriber will
+                                // decide if it must be notified, based on subscription information
+                                XenServerMonitor.this.notifyChange(event);
                             }
                         }
 
@@ -21,6 +21,9 @@
 
 package com.abiquo.vsm.redis.dao;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -37,6 +40,14 @@ import com.abiquo.vsm.model.VirtualMachinesCache;
  */
 public class RedisDao
 {
+    /** Index of the virtual machine states, kept updated with the JOhm models. */
+    private VirtualMachineStateDao stateDao = new VirtualMachineStateDao();
+
+    public VirtualMachineStateDao getStateDao()
+    {
+        return stateDao;
+    }
+
     public PhysicalMachine getPhysicalMachine(final Integer id)
     {
         return JOhm.get(PhysicalMachine.class, id);
@@ -44,12 +55,12 @@ public class RedisDao
 
     public VirtualMachine getVirtualMachine(final Integer id)
     {
-        return JOhm.get(VirtualMachine.class, id);
+        return loadState(JOhm.get(VirtualMachine.class, id));
     }
 
     public VirtualMachine findVirtualMachineByName(final String name)
     {
-        return findUnique(VirtualMachine.class, "name", name);
+        return loadState(findUnique(VirtualMachine.class, "name", name));
     }
 
     public PhysicalMachine findPhysicalMachineByAddress(final String address)
@@ -59,7 +70,11 @@ public class RedisDao
 
     public Set<VirtualMachine> findAllVirtualMachines()
     {
-        return JOhm.getAll(VirtualMachine.class);
+        // The state is part of the hash code, load it before building the set
+        List<VirtualMachine> virtualMachines =
+            new ArrayList<VirtualMachine>(JOhm.getAll(VirtualMachine.class));
+        stateDao.loadStates(virtualMachines);
+        return new HashSet<VirtualMachine>(virtualMachines);
     }
 
     public Set<PhysicalMachine> findAllPhysicalMachines()
@@ -69,13 +84,19 @@ public class RedisDao
 
     public VirtualMachine save(VirtualMachine virtualMachine)
     {
-        return saveUnique(VirtualMachine.class, virtualMachine, "name", virtualMachine.getName());
+        VirtualMachine saved =
+            saveUnique(VirtualMachine.class, virtualMachine, "name", virtualMachine.getName());
+        stateDao.save(saved);
+        return saved;
     }
 
     public PhysicalMachine save(PhysicalMachine physicalMachine)
     {
-        return saveUnique(PhysicalMachine.class, physicalMachine, "address", physicalMachine
-            .getAddress());
+        PhysicalMachine saved =
+            saveUnique(PhysicalMachine.class, physicalMachine, "address", physicalMachine
+                .getAddress());
+        stateDao.save(saved);
+        return saved;
     }
 
     public VirtualMachinesCache save(VirtualMachinesCache cache)
@@ -86,11 +107,23 @@ public class RedisDao
     public void delete(VirtualMachine virtualMachine)
     {
         JOhm.delete(VirtualMachine.class, virtualMachine.getId());
+        stateDao.delete(virtualMachine);
     }
 
     public void delete(PhysicalMachine physicalMachine)
     {
         JOhm.delete(PhysicalMachine.class, physicalMachine.getId());
+        stateDao.delete(physicalMachine);
+    }
+
+    private VirtualMachine loadState(final VirtualMachine virtualMachine)
+    {
+        if (virtualMachine != null)
+        {
+            stateDao.loadStates(Collections.singleton(virtualMachine));
+        }
+
+        return virtualMachine;
     }
 
     private <T> T saveUnique(Class<T> clazz, T entity, final String fieldName,
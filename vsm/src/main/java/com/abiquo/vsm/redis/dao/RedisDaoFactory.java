@@ -35,7 +35,7 @@ import com.abiquo.vsm.VSMManager;
  */
 public class RedisDaoFactory
 {
-    private static JedisPool jedisPool;
+    private static volatile JedisPool jedisPool;
 
     static
     {
@@ -47,6 +47,23 @@ public class RedisDaoFactory
         return new RedisDao();
     }
 
+    /**
+     * The connection pool shared by all the VSM redis clients. Do not keep the returned pool, it
+     * is replaced on {@link #refreshConnectionsPool()}.
+     */
+    public static JedisPool getPool()
+    {
+        return jedisPool;
+    }
+
+    /**
+     * Replace the connection pool. Used by tests to work on a different database.
+     */
+    static void setPool(final JedisPool pool)
+    {
+        jedisPool = pool;
+    }
+
     public static void refreshConnectionsPool()
     {
         createAndSetPool(true);
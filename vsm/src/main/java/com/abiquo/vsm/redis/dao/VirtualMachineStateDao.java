@@ -0,0 +1,454 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.vsm.redis.dao;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+
+import com.abiquo.vsm.migration.Keymaker;
+import com.abiquo.vsm.model.PhysicalMachine;
+import com.abiquo.vsm.model.VirtualMachine;
+
+/**
+ * Compact index of the virtual machine states used on the event processing.
+ * <p>
+ * Each subscribed virtual machine is stored in a hash keyed by its name (''vsm:vm:name'') with its
+ * id, last known state and the address of its physical machine. Each physical machine is stored
+ * in a hash keyed by its address (''vsm:pm:address'') with its id and type. Both hashes are read
+ * in a single round trip, and the state is updated with a WATCH/MULTI compare and set, which also
+ * updates the attribute of the JOhm model in the same transaction.
+ * <p>
+ * The index is kept updated by {@link RedisDao} when the JOhm models are saved or deleted, and
+ * the last known state stored in the index prevails over the JOhm attribute.
+ */
+public class VirtualMachineStateDao
+{
+    private final static Logger logger = LoggerFactory.getLogger(VirtualMachineStateDao.class);
+
+    /** Set once the existing JOhm models have been indexed. */
+    public static final String VersionKey = "vsm:index:version";
+
+    public static final String Version = "1";
+
+    private static final Keymaker VirtualMachineKeys = new Keymaker("vsm").build("vm");
+
+    private static final Keymaker PhysicalMachineKeys = new Keymaker("vsm").build("pm");
+
+    /** The hashes of the JOhm models are keyed by the model name and id. */
+    private static final Keymaker VirtualMachineModelKeys =
+        new Keymaker(VirtualMachine.class.getSimpleName());
+
+    private static final String LastKnownStateAttribute = "lastKnownState";
+
+    private static final String IdField = "id";
+
+    private static final String StateField = "state";
+
+    private static final String MachineField = "machine";
+
+    private static final String TypeField = "type";
+
+    /**
+     * Gets the virtual machine and the physical machine where an event has been produced.
+     * 
+     * @param virtualMachineName The name of the virtual machine.
+     * @param physicalMachineAddress The address of the physical machine producing the event.
+     * @return The (not persisted) virtual machine and physical machine, if found.
+     */
+    public Lookup lookup(final String virtualMachineName, final String physicalMachineAddress)
+    {
+        JedisPool pool = getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            Transaction transaction = jedis.multi();
+            transaction.hgetAll(virtualMachineKey(virtualMachineName));
+            transaction.hgetAll(physicalMachineKey(physicalMachineAddress));
+            List<Object> replies = transaction.exec();
+
+            Map<String, String> vmFields = toMap(replies.get(0));
+            PhysicalMachine machine =
+                toPhysicalMachine(physicalMachineAddress, toMap(replies.get(1)));
+
+            VirtualMachine virtualMachine = null;
+            if (!vmFields.isEmpty())
+            {
+                virtualMachine = new VirtualMachine();
+                virtualMachine.setId(toInteger(vmFields.get(IdField)));
+                virtualMachine.setName(virtualMachineName);
+                virtualMachine.setLastKnownState(vmFields.get(StateField));
+
+                String address = vmFields.get(MachineField);
+                if (physicalMachineAddress.equals(address))
+                {
+                    virtualMachine.setPhysicalMachine(machine);
+                }
+                else if (address != null)
+                {
+                    // Only when the virtual machine has been moved
+                    virtualMachine.setPhysicalMachine(toPhysicalMachine(address, jedis
+                        .hgetAll(physicalMachineKey(address))));
+                }
+            }
+
+            return new Lookup(virtualMachine, machine);
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+    }
+
+    /**
+     * Updates the last known state of the virtual machine only if it has not been changed since it
+     * was read.
+     * 
+     * @param virtualMachine The virtual machine to update.
+     * @param expected The last known state read.
+     * @param state The new last known state.
+     * @return False if the state has been changed by other client.
+     */
+    public boolean compareAndSetState(final VirtualMachine virtualMachine, final String expected,
+        final String state)
+    {
+        final String key = virtualMachineKey(virtualMachine.getName());
+
+        JedisPool pool = getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            jedis.watch(key);
+
+            String current = jedis.hget(key, StateField);
+            if (current == null ? expected != null : !current.equals(expected))
+            {
+                jedis.unwatch();
+                return false;
+            }
+
+            Transaction transaction = jedis.multi();
+            transaction.hset(key, StateField, state);
+            if (virtualMachine.getId() != null)
+            {
+                transaction.hset(VirtualMachineModelKeys.build(
+                    String.valueOf(virtualMachine.getId())).toString(), LastKnownStateAttribute,
+                    state);
+            }
+
+            return transaction.exec() != null;
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+    }
+
+    /**
+     * Replaces the last known state of the given virtual machines with the indexed one.
+     */
+    public void loadStates(final Collection<VirtualMachine> virtualMachines)
+    {
+        if (virtualMachines.isEmpty())
+        {
+            return;
+        }
+
+        List<VirtualMachine> vms = new ArrayList<VirtualMachine>(virtualMachines);
+
+        JedisPool pool = getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            Transaction transaction = jedis.multi();
+            for (VirtualMachine vm : vms)
+            {
+                transaction.hget(virtualMachineKey(vm.getName()), StateField);
+            }
+            List<Object> replies = transaction.exec();
+
+            for (int i = 0; i < vms.size(); i++)
+            {
+                String state = toString(replies.get(i));
+                if (state != null)
+                {
+                    vms.get(i).setLastKnownState(state);
+                }
+            }
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+    }
+
+    public void save(final VirtualMachine virtualMachine)
+    {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put(IdField, String.valueOf(virtualMachine.getId()));
+
+        if (virtualMachine.getLastKnownState() != null)
+        {
+            fields.put(StateField, virtualMachine.getLastKnownState());
+        }
+        if (virtualMachine.getPhysicalMachine() != null)
+        {
+            fields.put(MachineField, virtualMachine.getPhysicalMachine().getAddress());
+        }
+
+        JedisPool pool = getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            String key = virtualMachineKey(virtualMachine.getName());
+
+            Transaction transaction = jedis.multi();
+            transaction.del(key);
+            transaction.hmset(key, fields);
+            transaction.exec();
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+    }
+
+    public void save(final PhysicalMachine physicalMachine)
+    {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put(IdField, String.valueOf(physicalMachine.getId()));
+        if (physicalMachine.getType() != null)
+        {
+            fields.put(TypeField, physicalMachine.getType());
+        }
+
+        JedisPool pool = getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            jedis.hmset(physicalMachineKey(physicalMachine.getAddress()), fields);
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+    }
+
+    public void delete(final VirtualMachine virtualMachine)
+    {
+        delete(virtualMachineKey(virtualMachine.getName()));
+    }
+
+    public void delete(final PhysicalMachine physicalMachine)
+    {
+        delete(physicalMachineKey(physicalMachine.getAddress()));
+    }
+
+    /**
+     * Index all the existing JOhm models, if not already done.
+     * 
+     * @param dao The dao to read the JOhm models.
+     * @return The number of indexed virtual machines.
+     */
+    public int migrate(final RedisDao dao)
+    {
+        JedisPool pool = getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            if (Version.equals(jedis.get(VersionKey)))
+            {
+                return 0;
+            }
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+
+        logger.info("Indexing the virtual machine states");
+
+        for (PhysicalMachine machine : dao.findAllPhysicalMachines())
+        {
+            save(machine);
+        }
+
+        int count = 0;
+        for (VirtualMachine virtualMachine : dao.findAllVirtualMachines())
+        {
+            if (virtualMachine.getName() != null)
+            {
+                save(virtualMachine);
+                count++;
+            }
+        }
+
+        jedis = pool.getResource();
+        try
+        {
+            jedis.set(VersionKey, Version);
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+
+        logger.info("{} virtual machine states indexed", count);
+        return count;
+    }
+
+    private void delete(final String key)
+    {
+        JedisPool pool = getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            jedis.del(key);
+        }
+        finally
+        {
+            pool.returnResource(jedis);
+        }
+    }
+
+    protected JedisPool getPool()
+    {
+        return RedisDaoFactory.getPool();
+    }
+
+    private static String virtualMachineKey(final String name)
+    {
+        return VirtualMachineKeys.build(name).toString();
+    }
+
+    private static String physicalMachineKey(final String address)
+    {
+        return PhysicalMachineKeys.build(address).toString();
+    }
+
+    private static PhysicalMachine toPhysicalMachine(final String address,
+        final Map<String, String> fields)
+    {
+        if (fields == null || fields.isEmpty())
+        {
+            return null;
+        }
+
+        PhysicalMachine machine = new PhysicalMachine();
+        machine.setId(toInteger(fields.get(IdField)));
+        machine.setAddress(address);
+        machine.setType(fields.get(TypeField));
+
+        return machine;
+    }
+
+    private static Integer toInteger(final String value)
+    {
+        return value == null || "null".equals(value) ? null : Integer.valueOf(value);
+    }
+
+    /**
+     * Transaction replies are the raw redis replies.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> toMap(final Object reply)
+    {
+        Map<String, String> map = new HashMap<String, String>();
+
+        if (reply instanceof Map)
+        {
+            map.putAll((Map<String, String>) reply);
+        }
+        else if (reply instanceof List)
+        {
+            List<Object> values = (List<Object>) reply;
+            for (int i = 0; i + 1 < values.size(); i += 2)
+            {
+                map.put(toString(values.get(i)), toString(values.get(i + 1)));
+            }
+        }
+
+        return map;
+    }
+
+    private static String toString(final Object reply)
+    {
+        if (reply instanceof byte[])
+        {
+            try
+            {
+                return new String((byte[]) reply, "UTF-8");
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return reply == null ? null : reply.toString();
+    }
+
+    /**
+     * Result of the {@link VirtualMachineStateDao#lookup(String, String)}.
+     */
+    public static class Lookup
+    {
+        private final VirtualMachine virtualMachine;
+
+        private final PhysicalMachine physicalMachine;
+
+        public Lookup(final VirtualMachine virtualMachine, final PhysicalMachine physicalMachine)
+        {
+            this.virtualMachine = virtualMachine;
+            this.physicalMachine = physicalMachine;
+        }
+
+        /** The subscribed virtual machine (with its physical machine), null if not found. */
+        public VirtualMachine getVirtualMachine()
+        {
+            return virtualMachine;
+        }
+
+        /** The physical machine producing the event, null if not found. */
+        public PhysicalMachine getPhysicalMachine()
+        {
+            return physicalMachine;
+        }
+    }
+}
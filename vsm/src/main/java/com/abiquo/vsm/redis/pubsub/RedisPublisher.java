@@ -22,55 +22,307 @@
 package com.abiquo.vsm.redis.pubsub;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.PipelineBlock;
 
 import com.abiquo.vsm.events.VMEvent;
+import com.abiquo.vsm.redis.dao.RedisDaoFactory;
+import com.abiquo.vsm.util.MBeanUtils;
 
 /**
  * Wraps the redis commands for notification business.
+ * <p>
+ * The events are buffered and published by a single thread using the shared
+ * {@link RedisDaoFactory#getPool()} connections. All the events buffered when the thread wakes up
+ * (up to ''abiquo.vsm.publisher.batch'') are sent in the same pipeline, optionally waiting
+ * ''abiquo.vsm.publisher.window'' ms to fill it. If the buffer (''abiquo.vsm.publisher.buffer''
+ * events) is full the caller waits up to ''abiquo.vsm.publisher.offerTimeout'' ms, and the event
+ * is rejected if it is still full, so the events are always published in order. The events of a
+ * batch that can not be sent are discarded and notified to their {@link FailureListener}.
  * 
  * @author eruiz@abiquo.com
  */
-public class RedisPublisher
+public class RedisPublisher implements RedisPublisherMBean
 {
     private final static Logger logger = LoggerFactory.getLogger(RedisPublisher.class);
 
+    private final static int BUFFER_SIZE = Integer.parseInt(System.getProperty(
+        "abiquo.vsm.publisher.buffer", "10000"));
+
+    private final static int BATCH_SIZE = Integer.parseInt(System.getProperty(
+        "abiquo.vsm.publisher.batch", "100"));
+
+    private final static long WINDOW = Long.parseLong(System.getProperty(
+        "abiquo.vsm.publisher.window", "0"));
+
+    private final static long OFFER_TIMEOUT = Long.parseLong(System.getProperty(
+        "abiquo.vsm.publisher.offerTimeout", "5000"));
+
     /** Used to compose the event notification message. */
-    private final String Separator = "|";
+    private static final String Separator = "|";
 
     /** The regex to split the event notification message fields. */
     public static final String RegexSeparator = "\\|";
 
-    /** Redis client */
-    private Jedis jedis;
+    private static RedisPublisher instance;
+
+    private final BlockingQueue<PendingEvent> buffer;
+
+    private final long offerTimeout;
+
+    private Thread flusher;
 
-    public RedisPublisher(String host, int port)
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Get the publisher shared by all the monitors.
+     */
+    public static synchronized RedisPublisher getInstance()
     {
-        jedis = new Jedis(host, port);
+        if (instance == null)
+        {
+            instance = new RedisPublisher();
+            instance.start();
+            MBeanUtils.register(instance, RedisPublisher.class.getName());
+        }
+
+        return instance;
+    }
+
+    protected RedisPublisher()
+    {
+        this(BUFFER_SIZE, OFFER_TIMEOUT);
+    }
+
+    protected RedisPublisher(final int bufferSize, final long offerTimeout)
+    {
+        this.buffer = new LinkedBlockingQueue<PendingEvent>(bufferSize);
+        this.offerTimeout = offerTimeout;
+    }
+
+    protected synchronized void start()
+    {
+        flusher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flushLoop();
+            }
+        }, "vsm-redis-publisher");
+
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stops the publisher thread. The buffered events are discarded.
+     */
+    protected synchronized void stop()
+    {
+        if (flusher != null)
+        {
+            flusher.interrupt();
+            flusher = null;
+        }
     }
 
     /**
      * Publish an event to the eventing channel.
      * 
-     * @param name The virtual machine name.
-     * @param type The event type.
+     * @param event The event to publish.
+     * @throws IOException If the buffer is still full after waiting the offer timeout.
      */
-    public void publishEvent(VMEvent event) throws IOException
+    public void publishEvent(final VMEvent event) throws IOException
+    {
+        publishEvent(event, null);
+    }
+
+    /**
+     * Publish an event to the eventing channel.
+     * 
+     * @param event The event to publish.
+     * @param listener Notified (from the publisher thread) if the event is discarded because it
+     *            could not be sent. Can be null.
+     * @throws IOException If the buffer is still full after waiting the offer timeout.
+     */
+    public void publishEvent(final VMEvent event, final FailureListener listener)
+        throws IOException
+    {
+        PendingEvent pending = new PendingEvent(createPublishMessage(event), event, listener);
+
+        try
+        {
+            if (buffer.offer(pending, offerTimeout, TimeUnit.MILLISECONDS))
+            {
+                return;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        // Too many events, do not keep them in memory
+        overflows.incrementAndGet();
+        throw new IOException("The publisher buffer is full, event not published: "
+            + pending.message);
+    }
+
+    private void flushLoop()
     {
-        String message = createPublishMessage(event);
+        List<PendingEvent> batch = new ArrayList<PendingEvent>(BATCH_SIZE);
+
+        while (!Thread.currentThread().isInterrupted())
+        {
+            try
+            {
+                batch.add(buffer.take());
 
-        jedis.connect();
-        jedis.publish(RedisSubscriber.EventingChannel, message);
-        jedis.disconnect();
+                if (WINDOW > 0)
+                {
+                    fill(batch);
+                }
+                buffer.drainTo(batch, BATCH_SIZE - batch.size());
+
+                publish(batch);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch (IOException e)
+            {
+                logger.error("Unable to notify " + batch.size() + " events, discarding them", e);
+                for (PendingEvent event : batch)
+                {
+                    logger.debug("Discarded event {}", event.message);
+                    event.discarded();
+                }
+                failed.addAndGet(batch.size());
+            }
+            catch (RuntimeException e)
+            {
+                logger.error("Unexpected error notifying events", e);
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
     }
 
-    private String createPublishMessage(VMEvent event)
+    /**
+     * Wait up to the time window for more events.
+     */
+    private void fill(final List<PendingEvent> batch) throws InterruptedException
     {
-        StringBuffer message = new StringBuffer();
+        final long deadline = System.currentTimeMillis() + WINDOW;
+
+        while (batch.size() < BATCH_SIZE)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                return;
+            }
+
+            PendingEvent next = buffer.poll(remaining, TimeUnit.MILLISECONDS);
+            if (next == null)
+            {
+                return;
+            }
+
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Publish all the events in a single pipeline.
+     */
+    private void publish(final List<PendingEvent> events) throws IOException
+    {
+        try
+        {
+            send(events);
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException(e);
+        }
+
+        batches.incrementAndGet();
+        published.addAndGet(events.size());
+
+        final long now = System.currentTimeMillis();
+        for (PendingEvent event : events)
+        {
+            long latency = now - event.received;
+            totalLatency.addAndGet(latency);
+
+            long max = maxLatency.get();
+            while (latency > max && !maxLatency.compareAndSet(max, latency))
+            {
+                max = maxLatency.get();
+            }
+        }
+    }
+
+    /**
+     * Sends the events to the eventing channel in a single pipeline.
+     */
+    protected void send(final List<PendingEvent> events)
+    {
+        JedisPool pool = RedisDaoFactory.getPool();
+        Jedis jedis = pool.getResource();
+
+        try
+        {
+            jedis.pipelined(new PipelineBlock()
+            {
+                @Override
+                public void execute()
+                {
+                    for (PendingEvent event : events)
+                    {
+                        publish(RedisSubscriber.EventingChannel, event.message);
+                    }
+                }
+            });
+
+            pool.returnResource(jedis);
+        }
+        catch (RuntimeException e)
+        {
+            pool.returnBrokenResource(jedis);
+            throw e;
+        }
+    }
+
+    private String createPublishMessage(final VMEvent event)
+    {
+        StringBuilder message = new StringBuilder();
 
         message.append(event.getVirtualMachineName()).append(Separator);
         message.append(event.getType().name()).append(Separator);
@@ -78,4 +330,95 @@ public class RedisPublisher
 
         return message.toString();
     }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return buffer.size();
+    }
+
+    @Override
+    public long getPublished()
+    {
+        return published.get();
+    }
+
+    @Override
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    @Override
+    public long getOverflows()
+    {
+        return overflows.get();
+    }
+
+    @Override
+    public long getBatches()
+    {
+        return batches.get();
+    }
+
+    @Override
+    public long getMeanLatency()
+    {
+        long count = published.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    @Override
+    public long getMaxLatency()
+    {
+        return maxLatency.get();
+    }
+
+    /**
+     * Notified of the events that could not be sent.
+     */
+    public interface FailureListener
+    {
+        void failed(VMEvent event);
+    }
+
+    /**
+     * Event message waiting to be published.
+     */
+    protected static class PendingEvent
+    {
+        public final String message;
+
+        protected final long received;
+
+        private final VMEvent event;
+
+        private final FailureListener listener;
+
+        protected PendingEvent(final String message, final VMEvent event,
+            final FailureListener listener)
+        {
+            this.message = message;
+            this.event = event;
+            this.listener = listener;
+            this.received = System.currentTimeMillis();
+        }
+
+        private void discarded()
+        {
+            if (listener == null)
+            {
+                return;
+            }
+
+            try
+            {
+                listener.failed(event);
+            }
+            catch (RuntimeException e)
+            {
+                logger.error("Error notifying the discarded event " + message, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,49 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.vsm.redis.pubsub;
+
+/**
+ * Metrics of the {@link RedisPublisher} event buffer.
+ */
+public interface RedisPublisherMBean
+{
+    /** Events waiting to be published. */
+    public int getQueueDepth();
+
+    /** Published events. */
+    public long getPublished();
+
+    /** Events lost due to redis errors. */
+    public long getFailed();
+
+    /** Events published by the monitor thread because the buffer was full. */
+    public long getOverflows();
+
+    /** Pipelines sent to redis. */
+    public long getBatches();
+
+    /** Mean time (ms) since the event is received until it is published. */
+    public long getMeanLatency();
+
+    /** Max time (ms) since the event is received until it is published. */
+    public long getMaxLatency();
+}
@@ -40,6 +40,7 @@ import com.abiquo.vsm.model.VirtualMachine;
 import com.abiquo.vsm.monitor.Monitor.Type;
 import com.abiquo.vsm.redis.dao.RedisDao;
 import com.abiquo.vsm.redis.dao.RedisDaoFactory;
+import com.abiquo.vsm.redis.dao.VirtualMachineStateDao.Lookup;
 import com.abiquo.vsm.redis.pubsub.notifier.GenericNotifier;
 import com.abiquo.vsm.redis.pubsub.notifier.impl.ESXiNotifier;
 import com.abiquo.vsm.redis.pubsub.notifier.impl.HyperVNotifier;
@@ -103,8 +104,10 @@ public class RedisSubscriberCallback extends JedisPubSub
             String eventName = fields[1];
             String physicalMachineAddress = fields[2];
 
-            VirtualMachine virtualMachine = dao.findVirtualMachineByName(virtualMachineName);
-            PhysicalMachine machine = dao.findPhysicalMachineByAddress(physicalMachineAddress);
+            // Both machines from the state index in a single round trip
+            Lookup lookup = dao.getStateDao().lookup(virtualMachineName, physicalMachineAddress);
+            VirtualMachine virtualMachine = lookup.getVirtualMachine();
+            PhysicalMachine machine = lookup.getPhysicalMachine();
             VMEventType event = VMEventType.valueOf(eventName);
 
             if (virtualMachine != null && virtualMachine.getPhysicalMachine() != null
@@ -184,15 +187,29 @@ public class RedisSubscriberCallback extends JedisPubSub
         {
             VirtualSystemEvent last = notifications.get(notifications.size() - 1);
 
-            virtualMachine.setLastKnownState(last.getEventType());
-
             if (containsMovedEvent(notifications))
             {
-                // Update the PhysicalMachine where the VirtualMachine is.
-                virtualMachine.setPhysicalMachine(machine);
-            }
+                // Update the PhysicalMachine where the VirtualMachine is (updates the index too)
+                VirtualMachine persisted = dao.getVirtualMachine(virtualMachine.getId());
 
-            virtualMachine = dao.save(virtualMachine);
+                if (persisted != null)
+                {
+                    persisted.setLastKnownState(last.getEventType());
+                    persisted.setPhysicalMachine(dao.getPhysicalMachine(machine.getId()));
+                    virtualMachine = dao.save(persisted);
+                }
+            }
+            else if (!dao.getStateDao().compareAndSetState(virtualMachine,
+                virtualMachine.getLastKnownState(), last.getEventType()))
+            {
+                // The state has been invalidated while processing the event, keep it invalidated
+                logger.debug("Last known state of {} changed while processing the event",
+                    virtualMachine.getName());
+            }
+            else
+            {
+                virtualMachine.setLastKnownState(last.getEventType());
+            }
         }
 
         return virtualMachine;
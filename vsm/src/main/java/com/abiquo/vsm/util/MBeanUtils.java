@@ -0,0 +1,85 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.vsm.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of utility methods to expose the VSM metrics through JMX.
+ */
+public class MBeanUtils
+{
+    private final static Logger logger = LoggerFactory.getLogger(MBeanUtils.class);
+
+    /**
+     * Registers the given MBean in the platform MBean server, if it is not already registered.
+     * 
+     * @param mbean The MBean to register.
+     * @param type The MBean type, used to build the object name.
+     */
+    public static void register(final Object mbean, final String type)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("Abiquo:Name=VSM,Type=" + type);
+
+            if (!server.isRegistered(name))
+            {
+                server.registerMBean(mbean, name);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Could not register the {} MBean: {}", type, e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the MBean of the given type, if registered.
+     * 
+     * @param type The MBean type, used to build the object name.
+     */
+    public static void unregister(final String type)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("Abiquo:Name=VSM,Type=" + type);
+
+            if (server.isRegistered(name))
+            {
+                server.unregisterMBean(name);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Could not unregister the {} MBean: {}", type, e.getMessage());
+        }
+    }
+}
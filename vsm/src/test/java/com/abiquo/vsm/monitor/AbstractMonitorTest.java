@@ -0,0 +1,171 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.vsm.monitor;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.vsm.events.VMEvent;
+import com.abiquo.vsm.events.VMEventType;
+import com.abiquo.vsm.redis.pubsub.RedisPublisher;
+
+public class AbstractMonitorTest
+{
+    private static final String PM = "10.60.1.120";
+
+    private FailingPublisher publisher;
+
+    private AbstractMonitor monitor;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        publisher = new FailingPublisher();
+        publisher.start();
+        monitor = new PollingMonitor(publisher);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        publisher.stop();
+    }
+
+    @Test
+    public void testUnchangedStateIsNotPublished() throws Exception
+    {
+        monitor.notifyChange(event());
+        monitor.notifyChange(event());
+        monitor.notifyChange(new VMEvent(VMEventType.POWER_OFF, PM, "vm1"));
+
+        publisher.await(2);
+        Thread.sleep(100);
+        assertEquals(publisher.messages.size(), 2);
+    }
+
+    @Test
+    public void testStateSentAgainAfterAFailedFlush() throws Exception
+    {
+        publisher.failures = 1;
+
+        monitor.notifyChange(event());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (publisher.getFailed() < 1 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(publisher.getFailed(), 1);
+
+        // the failed state has been forgotten, the same state is published again
+        monitor.notifyChange(event());
+
+        publisher.await(1);
+        assertEquals(publisher.messages.get(0), "vm1|POWER_ON|" + PM);
+    }
+
+    private static VMEvent event()
+    {
+        return new VMEvent(VMEventType.POWER_ON, PM, "vm1");
+    }
+
+    private static class PollingMonitor extends AbstractMonitor
+    {
+        public PollingMonitor(final RedisPublisher publisher)
+        {
+            super(publisher);
+        }
+
+        @Override
+        public void start()
+        {
+            // Do nothing
+        }
+
+        @Override
+        public void shutdown()
+        {
+            // Do nothing
+        }
+
+        @Override
+        public int getMaxNumberOfHypervisors()
+        {
+            return 1;
+        }
+    }
+
+    private static class FailingPublisher extends RedisPublisher
+    {
+        private final List<String> messages = new CopyOnWriteArrayList<String>();
+
+        private volatile int failures;
+
+        public FailingPublisher()
+        {
+            super(100, 1000);
+        }
+
+        @Override
+        protected void start()
+        {
+            super.start();
+        }
+
+        @Override
+        protected void stop()
+        {
+            super.stop();
+        }
+
+        @Override
+        protected void send(final List<PendingEvent> events)
+        {
+            if (failures > 0)
+            {
+                failures--;
+                throw new RuntimeException("Redis is down");
+            }
+
+            for (PendingEvent event : events)
+            {
+                messages.add(event.message);
+            }
+        }
+
+        public void await(final int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (messages.size() < count && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(messages.size(), count);
+        }
+    }
+}
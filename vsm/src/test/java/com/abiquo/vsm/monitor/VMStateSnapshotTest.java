@@ -0,0 +1,101 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.vsm.monitor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.vsm.events.VMEvent;
+import com.abiquo.vsm.events.VMEventType;
+
+public class VMStateSnapshotTest
+{
+    private static final String PM = "10.60.1.120";
+
+    private PollerStats stats;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        stats = new PollerStats();
+    }
+
+    @Test
+    public void testOnlyChangesArePublished()
+    {
+        VMStateSnapshot snapshot = new VMStateSnapshot(60000, stats);
+
+        assertTrue(snapshot.changed(event(VMEventType.POWER_ON, "vm1")));
+        assertFalse(snapshot.changed(event(VMEventType.POWER_ON, "vm1")));
+        assertTrue(snapshot.changed(event(VMEventType.POWER_OFF, "vm1")));
+        assertTrue(snapshot.changed(event(VMEventType.POWER_OFF, "vm2")));
+
+        assertEquals(stats.getPublishedEvents(), 3);
+        assertEquals(stats.getSuppressedEvents(), 1);
+    }
+
+    @Test
+    public void testForget()
+    {
+        VMStateSnapshot snapshot = new VMStateSnapshot(60000, stats);
+
+        snapshot.changed(event(VMEventType.POWER_ON, "vm1"));
+        snapshot.changed(event(VMEventType.POWER_ON, "vm2"));
+
+        snapshot.forget(PM, "vm1");
+        assertTrue(snapshot.changed(event(VMEventType.POWER_ON, "vm1")));
+        assertFalse(snapshot.changed(event(VMEventType.POWER_ON, "vm2")));
+
+        snapshot.forget(PM);
+        assertTrue(snapshot.changed(event(VMEventType.POWER_ON, "vm2")));
+    }
+
+    @Test
+    public void testResync() throws InterruptedException
+    {
+        VMStateSnapshot snapshot = new VMStateSnapshot(50, stats);
+
+        snapshot.changed(event(VMEventType.POWER_ON, "vm1"));
+        assertFalse(snapshot.changed(event(VMEventType.POWER_ON, "vm1")));
+
+        Thread.sleep(100);
+        assertTrue(snapshot.changed(event(VMEventType.POWER_ON, "vm1")));
+        assertEquals(stats.getResyncs(), 1);
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        VMStateSnapshot snapshot = new VMStateSnapshot(0, stats);
+
+        assertTrue(snapshot.changed(event(VMEventType.POWER_ON, "vm1")));
+        assertTrue(snapshot.changed(event(VMEventType.POWER_ON, "vm1")));
+    }
+
+    private static VMEvent event(final VMEventType type, final String vm)
+    {
+        return new VMEvent(type, PM, vm);
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.vsm.monitor.executor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MonitorSchedulerTest
+{
+    private MonitorScheduler scheduler;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        scheduler = new MonitorScheduler(1, 2, 1, 10);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testPeriodicalExecution() throws Exception
+    {
+        CountingTask task = new CountingTask(3, 0);
+        PeriodicalExecutor executor = new PeriodicalExecutor(task, 10, scheduler);
+
+        executor.start();
+        assertTrue(task.done.await(5, TimeUnit.SECONDS));
+        executor.stop();
+
+        assertEquals(scheduler.getScheduledTasks(), 0);
+    }
+
+    @Test
+    public void testManyTasksWithFewWorkers() throws Exception
+    {
+        CountingTask[] tasks = new CountingTask[10];
+        PeriodicalExecutor[] executors = new PeriodicalExecutor[tasks.length];
+
+        for (int i = 0; i < tasks.length; i++)
+        {
+            tasks[i] = new CountingTask(2, 20);
+            executors[i] = new PeriodicalExecutor(tasks[i], 10, scheduler);
+            executors[i].start();
+        }
+
+        for (CountingTask task : tasks)
+        {
+            assertTrue(task.done.await(10, TimeUnit.SECONDS));
+        }
+
+        for (PeriodicalExecutor executor : executors)
+        {
+            executor.stop();
+        }
+
+        // 2 workers and 1 queued poll: the other tasks must have been delayed
+        assertTrue(scheduler.getRejectedPolls() > 0);
+        assertTrue(scheduler.getMaxLag() > 0);
+    }
+
+    @Test
+    public void testStoppedTaskNotExecuted() throws Exception
+    {
+        CountingTask task = new CountingTask(1, 0);
+        PeriodicalExecutor executor = new PeriodicalExecutor(task, 10, scheduler);
+
+        executor.start();
+        assertTrue(task.done.await(5, TimeUnit.SECONDS));
+        executor.stop();
+
+        int executions = task.executions.get();
+        Thread.sleep(100);
+        assertTrue(task.executions.get() <= executions + 1);
+    }
+
+    @Test
+    public void testSharedSchedulerRestart() throws Exception
+    {
+        MonitorScheduler first = MonitorScheduler.getInstance();
+        MonitorScheduler.shutdown();
+
+        MonitorScheduler second = MonitorScheduler.getInstance();
+        assertNotSame(first, second);
+
+        try
+        {
+            CountingTask task = new CountingTask(1, 0);
+            PeriodicalExecutor executor = new PeriodicalExecutor(task, 10, second);
+
+            executor.start();
+            assertTrue(task.done.await(5, TimeUnit.SECONDS));
+            executor.stop();
+        }
+        finally
+        {
+            MonitorScheduler.shutdown();
+        }
+    }
+
+    private static class CountingTask extends AbstractTask
+    {
+        private final CountDownLatch done;
+
+        private final AtomicInteger executions = new AtomicInteger();
+
+        private final long duration;
+
+        public CountingTask(final int expected, final long duration)
+        {
+            this.done = new CountDownLatch(expected);
+            this.duration = duration;
+        }
+
+        @Override
+        public void execute() throws Exception
+        {
+            executions.incrementAndGet();
+            Thread.sleep(duration);
+            done.countDown();
+        }
+    }
+}
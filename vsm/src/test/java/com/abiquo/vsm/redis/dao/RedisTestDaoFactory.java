@@ -36,6 +36,7 @@ public class RedisTestDaoFactory
     {
         JedisPool pool = new SelectableJedisPool(host, port, database);
         JOhm.setPool(pool);
+        RedisDaoFactory.setPool(pool);
         return pool;
     }
 
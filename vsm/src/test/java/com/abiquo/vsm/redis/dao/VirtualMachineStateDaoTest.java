@@ -0,0 +1,167 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+package com.abiquo.vsm.redis.dao;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import redis.clients.johm.JOhm;
+
+import com.abiquo.vsm.TestBase;
+import com.abiquo.vsm.model.PhysicalMachine;
+import com.abiquo.vsm.model.VirtualMachine;
+import com.abiquo.vsm.redis.dao.VirtualMachineStateDao.Lookup;
+
+/**
+ * Unit tests for the {@link VirtualMachineStateDao} class. The tests use one instance of the
+ * latest redis version, this instance should run at localhost in the default port 6379.
+ */
+public class VirtualMachineStateDaoTest extends TestBase
+{
+    private RedisDao dao;
+
+    private VirtualMachineStateDao stateDao;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        dao = new RedisDao();
+        stateDao = dao.getStateDao();
+    }
+
+    @Test
+    public void test_lookup()
+    {
+        PhysicalMachine machine = dao.save(physicalMachine("10.60.1.79"));
+        VirtualMachine saved = dao.save(virtualMachine(machine, "POWER_ON"));
+
+        Lookup lookup = stateDao.lookup(saved.getName(), "10.60.1.79");
+
+        assertNotNull(lookup.getPhysicalMachine());
+        assertEquals(lookup.getPhysicalMachine().getId(), machine.getId());
+        assertEquals(lookup.getPhysicalMachine().getType(), "KVM");
+
+        VirtualMachine found = lookup.getVirtualMachine();
+        assertNotNull(found);
+        assertEquals(found.getId(), saved.getId());
+        assertEquals(found.getLastKnownState(), "POWER_ON");
+        assertEquals(found.getPhysicalMachine().getId(), machine.getId());
+    }
+
+    @Test
+    public void test_lookupMovedVirtualMachine()
+    {
+        PhysicalMachine origin = dao.save(physicalMachine("10.60.1.79"));
+        PhysicalMachine target = dao.save(physicalMachine("10.60.1.80"));
+        VirtualMachine saved = dao.save(virtualMachine(origin, "POWER_ON"));
+
+        Lookup lookup = stateDao.lookup(saved.getName(), "10.60.1.80");
+
+        assertEquals(lookup.getPhysicalMachine().getId(), target.getId());
+        assertEquals(lookup.getVirtualMachine().getPhysicalMachine().getId(), origin.getId());
+        assertEquals(lookup.getVirtualMachine().getPhysicalMachine().getAddress(), "10.60.1.79");
+    }
+
+    @Test
+    public void test_lookupUnknown()
+    {
+        Lookup lookup = stateDao.lookup("unknown", "10.60.1.79");
+
+        assertNull(lookup.getVirtualMachine());
+        assertNull(lookup.getPhysicalMachine());
+    }
+
+    @Test
+    public void test_compareAndSetState()
+    {
+        PhysicalMachine machine = dao.save(physicalMachine("10.60.1.79"));
+        VirtualMachine saved = dao.save(virtualMachine(machine, "POWER_ON"));
+
+        assertTrue(stateDao.compareAndSetState(saved, "POWER_ON", "POWER_OFF"));
+
+        assertEquals(stateDao.lookup(saved.getName(), "10.60.1.79").getVirtualMachine()
+            .getLastKnownState(), "POWER_OFF");
+        assertEquals(JOhm.get(VirtualMachine.class, saved.getId()).getLastKnownState(),
+            "POWER_OFF");
+        assertEquals(dao.getVirtualMachine(saved.getId()).getLastKnownState(), "POWER_OFF");
+    }
+
+    @Test
+    public void test_compareAndSetStateChanged()
+    {
+        PhysicalMachine machine = dao.save(physicalMachine("10.60.1.79"));
+        VirtualMachine saved = dao.save(virtualMachine(machine, "POWER_ON"));
+
+        assertFalse(stateDao.compareAndSetState(saved, "PAUSED", "POWER_OFF"));
+
+        assertEquals(stateDao.lookup(saved.getName(), "10.60.1.79").getVirtualMachine()
+            .getLastKnownState(), "POWER_ON");
+        assertEquals(JOhm.get(VirtualMachine.class, saved.getId()).getLastKnownState(),
+            "POWER_ON");
+    }
+
+    @Test
+    public void test_migrate()
+    {
+        // Models saved without the index, as the previous versions
+        PhysicalMachine machine = JOhm.save(physicalMachine("10.60.1.79"));
+        VirtualMachine saved = JOhm.save(virtualMachine(machine, "POWER_ON"));
+
+        assertNull(stateDao.lookup(saved.getName(), "10.60.1.79").getVirtualMachine());
+
+        assertEquals(stateDao.migrate(dao), 1);
+
+        Lookup lookup = stateDao.lookup(saved.getName(), "10.60.1.79");
+        assertEquals(lookup.getPhysicalMachine().getId(), machine.getId());
+        assertEquals(lookup.getVirtualMachine().getId(), saved.getId());
+        assertEquals(lookup.getVirtualMachine().getLastKnownState(), "POWER_ON");
+
+        // Already indexed
+        assertEquals(stateDao.migrate(dao), 0);
+    }
+
+    private static PhysicalMachine physicalMachine(final String address)
+    {
+        PhysicalMachine machine = new PhysicalMachine();
+        machine.setAddress(address);
+        machine.setType("KVM");
+        machine.setUsername("thomas.sullivan");
+        machine.setPassword("magnum");
+        return machine;
+    }
+
+    private static VirtualMachine virtualMachine(final PhysicalMachine machine,
+        final String state)
+    {
+        VirtualMachine virtualMachine = new VirtualMachine();
+        virtualMachine.setName(UUID.randomUUID().toString());
+        virtualMachine.setLastKnownState(state);
+        virtualMachine.setPhysicalMachine(machine);
+        return virtualMachine;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Abiquo community edition
+ * cloud management application for hybrid clouds
+ * Copyright (C) 2008-2010 - Abiquo Holdings S.L.
+ *
+ * This application is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU LESSER GENERAL PUBLIC
+ * LICENSE as published by the Free Software Foundation under
+ * version 3 of the License
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * LESSER GENERAL PUBLIC LICENSE v.3 for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA 02111-1307, USA.
+ */
+
+package com.abiquo.vsm.redis.pubsub;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.abiquo.vsm.events.VMEvent;
+import com.abiquo.vsm.events.VMEventType;
+
+public class RedisPublisherTest
+{
+    private RecordingPublisher publisher;
+
+    @AfterMethod
+    public void tearDown()
+    {
+        publisher.release.countDown();
+        publisher.stop();
+    }
+
+    @Test
+    public void testEventsPublishedInOrder() throws Exception
+    {
+        publisher = new RecordingPublisher(100, 1000, false);
+        publisher.release.countDown();
+        publisher.start();
+
+        for (int i = 0; i < 50; i++)
+        {
+            publisher.publishEvent(event(i));
+        }
+
+        publisher.await(50);
+        for (int i = 0; i < 50; i++)
+        {
+            assertEquals(publisher.messages.get(i), "vm" + i + "|POWER_ON|10.60.1.120");
+        }
+        assertEquals(publisher.getPublished(), 50);
+        assertTrue(publisher.getBatches() <= 50);
+    }
+
+    @Test
+    public void testFailedFlushIsDiscarded() throws Exception
+    {
+        publisher = new RecordingPublisher(100, 1000, true);
+        publisher.release.countDown();
+        publisher.start();
+
+        publisher.publishEvent(event(0));
+        publisher.publishEvent(event(1));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (publisher.getFailed() < 2 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+
+        assertEquals(publisher.getFailed(), 2);
+        assertEquals(publisher.getPublished(), 0);
+        assertEquals(publisher.getQueueDepth(), 0);
+    }
+
+    @Test
+    public void testFullBufferRejectsTheEvent() throws Exception
+    {
+        // the publisher thread blocks on the first event, one more fills the buffer
+        publisher = new RecordingPublisher(1, 100, false);
+        publisher.start();
+
+        publisher.publishEvent(event(0));
+        publisher.started.await(5, TimeUnit.SECONDS);
+        publisher.publishEvent(event(1));
+
+        try
+        {
+            publisher.publishEvent(event(2));
+            fail("The buffer is full");
+        }
+        catch (IOException e)
+        {
+            assertEquals(publisher.getOverflows(), 1);
+        }
+
+        publisher.release.countDown();
+        publisher.await(2);
+        assertEquals(publisher.messages.get(0), "vm0|POWER_ON|10.60.1.120");
+        assertEquals(publisher.messages.get(1), "vm1|POWER_ON|10.60.1.120");
+    }
+
+    private static VMEvent event(final int i)
+    {
+        return new VMEvent(VMEventType.POWER_ON, "10.60.1.120", "vm" + i);
+    }
+
+    private static class RecordingPublisher extends RedisPublisher
+    {
+        private final List<String> messages = new CopyOnWriteArrayList<String>();
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final boolean fail;
+
+        public RecordingPublisher(final int bufferSize, final long offerTimeout,
+            final boolean fail)
+        {
+            super(bufferSize, offerTimeout);
+            this.fail = fail;
+        }
+
+        @Override
+        protected void send(final List<PendingEvent> events)
+        {
+            started.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (fail)
+            {
+                throw new RuntimeException("Redis is down");
+            }
+
+            for (PendingEvent event : events)
+            {
+                messages.add(event.message);
+            }
+        }
+
+        public void await(final int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (messages.size() < count && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(messages.size(), count);
+        }
+    }
+}